@@ -14,6 +14,8 @@
  */
 package org.fishwife.jrugged.aspects;
 
+import org.fishwife.jrugged.ExponentialBackoff;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -55,6 +57,34 @@ public @interface Retryable {
      */
     boolean doubleDelay() default false;
 
+    /**
+     * Upper bound in milliseconds on the delay between tries.  Setting it,
+     * or a {@link #jitter()}, switches the method to an
+     * {@link org.fishwife.jrugged.ExponentialBackoff} based on
+     * 'retryDelayMillis'.  With no jitter or full jitter the delay grows
+     * only if 'doubleDelay' is set; with decorrelated jitter it grows by up
+     * to three times per try regardless, up to this bound.  0 bounds the
+     * delay at the longest one 'retryDelayMillis' and 'doubleDelay' alone
+     * would reach within 'maxTries'.
+     * @return the maximum delay in milliseconds.
+     */
+    long maxDelayMillis() default 0;
+
+    /**
+     * Randomization applied to the delay between tries so that callers
+     * failing together do not retry in lockstep.
+     * @return the {@link org.fishwife.jrugged.ExponentialBackoff.Jitter}.
+     */
+    ExponentialBackoff.Jitter jitter() default ExponentialBackoff.Jitter.NONE;
+
+    /**
+     * Name of the {@link org.fishwife.jrugged.RetryBudget} retries are paid
+     * from.  Methods naming the same budget share it; an empty name means
+     * retries are limited only by 'maxTries'.
+     * @return the name of the retry budget.
+     */
+    String retryBudget() default "";
+
     /**
      * Whether the root cause Exception should be thrown, or whether a generic
      * Exception("Call failed n times") should be thrown.
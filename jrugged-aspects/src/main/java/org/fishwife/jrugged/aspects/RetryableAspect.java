@@ -17,11 +17,15 @@ package org.fishwife.jrugged.aspects;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.fishwife.jrugged.ExponentialBackoff;
+import org.fishwife.jrugged.RetryBudget;
 import org.fishwife.jrugged.ServiceRetrier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Surrounds methods decorated with the {@link org.fishwife.jrugged.aspects.Retryable} annotation
@@ -33,10 +37,90 @@ public class RetryableAspect {
     private static final Logger logger =
             LoggerFactory.getLogger(RetryableAspect.class);
 
+    /**
+     * Maps names to RetryBudgets.
+     */
+    private final ConcurrentMap<String, RetryBudget> retryBudgets =
+            new ConcurrentHashMap<String, RetryBudget>();
+
+    /**
+     * Maps annotations to the backoff built from them, so each annotated
+     * method builds its backoff once rather than on every call.
+     */
+    private final ConcurrentMap<Retryable, ExponentialBackoff> backoffs =
+            new ConcurrentHashMap<Retryable, ExponentialBackoff>();
+
     /** Default constructor. */
     public RetryableAspect() {
     }
 
+    /**
+     * Registers the {@link org.fishwife.jrugged.RetryBudget} used by methods
+     * whose {@link org.fishwife.jrugged.aspects.Retryable} annotation names
+     * it, replacing any budget already registered under that name.
+     * @param name the name of the budget.
+     * @param retryBudget the {@link org.fishwife.jrugged.RetryBudget}.
+     */
+    public void setRetryBudget(String name, RetryBudget retryBudget) {
+        retryBudgets.put(name, retryBudget);
+    }
+
+    /**
+     * Returns the named {@link org.fishwife.jrugged.RetryBudget}, creating
+     * one with default settings the first time the name is used.
+     * @param name the name of the budget.
+     * @return the {@link org.fishwife.jrugged.RetryBudget}.
+     */
+    public RetryBudget findRetryBudget(String name) {
+        RetryBudget budget = retryBudgets.get(name);
+        if (budget == null) {
+            RetryBudget created = new RetryBudget();
+            budget = retryBudgets.putIfAbsent(name, created);
+            if (budget == null) {
+                budget = created;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Returns the backoff for the annotated method, building it the
+     * first time the method is called. A 'maxDelayMillis' below
+     * 'retryDelayMillis' is raised to it, so the delay never grows. A
+     * 'maxDelayMillis' of 0 is taken as the longest delay plain backoff
+     * would reach within 'maxTries', so a
+     * {@link org.fishwife.jrugged.ExponentialBackoff.Jitter#DECORRELATED}
+     * delay, which otherwise grows threefold per try, stays bounded too.
+     */
+    ExponentialBackoff findBackoff(Retryable retryableAnnotation, int maxTries,
+            int retryDelayMillies, long maxDelayMillis, boolean doubleDelay,
+            ExponentialBackoff.Jitter jitter) {
+        ExponentialBackoff backoff = backoffs.get(retryableAnnotation);
+        if (backoff == null) {
+            long cap = (maxDelayMillis > 0)
+                    ? Math.max(maxDelayMillis, retryDelayMillies)
+                    : longestPlainDelay(maxTries, retryDelayMillies, doubleDelay);
+            ExponentialBackoff created = new ExponentialBackoff(retryDelayMillies,
+                    cap, doubleDelay ? 2.0 : 1.0, jitter);
+            backoff = backoffs.putIfAbsent(retryableAnnotation, created);
+            if (backoff == null) {
+                backoff = created;
+            }
+        }
+        return backoff;
+    }
+
+    /* The delay before the last try, without jitter. */
+    private static long longestPlainDelay(int maxTries, long retryDelayMillies, boolean doubleDelay) {
+        long delay = retryDelayMillies;
+        if (doubleDelay) {
+            for (int retry = 2; retry < maxTries && delay <= Long.MAX_VALUE / 2; retry++) {
+                delay *= 2;
+            }
+        }
+        return delay;
+    }
+
     /**
      * Runs a method call with retries.
      * @param pjp a {@link ProceedingJoinPoint} representing an annotated
@@ -53,6 +137,9 @@ public class RetryableAspect {
         final Class<? extends Throwable>[] retryOn = retryableAnnotation.retryOn();
         final boolean doubleDelay = retryableAnnotation.doubleDelay();
         final boolean throwCauseException = retryableAnnotation.throwCauseException();
+        final long maxDelayMillis = retryableAnnotation.maxDelayMillis();
+        final ExponentialBackoff.Jitter jitter = retryableAnnotation.jitter();
+        final String retryBudget = retryableAnnotation.retryBudget();
 
         if (logger.isDebugEnabled()) {
             logger.debug("Have @Retryable method wrapping call on method {} of target object {}",
@@ -65,6 +152,14 @@ public class RetryableAspect {
         ServiceRetrier serviceRetrier =
                 new ServiceRetrier(retryDelayMillies, maxTries, doubleDelay, throwCauseException, retryOn);
 
+        if (maxDelayMillis > 0 || jitter != ExponentialBackoff.Jitter.NONE) {
+            serviceRetrier.setBackoff(findBackoff(retryableAnnotation, maxTries,
+                    retryDelayMillies, maxDelayMillis, doubleDelay, jitter));
+        }
+        if (retryBudget.length() > 0) {
+            serviceRetrier.setRetryBudget(findRetryBudget(retryBudget));
+        }
+
         return serviceRetrier.invoke(
                 new Callable<Object>() {
                     public Object call() throws Exception {
@@ -16,10 +16,16 @@ package org.fishwife.jrugged.aspects;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.Signature;
+import org.fishwife.jrugged.ExponentialBackoff;
+import org.fishwife.jrugged.RetryBudget;
 import org.junit.Before;
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
@@ -46,6 +52,9 @@ public class TestRetryableAspect {
         expect(mockAnnotation.retryOn()).andReturn(retryOn);
         expect(mockAnnotation.doubleDelay()).andReturn(true);
         expect(mockAnnotation.throwCauseException()).andReturn(true);
+        expect(mockAnnotation.maxDelayMillis()).andReturn(0L).anyTimes();
+        expect(mockAnnotation.jitter()).andReturn(ExponentialBackoff.Jitter.NONE).anyTimes();
+        expect(mockAnnotation.retryBudget()).andReturn("").anyTimes();
         replay(mockAnnotation);
 
         mockSignature = createMock(Signature.class);
@@ -111,6 +120,97 @@ public class TestRetryableAspect {
         verify(mockSignature);
     }
 
+    @Test
+    public void testCall_RetriesStopWhenBudgetIsExhausted() throws Throwable {
+        Retryable budgeted = createMock(Retryable.class);
+        expect(budgeted.maxTries()).andReturn(3).anyTimes();
+        expect(budgeted.retryDelayMillis()).andReturn(0).anyTimes();
+        @SuppressWarnings("unchecked")
+        Class<Throwable>[] retryOn = new Class[0];
+        expect(budgeted.retryOn()).andReturn(retryOn).anyTimes();
+        expect(budgeted.doubleDelay()).andReturn(false).anyTimes();
+        expect(budgeted.throwCauseException()).andReturn(true).anyTimes();
+        expect(budgeted.maxDelayMillis()).andReturn(0L).anyTimes();
+        expect(budgeted.jitter()).andReturn(ExponentialBackoff.Jitter.FULL).anyTimes();
+        expect(budgeted.retryBudget()).andReturn("backend").anyTimes();
+        replay(budgeted);
+
+        RetryBudget budget = new RetryBudget(10, 1);
+        aspect.setRetryBudget("backend", budget);
+        assertSame(budget, aspect.findRetryBudget("backend"));
+
+        Exception exception = new Exception();
+        ProceedingJoinPoint mockPjp = createPjpMock(mockSignature);
+        expect(mockPjp.proceed()).andThrow(exception).times(2);
+        replay(mockPjp);
+
+        try {
+            aspect.call(mockPjp, budgeted);
+            fail("should have thrown");
+        } catch (Exception expected) {
+            assertSame(exception, expected);
+        }
+
+        verify(mockPjp);
+        assertEquals(0.0, budget.getAvailableRetries(), 0.0);
+        assertEquals(1, budget.getDeniedCount());
+    }
+
+    @Test
+    public void testCall_MaxDelayBelowRetryDelayIsRaisedToIt() throws Throwable {
+        Retryable capped = createMock(Retryable.class);
+        expect(capped.maxTries()).andReturn(2).anyTimes();
+        expect(capped.retryDelayMillis()).andReturn(5).anyTimes();
+        @SuppressWarnings("unchecked")
+        Class<Throwable>[] retryOn = new Class[0];
+        expect(capped.retryOn()).andReturn(retryOn).anyTimes();
+        expect(capped.doubleDelay()).andReturn(true).anyTimes();
+        expect(capped.throwCauseException()).andReturn(true).anyTimes();
+        expect(capped.maxDelayMillis()).andReturn(1L).anyTimes();
+        expect(capped.jitter()).andReturn(ExponentialBackoff.Jitter.NONE).anyTimes();
+        expect(capped.retryBudget()).andReturn("").anyTimes();
+        replay(capped);
+
+        for (int i = 0; i < 2; i++) {
+            ProceedingJoinPoint mockPjp = createPjpMock(mockSignature);
+            expect(mockPjp.proceed()).andThrow(new Exception()).once();
+            expect(mockPjp.proceed()).andReturn("result").once();
+            replay(mockPjp);
+
+            assertEquals("result", aspect.call(mockPjp, capped));
+
+            verify(mockPjp);
+        }
+    }
+
+    @Test
+    public void testFindBackoff_DecorrelatedWithoutMaxDelayIsBoundedByDoubling() {
+        ExponentialBackoff backoff = aspect.findBackoff(mockAnnotation, 4, 10, 0L, true,
+                ExponentialBackoff.Jitter.DECORRELATED);
+        assertEquals(40L, backoff.getMaxDelayMillis());
+        long previous = 0;
+        for (int retry = 1; retry < 10; retry++) {
+            previous = backoff.nextDelayMillis(retry, previous);
+            assertTrue(previous <= 40L);
+        }
+    }
+
+    @Test
+    public void testFindBackoff_DecorrelatedWithoutDoublingStaysAtRetryDelay() {
+        ExponentialBackoff backoff = aspect.findBackoff(mockAnnotation, 4, 10, 0L, false,
+                ExponentialBackoff.Jitter.DECORRELATED);
+        assertEquals(10L, backoff.getMaxDelayMillis());
+        assertEquals(10L, backoff.nextDelayMillis(3, 10L));
+    }
+
+    @Test
+    public void testFindRetryBudgetCreatesOneBudgetPerName() {
+        RetryBudget budget = aspect.findRetryBudget("backend");
+
+        assertSame(budget, aspect.findRetryBudget("backend"));
+        assertNotSame(budget, aspect.findRetryBudget("other"));
+    }
+
     private static ProceedingJoinPoint createPjpMock(Signature mockSignature) {
         ProceedingJoinPoint mockPjp = createMock(ProceedingJoinPoint.class);
         // XXX: the following two interactions are for logging, so they may happen
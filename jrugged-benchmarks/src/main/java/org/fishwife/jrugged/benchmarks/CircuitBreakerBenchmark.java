@@ -0,0 +1,150 @@
+/* CircuitBreakerBenchmark.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.fishwife.jrugged.CircuitBreaker;
+import org.fishwife.jrugged.CircuitBreakerException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the compare-and-set {@link CircuitBreaker} with the previous
+ * lock-based implementation ({@link LockingCircuitBreaker}), both on
+ * the CLOSED fast path and while a tripped breaker is past its cooldown
+ * and every caller is racing for the test request. Run with, e.g.,
+ * <code>java -jar target/benchmarks.jar CircuitBreakerBenchmark -t 64</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class CircuitBreakerBenchmark {
+
+    private static final Callable<Object> SUCCEED = new Callable<Object>() {
+        public Object call() {
+            return Boolean.TRUE;
+        }
+    };
+
+    private CircuitBreaker closed;
+    private LockingCircuitBreaker lockingClosed;
+    private CircuitBreaker halfClosed;
+    private LockingCircuitBreaker lockingHalfClosed;
+
+    @Setup
+    public void setUp() throws Exception {
+        closed = new CircuitBreaker("closed");
+        lockingClosed = new LockingCircuitBreaker();
+
+        // A test request that never completes keeps these breakers
+        // HALF_CLOSED, so every invocation measures the contended
+        // admission check that ends in a rejection.
+        halfClosed = new CircuitBreaker("halfClosed");
+        halfClosed.setResetMillis(0L);
+        halfClosed.trip();
+        holdTestRequest(new Callable<Object>() {
+            public Object call() throws Exception {
+                return halfClosed.invoke(HANG);
+            }
+        });
+
+        lockingHalfClosed = new LockingCircuitBreaker();
+        lockingHalfClosed.setResetMillis(0L);
+        lockingHalfClosed.trip();
+        holdTestRequest(new Callable<Object>() {
+            public Object call() throws Exception {
+                return lockingHalfClosed.invoke(HANG);
+            }
+        });
+    }
+
+    @Benchmark
+    public Object closedCas() throws Exception {
+        return closed.invoke(SUCCEED);
+    }
+
+    @Benchmark
+    public Object closedLocking() throws Exception {
+        return lockingClosed.invoke(SUCCEED);
+    }
+
+    @Benchmark
+    public Object halfClosedCas() throws Exception {
+        try {
+            return halfClosed.invoke(SUCCEED);
+        } catch (CircuitBreakerException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object halfClosedLocking() throws Exception {
+        try {
+            return lockingHalfClosed.invoke(SUCCEED);
+        } catch (CircuitBreakerException e) {
+            return e;
+        }
+    }
+
+    private static void holdTestRequest(final Callable<Object> invocation)
+            throws InterruptedException {
+        final CountDownLatch admitted = new CountDownLatch(1);
+        HELD.set(admitted);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    invocation.call();
+                } catch (Exception e) {
+                    // interrupted when the benchmark JVM exits
+                }
+            }
+        }, "held-test-request");
+        t.setDaemon(true);
+        t.start();
+        admitted.await();
+    }
+
+    private static final AtomicReference<CountDownLatch> HELD =
+        new AtomicReference<CountDownLatch>();
+
+    /* Only ever admitted as the single test request; signals that it got
+     * in and then parks its (daemon) thread for the rest of the run. */
+    private static final Callable<Object> HANG = new Callable<Object>() {
+        public Object call() throws Exception {
+            HELD.get().countDown();
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+        }
+    };
+}
@@ -0,0 +1,154 @@
+/* ClosureServiceWrapperChain.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.InvocationResult;
+import org.fishwife.jrugged.ServiceWrapper;
+
+/**
+ * A copy of how {@link org.fishwife.jrugged.ServiceWrapperChain} ran
+ * calls before it was composed up front: a fresh closure per wrapper on
+ * every call, and every exception on the {@link Runnable} path wrapped
+ * in a <code>RuntimeException</code>; {@link #tryInvoke(Callable)} and
+ * {@link #invokeAsync(Supplier)} likewise recurse by index with a fresh
+ * closure per wrapper. Kept only as a baseline for
+ * {@link ServiceWrapperChainBenchmark}.
+ */
+public class ClosureServiceWrapperChain implements ServiceWrapper {
+
+    private List<ServiceWrapper> wrappers;
+
+    public ClosureServiceWrapperChain(Collection<ServiceWrapper> wrappers) {
+       ArrayList<ServiceWrapper> rev = new ArrayList<ServiceWrapper>();
+       for(ServiceWrapper wrapper : wrappers) {
+           rev.add(0, wrapper);
+       }
+       this.wrappers = rev;
+    }
+
+    private <T> Callable<T> wrap(final Callable<T> c, final ServiceWrapper wrapper) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                return wrapper.invoke(c);
+            }
+        };
+    }
+
+    private Runnable wrap(final Runnable r, final ServiceWrapper wrapper) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    wrapper.invoke(r);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    public <T> T invoke(Callable<T> c) throws Exception {
+        for(ServiceWrapper wrapper : wrappers) {
+            c = wrap(c, wrapper);
+        }
+        return c.call();
+    }
+
+    public void invoke(Runnable r) throws Exception {
+        for(ServiceWrapper wrapper : wrappers) {
+            r = wrap(r, wrapper);
+        }
+        r.run();
+    }
+
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        invoke(r);
+        return result;
+    }
+
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        return tryInvoke(c, wrappers.size() - 1);
+    }
+
+    private <T> InvocationResult<T> tryInvoke(final Callable<T> c, final int index) {
+        if (index < 0) {
+            return InvocationResult.of(c);
+        }
+
+        InvocationResult<T> result = wrappers.get(index).tryInvoke(new Callable<T>() {
+            public T call() throws Exception {
+                InvocationResult<T> inner = tryInvoke(c, index - 1);
+                if (inner.isRejected()) {
+                    throw INNER_REJECTION;
+                }
+                if (inner.isFailed()) {
+                    throw (inner.getCause() != null) ? inner.getCause() : INNER_FAILURE;
+                }
+                return inner.getValue();
+            }
+        });
+
+        if (result.isFailed()) {
+            if (result.getCause() == INNER_REJECTION) {
+                return InvocationResult.rejected();
+            }
+            if (result.getCause() == INNER_FAILURE) {
+                return InvocationResult.failed(null);
+            }
+        }
+        return result;
+    }
+
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        return invokeAsync(s, wrappers.size() - 1);
+    }
+
+    private <T> CompletionStage<T> invokeAsync(final Supplier<CompletionStage<T>> s, final int index) {
+        if (index < 0) {
+            try {
+                return s.get();
+            } catch (RuntimeException e) {
+                CompletableFuture<T> failed = new CompletableFuture<T>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        return wrappers.get(index).invokeAsync(new Supplier<CompletionStage<T>>() {
+            public CompletionStage<T> get() {
+                return invokeAsync(s, index - 1);
+            }
+        });
+    }
+
+    private static final ChainSignal INNER_REJECTION = new ChainSignal("rejected by inner wrapper");
+    private static final ChainSignal INNER_FAILURE = new ChainSignal("failed in inner wrapper");
+
+    private static final class ChainSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChainSignal(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
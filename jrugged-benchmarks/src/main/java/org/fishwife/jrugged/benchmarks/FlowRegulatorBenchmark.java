@@ -0,0 +1,80 @@
+/* FlowRegulatorBenchmark.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.fishwife.jrugged.ConstantFlowRegulator;
+import org.fishwife.jrugged.TokenBucketFlowRegulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the admission check of the synchronized {@link
+ * ConstantFlowRegulator} with the lock-free {@link
+ * TokenBucketFlowRegulator}, with every available thread calling
+ * through one regulator. Both are set to a rate far below what the
+ * threads offer, so most calls are rejected and the measurement is
+ * dominated by the check itself. Run with, e.g.,
+ * <code>java -jar target/benchmarks.jar FlowRegulatorBenchmark</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class FlowRegulatorBenchmark {
+
+    private static final int RATE = 1000;
+
+    private static final Callable<Object> NOOP = new Callable<Object>() {
+        public Object call() {
+            return null;
+        }
+    };
+
+    private ConstantFlowRegulator constant;
+    private TokenBucketFlowRegulator tokenBucket;
+
+    @Setup
+    public void setUp() {
+        constant = new ConstantFlowRegulator(RATE);
+        tokenBucket = new TokenBucketFlowRegulator(RATE, 1);
+    }
+
+    @Benchmark
+    public Object constant() {
+        return constant.tryInvoke(NOOP);
+    }
+
+    @Benchmark
+    public Object tokenBucket() {
+        return tokenBucket.tryInvoke(NOOP);
+    }
+}
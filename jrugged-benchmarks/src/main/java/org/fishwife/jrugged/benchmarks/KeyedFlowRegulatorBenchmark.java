@@ -0,0 +1,106 @@
+/* KeyedFlowRegulatorBenchmark.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.fishwife.jrugged.KeyedFlowRegulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link KeyedFlowRegulator#tryAcquire(Object)} with keys drawn
+ * from a Zipf distribution, as tenant traffic typically is: a few hot
+ * keys that are mostly rejected and a long tail of cold ones that are
+ * mostly admitted, created and, with a short idle time, evicted again.
+ * Run with, e.g.,
+ * <code>java -jar target/benchmarks.jar KeyedFlowRegulatorBenchmark</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class KeyedFlowRegulatorBenchmark {
+
+    private static final int SAMPLES = 1 << 20;
+
+    @Param({ "1000000" })
+    public int keys;
+
+    @Param({ "1.1" })
+    public double skew;
+
+    /** Whether a global limit sits above the per-key limits. */
+    @Param({ "false", "true" })
+    public boolean global;
+
+    private Integer[] sample;
+    private KeyedFlowRegulator<Integer> regulator;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = new Random().nextInt(SAMPLES);
+    }
+
+    @Setup
+    public void setUp() {
+        sample = zipfSample(keys, skew, SAMPLES, new Random(42));
+        regulator = global
+            ? new KeyedFlowRegulator<Integer>(100, 10, 1000000, 1000)
+            : new KeyedFlowRegulator<Integer>(100, 10);
+        regulator.setIdleMillis(1000L);
+    }
+
+    @Benchmark
+    public boolean zipfKeys(Cursor cursor) {
+        int i = cursor.next;
+        cursor.next = (i + 1) & (SAMPLES - 1);
+        return regulator.tryAcquire(sample[i]);
+    }
+
+    /* Draws by inverting the cumulative distribution; the keys are
+     * boxed up front so the benchmark measures the regulator only. */
+    private static Integer[] zipfSample(int n, double s, int count, Random random) {
+        double[] cumulative = new double[n];
+        double total = 0.0;
+        for (int k = 0; k < n; k++) {
+            total += 1.0 / Math.pow(k + 1, s);
+            cumulative[k] = total;
+        }
+        Integer[] result = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            result[i] = Integer.valueOf((k >= 0) ? k : Math.min(n - 1, -k - 1));
+        }
+        return result;
+    }
+}
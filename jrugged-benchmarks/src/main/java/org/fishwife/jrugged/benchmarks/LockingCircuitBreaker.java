@@ -0,0 +1,116 @@
+/* LockingCircuitBreaker.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fishwife.jrugged.CircuitBreakerException;
+import org.fishwife.jrugged.ServiceStatus;
+import org.fishwife.jrugged.Status;
+
+/**
+ * A trimmed-down copy of the admission logic {@link
+ * org.fishwife.jrugged.CircuitBreaker} used before its state was packed
+ * into a single compare-and-set word: a volatile enum, separate flags
+ * and a <code>synchronized</code> HALF_CLOSED check. Kept only as a
+ * baseline for {@link CircuitBreakerBenchmark}.
+ */
+public class LockingCircuitBreaker {
+
+    private enum BreakerState { OPEN, HALF_CLOSED, CLOSED }
+
+    private volatile BreakerState state = BreakerState.CLOSED;
+    private final AtomicLong lastFailure = new AtomicLong(0L);
+    private final AtomicLong resetMillis = new AtomicLong(15 * 1000L);
+    private boolean isHardTrip;
+    private boolean byPass = false;
+    private boolean isAttemptLive = false;
+    private volatile ServiceStatus lastStatus;
+
+    public <V> V invoke(Callable<V> c) throws Exception {
+        if (!byPass) {
+            if (!allowRequest()) {
+                throw new CircuitBreakerException();
+            }
+            try {
+                isAttemptLive = true;
+                V result = c.call();
+                close();
+                return result;
+            } catch (Exception cause) {
+                trip();
+                throw cause;
+            }
+        }
+        return c.call();
+    }
+
+    public void trip() {
+        state = BreakerState.OPEN;
+        lastFailure.set(System.currentTimeMillis());
+        isAttemptLive = false;
+    }
+
+    public void setResetMillis(long l) {
+        resetMillis.set(l);
+    }
+
+    protected void close() {
+        state = BreakerState.CLOSED;
+        isAttemptLive = false;
+        // the original notified listeners with a freshly computed status
+        lastStatus = getServiceStatus();
+    }
+
+    public ServiceStatus getServiceStatus() {
+        boolean canSendProbeRequest = !isHardTrip && lastFailure.get() > 0
+            && allowRequest();
+
+        if (byPass) {
+            return new ServiceStatus("locking", Status.DEGRADED, "Bypassed");
+        }
+
+        switch(state) {
+            case OPEN:
+                return (canSendProbeRequest ?
+                        new ServiceStatus("locking", Status.DEGRADED, "Send Probe Request")
+                        : new ServiceStatus("locking", Status.DOWN, "Open"));
+            case HALF_CLOSED: return new ServiceStatus("locking", Status.DEGRADED, "Half Closed");
+            case CLOSED:
+            default:
+                return new ServiceStatus("locking", Status.UP);
+        }
+    }
+
+    private synchronized boolean canAttempt() {
+        return BreakerState.HALF_CLOSED == state && !isAttemptLive;
+    }
+
+    protected boolean allowRequest() {
+        if (isHardTrip) {
+            return false;
+        } else if (BreakerState.CLOSED == state) {
+            return true;
+        }
+        if (BreakerState.OPEN == state
+                && System.currentTimeMillis() - lastFailure.get() >= resetMillis.get()) {
+            state = BreakerState.HALF_CLOSED;
+        }
+        return canAttempt();
+    }
+}
@@ -0,0 +1,147 @@
+/* RejectionBenchmark.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fishwife.jrugged.CircuitBreaker;
+import org.fishwife.jrugged.CircuitBreakerException;
+import org.fishwife.jrugged.CircuitBreakerExceptionMapper;
+import org.fishwife.jrugged.ConstantFlowRegulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast an OPEN {@link CircuitBreaker} and a saturated
+ * {@link ConstantFlowRegulator} can turn calls away, with a freshly
+ * constructed exception per rejection versus the fast-rejection mode's
+ * shared, stackless instance. Run with, e.g.,
+ * <code>java -jar target/benchmarks.jar RejectionBenchmark</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class RejectionBenchmark {
+
+    private static final Runnable NOOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private static final CircuitBreakerExceptionMapper<IllegalStateException> MAPPER =
+        new CircuitBreakerExceptionMapper<IllegalStateException>() {
+            public IllegalStateException map(CircuitBreaker breaker, CircuitBreakerException e) {
+                return new IllegalStateException("service unavailable", e);
+            }
+        };
+
+    private CircuitBreaker openDefault;
+    private CircuitBreaker openFast;
+    private CircuitBreaker mappedDefault;
+    private CircuitBreaker mappedFast;
+    private ConstantFlowRegulator regulatorDefault;
+    private ConstantFlowRegulator regulatorFast;
+
+    @Setup
+    public void setUp() throws Exception {
+        openDefault = openBreaker("openDefault", false, null);
+        openFast = openBreaker("openFast", true, null);
+        mappedDefault = openBreaker("mappedDefault", false, MAPPER);
+        mappedFast = openBreaker("mappedFast", true, MAPPER);
+        regulatorDefault = saturatedRegulator(false);
+        regulatorFast = saturatedRegulator(true);
+    }
+
+    @Benchmark
+    public Object breakerDefault() {
+        return rejectedBy(openDefault);
+    }
+
+    @Benchmark
+    public Object breakerFast() {
+        return rejectedBy(openFast);
+    }
+
+    @Benchmark
+    public Object breakerMappedDefault() {
+        return rejectedBy(mappedDefault);
+    }
+
+    @Benchmark
+    public Object breakerMappedFast() {
+        return rejectedBy(mappedFast);
+    }
+
+    @Benchmark
+    public Object regulatorDefault() {
+        return rejectedBy(regulatorDefault);
+    }
+
+    @Benchmark
+    public Object regulatorFast() {
+        return rejectedBy(regulatorFast);
+    }
+
+    private static CircuitBreaker openBreaker(String name, boolean fast,
+            CircuitBreakerExceptionMapper<? extends Exception> mapper) {
+        CircuitBreaker breaker = new CircuitBreaker(name, mapper);
+        breaker.setResetMillis(Long.MAX_VALUE / 2);
+        breaker.setFastRejection(fast);
+        breaker.trip();
+        return breaker;
+    }
+
+    /* At one request per second, all but one call per second is
+     * rejected, so the measurement is dominated by rejections. */
+    private static ConstantFlowRegulator saturatedRegulator(boolean fast) throws Exception {
+        ConstantFlowRegulator regulator = new ConstantFlowRegulator(1);
+        regulator.setFastRejection(fast);
+        regulator.invoke(NOOP);
+        return regulator;
+    }
+
+    private static Object rejectedBy(CircuitBreaker breaker) {
+        try {
+            breaker.invoke(NOOP);
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static Object rejectedBy(ConstantFlowRegulator regulator) {
+        try {
+            regulator.invoke(NOOP);
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/* ServiceWrapperChainBenchmark.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.CircuitBreaker;
+import org.fishwife.jrugged.ConstantFlowRegulator;
+import org.fishwife.jrugged.InvocationResult;
+import org.fishwife.jrugged.PerformanceMonitor;
+import org.fishwife.jrugged.RequestCounter;
+import org.fishwife.jrugged.ServiceRetrier;
+import org.fishwife.jrugged.ServiceWrapper;
+import org.fishwife.jrugged.ServiceWrapperChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the composed {@link ServiceWrapperChain} with the
+ * closure-per-call {@link ClosureServiceWrapperChain} it replaced, on a
+ * chain of five pass-through wrappers (where the chain's own overhead is
+ * all there is to measure) and on the five-wrapper chain of a typical
+ * client: monitor, breaker, retrier, regulator and counter, through
+ * <code>invoke</code>, <code>tryInvoke</code> and
+ * <code>invokeAsync</code>. Run with
+ * <code>-prof gc</code> to see the allocation per call, e.g.,
+ * <code>java -jar target/benchmarks.jar ServiceWrapperChainBenchmark -prof gc</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ServiceWrapperChainBenchmark {
+
+    private static final Object RESULT = new Object();
+
+    private static final Callable<Object> SERVICE = new Callable<Object>() {
+        public Object call() {
+            return RESULT;
+        }
+    };
+
+    private static final Runnable TASK = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private static final CompletionStage<Object> DONE = CompletableFuture.completedFuture(RESULT);
+
+    private static final Supplier<CompletionStage<Object>> ASYNC_SERVICE =
+        new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return DONE;
+            }
+        };
+
+    private ServiceWrapper composedPassThrough;
+    private ServiceWrapper closurePassThrough;
+    private ServiceWrapper composedClient;
+    private ServiceWrapper closureClient;
+
+    @Setup
+    public void setUp() {
+        List<ServiceWrapper> passThrough = Arrays.<ServiceWrapper>asList(
+            new PassThrough(), new PassThrough(), new PassThrough(),
+            new PassThrough(), new PassThrough());
+        composedPassThrough = new ServiceWrapperChain(passThrough);
+        closurePassThrough = new ClosureServiceWrapperChain(passThrough);
+
+        List<ServiceWrapper> client = Arrays.<ServiceWrapper>asList(
+            new PerformanceMonitor(), new CircuitBreaker("benchmark"),
+            new ServiceRetrier(0, 3), new ConstantFlowRegulator(), new RequestCounter());
+        composedClient = new ServiceWrapperChain(client);
+        closureClient = new ClosureServiceWrapperChain(client);
+    }
+
+    @Benchmark
+    public Object composedPassThrough() throws Exception {
+        return composedPassThrough.invoke(SERVICE);
+    }
+
+    @Benchmark
+    public Object closurePassThrough() throws Exception {
+        return closurePassThrough.invoke(SERVICE);
+    }
+
+    @Benchmark
+    public Object composedPassThroughRunnable() throws Exception {
+        return composedPassThrough.invoke(TASK, RESULT);
+    }
+
+    @Benchmark
+    public Object closurePassThroughRunnable() throws Exception {
+        return closurePassThrough.invoke(TASK, RESULT);
+    }
+
+    @Benchmark
+    public Object composedClient() throws Exception {
+        return composedClient.invoke(SERVICE);
+    }
+
+    @Benchmark
+    public Object closureClient() throws Exception {
+        return closureClient.invoke(SERVICE);
+    }
+
+    @Benchmark
+    public InvocationResult<Object> composedPassThroughTryInvoke() {
+        return composedPassThrough.tryInvoke(SERVICE);
+    }
+
+    @Benchmark
+    public InvocationResult<Object> closurePassThroughTryInvoke() {
+        return closurePassThrough.tryInvoke(SERVICE);
+    }
+
+    @Benchmark
+    public InvocationResult<Object> composedClientTryInvoke() {
+        return composedClient.tryInvoke(SERVICE);
+    }
+
+    @Benchmark
+    public InvocationResult<Object> closureClientTryInvoke() {
+        return closureClient.tryInvoke(SERVICE);
+    }
+
+    @Benchmark
+    public CompletionStage<Object> composedPassThroughAsync() {
+        return composedPassThrough.invokeAsync(ASYNC_SERVICE);
+    }
+
+    @Benchmark
+    public CompletionStage<Object> closurePassThroughAsync() {
+        return closurePassThrough.invokeAsync(ASYNC_SERVICE);
+    }
+
+    @Benchmark
+    public CompletionStage<Object> composedClientAsync() {
+        return composedClient.invokeAsync(ASYNC_SERVICE);
+    }
+
+    @Benchmark
+    public CompletionStage<Object> closureClientAsync() {
+        return closureClient.invokeAsync(ASYNC_SERVICE);
+    }
+
+    /* Does nothing but call through, so only the chain costs anything. */
+    private static final class PassThrough implements ServiceWrapper {
+        public <T> T invoke(Callable<T> c) throws Exception {
+            return c.call();
+        }
+
+        public void invoke(Runnable r) throws Exception {
+            r.run();
+        }
+
+        public <T> T invoke(Runnable r, T result) throws Exception {
+            r.run();
+            return result;
+        }
+
+        public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+            return InvocationResult.of(c);
+        }
+
+        public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+            return s.get();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* AsyncNotificationDispatcher.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link Executor} that runs tasks one at a time on a single daemon
+ * thread, fed from a bounded queue. Submitting a task never blocks: if the
+ * queue is full the task is dropped and counted instead. This makes it
+ * suitable for delivering {@link CircuitBreaker} state-change notifications
+ * (see {@link CircuitBreaker#setNotificationDispatcher(Executor)}), where
+ * a slow listener must not hold up the calls going through the breaker.
+ * Exceptions thrown by tasks are logged and do not stop the dispatcher.
+ */
+public class AsyncNotificationDispatcher implements Executor {
+
+    /** Default number of pending tasks held before new ones are dropped. */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BlockingQueue<Runnable> queue;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread dispatcherThread;
+    private volatile boolean running = true;
+
+    /** Creates a dispatcher holding up to {@link #DEFAULT_QUEUE_SIZE}
+     *  pending tasks. */
+    public AsyncNotificationDispatcher() {
+        this(DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a dispatcher with the given queue capacity.
+     * @param queueSize maximum number of pending tasks
+     * @throws IllegalArgumentException if <code>queueSize</code> is
+     *   less than 1
+     */
+    public AsyncNotificationDispatcher(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be at least 1");
+        }
+        queue = new ArrayBlockingQueue<Runnable>(queueSize);
+        dispatcherThread = new Thread(new Runnable() {
+            public void run() {
+                dispatch();
+            }
+        }, "jrugged-notification-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Queues the task for the dispatcher thread. Returns immediately;
+     * if the queue is full or the dispatcher has been shut down the
+     * task is discarded and {@link #getDroppedCount()} is incremented.
+     * @param task the work to run
+     */
+    public void execute(Runnable task) {
+        if (!running || !queue.offer(task)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of tasks discarded because the queue was full
+     * or the dispatcher was shut down.
+     * @return long
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run.
+     * @return int
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the dispatcher thread. Tasks still in the queue are
+     * discarded, and tasks submitted afterwards are counted as dropped.
+     */
+    public void shutdown() {
+        running = false;
+        dispatcherThread.interrupt();
+    }
+
+    private void dispatch() {
+        while (running) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Notification task failed", e);
+            }
+        }
+        queue.clear();
+    }
+}
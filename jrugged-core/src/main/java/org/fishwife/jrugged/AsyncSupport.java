@@ -0,0 +1,173 @@
+/* AsyncSupport.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel;
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+
+/**
+ * Helpers shared by the {@link CompletionStage}-based
+ * <code>invokeAsync</code> methods. Timeouts and delayed starts are
+ * driven by one shared {@link HashedTimingWheel} and its single daemon
+ * ticker thread, so waiting for a slow call or for a permit never ties
+ * up a thread of its own, and pending timeouts cost O(1) to add and
+ * cancel however many there are.
+ */
+final class AsyncSupport {
+
+    private AsyncSupport() { }
+
+    /** Created on first use, so callers that never set a timeout or
+     *  pace a call never start the timer thread. */
+    private static final class TimerHolder {
+        static final HashedTimingWheel TIMER = new HashedTimingWheel("jrugged-async-timer");
+    }
+
+    /**
+     * Returns a stage that has already failed with the given cause.
+     */
+    static <T> CompletionStage<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * Starts the asynchronous call, turning anything thrown while
+     * starting it (or a <code>null</code> stage) into a failed stage.
+     */
+    static <T> CompletionStage<T> start(Supplier<CompletionStage<T>> supplier) {
+        try {
+            CompletionStage<T> stage = supplier.get();
+            if (stage == null) {
+                return failed(new NullPointerException("supplier returned a null CompletionStage"));
+            }
+            return stage;
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Returns a stage that mirrors <code>stage</code> but fails with a
+     * {@link TimeLimitExceededException} if it has not completed within
+     * the given time. A non-positive timeout returns <code>stage</code>
+     * itself.
+     */
+    static <T> CompletionStage<T> withTimeout(CompletionStage<T> stage,
+            long timeout, TimeUnit unit) {
+        return withTimeout(stage, timeout, unit, false);
+    }
+
+    /**
+     * Like {@link #withTimeout(CompletionStage, long, TimeUnit)}, but
+     * optionally also cancels <code>stage</code> when it times out.
+     */
+    static <T> CompletionStage<T> withTimeout(final CompletionStage<T> stage,
+            final long timeout, final TimeUnit unit, final boolean cancelOnTimeout) {
+        if (timeout <= 0) {
+            return stage;
+        }
+
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        // Whichever of the timer and the stage sets this first decides the
+        // outcome, so a timed-out stage is cancelled before the caller sees
+        // the timeout without its cancellation overriding it.
+        final AtomicBoolean decided = new AtomicBoolean();
+        final Timeout timer = TimerHolder.TIMER.schedule(new Runnable() {
+            public void run() {
+                if (decided.compareAndSet(false, true)) {
+                    if (cancelOnTimeout) {
+                        cancel(stage);
+                    }
+                    result.completeExceptionally(new TimeLimitExceededException(timeout, unit));
+                }
+            }
+        }, timeout, unit);
+
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                if (!decided.compareAndSet(false, true)) {
+                    return;
+                }
+                timer.cancel();
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs <code>task</code> on the shared timer thread after the given
+     * delay. The task should only start work, not do it.
+     */
+    static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return TimerHolder.TIMER.schedule(task, delay, unit);
+    }
+
+    /**
+     * Completes <code>target</code> the same way <code>stage</code>
+     * completes.
+     */
+    static <T> void relay(CompletionStage<T> stage, final CompletableFuture<T> target) {
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                if (failure == null) {
+                    target.complete(value);
+                } else {
+                    target.completeExceptionally(failure);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels <code>stage</code> if it supports cancellation.
+     */
+    static void cancel(CompletionStage<?> stage) {
+        try {
+            stage.toCompletableFuture().cancel(true);
+        } catch (UnsupportedOperationException e) {
+            // stage cannot be cancelled; let it run out
+        }
+    }
+
+    /**
+     * Strips the wrappers {@link CompletableFuture} puts around the
+     * exception a stage actually failed with.
+     */
+    static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+}
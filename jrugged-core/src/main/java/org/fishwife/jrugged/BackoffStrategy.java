@@ -0,0 +1,35 @@
+/* BackoffStrategy.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+/**
+ * Decides how long a {@link ServiceRetrier} waits before each retry.
+ * Implementations must be safe to share between threads; any state a
+ * strategy needs from one retry to the next is passed in.
+ */
+public interface BackoffStrategy {
+
+    /**
+     * Returns how long to wait before the given retry.
+     * @param retry which retry is about to be made, starting at 1 for
+     *   the first retry (the second try)
+     * @param previousDelayMillis the delay before the previous retry, or
+     *   0 before the first retry
+     * @return the delay in milliseconds; never negative
+     */
+    long nextDelayMillis(int retry, long previousDelayMillis);
+}
@@ -0,0 +1,486 @@
+/* Bulkhead.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Bulkhead} caps how many calls to a dependency can be in flight
+ * at once, so that one slow backend cannot tie up every thread in the
+ * application before a {@link CircuitBreaker} has seen enough failures to
+ * trip. Calls beyond the cap are turned away with a {@link
+ * BulkheadFullException}.
+ * <p>
+ * In {@link Mode#SEMAPHORE} mode calls run on the caller's thread once
+ * they hold one of a fixed number of permits; a caller either gives up
+ * at once or waits up to a configured time for a permit. In {@link
+ * Mode#THREAD_POOL} mode calls run on the bulkhead's own bounded pool of
+ * threads with a bounded queue in front of it, isolating the dependency
+ * from the callers' threads entirely. Synchronous and asynchronous calls
+ * share the same slots there, so together they never have more than
+ * the maximum number of calls in flight.
+ */
+public class Bulkhead implements MonitoredService, ServiceWrapper {
+
+    /** How a {@link Bulkhead} isolates the calls it lets through. */
+    public enum Mode {
+        /** Calls run on the caller's thread while holding a permit. */
+        SEMAPHORE,
+
+        /** Calls run on a bounded pool of threads owned by the bulkhead. */
+        THREAD_POOL
+    }
+
+    private final String name;
+    private final Mode mode;
+    private final int maxConcurrentCalls;
+    private final long maxWaitMillis;
+    private final int queueCapacity;
+
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    /**
+     * Creates a {@link Mode#SEMAPHORE} bulkhead that rejects calls at once
+     * when <code>maxConcurrentCalls</code> are already in flight.
+     * @param name the name for the {@link Bulkhead}
+     * @param maxConcurrentCalls how many calls may be in flight at once
+     */
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        this(name, new BulkheadConfig(maxConcurrentCalls, 0L));
+    }
+
+    /**
+     * Creates a bulkhead from the given configuration.
+     * @param name the name for the {@link Bulkhead}
+     * @param config the {@link BulkheadConfig} to use
+     * @throws IllegalArgumentException if the configuration allows fewer
+     *   than one concurrent call or a negative queue capacity
+     */
+    public Bulkhead(String name, BulkheadConfig config) {
+        if (config.getMaxConcurrentCalls() < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be at least 1");
+        }
+        if (config.getQueueCapacity() < 0) {
+            throw new IllegalArgumentException("queueCapacity must not be negative");
+        }
+        this.name = name;
+        this.mode = (config.getMode() == null) ? Mode.SEMAPHORE : config.getMode();
+        this.maxConcurrentCalls = config.getMaxConcurrentCalls();
+        this.maxWaitMillis = config.getMaxWaitMillis();
+        this.queueCapacity = config.getQueueCapacity();
+
+        if (mode == Mode.THREAD_POOL) {
+            this.permits = null;
+            this.executor = createExecutor();
+        } else {
+            this.permits = new Semaphore(maxConcurrentCalls);
+            this.executor = null;
+        }
+    }
+
+    private ThreadPoolExecutor createExecutor() {
+        BlockingQueue<Runnable> queue = (queueCapacity > 0)
+            ? new ArrayBlockingQueue<Runnable>(queueCapacity)
+            : new SynchronousQueue<Runnable>();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls,
+                60L, TimeUnit.SECONDS, queue, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "jrugged-bulkhead-" + name + "-"
+                                + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** Wrap the given service call with the {@link Bulkhead} protection
+     *  logic.
+     *  @param c the {@link Callable} to attempt
+     *  @return whatever c would return on success
+     *  @throws BulkheadFullException if the bulkhead had no room for the
+     *    call
+     *  @throws InterruptedException if the caller was interrupted while
+     *    waiting for room or for the call to finish
+     *  @throws Exception if <code>c</code> throws one during execution
+     */
+    public <T> T invoke(Callable<T> c) throws Exception {
+        if (mode == Mode.THREAD_POOL) {
+            FutureTask<T> task = submit(c);
+            if (task == null) {
+                throw full();
+            }
+            return await(task);
+        }
+
+        if (!acquire()) {
+            throw full();
+        }
+        try {
+            return c.call();
+        } finally {
+            release();
+        }
+    }
+
+    /** Wrap the given service call with the {@link Bulkhead} protection
+     *  logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @throws BulkheadFullException if the bulkhead had no room for the
+     *    call
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    /** Wrap the given service call with the {@link Bulkhead} protection
+     *  logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @param result what to return after <code>r</code> succeeds
+     *  @return result
+     *  @throws BulkheadFullException if the bulkhead had no room for the
+     *    call
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wrap the given service call with the {@link Bulkhead} protection
+     *  logic, reporting the outcome instead of throwing. A call the
+     *  bulkhead has no room for yields {@link InvocationResult#rejected()}.
+     *  @param c the {@link Callable} to attempt
+     *  @return the outcome of the call
+     */
+    @Override
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        try {
+            if (mode == Mode.THREAD_POOL) {
+                FutureTask<T> task = submit(c);
+                if (task == null) {
+                    rejected.increment();
+                    return InvocationResult.rejected();
+                }
+                try {
+                    return InvocationResult.succeeded(await(task));
+                } catch (BulkheadFullException e) {
+                    return InvocationResult.rejected();
+                }
+            }
+
+            if (!acquire()) {
+                rejected.increment();
+                return InvocationResult.rejected();
+            }
+            try {
+                return InvocationResult.succeeded(c.call());
+            } finally {
+                release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return InvocationResult.failed(e);
+        } catch (Exception e) {
+            return InvocationResult.failed(e);
+        }
+    }
+
+    /** Wrap the given asynchronous service call with the {@link Bulkhead}
+     *  protection logic. In {@link Mode#SEMAPHORE} mode the call holds a
+     *  permit until its stage completes; since this never blocks, the
+     *  call is rejected at once if no permit is free. In {@link
+     *  Mode#THREAD_POOL} mode the call is started on one of the
+     *  bulkhead's threads and then holds one of its slots until its stage
+     *  completes; it is rejected if the pool's queue is full, or if every
+     *  slot is held by the time a thread gets to it. Neither mode waits
+     *  for the call to start.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome, or failing
+     *    with a {@link BulkheadFullException}
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(final Supplier<CompletionStage<T>> s) {
+        if (mode == Mode.THREAD_POOL) {
+            final CompletableFuture<T> result = new CompletableFuture<T>();
+            final long enqueued = System.nanoTime();
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        if (!enterSlot()) {
+                            result.completeExceptionally(full());
+                            return;
+                        }
+                        admitted(enqueued);
+                        AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+                            public void accept(T value, Throwable failure) {
+                                inFlight.decrementAndGet();
+                                if (failure == null) {
+                                    result.complete(value);
+                                } else {
+                                    result.completeExceptionally(failure);
+                                }
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return AsyncSupport.failed(full());
+            }
+            return result;
+        }
+
+        if (!permits.tryAcquire()) {
+            return AsyncSupport.failed(full());
+        }
+        admitted.increment();
+        inFlight.incrementAndGet();
+        return AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                release();
+            }
+        });
+    }
+
+    /* Semaphore mode: takes a permit, waiting up to maxWaitMillis for
+     * one if none is free. */
+    private boolean acquire() throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            if (maxWaitMillis <= 0) {
+                return false;
+            }
+            long start = System.nanoTime();
+            waiting.incrementAndGet();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                waiting.decrementAndGet();
+            }
+            if (!acquired) {
+                return false;
+            }
+            queueWaitNanos.add(System.nanoTime() - start);
+        }
+        admitted.increment();
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    /* Thread-pool mode: claims a slot for a call, unless calls still
+     * running, synchronous or not, already hold every one. */
+    private boolean enterSlot() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxConcurrentCalls) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /* Thread-pool mode: counts a call that got its slot, and how long
+     * it waited in the queue for a thread. */
+    private void admitted(long enqueued) {
+        admitted.increment();
+        queueWaitNanos.add(System.nanoTime() - enqueued);
+    }
+
+    /* Thread-pool mode: hands the call to the pool, or returns null if
+     * both the pool and its queue are full. The task fails with a
+     * BulkheadFullException if every slot is held when it starts. */
+    private <T> FutureTask<T> submit(final Callable<T> c) {
+        final long enqueued = System.nanoTime();
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            public T call() throws Exception {
+                if (!enterSlot()) {
+                    throw full();
+                }
+                admitted(enqueued);
+                try {
+                    return c.call();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return task;
+    }
+
+    private static <T> T await(FutureTask<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private BulkheadFullException full() {
+        rejected.increment();
+        return new BulkheadFullException(name);
+    }
+
+    /**
+     * Reports {@link Status#DEGRADED} while the bulkhead is saturated,
+     * meaning a new call would be rejected or have to wait, and {@link
+     * Status#UP} otherwise.
+     * @return the {@link ServiceStatus} of this bulkhead
+     */
+    public ServiceStatus getServiceStatus() {
+        if (isSaturated()) {
+            return new ServiceStatus(name, Status.DEGRADED, "Saturated");
+        }
+        return new ServiceStatus(name, Status.UP);
+    }
+
+    /**
+     * Returns whether every slot is taken, so that a new call would be
+     * rejected or have to wait.
+     * @return boolean
+     */
+    public boolean isSaturated() {
+        if (mode == Mode.THREAD_POOL) {
+            return inFlight.get() >= maxConcurrentCalls;
+        }
+        return permits.availablePermits() == 0;
+    }
+
+    /**
+     * Stops the bulkhead's threads in {@link Mode#THREAD_POOL} mode,
+     * interrupting running calls; does nothing in {@link Mode#SEMAPHORE}
+     * mode.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the number of calls currently running.
+     * @return int
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of calls currently waiting for a permit or, in
+     * {@link Mode#THREAD_POOL} mode, for a thread.
+     * @return int
+     */
+    public int getWaitingCount() {
+        return (executor != null) ? executor.getQueue().size() : waiting.get();
+    }
+
+    /**
+     * Returns the number of calls that were let through.
+     * @return long
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * Returns the number of calls turned away because the bulkhead was
+     * full.
+     * @return long
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the average time calls that were let through spent waiting
+     * for a permit or thread, in milliseconds.
+     * @return double
+     */
+    public double getAverageQueueWaitMillis() {
+        long calls = admitted.sum();
+        if (calls == 0) {
+            return 0.0;
+        }
+        return (queueWaitNanos.sum() / (double) calls) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
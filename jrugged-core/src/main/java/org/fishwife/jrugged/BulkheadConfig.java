@@ -0,0 +1,73 @@
+/* BulkheadConfig.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+/**
+ * The BulkheadConfig class holds a {@link Bulkhead} configuration.
+ */
+public class BulkheadConfig {
+
+    private Bulkhead.Mode mode;
+    private int maxConcurrentCalls;
+    private long maxWaitMillis;
+    private int queueCapacity;
+
+    /**
+     * Configuration for a {@link Bulkhead} in {@link Bulkhead.Mode#SEMAPHORE}
+     * mode.
+     * @param maxConcurrentCalls how many calls may be in flight at once
+     * @param maxWaitMillis how long a caller may wait for a free slot;
+     *   zero or less rejects immediately when the bulkhead is full
+     */
+    public BulkheadConfig(int maxConcurrentCalls, long maxWaitMillis) {
+        this(Bulkhead.Mode.SEMAPHORE, maxConcurrentCalls, maxWaitMillis, 0);
+    }
+
+    /**
+     * Configuration for a {@link Bulkhead} in either mode.
+     * @param mode how the bulkhead isolates calls
+     * @param maxConcurrentCalls how many calls may be in flight at once;
+     *   in {@link Bulkhead.Mode#THREAD_POOL} mode, the number of threads
+     * @param maxWaitMillis how long a caller may wait for a free slot in
+     *   {@link Bulkhead.Mode#SEMAPHORE} mode
+     * @param queueCapacity how many calls may wait for a thread in
+     *   {@link Bulkhead.Mode#THREAD_POOL} mode
+     */
+    public BulkheadConfig(Bulkhead.Mode mode, int maxConcurrentCalls,
+            long maxWaitMillis, int queueCapacity) {
+        this.mode = mode;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitMillis = maxWaitMillis;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Bulkhead.Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+}
@@ -0,0 +1,220 @@
+/* BulkheadFactory.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Factory to create new {@link Bulkhead} instances and keep track of
+ * them.
+ */
+public class BulkheadFactory {
+
+    public static final String CONFIG_KEY_PREFIX = "bulkhead";
+    public static final String MODE_KEY = "mode";
+    public static final String MAXCONCURRENTCALLS_KEY = "maxConcurrentCalls";
+    public static final String MAXWAITMILLIS_KEY = "maxWaitMillis";
+    public static final String QUEUECAPACITY_KEY = "queueCapacity";
+
+    private final ConcurrentHashMap<String, Bulkhead> bulkheadMap =
+            new ConcurrentHashMap<String, Bulkhead>();
+
+    private Properties properties;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Create a new {@link Bulkhead} and map it to the provided name.
+     * If the Bulkhead already exists, then the existing instance is
+     * returned.
+     * @param name the name of the {@link Bulkhead}
+     * @param config the {@link BulkheadConfig} with the configuration
+     * values.
+     * @return the created {@link Bulkhead}
+     */
+    public synchronized Bulkhead createBulkhead(String name, BulkheadConfig config) {
+        Bulkhead bulkhead = findBulkhead(name);
+
+        if (bulkhead == null) {
+            bulkhead = new Bulkhead(name, configure(name, config));
+            addBulkheadToMap(name, bulkhead);
+
+            logger.info(
+                "Created Bulkhead '{}', mode={}, maxConcurrentCalls={}, maxWaitMillis={}, queueCapacity={}",
+                new Object[] {
+                  name,
+                  bulkhead.getMode(),
+                  bulkhead.getMaxConcurrentCalls(),
+                  bulkhead.getMaxWaitMillis(),
+                  bulkhead.getQueueCapacity()
+                });
+        }
+
+        return bulkhead;
+    }
+
+    /**
+     * Set the {@link Properties} object to search for {@link Bulkhead}
+     * property override values.  The override values can be specified as:<br>
+     *   bulkhead.{bulkhead_name}.mode<br>
+     *   bulkhead.{bulkhead_name}.maxConcurrentCalls<br>
+     *   bulkhead.{bulkhead_name}.maxWaitMillis<br>
+     *   bulkhead.{bulkhead_name}.queueCapacity
+     * @param properties the {@link Properties} object to search.
+     */
+    public void setProperties(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Find an existing {@link Bulkhead}
+     * @param name the value for the {@link Bulkhead}
+     * @return the found {@link Bulkhead}, or null if it is not found.
+     */
+    public Bulkhead findBulkhead(String name) {
+        return bulkheadMap.get(name);
+    }
+
+    /**
+     * Get the {@link Set} of created {@link Bulkhead} names.
+     * @return the {@link Set} of names.
+     */
+    public Set<String> getBulkheadNames() {
+        return bulkheadMap.keySet();
+    }
+
+    /**
+     * Apply any property overrides for the named {@link Bulkhead} to the
+     * given configuration.
+     * @param name the name of the {@link Bulkhead}
+     * @param config the configuration supplied by the caller
+     * @return the configuration to build the {@link Bulkhead} from
+     */
+    protected BulkheadConfig configure(String name, BulkheadConfig config) {
+        Bulkhead.Mode mode = config.getMode();
+        String modeOverride = getPropertyOverrideValue(name, MODE_KEY);
+        if (modeOverride != null) {
+            try {
+                mode = Bulkhead.Mode.valueOf(modeOverride.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                logger.error("Could not parse property override key={}, value={}",
+                        MODE_KEY, modeOverride);
+            }
+        }
+
+        int maxConcurrentCalls = config.getMaxConcurrentCalls();
+        Integer maxConcurrentCallsOverride =
+            getIntegerPropertyOverrideValue(name, MAXCONCURRENTCALLS_KEY);
+        if (maxConcurrentCallsOverride != null) {
+            maxConcurrentCalls = maxConcurrentCallsOverride;
+        }
+
+        long maxWaitMillis = config.getMaxWaitMillis();
+        Long maxWaitMillisOverride = getLongPropertyOverrideValue(name, MAXWAITMILLIS_KEY);
+        if (maxWaitMillisOverride != null) {
+            maxWaitMillis = maxWaitMillisOverride;
+        }
+
+        int queueCapacity = config.getQueueCapacity();
+        Integer queueCapacityOverride = getIntegerPropertyOverrideValue(name, QUEUECAPACITY_KEY);
+        if (queueCapacityOverride != null) {
+            queueCapacity = queueCapacityOverride;
+        }
+
+        return new BulkheadConfig(mode, maxConcurrentCalls, maxWaitMillis, queueCapacity);
+    }
+
+    /**
+     * Add a {@link Bulkhead} to the map.
+     * @param name the name for the {@link Bulkhead}
+     * @param bulkhead the {@link Bulkhead} to add.
+     */
+    protected void addBulkheadToMap(String name, Bulkhead bulkhead) {
+        bulkheadMap.put(name, bulkhead);
+    }
+
+    /**
+     * Get the property name for a bulkhead name and key.
+     * @param name the bulkhead name.
+     * @param key the property key.
+     * @return the property name.
+     */
+    private String getPropertyName(String name, String key) {
+        return CONFIG_KEY_PREFIX + '.' + name + '.' + key;
+    }
+
+    /**
+     * Get a raw property override value.
+     * @param name the {@link Bulkhead} name.
+     * @param key the property override key.
+     * @return the property override value, or null if it is not found.
+     */
+    private String getPropertyOverrideValue(String name, String key) {
+        if (properties != null) {
+            return properties.getProperty(getPropertyName(name, key));
+        }
+        return null;
+    }
+
+    /**
+     * Get an integer property override value.
+     * @param name the {@link Bulkhead} name.
+     * @param key the property override key.
+     * @return the property override value, or null if it is not found.
+     */
+    private Integer getIntegerPropertyOverrideValue(String name, String key) {
+        String propertyOverrideValue = getPropertyOverrideValue(name, key);
+
+        if (propertyOverrideValue != null) {
+            try {
+                return Integer.parseInt(propertyOverrideValue);
+            }
+            catch (NumberFormatException e) {
+                logger.error("Could not parse property override key={}, value={}",
+                        key, propertyOverrideValue);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get an {@link Long} property override value.
+     * @param name the {@link Bulkhead} name.
+     * @param key the property override key.
+     * @return the property override value, or null if it is not found.
+     */
+    private Long getLongPropertyOverrideValue(String name, String key) {
+        String propertyOverrideValue = getPropertyOverrideValue(name, key);
+
+        if (propertyOverrideValue != null) {
+            try {
+                return Long.parseLong(propertyOverrideValue);
+            }
+            catch (NumberFormatException e) {
+                logger.error("Could not parse property override key={}, value={}",
+                        key, propertyOverrideValue);
+            }
+        }
+        return null;
+    }
+}
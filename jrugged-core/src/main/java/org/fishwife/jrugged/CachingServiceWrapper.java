@@ -0,0 +1,443 @@
+/* CachingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the results of calls made through an inner {@link
+ * ServiceWrapper}, typically a {@link CircuitBreaker}, and falls back
+ * to the last good result when the inner wrapper rejects or fails a
+ * call. While a dependency is down, callers get a slightly old answer
+ * instead of an exception, and the dependency sees no traffic for
+ * answers that are still fresh.
+ * <p>
+ * Each result is fresh for the time-to-live, and afterwards may be
+ * served stale for up to the stale time if loading a new one fails.
+ * With refresh-ahead enabled, a hit on an entry close to expiry
+ * reloads it in the background while the current value is served, so
+ * popular keys need never miss. Loads for the same key, foreground or
+ * background, are coalesced into one call to the inner wrapper.
+ * <p>
+ * The cache is bounded and evicts by segmented LRU: new entries start
+ * in a probationary segment and are promoted to the protected segment
+ * (80% of the capacity, less at least one slot left for probation) when
+ * hit again, so a scan of one-off keys flushes only other one-off keys,
+ * not the working set. A cache of one result is plain LRU.
+ * <p>
+ * Hits take no lock: the result is read from a concurrent map and the
+ * hit is recorded in a small buffer that is replayed onto the segments
+ * by whichever caller next gets the lock. Under heavy load the buffer
+ * may drop some hits, which costs recency precision but never a result.
+ *
+ * @param <K> the key type; must have sound <code>equals</code> and
+ *   <code>hashCode</code>
+ * @param <V> the type of the cached results
+ */
+public class CachingServiceWrapper<K, V> {
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** Most hits buffered before further ones are dropped. */
+    private static final int ACCESS_BUFFER_SIZE = 128;
+
+    /** Buffered hits at which a hit tries to replay the buffer. */
+    private static final int DRAIN_THRESHOLD = 16;
+
+    private final ServiceWrapper inner;
+    private final int maxSize;
+    private final int protectedMaxSize;
+
+    private volatile long ttlNanos;
+    private volatile long maxStaleNanos = Long.MAX_VALUE;
+    private volatile long refreshAheadNanos;
+    private volatile Executor refreshExecutor;
+
+    /* Every cached key, readable without the lock; changed only under
+     * it, together with the segments. */
+    private final ConcurrentHashMap<K, Node<K, V>> nodes = new ConcurrentHashMap<K, Node<K, V>>();
+
+    /* Insertion order is recency order: nodes are re-inserted when
+     * used, so the first node of each segment is its least recent.
+     * Both segments are guarded by the lock. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<K, Node<K, V>>();
+    private final LinkedHashMap<K, Node<K, V>> protectedSegment = new LinkedHashMap<K, Node<K, V>>();
+
+    /* Hits on fresh entries, not yet replayed onto the segments. */
+    private final ConcurrentLinkedQueue<Node<K, V>> accesses = new ConcurrentLinkedQueue<Node<K, V>>();
+    private final AtomicInteger bufferedAccesses = new AtomicInteger();
+
+    private final CoalescingServiceWrapper<K> loads = new CoalescingServiceWrapper<K>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    private static final class Entry<V> {
+        final V value;
+        final long loadedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /* A key's place in the segments; reloads replace its entry. */
+    private static final class Node<K, V> {
+        final K key;
+        volatile Entry<V> entry;
+
+        Node(K key, Entry<V> entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * @param inner the wrapper calls are made through on a miss
+     * @param maxSize how many results to keep; at least 1
+     * @param ttl how long a result stays fresh
+     * @param unit the unit of <code>ttl</code>
+     */
+    public CachingServiceWrapper(ServiceWrapper inner, int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.inner = inner;
+        this.maxSize = maxSize;
+        /* probation keeps a slot, or a new key would be evicted as soon
+         * as it was stored */
+        this.protectedMaxSize = Math.min(maxSize - 1,
+            Math.max(1, (int) ((long) maxSize * PROTECTED_PERCENT / 100)));
+        setTtl(ttl, unit);
+    }
+
+    /**
+     * Returns the cached result for <code>key</code> if it is fresh, and
+     * otherwise calls <code>loader</code> through the inner wrapper and
+     * caches what it returns. If that call fails, a stale result still
+     * within the stale time is returned instead.
+     * @param key identifies the call and its result
+     * @param loader makes the call on a miss
+     * @return the fresh, newly loaded or stale result
+     * @throws Exception what the inner wrapper threw, if there was no
+     *   result to fall back to
+     */
+    public V invoke(final K key, final Callable<V> loader) throws Exception {
+        long now = nanoTime();
+        Node<K, V> node = nodes.get(key);
+        final Entry<V> cached = (node == null) ? null : node.entry;
+        if (cached != null && now - cached.loadedAt < ttlNanos) {
+            hits.increment();
+            recordAccess(node);
+            if (now - cached.loadedAt >= ttlNanos - refreshAheadNanos) {
+                refreshAhead(key, loader, cached);
+            }
+            return cached.value;
+        }
+
+        misses.increment();
+        try {
+            return load(key, loader);
+        } catch (Exception e) {
+            if (cached != null && now - cached.loadedAt - ttlNanos <= maxStaleNanos) {
+                staleServes.increment();
+                return cached.value;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the cached result for <code>key</code>, if any.
+     * @param key the key to forget
+     */
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            if (nodes.remove(key) != null && probation.remove(key) == null) {
+                protectedSegment.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops all cached results. */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            nodes.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private V load(final K key, final Callable<V> loader) throws Exception {
+        return loads.invoke(key, new Callable<V>() {
+            public V call() throws Exception {
+                V value = inner.invoke(loader);
+                store(key, new Entry<V>(value, nanoTime()));
+                return value;
+            }
+        });
+    }
+
+    private void refreshAhead(final K key, final Callable<V> loader, final Entry<V> cached) {
+        Executor executor = refreshExecutor;
+        if (executor == null || !cached.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refreshes.increment();
+                        load(key, loader);
+                    } catch (Exception e) {
+                        // keep serving the current entry; it goes stale if loads keep failing
+                    } finally {
+                        cached.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cached.refreshing.set(false);
+        }
+    }
+
+    /* Buffers a hit for replay under the lock, dropping it if the
+     * buffer is full. */
+    private void recordAccess(Node<K, V> node) {
+        if (bufferedAccesses.get() >= ACCESS_BUFFER_SIZE) {
+            return;
+        }
+        bufferedAccesses.incrementAndGet();
+        accesses.offer(node);
+        if (bufferedAccesses.get() >= DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drainAccesses();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* Called with the lock held. */
+    private void drainAccesses() {
+        Node<K, V> node;
+        while ((node = accesses.poll()) != null) {
+            bufferedAccesses.decrementAndGet();
+            promote(node);
+        }
+    }
+
+    /* A hit in probation earns promotion to the protected segment; a
+     * node evicted or replaced since the hit is left alone. */
+    private void promote(Node<K, V> node) {
+        if (nodes.get(node.key) != node) {
+            return;
+        }
+        if (protectedSegment.remove(node.key) != null) {
+            protectedSegment.put(node.key, node);
+        } else if (probation.remove(node.key) != null) {
+            protectedSegment.put(node.key, node);
+            demoteOverflow();
+        }
+    }
+
+    /* Replaces an existing entry in place; new keys start on probation.
+     * Buffered hits are replayed first, so they count before anything
+     * is evicted. */
+    private void store(K key, Entry<V> entry) {
+        lock.lock();
+        try {
+            drainAccesses();
+            Node<K, V> node = nodes.get(key);
+            if (node != null) {
+                node.entry = entry;
+                if (probation.remove(key) != null) {
+                    probation.put(key, node);
+                }
+                return;
+            }
+            node = new Node<K, V>(key, entry);
+            nodes.put(key, node);
+            probation.put(key, node);
+            while (nodes.size() > maxSize) {
+                LinkedHashMap<K, Node<K, V>> victims = probation.isEmpty() ? protectedSegment : probation;
+                Iterator<K> eldest = victims.keySet().iterator();
+                nodes.remove(eldest.next());
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void demoteOverflow() {
+        while (protectedSegment.size() > protectedMaxSize) {
+            Iterator<Map.Entry<K, Node<K, V>>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<K, Node<K, V>> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    /**
+     * Returns the current time in nanoseconds; overridable for testing.
+     * @return long
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sets how long a result stays fresh.
+     * @param ttl the time-to-live
+     * @param unit the unit of <code>ttl</code>
+     */
+    public void setTtl(long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    /**
+     * Sets how long past its time-to-live a result may still be served
+     * when loading a new one fails. By default there is no limit.
+     * @param maxStale the stale time; zero never serves stale results
+     * @param unit the unit of <code>maxStale</code>
+     */
+    public void setMaxStale(long maxStale, TimeUnit unit) {
+        if (maxStale < 0) {
+            throw new IllegalArgumentException("maxStale must not be negative");
+        }
+        this.maxStaleNanos = unit.toNanos(maxStale);
+    }
+
+    public long getMaxStaleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxStaleNanos);
+    }
+
+    /**
+     * Enables refresh-ahead: a hit on a result within
+     * <code>window</code> of expiring reloads it on
+     * <code>executor</code> while the current result is served.
+     * @param window how long before expiry to start refreshing; zero
+     *   disables refresh-ahead
+     * @param unit the unit of <code>window</code>
+     * @param executor runs the background refreshes
+     */
+    public void setRefreshAhead(long window, TimeUnit unit, Executor executor) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.refreshExecutor = (window > 0) ? executor : null;
+        this.refreshAheadNanos = unit.toNanos(window);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of cached results, fresh or stale.
+     * @return int
+     */
+    public int getSize() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the number of calls answered from a fresh result.
+     * @return long
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of calls that had to load a result.
+     * @return long
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of calls answered from a stale result because
+     * loading a new one failed.
+     * @return long
+     */
+    public long getStaleServeCount() {
+        return staleServes.sum();
+    }
+
+    /**
+     * Returns the number of results evicted to stay within the size
+     * bound.
+     * @return long
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of background refreshes started.
+     * @return long
+     */
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    /**
+     * Returns the share of calls, from 0 to 1, answered from a fresh
+     * result.
+     * @return double
+     */
+    public double getHitRatio() {
+        long h = getHitCount();
+        long total = h + getMissCount();
+        return (total == 0) ? 0.0 : (double) h / total;
+    }
+}
@@ -0,0 +1,35 @@
+/* CallDurationFailureInterpreter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+/**
+ * A {@link FailureInterpreter} that also looks at how long calls take.
+ * A {@link CircuitBreaker} using one of these times every call it lets
+ * through and reports the duration once the call completes, whether it
+ * succeeded or threw, so that a backend that answers correctly but far
+ * too slowly can still trip the breaker.
+ */
+public interface CallDurationFailureInterpreter extends FailureInterpreter {
+
+    /** Records a completed call and returns whether the governed
+     * {@link CircuitBreaker} should trip OPEN because of the call
+     * durations seen so far.
+     * @param durationNanos how long the call took, in nanoseconds
+     * @return boolean <code>true</code> iff the circuit should trip */
+    boolean shouldTrip(long durationNanos);
+
+}
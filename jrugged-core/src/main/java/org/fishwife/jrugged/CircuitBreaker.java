@@ -20,10 +20,16 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /** A {@link CircuitBreaker} can be used with a service to throttle traffic
  *  to a failed subsystem (particularly one we might not be able to monitor,
@@ -43,6 +49,12 @@ import java.util.concurrent.atomic.AtomicLong;
  *  back to the CLOSED state; if it fails, it moves back to the OPEN state
  *  for another cooldown period.
  *  <p>
+ *  For busy services a single test call can be a poor sample (it may well
+ *  land on a cold cache), so the HALF_CLOSED state can instead hand out
+ *  several test permits (see {@link #setHalfOpenPermits(int)}) and only
+ *  close once enough of them have succeeded (see {@link
+ *  #setHalfOpenSuccessThreshold(int)}).
+ *  <p>
  *  Sample usage:
  *  <pre>
     public class Service implements Monitorable {
@@ -69,7 +81,8 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
         OPEN,
 
         /** A HALF_CLOSED breaker has completed its cooldown
-            period and will allow one request through as a "test request." */
+            period and will allow one (or a configured number of)
+            requests through as "test requests." */
         HALF_CLOSED,
 
         /** A CLOSED breaker is operating normally and allowing
@@ -103,8 +116,39 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
         }
     }
 
-    /** Current state of the breaker. */
-    protected volatile BreakerState state = BreakerState.CLOSED;
+    /* The breaker's state, the hard-trip and bypass switches, the
+     * generation of the current HALF_CLOSED round and its bookkeeping
+     * (test permits handed out, test successes and test failures, 16 bits
+     * each) are all packed into a single word so that every transition is
+     * a single compare-and-set; see stateWord. */
+    private static final long STATE_MASK = 0x3L;
+    private static final long CLOSED_BITS = 0x0L;
+    private static final long OPEN_BITS = 0x1L;
+    private static final long HALF_CLOSED_BITS = 0x2L;
+    private static final long HARD_TRIP_BIT = 1L << 3;
+    private static final long BYPASS_BIT = 1L << 4;
+    private static final long SWITCH_BITS = HARD_TRIP_BIT | BYPASS_BIT;
+    private static final int GENERATION_SHIFT = 5;
+    private static final long GENERATION_BITS = 0x7FFL << GENERATION_SHIFT;
+    private static final long ONE_GENERATION = 1L << GENERATION_SHIFT;
+    /* Carried over by every transition. */
+    private static final long KEEP_BITS = SWITCH_BITS | GENERATION_BITS;
+    private static final long COUNT_MASK = 0xFFFFL;
+    private static final int PERMITS_SHIFT = 16;
+    private static final int SUCCESSES_SHIFT = 32;
+    private static final int FAILURES_SHIFT = 48;
+    private static final long ONE_PERMIT = 1L << PERMITS_SHIFT;
+    private static final long ONE_SUCCESS = 1L << SUCCESSES_SHIFT;
+    private static final long ONE_FAILURE = 1L << FAILURES_SHIFT;
+
+    /** The largest number of test permits a HALF_CLOSED breaker can
+        hand out. */
+    public static final int MAX_HALF_OPEN_PERMITS = (int) COUNT_MASK;
+
+    /** Current state of the breaker, together with the bypass and
+        hard-trip switches and the progress of the HALF_CLOSED test
+        requests. Only ever updated by compare-and-set. */
+    private final AtomicLong stateWord = new AtomicLong(CLOSED_BITS);
 
     /** The time the breaker last tripped, in milliseconds since the
         epoch. */
@@ -116,6 +160,13 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
     /** How long the cooldown period is in milliseconds. */
     protected AtomicLong resetMillis = new AtomicLong(15 * 1000L);
 
+    /** How many test requests a HALF_CLOSED breaker lets through. */
+    private volatile int halfOpenPermits = 1;
+
+    /** How many of the test requests must succeed before the breaker
+        closes again; zero means all of them. */
+    private volatile int halfOpenSuccessThreshold = 0;
+
     /** The clock of the breaker is default to a SystemClock. */
     protected Clock clock = new SystemClock();
 
@@ -130,21 +181,34 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
     protected CircuitBreakerExceptionMapper<? extends Exception> exceptionMapper;
 
     protected List<CircuitBreakerNotificationCallback> cbNotifyList =
-            Collections.synchronizedList(new ArrayList<CircuitBreakerNotificationCallback>());
+            new CopyOnWriteArrayList<CircuitBreakerNotificationCallback>();
 
-    private boolean isHardTrip;
+    /** Where listener notifications are run; <code>null</code> means on
+     *  the thread that changed the breaker's state. */
+    private volatile Executor notificationDispatcher;
 
-    /**
-     * Bypass this CircuitBreaker - used for testing, or other operational
-     * situations where verification of the Break might be required.
-     */
-    protected boolean byPass = false;
+    /** Start time passed around for calls that are not being timed. */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
 
-    /**
-     * Whether the "test" attempt permitted in the HALF_CLOSED state
-     *  is currently in-flight.
-     */
-    protected boolean isAttemptLive = false;
+    /* What admit() hands the caller: a call it turned away, a call that
+     * holds no test permit, or (any other positive value) a test permit
+     * for one HALF_CLOSED round. ANY_ROUND is for outcomes reported
+     * through the older protected methods, which cannot say. */
+    private static final long REJECTED = -1L;
+    private static final long NOT_A_PROBE = 0L;
+    private static final long ANY_ROUND = -2L;
+
+    private volatile boolean fastRejection = false;
+    private volatile CachedRejection openRejection;
+    private volatile CachedRejection halfClosedRejection;
+    private volatile CachedRejection warmUpRejection;
+
+    private volatile WarmUpPolicy warmUpPolicy;
+
+    /** The warm-up in progress after closing, or <code>null</code>. */
+    private volatile WarmUpPolicy.Ramp warmUp;
+
+    private final LongAdder warmUpShedCount = new LongAdder();
 
     /** The default name if none is provided. */
     private static final String DEFAULT_NAME="CircuitBreaker";
@@ -247,18 +311,19 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      *    execution
      */
     public <V> V invoke(Callable<V> c) throws Exception {
-        if (!byPass) {
-            if (!allowRequest()) {
-                throw mapException(new CircuitBreakerException());
+        if (!getByPassState()) {
+            long ticket = admit();
+            if (ticket == REJECTED) {
+                throw rejection();
             }
 
+            long started = callStarted();
             try {
-                isAttemptLive = true;
                 V result = c.call();
-                close();
+                recordSuccess(started, ticket);
                 return result;
             } catch (Throwable cause) {
-                handleFailure(cause);
+                handleFailure(cause, started, ticket);
             }
             throw new IllegalStateException("not possible");
         }
@@ -277,18 +342,19 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      *    execution
      */
     public void invoke(Runnable r) throws Exception {
-        if (!byPass) {
-            if (!allowRequest()) {
-                throw mapException(new CircuitBreakerException());
+        if (!getByPassState()) {
+            long ticket = admit();
+            if (ticket == REJECTED) {
+                throw rejection();
             }
 
+            long started = callStarted();
             try {
-                isAttemptLive = true;
                 r.run();
-                close();
+                recordSuccess(started, ticket);
                 return;
             } catch (Throwable cause) {
-                handleFailure(cause);
+                handleFailure(cause, started, ticket);
             }
             throw new IllegalStateException("not possible");
         }
@@ -309,18 +375,19 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      *    execution
      */
     public <V> V invoke(Runnable r, V result) throws Exception {
-        if (!byPass) {
-            if (!allowRequest()) {
-                throw mapException(new CircuitBreakerException());
+        if (!getByPassState()) {
+            long ticket = admit();
+            if (ticket == REJECTED) {
+                throw rejection();
             }
 
+            long started = callStarted();
             try {
-                isAttemptLive = true;
                 r.run();
-                close();
+                recordSuccess(started, ticket);
                 return result;
             } catch (Throwable cause) {
-                handleFailure(cause);
+                handleFailure(cause, started, ticket);
             }
             throw new IllegalStateException("not possible");
         }
@@ -330,6 +397,88 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
         }
     }
 
+    /** Wrap the given service call with the {@link CircuitBreaker}
+     *  protection logic, reporting the outcome instead of throwing. A
+     *  call turned away by an OPEN or HALF_CLOSED breaker yields the
+     *  shared {@link InvocationResult#rejected()} result, and no
+     *  exception is created; failures still count towards tripping
+     *  the breaker exactly as with {@link #invoke(Callable)}.
+     *  @param c the {@link Callable} to attempt
+     *  @return the outcome of the call
+     */
+    @Override
+    public <V> InvocationResult<V> tryInvoke(Callable<V> c) {
+        if (getByPassState()) {
+            return InvocationResult.of(c);
+        }
+        long ticket = admit();
+        if (ticket == REJECTED) {
+            return InvocationResult.rejected();
+        }
+
+        long started = callStarted();
+        try {
+            V result = c.call();
+            recordSuccess(started, ticket);
+            return InvocationResult.succeeded(result);
+        } catch (Exception cause) {
+            recordFailure(cause, started, ticket);
+            return InvocationResult.failed(cause);
+        } catch (Error cause) {
+            recordFailure(cause, started, ticket);
+            throw cause;
+        }
+    }
+
+    /** Wrap the given asynchronous service call with the {@link
+     *  CircuitBreaker} protection logic. The outcome is recorded when
+     *  the returned stage completes, and no thread is blocked waiting
+     *  for it.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome; it fails with
+     *    a {@link CircuitBreakerException} (or the mapped exception) if
+     *    the breaker was OPEN or HALF_CLOSED and this attempt wasn't a
+     *    test request
+     */
+    @Override
+    public <V> CompletionStage<V> invokeAsync(Supplier<CompletionStage<V>> s) {
+        return invokeAsync(s, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /** Wrap the given asynchronous service call with the {@link
+     *  CircuitBreaker} protection logic, giving up on it after the given
+     *  timeout. A call that times out fails with a {@link
+     *  TimeLimitExceededException}, which is recorded as a failure like
+     *  any other; a late completion is ignored.
+     *  @param s starts the service call
+     *  @param timeout how long to wait for the call; zero or less
+     *    waits indefinitely
+     *  @param unit the unit of <code>timeout</code>
+     *  @return a stage completing with the call's outcome
+     */
+    public <V> CompletionStage<V> invokeAsync(Supplier<CompletionStage<V>> s,
+            long timeout, TimeUnit unit) {
+        if (getByPassState()) {
+            return AsyncSupport.withTimeout(AsyncSupport.start(s), timeout, unit);
+        }
+        final long ticket = admit();
+        if (ticket == REJECTED) {
+            return AsyncSupport.failed(rejection());
+        }
+
+        final long started = callStarted();
+        CompletionStage<V> stage = AsyncSupport.start(s);
+        return AsyncSupport.withTimeout(stage, timeout, unit).whenComplete(new BiConsumer<V, Throwable>() {
+            public void accept(V result, Throwable failure) {
+                if (failure == null) {
+                    recordSuccess(started, ticket);
+                } else {
+                    recordFailure(AsyncSupport.unwrap(failure), started, ticket);
+                }
+            }
+        });
+    }
+
     /**
      * When called with true - causes the {@link CircuitBreaker} to byPass
      * its functionality allowing requests to be executed unmolested
@@ -339,8 +488,13 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      * @param b Set this breaker into bypass mode
      */
     public void setByPassState(boolean b) {
-        byPass = b;
-        notifyBreakerStateChange(getStatus());
+        long word;
+        long next;
+        do {
+            word = stateWord.get();
+            next = b ? (word | BYPASS_BIT) : (word & ~BYPASS_BIT);
+        } while (!stateWord.compareAndSet(word, next));
+        notifyBreakerStateChange(word, next);
     }
 
     /**
@@ -349,7 +503,7 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      * @return boolean the byPass flag's current value
      */
     public boolean getByPassState() {
-        return byPass;
+        return (stateWord.get() & BYPASS_BIT) != 0;
     }
 
     /**
@@ -358,22 +512,29 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      *  resets.
      */
     public void trip() {
-        if (state != BreakerState.OPEN) {
-            openCount.getAndIncrement();
-        }
-        state = BreakerState.OPEN;
-        lastFailure.set(clock.currentTimeMillis());
-        isAttemptLive = false;
-
-        notifyBreakerStateChange(getStatus());
+        tripOpen(0L);
     }
 
     /**
      * Manually trips the CircuitBreaker until {@link #reset()} is invoked.
      */
     public void tripHard() {
-        this.trip();
-        isHardTrip = true;
+        tripOpen(HARD_TRIP_BIT);
+    }
+
+    private void tripOpen(long extraBits) {
+        lastFailure.set(clock.currentTimeMillis());
+        long word;
+        long next;
+        do {
+            word = stateWord.get();
+            next = OPEN_BITS | (word & KEEP_BITS) | extraBits;
+        } while (!stateWord.compareAndSet(word, next));
+
+        if ((word & STATE_MASK) != OPEN_BITS) {
+            openCount.getAndIncrement();
+        }
+        notifyBreakerStateChange(word, next);
     }
 
     /**
@@ -401,12 +562,17 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      * Just like a real breaker.  WOOT!!!
      */
     public void reset() {
-        state = BreakerState.CLOSED;
-        isHardTrip = false;
-        byPass = false;
-        isAttemptLive = false;
+        long word;
+        long next;
+        do {
+            word = stateWord.get();
+            next = CLOSED_BITS | (word & GENERATION_BITS);
+        } while (!stateWord.compareAndSet(word, next));
+        if ((word & STATE_MASK) != CLOSED_BITS) {
+            startWarmUp();
+        }
 
-        notifyBreakerStateChange(getStatus());
+        notifyBreakerStateChange(word, next);
     }
 
     /**
@@ -430,14 +596,23 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      * @return the {@link ServiceStatus}.
      */
     public ServiceStatus getServiceStatus() {
-        boolean canSendProbeRequest = !isHardTrip && lastFailure.get() > 0
-            && allowRequest();
+        long word = stateWord.get();
+        boolean canSendProbeRequest = (word & HARD_TRIP_BIT) == 0
+            && lastFailure.get() > 0 && (word & STATE_MASK) == OPEN_BITS
+            && hasCooledDown();
+        if (canSendProbeRequest) {
+            long next = HALF_CLOSED_BITS | nextRound(word);
+            if (stateWord.compareAndSet(word, next)) {
+                notifyBreakerStateChange(word, next);
+                word = next;
+            }
+        }
 
-        if (byPass) {
+        if ((word & BYPASS_BIT) != 0) {
             return new ServiceStatus(name, Status.DEGRADED, "Bypassed");
         }
 
-        switch(state) {
+        switch(toBreakerState(word)) {
             case OPEN:
                 return (canSendProbeRequest ?
                         new ServiceStatus(name, Status.DEGRADED, "Send Probe Request")
@@ -467,6 +642,59 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
         resetMillis.set(l);
     }
 
+    /**
+     * Returns how many test requests are let through while the breaker
+     * is HALF_CLOSED.
+     * @return int
+     */
+    public int getHalfOpenPermits() {
+        return halfOpenPermits;
+    }
+
+    /** Sets how many test requests are let through, concurrently if
+     *  need be, once the cooldown period has passed. The default is 1.
+     *
+     * @param permits number of test requests, between 1 and
+     *   {@link #MAX_HALF_OPEN_PERMITS}
+     * @throws IllegalArgumentException if <code>permits</code> is out
+     *   of range
+     */
+    public void setHalfOpenPermits(int permits) {
+        if (permits < 1 || permits > MAX_HALF_OPEN_PERMITS) {
+            throw new IllegalArgumentException("halfOpenPermits must be between 1 and "
+                + MAX_HALF_OPEN_PERMITS);
+        }
+        halfOpenPermits = permits;
+    }
+
+    /**
+     * Returns how many of the HALF_CLOSED test requests must succeed
+     * before the breaker closes again.
+     * @return int, never more than {@link #getHalfOpenPermits()}
+     */
+    public int getHalfOpenSuccessThreshold() {
+        int permits = halfOpenPermits;
+        int threshold = halfOpenSuccessThreshold;
+        return (threshold <= 0 || threshold > permits) ? permits : threshold;
+    }
+
+    /** Sets how many of the HALF_CLOSED test requests must succeed
+     *  before the breaker closes again. Once so many test requests have
+     *  failed that the threshold can no longer be reached, the breaker
+     *  trips OPEN again. By default every test request has to succeed.
+     *
+     * @param threshold number of successful test requests needed; values
+     *   above {@link #getHalfOpenPermits()} are treated as "all of them"
+     * @throws IllegalArgumentException if <code>threshold</code> is
+     *   less than 1
+     */
+    public void setHalfOpenSuccessThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("halfOpenSuccessThreshold must be greater than 0");
+        }
+        halfOpenSuccessThreshold = threshold;
+    }
+
     /** Returns a {@link String} representation of the breaker's
      * status; potentially useful for exposing to monitoring software.
      * @return <code>String</code> which is <code>"GREEN"</code> if
@@ -580,7 +808,29 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
      * @param listeners a list of interested parties for {@link CircuitBreaker} status events.
      */
     public void setListeners(ArrayList<CircuitBreakerNotificationCallback> listeners) {
-        cbNotifyList = Collections.synchronizedList(listeners);
+        cbNotifyList = new CopyOnWriteArrayList<CircuitBreakerNotificationCallback>(listeners);
+    }
+
+    /**
+     * Hands listener notifications to the given {@link Executor} instead
+     * of calling the listeners on the thread that caused the state
+     * change. An {@link AsyncNotificationDispatcher} keeps slow listeners
+     * from ever adding latency to service calls.
+     *
+     * @param dispatcher where to run listener notifications, or
+     *   <code>null</code> to notify listeners synchronously (the default)
+     */
+    public void setNotificationDispatcher(Executor dispatcher) {
+        this.notificationDispatcher = dispatcher;
+    }
+
+    /**
+     * Get the {@link Executor} used to run listener notifications.
+     * @return the dispatcher, or <code>null</code> if listeners are
+     *   notified synchronously.
+     */
+    public Executor getNotificationDispatcher() {
+        return notificationDispatcher;
     }
 
     /**
@@ -600,15 +850,136 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
         return exceptionMapper.map(this, cbe);
     }
 
-    protected void handleFailure(Throwable cause) throws Exception {
-        if (failureInterpreter == null || failureInterpreter.shouldTrip(cause)) {
-            this.tripException = cause;
-            trip();
+    /**
+     * Returns whether rejected calls get a cached, stackless exception
+     * rather than a freshly constructed one.
+     * @return boolean
+     */
+    public boolean isFastRejection() {
+        return fastRejection;
+    }
+
+    /**
+     * Turns fast rejection on or off. When on, calls rejected by an OPEN
+     * or HALF_CLOSED breaker all receive the same {@link
+     * CircuitBreakerException} instance, which carries the breaker name
+     * and state in its message but no stack trace. If an {@link
+     * CircuitBreakerExceptionMapper} is set it is consulted once, and
+     * its result is rethrown for later rejections until the mapper or
+     * name changes; mappers used this way should return exceptions that
+     * are safe to share between threads.
+     *
+     * @param fastRejection <code>true</code> to enable
+     */
+    public void setFastRejection(boolean fastRejection) {
+        this.fastRejection = fastRejection;
+    }
+
+    /**
+     * Returns the {@link WarmUpPolicy} applied after the breaker closes,
+     * or <code>null</code> if traffic resumes in full at once.
+     * @return the policy
+     */
+    public WarmUpPolicy getWarmUpPolicy() {
+        return warmUpPolicy;
+    }
+
+    /**
+     * Sets a {@link WarmUpPolicy} to ramp traffic back up with each time
+     * the breaker returns to CLOSED, whether on its own or through
+     * {@link #reset()}. While warming up, the calls beyond the admitted
+     * fraction are rejected as if the breaker were open, but are not
+     * counted as failures. Setting <code>null</code> ends any warm-up in
+     * progress.
+     * @param warmUpPolicy the policy, or <code>null</code>
+     */
+    public void setWarmUpPolicy(WarmUpPolicy warmUpPolicy) {
+        this.warmUpPolicy = warmUpPolicy;
+        if (warmUpPolicy == null) {
+            warmUp = null;
         }
-        else if (isAttemptLive) {
-            close();
+    }
+
+    /**
+     * Returns whether the breaker is CLOSED but still ramping traffic
+     * back up.
+     * @return boolean
+     */
+    public boolean isWarmingUp() {
+        WarmUpPolicy.Ramp ramp = warmUp;
+        return ramp != null
+            && ramp.fraction(TimeUnit.MILLISECONDS.toNanos(clock.currentTimeMillis())) < 1.0;
+    }
+
+    /**
+     * Returns the number of calls shed while warming up.
+     * @return long
+     */
+    public long getWarmUpShedCount() {
+        return warmUpShedCount.sum();
+    }
+
+    /**
+     * Builds (or, in fast-rejection mode, reuses) the exception thrown
+     * for a call this breaker refused to let through.
+     * @return the mapped exception to throw
+     */
+    protected Exception rejection() {
+        if (!fastRejection) {
+            return mapException(new CircuitBreakerException());
         }
 
+        long bits = stateWord.get() & STATE_MASK;
+        CachedRejection cached = (bits == HALF_CLOSED_BITS) ? halfClosedRejection
+            : (bits == CLOSED_BITS) ? warmUpRejection : openRejection;
+        if (cached == null || cached.name != name || cached.mapper != exceptionMapper) {
+            String state = (bits == HALF_CLOSED_BITS) ? "HALF_CLOSED"
+                : (bits == CLOSED_BITS) ? "warming up" : "OPEN";
+            CircuitBreakerException cbe = new CircuitBreakerException(name,
+                    "CircuitBreaker '" + name + "' is " + state, false);
+            cached = new CachedRejection(name, exceptionMapper, mapException(cbe));
+            if (bits == HALF_CLOSED_BITS) {
+                halfClosedRejection = cached;
+            } else if (bits == CLOSED_BITS) {
+                warmUpRejection = cached;
+            } else {
+                openRejection = cached;
+            }
+        }
+        return cached.exception;
+    }
+
+    private static final class CachedRejection {
+        final String name;
+        final CircuitBreakerExceptionMapper<? extends Exception> mapper;
+        final Exception exception;
+
+        CachedRejection(String name, CircuitBreakerExceptionMapper<? extends Exception> mapper,
+                Exception exception) {
+            this.name = name;
+            this.mapper = mapper;
+            this.exception = exception;
+        }
+    }
+
+    protected void handleFailure(Throwable cause) throws Exception {
+        handleFailure(cause, NOT_TIMED);
+    }
+
+    /**
+     * Records a failed service call, then rethrows its cause.
+     * @param cause what the service call threw
+     * @param startedNanos when the call started, as returned by
+     *   {@link #callStarted()}
+     * @throws Exception <code>cause</code>
+     */
+    protected void handleFailure(Throwable cause, long startedNanos) throws Exception {
+        handleFailure(cause, startedNanos, ANY_ROUND);
+    }
+
+    private void handleFailure(Throwable cause, long startedNanos, long ticket) throws Exception {
+        recordFailure(cause, startedNanos, ticket);
+
         if (cause instanceof Exception) {
             throw (Exception)cause;
         } else if (cause instanceof Error) {
@@ -619,50 +990,310 @@ public class CircuitBreaker implements MonitoredService, ServiceWrapper {
     }
 
     /**
-     * Reports a successful service call to the {@link CircuitBreaker},
-     * putting the <code>CircuitBreaker</code> back into the CLOSED
-     * state serving requests.
+     * Updates the breaker's state for a failed service call, tripping
+     * it if the {@link FailureInterpreter} says so.
+     * @param cause what the service call threw
      */
-    protected void close() {
-        state = BreakerState.CLOSED;
-        isAttemptLive = false;
-        notifyBreakerStateChange(getStatus());
+    protected void recordFailure(Throwable cause) {
+        recordFailure(cause, NOT_TIMED);
+    }
+
+    /**
+     * Updates the breaker's state for a failed service call, tripping
+     * it if the {@link FailureInterpreter} says so either because of
+     * the failure itself or because of how long the call took.
+     * @param cause what the service call threw
+     * @param startedNanos when the call started, as returned by
+     *   {@link #callStarted()}
+     */
+    protected void recordFailure(Throwable cause, long startedNanos) {
+        recordFailure(cause, startedNanos, ANY_ROUND);
+    }
+
+    private void recordFailure(Throwable cause, long startedNanos, long ticket) {
+        boolean shouldTrip = failureInterpreter == null || failureInterpreter.shouldTrip(cause);
+        if (tooSlow(startedNanos)) {
+            shouldTrip = true;
+        }
+        if (shouldTrip) {
+            if (!toleratedTestFailure(ticket)) {
+                this.tripException = cause;
+                trip();
+            }
+        }
+        else {
+            close(ticket);
+        }
+    }
+
+    /**
+     * Records a successful service call. Normally this is just {@link
+     * #close()}, but a {@link CallDurationFailureInterpreter} may decide
+     * the call was slow enough to trip the breaker anyway.
+     * @param startedNanos when the call started, as returned by
+     *   {@link #callStarted()}
+     */
+    protected void recordSuccess(long startedNanos) {
+        recordSuccess(startedNanos, ANY_ROUND);
+    }
+
+    private void recordSuccess(long startedNanos, long ticket) {
+        if (tooSlow(startedNanos)) {
+            if (!toleratedTestFailure(ticket)) {
+                trip();
+            }
+            return;
+        }
+        close(ticket);
+    }
+
+    /**
+     * Marks the start of a service call. Calls are only timed when the
+     * {@link FailureInterpreter} is a {@link
+     * CallDurationFailureInterpreter}, so other breakers never read the
+     * clock.
+     * @return the start time in nanoseconds, or a marker meaning the
+     *   call is not being timed
+     */
+    protected long callStarted() {
+        return (failureInterpreter instanceof CallDurationFailureInterpreter)
+            ? System.nanoTime() : NOT_TIMED;
     }
 
-    private synchronized boolean canAttempt() {
-        if (!(BreakerState.HALF_CLOSED == state) || isAttemptLive) {
+    private boolean tooSlow(long startedNanos) {
+        if (startedNanos == NOT_TIMED) {
             return false;
         }
-        return true;
+        FailureInterpreter fi = failureInterpreter;
+        return fi instanceof CallDurationFailureInterpreter
+            && ((CallDurationFailureInterpreter) fi).shouldTrip(System.nanoTime() - startedNanos);
     }
 
-    private void notifyBreakerStateChange(Status status) {
-        if (cbNotifyList != null && cbNotifyList.size() >= 1) {
-            for (CircuitBreakerNotificationCallback notifyObject : cbNotifyList) {
-                notifyObject.notify(status);
+    /**
+     * Reports a successful service call to the {@link CircuitBreaker}.
+     * If the breaker is HALF_CLOSED this counts towards the test
+     * requests needed to put it back into the CLOSED state serving
+     * requests; a late success from a call admitted before the breaker
+     * tripped leaves an OPEN breaker alone. Calls made through the
+     * breaker's own <code>invoke</code> methods only count here if they
+     * held a test permit for the current HALF_CLOSED round.
+     */
+    protected void close() {
+        close(ANY_ROUND);
+    }
+
+    private void close(long ticket) {
+        long word;
+        long next;
+        do {
+            word = stateWord.get();
+            if ((word & STATE_MASK) != HALF_CLOSED_BITS || !isProbeOf(ticket, word)) {
+                return;
             }
+            long successes = ((word >>> SUCCESSES_SHIFT) & COUNT_MASK) + 1;
+            next = (successes >= getHalfOpenSuccessThreshold())
+                ? CLOSED_BITS | (word & KEEP_BITS)
+                : word + ONE_SUCCESS;
+        } while (!stateWord.compareAndSet(word, next));
+        if ((next & STATE_MASK) == CLOSED_BITS && (word & STATE_MASK) != CLOSED_BITS) {
+            startWarmUp();
         }
+        notifyBreakerStateChange(word, next);
+    }
+
+    /* Records a failed HALF_CLOSED test request, returning false (and
+     * leaving the word alone) if the breaker should trip OPEN because
+     * the success threshold can no longer be reached. A failure landing
+     * in HALF_CLOSED from a call that holds no permit for the round is
+     * ignored. */
+    private boolean toleratedTestFailure(long ticket) {
+        while (true) {
+            long word = stateWord.get();
+            if ((word & STATE_MASK) != HALF_CLOSED_BITS) {
+                return false;
+            }
+            if (!isProbeOf(ticket, word)) {
+                return true;
+            }
+            long failures = ((word >>> FAILURES_SHIFT) & COUNT_MASK) + 1;
+            if (failures > halfOpenPermits - getHalfOpenSuccessThreshold()) {
+                return false;
+            }
+            if (stateWord.compareAndSet(word, word + ONE_FAILURE)) {
+                return true;
+            }
+        }
+    }
+
+    /* Listeners only hear about transitions that change the reported
+     * Status, so the steady CLOSED path never touches them. */
+    private void notifyBreakerStateChange(long from, long to) {
+        final Status status = toStatus(to);
+        if (status == toStatus(from)) {
+            return;
+        }
+
+        final List<CircuitBreakerNotificationCallback> listeners = cbNotifyList;
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+
+        Executor dispatcher = notificationDispatcher;
+        if (dispatcher == null) {
+            notifyListeners(listeners, status);
+            return;
+        }
+        dispatcher.execute(new Runnable() {
+            public void run() {
+                notifyListeners(listeners, status);
+            }
+        });
+    }
+
+    private static void notifyListeners(List<CircuitBreakerNotificationCallback> listeners,
+            Status status) {
+        for (CircuitBreakerNotificationCallback notifyObject : listeners) {
+            notifyObject.notify(status);
+        }
+    }
+
+    private static Status toStatus(long word) {
+        if ((word & BYPASS_BIT) != 0) return Status.DEGRADED;
+        long bits = word & STATE_MASK;
+        if (bits == OPEN_BITS) return Status.DOWN;
+        if (bits == HALF_CLOSED_BITS) return Status.DEGRADED;
+        return Status.UP;
     }
 
     /**
+     * Decides whether the breaker will let a request through, claiming
+     * one of the HALF_CLOSED "test request" permits for the caller if
+     * that is what admits it. A CLOSED breaker answers with a single
+     * volatile read; every other transition is a compare-and-set on the
+     * state word, so no more than the configured number of callers win
+     * test requests after a cooldown.
      * @return boolean whether the breaker will allow a request
      * through or not.
      */
     protected boolean allowRequest() {
-        if (this.isHardTrip) {
+        return admit() != REJECTED;
+    }
+
+    /* allowRequest(), also telling the caller whether it holds a test
+     * permit and for which HALF_CLOSED round, so that only outcomes of
+     * real test requests count towards closing or reopening. */
+    private long admit() {
+        while (true) {
+            long word = stateWord.get();
+            if ((word & HARD_TRIP_BIT) != 0) {
+                return REJECTED;
+            }
+
+            long bits = word & STATE_MASK;
+            if (bits == CLOSED_BITS) {
+                return (warmUp == null || !shedWhileWarmingUp()) ? NOT_A_PROBE : REJECTED;
+            }
+            if (bits == OPEN_BITS && !hasCooledDown()) {
+                return REJECTED;
+            }
+            if (bits == HALF_CLOSED_BITS
+                    && ((word >>> PERMITS_SHIFT) & COUNT_MASK) >= halfOpenPermits) {
+                return REJECTED;
+            }
+
+            long next = (bits == OPEN_BITS)
+                ? HALF_CLOSED_BITS | ONE_PERMIT | nextRound(word)
+                : word + ONE_PERMIT;
+            if (stateWord.compareAndSet(word, next)) {
+                if (bits == OPEN_BITS) {
+                    notifyBreakerStateChange(word, next);
+                }
+                return probeTicket(next);
+            }
+        }
+    }
+
+    /* The word's generation with a new HALF_CLOSED round begun, and the
+     * switches. */
+    private static long nextRound(long word) {
+        return ((word + ONE_GENERATION) & GENERATION_BITS) | (word & SWITCH_BITS);
+    }
+
+    private static long probeTicket(long word) {
+        return ((word & GENERATION_BITS) >>> GENERATION_SHIFT) + 1;
+    }
+
+    private static boolean isProbeOf(long ticket, long word) {
+        return ticket == ANY_ROUND || ticket == probeTicket(word);
+    }
+
+    /* Sheds about the share of calls the warm-up is not yet admitting,
+     * and ends the warm-up once it has run its course. */
+    private boolean shedWhileWarmingUp() {
+        WarmUpPolicy.Ramp ramp = warmUp;
+        if (ramp == null) {
+            return false;
+        }
+        double fraction = ramp.fraction(TimeUnit.MILLISECONDS.toNanos(clock.currentTimeMillis()));
+        if (fraction >= 1.0) {
+            warmUp = null;
             return false;
         }
-        else if (BreakerState.CLOSED == state) {
+        if (WarmUpPolicy.Ramp.shed(fraction)) {
+            warmUpShedCount.increment();
             return true;
         }
+        return false;
+    }
 
-        if (BreakerState.OPEN == state &&
-                clock.currentTimeMillis() - lastFailure.get() >= resetMillis.get()) {
-            state = BreakerState.HALF_CLOSED;
+    private void startWarmUp() {
+        WarmUpPolicy policy = warmUpPolicy;
+        if (policy != null) {
+            warmUp = policy.start(TimeUnit.MILLISECONDS.toNanos(clock.currentTimeMillis()), 0.0);
         }
+    }
+
+    private boolean hasCooledDown() {
+        return clock.currentTimeMillis() - lastFailure.get() >= resetMillis.get();
+    }
+
+    /**
+     * Returns the current {@link BreakerState} of this breaker.
+     * @return the current state
+     */
+    protected BreakerState getState() {
+        return toBreakerState(stateWord.get());
+    }
+
+    /**
+     * Forces the breaker into the given {@link BreakerState} without
+     * notifying listeners, leaving the bypass and hard-trip switches
+     * alone. Mostly useful for testing.
+     * @param state the state to move to
+     */
+    protected void setState(BreakerState state) {
+        long bits = (state == BreakerState.OPEN) ? OPEN_BITS
+            : (state == BreakerState.HALF_CLOSED) ? HALF_CLOSED_BITS : CLOSED_BITS;
+        long word;
+        do {
+            word = stateWord.get();
+        } while (!stateWord.compareAndSet(word, bits | (word & KEEP_BITS)));
+    }
 
-        return canAttempt();
+    /**
+     * Returns whether any "test" attempt permitted in the HALF_CLOSED
+     * state has been handed out.
+     * @return boolean
+     */
+    protected boolean isAttemptLive() {
+        return ((stateWord.get() >>> PERMITS_SHIFT) & COUNT_MASK) != 0;
+    }
 
+    private static BreakerState toBreakerState(long word) {
+        long bits = word & STATE_MASK;
+        if (bits == OPEN_BITS) return BreakerState.OPEN;
+        if (bits == HALF_CLOSED_BITS) return BreakerState.HALF_CLOSED;
+        return BreakerState.CLOSED;
     }
 
     private String getFullStackTrace(Throwable t) {
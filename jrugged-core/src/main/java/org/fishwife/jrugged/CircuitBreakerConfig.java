@@ -22,6 +22,8 @@ public class CircuitBreakerConfig {
 
     private FailureInterpreter failureInterpreter;
     private long resetMillis;
+    private int halfOpenPermits = -1;
+    private int halfOpenSuccessThreshold = -1;
 
     public CircuitBreakerConfig(long resetMillis,
             FailureInterpreter failureInterpreter) {
@@ -29,6 +31,24 @@ public class CircuitBreakerConfig {
         this.failureInterpreter = failureInterpreter;
     }
 
+    /**
+     * Configuration that also sets up the HALF_CLOSED test requests of the
+     * {@link org.fishwife.jrugged.CircuitBreaker}.
+     * @param resetMillis the cooldown period in milliseconds
+     * @param failureInterpreter the {@link FailureInterpreter} to use
+     * @param halfOpenPermits how many test requests to let through once
+     *   the cooldown has passed; values below 1 keep the default
+     * @param halfOpenSuccessThreshold how many of those test requests must
+     *   succeed before the breaker closes; values below 1 keep the default
+     */
+    public CircuitBreakerConfig(long resetMillis,
+            FailureInterpreter failureInterpreter,
+            int halfOpenPermits, int halfOpenSuccessThreshold) {
+        this(resetMillis, failureInterpreter);
+        this.halfOpenPermits = halfOpenPermits;
+        this.halfOpenSuccessThreshold = halfOpenSuccessThreshold;
+    }
+
     public long getResetMillis() {
         return resetMillis;
     }
@@ -36,4 +56,12 @@ public class CircuitBreakerConfig {
     public FailureInterpreter getFailureInterpreter() {
         return failureInterpreter;
     }
+
+    public int getHalfOpenPermits() {
+        return halfOpenPermits;
+    }
+
+    public int getHalfOpenSuccessThreshold() {
+        return halfOpenSuccessThreshold;
+    }
 }
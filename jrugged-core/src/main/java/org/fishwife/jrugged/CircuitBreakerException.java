@@ -24,6 +24,33 @@ public class CircuitBreakerException extends RuntimeException {
 
     private static final long serialVersionUID = 1L;
 
+    private final String breakerName;
+
     /** Default constructor. */
-    public CircuitBreakerException() { }
+    public CircuitBreakerException() {
+        breakerName = null;
+    }
+
+    /**
+     * Creates an exception identifying the rejecting breaker.
+     * @param breakerName the name of the {@link CircuitBreaker}
+     * @param message the detail message
+     * @param writableStackTrace <code>false</code> to skip filling in
+     *   the stack trace, so a single instance can be cheaply created and
+     *   rethrown for many rejected calls
+     */
+    protected CircuitBreakerException(String breakerName, String message,
+            boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.breakerName = breakerName;
+    }
+
+    /**
+     * Returns the name of the {@link CircuitBreaker} that rejected the
+     * call, if known.
+     * @return the breaker name, or <code>null</code>
+     */
+    public String getBreakerName() {
+        return breakerName;
+    }
 }
@@ -31,6 +31,8 @@ public class CircuitBreakerFactory {
     public static final String LIMIT_KEY = "limit";
     public static final String WINDOWMILLIS_KEY = "windowMillis";
     public static final String RESETMILLIS_KEY = "resetMillis";
+    public static final String HALFOPENPERMITS_KEY = "halfOpenPermits";
+    public static final String HALFOPENSUCCESSTHRESHOLD_KEY = "halfOpenSuccessThreshold";
 
     private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakerMap =
             new ConcurrentHashMap<String, CircuitBreaker>();
@@ -67,7 +69,9 @@ public class CircuitBreakerFactory {
      * property override values.  The override values can be specified as:<br>
      *   circuit.{circuit_name}.limit<br>
      *   circuit.{circuit_name}.resetmillis<br>
-     *   circuit.{circuit_name}.windowmillis
+     *   circuit.{circuit_name}.windowmillis<br>
+     *   circuit.{circuit_name}.halfOpenPermits<br>
+     *   circuit.{circuit_name}.halfOpenSuccessThreshold
      * @param properties the {@link Properties} object to search.
      */
     public void setProperties(Properties properties) {
@@ -108,19 +112,50 @@ public class CircuitBreakerFactory {
             circuit.setResetMillis(resetMillis);
         }
 
+        configureHalfOpenPermits(name, circuit, config);
+
         if (fi instanceof DefaultFailureInterpreter) {
             configureDefaultFailureInterpreter(name, resetMillis, circuit);
         }
         else {
             logger.info(
-                "Created CircuitBreaker '{}', resetMillis={}",
+                "Created CircuitBreaker '{}', resetMillis={}, halfOpenPermits={}",
                 new Object[] {
                   name,
-                  resetMillis
+                  resetMillis,
+                  circuit.getHalfOpenPermits()
                 });
         }
     }
 
+    private void configureHalfOpenPermits(String name, CircuitBreaker circuit,
+            CircuitBreakerConfig config) {
+        int permits = config.getHalfOpenPermits();
+        Integer permitsOverride = getIntegerPropertyOverrideValue(name, HALFOPENPERMITS_KEY);
+        if (permitsOverride != null) {
+            permits = permitsOverride;
+        }
+
+        int threshold = config.getHalfOpenSuccessThreshold();
+        Integer thresholdOverride = getIntegerPropertyOverrideValue(name, HALFOPENSUCCESSTHRESHOLD_KEY);
+        if (thresholdOverride != null) {
+            threshold = thresholdOverride;
+        }
+
+        if (permits > 0) {
+            if (permits > CircuitBreaker.MAX_HALF_OPEN_PERMITS) {
+                logger.error("Ignoring halfOpenPermits={} for CircuitBreaker '{}', maximum is {}",
+                        new Object[] { permits, name, CircuitBreaker.MAX_HALF_OPEN_PERMITS });
+            } else {
+                circuit.setHalfOpenPermits(permits);
+            }
+        }
+
+        if (threshold > 0) {
+            circuit.setHalfOpenSuccessThreshold(threshold);
+        }
+    }
+
     private void configureDefaultFailureInterpreter(String name, long resetMillis, CircuitBreaker circuit) {
         DefaultFailureInterpreter fi = (DefaultFailureInterpreter) circuit.getFailureInterpreter();
 
@@ -137,12 +172,13 @@ public class CircuitBreakerFactory {
         }
 
         logger.info(
-            "Created CircuitBreaker '{}', limit={}, windowMillis={}, resetMillis={}",
+            "Created CircuitBreaker '{}', limit={}, windowMillis={}, resetMillis={}, halfOpenPermits={}",
             new Object[] {
               name,
               fi.getLimit(),
               fi.getWindowMillis(),
-              resetMillis
+              resetMillis,
+              circuit.getHalfOpenPermits()
             });
     }
 
@@ -0,0 +1,581 @@
+/* CoDelServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+
+/**
+ * A {@link ServiceWrapper} that runs at most a fixed number of calls at
+ * once and queues the rest, shedding queued calls with controlled-delay
+ * (CoDel) admission rather than letting the queue grow until every call
+ * in it has outlived its caller's patience.
+ * <p>
+ * The wrapper watches the sojourn time, how long each call waited in the
+ * queue. If even the shortest sojourn over an interval exceeds the
+ * target, the queue is standing rather than absorbing a burst, and the
+ * wrapper considers itself overloaded until an interval passes whose
+ * shortest sojourn is within target again. While overloaded it serves
+ * the queue last-in-first-out, so fresh calls still meet their callers'
+ * deadlines, and sheds any call that has already waited longer than the
+ * target. No call ever waits longer than one interval.
+ * <p>
+ * Calls run on the caller's thread; a caller whose call is shed gets a
+ * {@link LoadSheddingException}. {@link #invokeAsync(Supplier)} queues
+ * the same way without parking the caller: a queued call is started by
+ * whichever call hands over its slot, and holds the slot until its stage
+ * completes.
+ */
+public class CoDelServiceWrapper implements MonitoredService, ServiceWrapper {
+
+    public static final long DEFAULT_TARGET_MILLIS = 5L;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100L;
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int SHED = 2;
+
+    /* A queued call: either a parked thread or, for invokeAsync, a call
+     * to be started when granted. */
+    private static final class Waiter {
+        final Thread thread;
+        final AsyncCall<?> async;
+        final long enqueuedNanos;
+        volatile int state = WAITING;
+
+        Waiter(long enqueuedNanos) {
+            this.thread = Thread.currentThread();
+            this.async = null;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        Waiter(long enqueuedNanos, AsyncCall<?> async) {
+            this.thread = null;
+            this.async = async;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final int maxQueueLength;
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>();
+
+    /* Guarded by lock. */
+    private int inFlight;
+    private boolean overloaded;
+    private long intervalStartNanos;
+    private long minSojournNanos = Long.MAX_VALUE;
+    private final SampledQuantile sojournMicros = new SampledQuantile(60L, TimeUnit.SECONDS);
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * Creates a wrapper with the default target and interval and an
+     * unbounded queue.
+     * @param name the name for the wrapper
+     * @param maxConcurrentCalls how many calls may run at once
+     */
+    public CoDelServiceWrapper(String name, int maxConcurrentCalls) {
+        this(name, maxConcurrentCalls, Integer.MAX_VALUE,
+                DEFAULT_TARGET_MILLIS, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param name the name for the wrapper
+     * @param maxConcurrentCalls how many calls may run at once
+     * @param maxQueueLength how many calls may wait at once
+     * @param targetMillis the queueing delay that is acceptable to stand
+     * @param intervalMillis how long the delay may stay above target
+     *   before the queue counts as overloaded, and the longest any call
+     *   waits
+     */
+    public CoDelServiceWrapper(String name, int maxConcurrentCalls, int maxQueueLength,
+            long targetMillis, long intervalMillis) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be at least 1");
+        }
+        if (maxQueueLength < 0) {
+            throw new IllegalArgumentException("maxQueueLength must not be negative");
+        }
+        if (targetMillis <= 0 || intervalMillis < targetMillis) {
+            throw new IllegalArgumentException("need 0 < targetMillis <= intervalMillis");
+        }
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueueLength = maxQueueLength;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.intervalStartNanos = nanoTime();
+    }
+
+    /** Wrap the given service call with the CoDel queueing logic.
+     *  @param c the {@link Callable} to attempt
+     *  @return whatever c would return on success
+     *  @throws LoadSheddingException if the call was shed
+     *  @throws InterruptedException if the caller was interrupted while
+     *    queued
+     *  @throws Exception if <code>c</code> throws one during execution
+     */
+    public <T> T invoke(Callable<T> c) throws Exception {
+        acquire();
+        try {
+            return c.call();
+        } finally {
+            release();
+        }
+    }
+
+    /** Wrap the given service call with the CoDel queueing logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @throws LoadSheddingException if the call was shed
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    /** Wrap the given service call with the CoDel queueing logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @param result what to return after <code>r</code> succeeds
+     *  @return result
+     *  @throws LoadSheddingException if the call was shed
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wrap the given service call with the CoDel queueing logic,
+     *  reporting the outcome instead of throwing. A shed call yields
+     *  {@link InvocationResult#rejected()}.
+     *  @param c the {@link Callable} to attempt
+     *  @return the outcome of the call
+     */
+    @Override
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        try {
+            acquire();
+        } catch (LoadSheddingException e) {
+            return InvocationResult.rejected();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return InvocationResult.failed(e);
+        }
+        try {
+            return InvocationResult.of(c);
+        } finally {
+            release();
+        }
+    }
+
+    /** Wrap the given asynchronous service call with the CoDel queueing
+     *  logic without blocking the caller. If no slot is free the call is
+     *  queued like any other and started later, when a finishing call
+     *  hands over its slot; it holds the slot until its stage completes.
+     *  Cancelling the returned stage while the call is queued takes it
+     *  out of the queue.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome, or failing
+     *    with a {@link LoadSheddingException} if the call was shed
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        final AsyncCall<T> call = new AsyncCall<T>(s);
+        final Waiter w;
+        lock.lock();
+        try {
+            long now = nanoTime();
+            if (inFlight < maxConcurrentCalls && queue.isEmpty()) {
+                inFlight++;
+                recordSojourn(0L, now);
+                w = null;
+            } else if (queue.size() >= maxQueueLength) {
+                return AsyncSupport.failed(shed("queue full"));
+            } else {
+                w = new Waiter(now, call);
+                queue.addLast(w);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (w == null) {
+            call.start();
+        } else {
+            call.queued(w);
+        }
+        return call.result;
+    }
+
+    /* An asynchronous call, queued or holding a slot. */
+    private final class AsyncCall<T> {
+        final Supplier<CompletionStage<T>> supplier;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        volatile Timeout timer;
+
+        AsyncCall(Supplier<CompletionStage<T>> supplier) {
+            this.supplier = supplier;
+        }
+
+        /* Bounds the wait to one interval, and leaves the queue if the
+         * caller gives up first. */
+        void queued(final Waiter w) {
+            timer = AsyncSupport.schedule(new Runnable() {
+                public void run() {
+                    if (leaveQueue(w)) {
+                        result.completeExceptionally(shed("waited longer than "
+                            + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + "ms"));
+                    }
+                }
+            }, intervalNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    if (result.isCancelled()) {
+                        leaveQueue(w);
+                    }
+                }
+            });
+        }
+
+        /* Runs once the call holds a slot. */
+        void start() {
+            cancelTimer();
+            if (result.isDone()) {
+                release();
+                return;
+            }
+            admitted.increment();
+            AsyncSupport.start(supplier).whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    release();
+                    if (failure == null) {
+                        result.complete(value);
+                    } else {
+                        result.completeExceptionally(failure);
+                    }
+                }
+            });
+        }
+
+        void shedWhileQueued() {
+            cancelTimer();
+            result.completeExceptionally(shed("overloaded, waited past target"));
+        }
+
+        private void cancelTimer() {
+            Timeout t = timer;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+
+    /* Takes a waiter that is still queued out of the queue. */
+    private boolean leaveQueue(Waiter w) {
+        lock.lock();
+        try {
+            if (w.state != WAITING) {
+                return false;
+            }
+            queue.remove(w);
+            w.state = SHED;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        Waiter w;
+        lock.lock();
+        try {
+            long now = nanoTime();
+            if (inFlight < maxConcurrentCalls && queue.isEmpty()) {
+                inFlight++;
+                recordSojourn(0L, now);
+                admitted.increment();
+                return;
+            }
+            if (queue.size() >= maxQueueLength) {
+                throw shed("queue full");
+            }
+            w = new Waiter(now);
+            queue.addLast(w);
+        } finally {
+            lock.unlock();
+        }
+
+        long deadline = w.enqueuedNanos + intervalNanos;
+        boolean interrupted = false;
+        while (w.state == WAITING) {
+            long remaining = deadline - nanoTime();
+            if (remaining <= 0 || Thread.interrupted()) {
+                interrupted = Thread.currentThread().isInterrupted() || remaining > 0;
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+
+        if (w.state == WAITING) {
+            lock.lock();
+            try {
+                if (w.state == WAITING) {
+                    queue.remove(w);
+                    w.state = SHED;
+                    if (interrupted) {
+                        throw new InterruptedException();
+                    }
+                    throw shed("waited longer than " + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + "ms");
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (w.state == SHED) {
+            // shed while we were handling an interrupt; keep it for the caller
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            throw shed("overloaded, waited past target");
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        admitted.increment();
+    }
+
+    /* Hands the slot to the next waiter, if any, shedding the stale ones
+     * while overloaded. Queued asynchronous calls are started or failed
+     * once the lock is released. */
+    private void release() {
+        Waiter granted = null;
+        ArrayList<Waiter> shedAsync = null;
+        lock.lock();
+        try {
+            long now = nanoTime();
+            while (true) {
+                boolean lifo = overloaded;
+                Waiter next = lifo ? queue.pollLast() : queue.pollFirst();
+                if (next == null) {
+                    inFlight--;
+                    break;
+                }
+                long sojourn = now - next.enqueuedNanos;
+                recordSojourn(sojourn, now);
+                if (lifo && sojourn > targetNanos) {
+                    next.state = SHED;
+                    if (next.async == null) {
+                        LockSupport.unpark(next.thread);
+                    } else {
+                        if (shedAsync == null) {
+                            shedAsync = new ArrayList<Waiter>();
+                        }
+                        shedAsync.add(next);
+                    }
+                    continue;
+                }
+                next.state = GRANTED;
+                if (next.async == null) {
+                    LockSupport.unpark(next.thread);
+                } else {
+                    granted = next;
+                }
+                break;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (shedAsync != null) {
+            for (Waiter w : shedAsync) {
+                w.async.shedWhileQueued();
+            }
+        }
+        if (granted != null) {
+            granted.async.start();
+        }
+    }
+
+    /* CoDel's state machine: overloaded while the smallest sojourn over
+     * each whole interval stays above target. Called with the lock held. */
+    private void recordSojourn(long sojournNanos, long now) {
+        sojournMicros.addSample(TimeUnit.NANOSECONDS.toMicros(sojournNanos));
+        if (sojournNanos < minSojournNanos) {
+            minSojournNanos = sojournNanos;
+        }
+        if (now - intervalStartNanos >= intervalNanos) {
+            overloaded = minSojournNanos > targetNanos;
+            minSojournNanos = Long.MAX_VALUE;
+            intervalStartNanos = now;
+        }
+    }
+
+    private LoadSheddingException shed(String reason) {
+        shed.increment();
+        return new LoadSheddingException(name, reason);
+    }
+
+    /**
+     * Returns the current time in nanoseconds; overridable for testing.
+     * @return long
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Reports {@link Status#DEGRADED} while the queue is overloaded and
+     * calls are being served last-in-first-out, and {@link Status#UP}
+     * otherwise.
+     * @return the {@link ServiceStatus} of this wrapper
+     */
+    public ServiceStatus getServiceStatus() {
+        if (isOverloaded()) {
+            return new ServiceStatus(name, Status.DEGRADED, "Queue overloaded");
+        }
+        return new ServiceStatus(name, Status.UP);
+    }
+
+    /**
+     * Returns whether the queue is overloaded, and so being served
+     * last-in-first-out with stale calls shed.
+     * @return boolean
+     */
+    public boolean isOverloaded() {
+        lock.lock();
+        try {
+            return overloaded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public long getTargetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(targetNanos);
+    }
+
+    public long getIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+
+    /**
+     * Returns the number of calls currently running.
+     * @return int
+     */
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls currently queued.
+     * @return int
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls that were run.
+     * @return long
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * Returns the number of calls that were shed.
+     * @return long
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * Returns the median time calls spent queued over the last minute,
+     * in milliseconds.
+     * @return double
+     */
+    public double getMedianSojournMillis() {
+        return sojournPercentileMillis(50);
+    }
+
+    /**
+     * Returns the 95th percentile of the time calls spent queued over
+     * the last minute, in milliseconds.
+     * @return double
+     */
+    public double get95thPercentileSojournMillis() {
+        return sojournPercentileMillis(95);
+    }
+
+    /**
+     * Returns the 99th percentile of the time calls spent queued over
+     * the last minute, in milliseconds.
+     * @return double
+     */
+    public double get99thPercentileSojournMillis() {
+        return sojournPercentileMillis(99);
+    }
+
+    private double sojournPercentileMillis(int percentile) {
+        lock.lock();
+        try {
+            return sojournMicros.getPercentile(percentile) / 1000.0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
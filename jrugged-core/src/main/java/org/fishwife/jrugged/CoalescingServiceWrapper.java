@@ -0,0 +1,229 @@
+/* CoalescingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical calls into one ("single flight"). The
+ * caller supplies a key identifying the call, such as the cache key
+ * being loaded; while a call for a key is in flight, further calls for
+ * the same key do not run but wait for it and receive its result, or
+ * its exception. Once the call completes its key is forgotten, so the
+ * next call for it runs afresh: nothing is cached.
+ * <p>
+ * In-flight calls live in a {@link ConcurrentHashMap}, which locks per
+ * bin, so calls for different keys do not contend. Synchronous and
+ * {@link CompletionStage}-based calls for the same key coalesce with
+ * each other.
+ * <p>
+ * Calls sharing a key must be interchangeable, including in the type
+ * they return.
+ *
+ * @param <K> the key type; must have sound <code>equals</code> and
+ *   <code>hashCode</code>
+ */
+public class CoalescingServiceWrapper<K> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<Object>> inFlight =
+        new ConcurrentHashMap<K, CompletableFuture<Object>>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Calls <code>c</code>, unless a call for <code>key</code> is
+     * already in flight, in which case waits for that one instead.
+     * @param key identifies the call
+     * @param c the {@link Callable} to attempt
+     * @return whatever the call for <code>key</code> returned
+     * @throws Exception whatever the call for <code>key</code> threw
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T invoke(K key, Callable<T> c) throws Exception {
+        calls.increment();
+        CompletableFuture<Object> mine = new CompletableFuture<Object>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return (T) await(existing);
+        }
+
+        T result;
+        try {
+            result = c.call();
+        } catch (Exception e) {
+            finish(key, mine, null, e);
+            throw e;
+        } catch (Error e) {
+            finish(key, mine, null, e);
+            throw e;
+        }
+        finish(key, mine, result, null);
+        return result;
+    }
+
+    /**
+     * Runs <code>r</code>, unless a call for <code>key</code> is already
+     * in flight, in which case waits for that one instead.
+     * @param key identifies the call
+     * @param r the {@link Runnable} to attempt
+     * @throws Exception whatever the call for <code>key</code> threw
+     */
+    public void invoke(K key, Runnable r) throws Exception {
+        invoke(key, new CallableAdapter<Void>(r));
+    }
+
+    /**
+     * Starts the asynchronous call, unless a call for <code>key</code>
+     * is already in flight, in which case shares that one's outcome.
+     * Each caller gets its own stage, so one caller cancelling its stage
+     * does not affect the others.
+     * @param key identifies the call
+     * @param s starts the service call
+     * @return a stage completing with the outcome of the call for
+     *   <code>key</code>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletionStage<T> invokeAsync(final K key, Supplier<CompletionStage<T>> s) {
+        calls.increment();
+        final CompletableFuture<Object> mine = new CompletableFuture<Object>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return (CompletionStage<T>) copyOf(existing);
+        }
+
+        AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                finish(key, mine, value, (failure == null) ? null : AsyncSupport.unwrap(failure));
+            }
+        });
+        return (CompletionStage<T>) copyOf(mine);
+    }
+
+    /**
+     * Returns a {@link ServiceWrapper} that coalesces every call it
+     * wraps under <code>key</code>, for use in a {@link
+     * ServiceWrapperChain} or wherever a plain wrapper is expected.
+     * @param key identifies the calls
+     * @return the wrapper
+     */
+    public ServiceWrapper forKey(final K key) {
+        return new ServiceWrapper() {
+            public <T> T invoke(Callable<T> c) throws Exception {
+                return CoalescingServiceWrapper.this.invoke(key, c);
+            }
+
+            public void invoke(Runnable r) throws Exception {
+                CoalescingServiceWrapper.this.invoke(key, r);
+            }
+
+            public <T> T invoke(Runnable r, T result) throws Exception {
+                return CoalescingServiceWrapper.this.invoke(key, new CallableAdapter<T>(r, result));
+            }
+
+            @Override
+            public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+                return CoalescingServiceWrapper.this.invokeAsync(key, s);
+            }
+        };
+    }
+
+    /* Forgets the key before publishing the outcome, so that callers
+     * arriving afterwards start a fresh call rather than joining one
+     * that has already finished. */
+    private void finish(K key, CompletableFuture<Object> call, Object value, Throwable failure) {
+        inFlight.remove(key, call);
+        if (failure == null) {
+            call.complete(value);
+        } else {
+            call.completeExceptionally(failure);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static CompletableFuture<Object> copyOf(CompletableFuture<Object> call) {
+        CompletableFuture<Object> copy = new CompletableFuture<Object>();
+        AsyncSupport.relay(call, copy);
+        return copy;
+    }
+
+    /**
+     * Returns the number of calls currently in flight, one per key.
+     * @return int
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Returns the number of calls made through this wrapper.
+     * @return long
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * Returns the number of calls that joined a call already in flight
+     * instead of running.
+     * @return long
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of calls that actually ran.
+     * @return long
+     */
+    public long getExecutionCount() {
+        return getCallCount() - getCoalescedCount();
+    }
+
+    /**
+     * Returns the share of calls, from 0 to 1, that joined a call
+     * already in flight instead of running.
+     * @return double
+     */
+    public double getCoalescingRatio() {
+        long total = getCallCount();
+        return (total == 0) ? 0.0 : (double) getCoalescedCount() / total;
+    }
+}
@@ -38,6 +38,17 @@ public class ConstantFlowRegulator implements ServiceWrapper {
 
     ConstantFlowRegulatorExceptionMapper<? extends Exception> exceptionMapper;
 
+    private volatile boolean fastRejection = false;
+
+    /** Shared rejection used in fast-rejection mode; cleared whenever
+     *  the threshold or exception mapper changes. */
+    private volatile Exception cachedRejection;
+
+    private volatile WarmUpPolicy warmUpPolicy;
+
+    /** The warm-up to a raised rate in progress, or <code>null</code>. */
+    private volatile WarmUpPolicy.Ramp warmUp;
+
     public ConstantFlowRegulator() {
     }
 
@@ -70,7 +81,7 @@ public class ConstantFlowRegulator implements ServiceWrapper {
             return c.call();
         }
         else {
-            throw mapException(new FlowRateExceededException());
+            throw rejection();
         }
     }
 
@@ -88,7 +99,7 @@ public class ConstantFlowRegulator implements ServiceWrapper {
             r.run();
         }
         else {
-            throw mapException(new FlowRateExceededException());
+            throw rejection();
         }
     }
 
@@ -110,8 +121,24 @@ public class ConstantFlowRegulator implements ServiceWrapper {
             return result;
         }
         else {
-            throw mapException(new FlowRateExceededException());
+            throw rejection();
+        }
+    }
+
+    /**
+     *  Wrap the given service call with the {@link ConstantFlowRegulator}
+     *  protection logic, reporting the outcome instead of throwing. A
+     *  call over the configured rate yields the shared {@link
+     *  InvocationResult#rejected()} result, and no exception is created.
+     *  @param c the {@link Callable} to attempt
+     *  @return the outcome of the call
+     */
+    @Override
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        if (!canProceed()) {
+            return InvocationResult.rejected();
         }
+        return InvocationResult.of(c);
     }
 
     protected synchronized boolean canProceed() {
@@ -124,7 +151,12 @@ public class ConstantFlowRegulator implements ServiceWrapper {
             return true;
         }
 
-        if ((System.currentTimeMillis() - lastRequestOccurance) > deltaWaitTimeMillis) {
+        long delta = deltaWaitTimeMillis;
+        if (warmUp != null) {
+            delta = (long) (delta / warmUpFraction(nanoTime()));
+        }
+
+        if ((System.currentTimeMillis() - lastRequestOccurance) > delta) {
             lastRequestOccurance = System.currentTimeMillis();
             return true;
         }
@@ -139,8 +171,13 @@ public class ConstantFlowRegulator implements ServiceWrapper {
      * @param i the requests per second threshold for this flow regulator
      */
     public void setRequestPerSecondThreshold(int i) {
+        int old = this.requestPerSecondThreshold;
         this.requestPerSecondThreshold = i;
         calculateDeltaWaitTime();
+        cachedRejection = null;
+        if (old > 0 && i > old) {
+            rateRaised(old, i);
+        }
     }
 
     /**
@@ -172,6 +209,114 @@ public class ConstantFlowRegulator implements ServiceWrapper {
      */
     public void setExceptionMapper(ConstantFlowRegulatorExceptionMapper<? extends Exception> mapper) {
         this.exceptionMapper = mapper;
+        cachedRejection = null;
+    }
+
+    /**
+     * Returns whether rejected calls get a cached, stackless exception
+     * rather than a freshly constructed one.
+     * @return boolean
+     */
+    public boolean isFastRejection() {
+        return fastRejection;
+    }
+
+    /**
+     * Turns fast rejection on or off. When on, every call that exceeds
+     * the configured rate receives the same {@link
+     * FlowRateExceededException} instance, which has no stack trace.
+     * If a {@link ConstantFlowRegulatorExceptionMapper} is set it is
+     * consulted once and its result is rethrown for later rejections,
+     * so it should return an exception that is safe to share.
+     *
+     * @param fastRejection <code>true</code> to enable
+     */
+    public void setFastRejection(boolean fastRejection) {
+        this.fastRejection = fastRejection;
+    }
+
+    /**
+     * Returns the {@link WarmUpPolicy} applied when the rate is raised,
+     * or <code>null</code> if a raised rate applies at once.
+     * @return the policy
+     */
+    public WarmUpPolicy getWarmUpPolicy() {
+        return warmUpPolicy;
+    }
+
+    /**
+     * Sets a {@link WarmUpPolicy} to ramp up to a raised rate with: the
+     * admitted rate starts at the higher of the old rate and the policy's
+     * initial fraction of the new one, and reaches the new rate once the
+     * warm-up is over. Setting <code>null</code> ends any warm-up in
+     * progress.
+     * @param warmUpPolicy the policy, or <code>null</code>
+     */
+    public void setWarmUpPolicy(WarmUpPolicy warmUpPolicy) {
+        this.warmUpPolicy = warmUpPolicy;
+        if (warmUpPolicy == null) {
+            warmUp = null;
+        }
+    }
+
+    /**
+     * Starts a warm-up from the policy's initial fraction of the current
+     * rate, for example when the backend behind this regulator has just
+     * recovered. Does nothing if no {@link WarmUpPolicy} is set.
+     */
+    public void startWarmUp() {
+        startWarmUp(0.0);
+    }
+
+    /**
+     * Returns whether the regulator is still ramping up to its rate.
+     * @return boolean
+     */
+    public boolean isWarmingUp() {
+        return warmUp != null && warmUpFraction(nanoTime()) < 1.0;
+    }
+
+    /**
+     * Called when the rate is raised; starts a warm-up from the old rate
+     * if a {@link WarmUpPolicy} is set.
+     * @param oldRate the previous requests per second
+     * @param newRate the new requests per second
+     */
+    protected void rateRaised(double oldRate, double newRate) {
+        startWarmUp(oldRate / newRate);
+    }
+
+    private void startWarmUp(double fromFraction) {
+        WarmUpPolicy policy = warmUpPolicy;
+        if (policy != null) {
+            warmUp = policy.start(nanoTime(), fromFraction);
+        }
+    }
+
+    /**
+     * Returns the fraction of the configured rate currently admitted:
+     * below 1 while warming up, otherwise exactly 1.
+     * @param nowNanos the current {@link #nanoTime()}
+     * @return the fraction, in (0, 1]
+     */
+    protected double warmUpFraction(long nowNanos) {
+        WarmUpPolicy.Ramp ramp = warmUp;
+        if (ramp == null) {
+            return 1.0;
+        }
+        double fraction = ramp.fraction(nowNanos);
+        if (fraction >= 1.0) {
+            warmUp = null;
+        }
+        return fraction;
+    }
+
+    /**
+     * Returns the current time in nanoseconds; overridable for testing.
+     * @return long
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
     }
 
     private void calculateDeltaWaitTime() {
@@ -180,6 +325,28 @@ public class ConstantFlowRegulator implements ServiceWrapper {
         }
     }
 
+    /**
+     * Returns the exception to throw for a call over the configured rate:
+     * the shared instance in fast-rejection mode, a new one otherwise,
+     * passed through the {@link ConstantFlowRegulatorExceptionMapper} if
+     * one is set.
+     * @return the exception to throw
+     */
+    protected Exception rejection() {
+        if (!fastRejection) {
+            return mapException(new FlowRateExceededException());
+        }
+
+        Exception e = cachedRejection;
+        if (e == null) {
+            e = mapException(new FlowRateExceededException(
+                    "Rate Exceeded (Max=" + requestPerSecondThreshold + ")",
+                    requestPerSecondThreshold, false));
+            cachedRejection = e;
+        }
+        return e;
+    }
+
     private Exception mapException(FlowRateExceededException e) {
         if (exceptionMapper == null)
             return e;
@@ -28,6 +28,7 @@ import java.util.Set;
 public final class DefaultFailureInterpreter implements FailureInterpreter {
 
     private Set<Class<? extends Throwable>> ignore = new HashSet<Class<? extends Throwable>>();
+    private volatile ExceptionClassifier ignoreClassifier = ExceptionClassifier.none();
     private int limit = 0;
     private long windowMillis = 0;
 
@@ -100,10 +101,8 @@ public final class DefaultFailureInterpreter implements FailureInterpreter {
     }
 
     public boolean shouldTrip(Throwable cause) {
-        for(Class<?> clazz : ignore) {
-            if (clazz.isInstance(cause)) {
-                return false;
-            }
+        if (ignoreClassifier.matches(cause)) {
+            return false;
         }
 
         // if Exception is of specified type, and window conditions exist,
@@ -152,6 +151,7 @@ public final class DefaultFailureInterpreter implements FailureInterpreter {
      */
     public synchronized void setIgnore(Class<? extends Throwable>[] ignore) {
         this.ignore = new HashSet<Class<? extends Throwable>>(Arrays.asList(ignore));
+        this.ignoreClassifier = new ExceptionClassifier(this.ignore);
     }
 
     /**
@@ -0,0 +1,98 @@
+/* ExceptionClassifier.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Decides whether a {@link Throwable} is an instance of any of a fixed set
+ * of classes, caching the answer per concrete exception class. The first
+ * time a given exception class is seen its hierarchy is checked against
+ * the whole set; after that the decision is a single lookup, however long
+ * the set or deep the hierarchy.
+ * <p>
+ * Instances are immutable: to change the set of classes, build a new
+ * classifier, which starts with an empty cache.
+ */
+public final class ExceptionClassifier {
+
+    private static final ExceptionClassifier NONE =
+        new ExceptionClassifier(Collections.<Class<? extends Throwable>>emptyList());
+
+    private final Class<?>[] classes;
+
+    private final ClassValue<Boolean> matches = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> clazz : classes) {
+                if (clazz.isAssignableFrom(type)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    };
+
+    /**
+     * Creates a classifier matching instances of any of the given classes.
+     * @param classes the classes to match; may be <code>null</code> to
+     *   match nothing
+     */
+    public ExceptionClassifier(Class<? extends Throwable>[] classes) {
+        this(classes == null
+            ? Collections.<Class<? extends Throwable>>emptyList()
+            : Arrays.asList(classes));
+    }
+
+    /**
+     * Creates a classifier matching instances of any of the given classes.
+     * @param classes the classes to match
+     */
+    public ExceptionClassifier(Collection<Class<? extends Throwable>> classes) {
+        this.classes = classes.toArray(new Class<?>[classes.size()]);
+    }
+
+    /**
+     * Returns a shared classifier that matches nothing.
+     * @return ExceptionClassifier
+     */
+    public static ExceptionClassifier none() {
+        return NONE;
+    }
+
+    /**
+     * Returns whether the given failure is an instance of one of this
+     * classifier's classes.
+     * @param t the failure to classify
+     * @return <code>true</code> on a match; <code>false</code> otherwise,
+     *   including when <code>t</code> is <code>null</code>
+     */
+    public boolean matches(Throwable t) {
+        return t != null && matches.get(t.getClass());
+    }
+
+    /**
+     * Returns whether this classifier was built from an empty set of
+     * classes.
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return classes.length == 0;
+    }
+}
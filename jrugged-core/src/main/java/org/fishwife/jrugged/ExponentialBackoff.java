@@ -0,0 +1,118 @@
+/* ExponentialBackoff.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link BackoffStrategy} whose delays grow geometrically from a base
+ * delay up to a maximum, optionally with jitter so that clients that
+ * failed together do not all retry together.
+ * <ul>
+ * <li>{@link Jitter#NONE}: <code>min(max, base * multiplier^(retry-1))</code>.</li>
+ * <li>{@link Jitter#FULL}: a uniformly random delay between zero and
+ *   that.</li>
+ * <li>{@link Jitter#DECORRELATED}: a uniformly random delay between the
+ *   base and three times the previous delay, capped at the maximum; it
+ *   spreads retries about as well as full jitter while keeping delays
+ *   from collapsing towards zero.</li>
+ * </ul>
+ */
+public class ExponentialBackoff implements BackoffStrategy {
+
+    /** How randomness is applied to the delays. */
+    public enum Jitter { NONE, FULL, DECORRELATED }
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final Jitter jitter;
+
+    /**
+     * Creates a strategy that doubles the delay for every retry.
+     * @param baseDelayMillis the delay before the first retry
+     * @param maxDelayMillis the longest delay
+     * @param jitter how to randomize the delays
+     */
+    public ExponentialBackoff(long baseDelayMillis, long maxDelayMillis, Jitter jitter) {
+        this(baseDelayMillis, maxDelayMillis, 2.0, jitter);
+    }
+
+    /**
+     * @param baseDelayMillis the delay before the first retry
+     * @param maxDelayMillis the longest delay
+     * @param multiplier how much the delay grows per retry; at least 1.
+     *   Not used with {@link Jitter#DECORRELATED}, which grows by up to
+     *   three times
+     * @param jitter how to randomize the delays
+     */
+    public ExponentialBackoff(long baseDelayMillis, long maxDelayMillis, double multiplier,
+            Jitter jitter) {
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("need 0 <= baseDelayMillis <= maxDelayMillis");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        if (jitter == null) {
+            throw new IllegalArgumentException("jitter must not be null");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    public long nextDelayMillis(int retry, long previousDelayMillis) {
+        if (jitter == Jitter.DECORRELATED) {
+            long previous = Math.max(baseDelayMillis, previousDelayMillis);
+            long upper = (previous > maxDelayMillis / 3) ? maxDelayMillis : previous * 3;
+            return baseDelayMillis + (long) (random() * (upper - baseDelayMillis));
+        }
+        double grown = baseDelayMillis * Math.pow(multiplier, Math.max(0, retry - 1));
+        long capped = (grown >= maxDelayMillis) ? maxDelayMillis : (long) grown;
+        if (jitter == Jitter.FULL) {
+            return (long) (random() * capped);
+        }
+        return capped;
+    }
+
+    /**
+     * Returns a uniformly distributed random number in [0, 1);
+     * overridable for testing.
+     * @return double
+     */
+    protected double random() {
+        return ThreadLocalRandom.current().nextDouble();
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public Jitter getJitter() {
+        return jitter;
+    }
+}
@@ -31,6 +31,20 @@ public class FlowRateExceededException extends Exception {
         this.maximumRate = maximumRate;
     }
 
+    /**
+     * Creates an exception for a regulator capped at the given rate.
+     * @param message the detail message
+     * @param maximumRate the configured maximum rate
+     * @param writableStackTrace <code>false</code> to skip filling in
+     *   the stack trace, so a single instance can be cheaply created and
+     *   rethrown for many rejected calls
+     */
+    protected FlowRateExceededException(String message, double maximumRate,
+            boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.maximumRate = maximumRate;
+    }
+
     public FlowRateExceededException(double rate, double maximumRate) {
         this("Rate Exceeded (Max=" + maximumRate + ", Current=" + rate + ")", rate, maximumRate);
     }
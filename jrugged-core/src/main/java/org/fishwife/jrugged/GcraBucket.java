@@ -0,0 +1,76 @@
+/* GcraBucket.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One generic-cell-rate-algorithm bucket: a theoretical arrival time in
+ * nanoseconds, advanced by compare-and-set, with the emission interval
+ * and tolerance it is currently held to. A bucket whose theoretical
+ * arrival time lies in the past is full, and behaves exactly like a
+ * newly created one.
+ */
+final class GcraBucket {
+
+    private final AtomicLong theoreticalArrival;
+    private volatile long emissionIntervalNanos;
+    private volatile long toleranceNanos;
+
+    GcraBucket(long now, long emissionIntervalNanos, long toleranceNanos) {
+        this.theoreticalArrival = new AtomicLong(now);
+        setLimits(emissionIntervalNanos, toleranceNanos);
+    }
+
+    void setLimits(long emissionIntervalNanos, long toleranceNanos) {
+        this.emissionIntervalNanos = emissionIntervalNanos;
+        this.toleranceNanos = toleranceNanos;
+    }
+
+    /**
+     * Takes one slot if that keeps the bucket within its tolerance.
+     * @param now the current time in nanoseconds
+     * @return whether the slot was taken
+     */
+    boolean tryAcquire(long now) {
+        long interval = emissionIntervalNanos;
+        long tolerance = toleranceNanos;
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = (tat - now < 0) ? now : tat;
+            if (start - now > tolerance) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /** Gives back a slot taken by {@link #tryAcquire(long)}. */
+    void refund() {
+        theoreticalArrival.addAndGet(-emissionIntervalNanos);
+    }
+
+    /**
+     * Returns whether the bucket has been full for longer than the given
+     * time, so that dropping it loses nothing.
+     */
+    boolean isIdle(long now, long idleNanos) {
+        return now - theoreticalArrival.get() > idleNanos;
+    }
+}
@@ -0,0 +1,436 @@
+/* HedgingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+
+/**
+ * A {@link ServiceWrapper} that cuts tail latency to idempotent services
+ * by hedging: if an attempt has not finished within the hedge delay, a
+ * second (and optionally a third) identical attempt is started, the
+ * first successful result wins, and the remaining attempts are
+ * cancelled.
+ * <p>
+ * The hedge delay is fixed, or follows a percentile of the recent
+ * success latency recorded by a {@link PerformanceMonitor} (with the
+ * fixed delay as a floor), so that only calls already slower than
+ * usual are hedged. A hedge budget caps the extra load: every call
+ * earns the configured percentage of a hedge, and a hedge is only
+ * started if a whole one has been earned.
+ * <p>
+ * A call fails only once every attempt it started has failed; a failed
+ * attempt is not retried early. Synchronous calls run their attempts on
+ * the supplied {@link ExecutorService} and cancel losers by
+ * interruption; {@link #invokeAsync(Supplier)} starts its first attempt
+ * on the caller's thread and its hedges on the executor, and cancels the
+ * losing stages. A hedge the executor turns away is not counted and its
+ * budget is given back.
+ */
+public class HedgingServiceWrapper implements ServiceWrapper {
+
+    /** The default share of calls that may be hedged, in percent. */
+    public static final double DEFAULT_BUDGET_PERCENT = 10.0;
+
+    /* Hedge budget, in thousandths of a hedge. */
+    private static final long HEDGE_COST = 1000L;
+    private static final long MAX_BALANCE = 10 * HEDGE_COST;
+
+    private final ExecutorService executor;
+
+    private volatile long hedgeDelayNanos;
+    private volatile int maxAttempts = 2;
+    private volatile long budgetDeposit = Math.round(DEFAULT_BUDGET_PERCENT * HEDGE_COST / 100.0);
+    private volatile PerformanceMonitor latencySource;
+    private volatile int latencyPercentile = 95;
+
+    private final AtomicLong balance = new AtomicLong();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder hedgesDenied = new LongAdder();
+
+    /**
+     * @param executor runs the attempts of synchronous calls; it needs a
+     *   thread free for each attempt, or hedges will queue behind the
+     *   attempts they are meant to overtake
+     * @param hedgeDelayMillis how long an attempt may run before the
+     *   next one is started
+     */
+    public HedgingServiceWrapper(ExecutorService executor, long hedgeDelayMillis) {
+        this.executor = executor;
+        setHedgeDelayMillis(hedgeDelayMillis);
+    }
+
+    /** Wrap the given service call with hedging.
+     *  @param c the {@link Callable} to attempt; it must be safe to run
+     *    more than once concurrently
+     *  @return whatever the first successful attempt returns
+     *  @throws Exception what the last attempt to fail threw, if every
+     *    attempt failed
+     */
+    public <T> T invoke(Callable<T> c) throws Exception {
+        calls.increment();
+        earnHedge();
+
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> attempts = new ArrayList<Future<T>>(maxAttempts);
+        attempts.add(completion.submit(c));
+        int outstanding = 1;
+        boolean hedging = maxAttempts > 1;
+        try {
+            while (true) {
+                Future<T> done;
+                if (hedging) {
+                    done = completion.poll(currentHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        hedging = false;
+                        if (spendHedge()) {
+                            try {
+                                attempts.add(completion.submit(c));
+                            } catch (RejectedExecutionException e) {
+                                // no thread for the hedge; keep waiting on the rest
+                                refundHedge();
+                                continue;
+                            }
+                            hedges.increment();
+                            outstanding++;
+                            hedging = attempts.size() < maxAttempts;
+                        }
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+                outstanding--;
+                try {
+                    T result = done.get();
+                    if (done != attempts.get(0)) {
+                        hedgeWins.increment();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (outstanding == 0) {
+                        throw unwrap(e);
+                    }
+                }
+            }
+        } finally {
+            for (Future<T> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    /** Wrap the given service call with hedging.
+     *  @param r the {@link Runnable} to attempt
+     *  @throws Exception what the last attempt to fail threw, if every
+     *    attempt failed
+     */
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    /** Wrap the given service call with hedging.
+     *  @param r the {@link Runnable} to attempt
+     *  @param result what to return after an attempt succeeds
+     *  @return result
+     *  @throws Exception what the last attempt to fail threw, if every
+     *    attempt failed
+     */
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wraps an asynchronous service call with hedging: each hedge is
+     *  started by calling <code>s</code> again on the executor, so that
+     *  the supplier never runs on the shared timer thread, and the losing
+     *  stages are cancelled.
+     *  @param s starts one attempt of the service call
+     *  @return a stage completing with the first successful attempt, or
+     *    failing like the last attempt to fail if every attempt failed
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        calls.increment();
+        earnHedge();
+        HedgedCall<T> call = new HedgedCall<T>(s);
+        call.launch();
+        return call.result;
+    }
+
+    /* The attempts of one asynchronous call. */
+    private final class HedgedCall<T> {
+        final Supplier<CompletionStage<T>> supplier;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final List<CompletionStage<T>> attempts = new ArrayList<CompletionStage<T>>();
+        int outstanding;
+        boolean decided;
+        Timeout timer;
+
+        HedgedCall(Supplier<CompletionStage<T>> supplier) {
+            this.supplier = supplier;
+        }
+
+        void launch() {
+            final CompletionStage<T> attempt = AsyncSupport.start(supplier);
+            synchronized (this) {
+                if (decided) {
+                    AsyncSupport.cancel(attempt);
+                    return;
+                }
+                attempts.add(attempt);
+                outstanding++;
+                if (attempts.size() < maxAttempts) {
+                    timer = AsyncSupport.schedule(new Runnable() {
+                        public void run() {
+                            hedge();
+                        }
+                    }, currentHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            attempt.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    completed(attempt, value, failure);
+                }
+            });
+        }
+
+        /* Runs on the timer thread, so it only hands the attempt to the
+         * executor; the supplier may do real work before returning. */
+        void hedge() {
+            synchronized (this) {
+                if (decided || !spendHedge()) {
+                    return;
+                }
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        launch();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // no thread for the hedge; the attempts already running decide
+                refundHedge();
+                return;
+            }
+            hedges.increment();
+        }
+
+        void completed(CompletionStage<T> attempt, T value, Throwable failure) {
+            List<CompletionStage<T>> losers;
+            synchronized (this) {
+                if (decided) {
+                    return;
+                }
+                outstanding--;
+                if (failure != null && outstanding > 0) {
+                    return;
+                }
+                decided = true;
+                if (timer != null) {
+                    timer.cancel();
+                }
+                losers = new ArrayList<CompletionStage<T>>(attempts);
+                losers.remove(attempt);
+                if (failure == null && attempt != attempts.get(0)) {
+                    hedgeWins.increment();
+                }
+            }
+            for (CompletionStage<T> loser : losers) {
+                AsyncSupport.cancel(loser);
+            }
+            if (failure == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(AsyncSupport.unwrap(failure));
+            }
+        }
+
+    }
+
+    private void earnHedge() {
+        deposit(budgetDeposit);
+    }
+
+    private boolean spendHedge() {
+        while (true) {
+            long current = balance.get();
+            if (current < HEDGE_COST) {
+                hedgesDenied.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /* Gives back a hedge that was paid for but could not be started. */
+    private void refundHedge() {
+        deposit(HEDGE_COST);
+    }
+
+    private void deposit(long amount) {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(MAX_BALANCE, current + amount);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private long currentHedgeDelayNanos() {
+        long delay = hedgeDelayNanos;
+        PerformanceMonitor monitor = latencySource;
+        if (monitor != null) {
+            long observed = TimeUnit.MILLISECONDS.toNanos(
+                monitor.getPercentileSuccessLatencyLastMinute(latencyPercentile));
+            delay = Math.max(delay, observed);
+        }
+        return delay;
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (cause instanceof Exception) ? (Exception) cause : e;
+    }
+
+    /**
+     * Returns the fixed hedge delay, or the floor under the observed one
+     * when a latency source is set.
+     * @return long
+     */
+    public long getHedgeDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos);
+    }
+
+    /**
+     * Sets the fixed hedge delay, or the floor under the observed one
+     * when a latency source is set.
+     * @param hedgeDelayMillis the delay in milliseconds
+     */
+    public void setHedgeDelayMillis(long hedgeDelayMillis) {
+        if (hedgeDelayMillis < 0) {
+            throw new IllegalArgumentException("hedgeDelayMillis must not be negative");
+        }
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+    }
+
+    /**
+     * Takes the hedge delay from a percentile of the success latency
+     * <code>monitor</code> recorded over the last minute.
+     * @param monitor the {@link PerformanceMonitor} wrapping the same
+     *   service, or <code>null</code> to use only the fixed delay
+     * @param percentile which percentile, from 1 to 99
+     */
+    public void setLatencySource(PerformanceMonitor monitor, int percentile) {
+        if (percentile < 1 || percentile > 99) {
+            throw new IllegalArgumentException("percentile must be between 1 and 99");
+        }
+        this.latencyPercentile = percentile;
+        this.latencySource = monitor;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets how many attempts one call may make in all: 1 disables
+     * hedging, 2 allows one hedge and 3 allows two.
+     * @param maxAttempts the number of attempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public double getBudgetPercent() {
+        return budgetDeposit * 100.0 / HEDGE_COST;
+    }
+
+    /**
+     * Sets the hedge budget as the largest share of calls, in percent,
+     * that may be hedged over time. Up to ten unspent hedges are saved
+     * to absorb bursts of slow calls.
+     * @param budgetPercent the budget, from 0 to 100
+     */
+    public void setBudgetPercent(double budgetPercent) {
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be between 0 and 100");
+        }
+        this.budgetDeposit = Math.round(budgetPercent * HEDGE_COST / 100.0);
+    }
+
+    /**
+     * Returns the number of calls made through this wrapper.
+     * @return long
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * Returns the number of hedge attempts started.
+     * @return long
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Returns the number of calls won by a hedge attempt rather than
+     * the first attempt.
+     * @return long
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * Returns the number of hedges not started because the budget was
+     * spent.
+     * @return long
+     */
+    public long getHedgeDeniedCount() {
+        return hedgesDenied.sum();
+    }
+}
@@ -0,0 +1,169 @@
+/* InvocationResult.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The outcome of a {@link ServiceWrapper#tryInvoke(Callable)} call:
+ * either the wrapped call succeeded and produced a value, it failed with
+ * an exception, or the wrapper rejected it without calling the service
+ * at all. Lets callers branch to a fallback without any exception being
+ * constructed or unwound for rejections.
+ * <p>
+ * The rejected result, the failed result without a cause and the
+ * successful result with a <code>null</code> value are shared
+ * singletons, so those outcomes allocate nothing.
+ *
+ * @param <T> the type of value the wrapped call returns
+ */
+public final class InvocationResult<T> {
+
+    /** The possible outcomes of an invocation. */
+    public enum Outcome {
+        /** The call ran and returned normally. */
+        SUCCEEDED,
+        /** The call was turned away before it reached the service. */
+        REJECTED,
+        /** The call ran and threw an exception. */
+        FAILED
+    }
+
+    private static final InvocationResult<Object> EMPTY_SUCCESS =
+        new InvocationResult<Object>(Outcome.SUCCEEDED, null, null);
+    private static final InvocationResult<Object> REJECTED =
+        new InvocationResult<Object>(Outcome.REJECTED, null, null);
+    private static final InvocationResult<Object> EMPTY_FAILURE =
+        new InvocationResult<Object>(Outcome.FAILED, null, null);
+
+    private final Outcome outcome;
+    private final T value;
+    private final Exception cause;
+
+    private InvocationResult(Outcome outcome, T value, Exception cause) {
+        this.outcome = outcome;
+        this.value = value;
+        this.cause = cause;
+    }
+
+    /**
+     * Returns a successful result carrying the given value.
+     * @param value what the call returned, may be <code>null</code>
+     * @param <T> the value type
+     * @return InvocationResult
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> InvocationResult<T> succeeded(T value) {
+        if (value == null) {
+            return (InvocationResult<T>) EMPTY_SUCCESS;
+        }
+        return new InvocationResult<T>(Outcome.SUCCEEDED, value, null);
+    }
+
+    /**
+     * Returns the shared result for a call that was never attempted.
+     * @param <T> the value type
+     * @return InvocationResult
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> InvocationResult<T> rejected() {
+        return (InvocationResult<T>) REJECTED;
+    }
+
+    /**
+     * Returns a failed result carrying the given cause.
+     * @param cause what the call threw, or <code>null</code> if unknown
+     * @param <T> the value type
+     * @return InvocationResult
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> InvocationResult<T> failed(Exception cause) {
+        if (cause == null) {
+            return (InvocationResult<T>) EMPTY_FAILURE;
+        }
+        return new InvocationResult<T>(Outcome.FAILED, null, cause);
+    }
+
+    /**
+     * Runs the given call directly, capturing its outcome.
+     * @param c the call to run
+     * @param <T> the value type
+     * @return a succeeded or failed result
+     */
+    public static <T> InvocationResult<T> of(Callable<T> c) {
+        try {
+            return succeeded(c.call());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /** @return the {@link Outcome} of the invocation */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /** @return <code>true</code> if the call ran and returned normally */
+    public boolean isSucceeded() {
+        return outcome == Outcome.SUCCEEDED;
+    }
+
+    /** @return <code>true</code> if the call was never attempted */
+    public boolean isRejected() {
+        return outcome == Outcome.REJECTED;
+    }
+
+    /** @return <code>true</code> if the call ran and threw an exception */
+    public boolean isFailed() {
+        return outcome == Outcome.FAILED;
+    }
+
+    /**
+     * Returns what the call returned.
+     * @return the value, or <code>null</code> unless the call succeeded
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Returns what the call threw.
+     * @return the cause, or <code>null</code> unless the call failed
+     */
+    public Exception getCause() {
+        return cause;
+    }
+
+    /**
+     * Returns the value if the call succeeded, and otherwise the given
+     * fallback.
+     * @param fallback what to return for a rejected or failed call
+     * @return T
+     */
+    public T orElse(T fallback) {
+        return (outcome == Outcome.SUCCEEDED) ? value : fallback;
+    }
+
+    @Override
+    public String toString() {
+        switch (outcome) {
+            case SUCCEEDED: return "InvocationResult[SUCCEEDED: " + value + "]";
+            case FAILED: return "InvocationResult[FAILED: " + cause + "]";
+            default: return "InvocationResult[REJECTED]";
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/* KeyedFlowRegulator.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate-limits calls per key, such as per tenant or per client, under an
+ * optional global limit shared by all keys, so that one busy key cannot
+ * use up everyone's budget. A call is admitted only if both its key's
+ * bucket and the global bucket have a slot; if the key has one but the
+ * global bucket does not, the key's slot is given back.
+ * <p>
+ * Every key gets the same per-key rate, scaled by a weight that can be
+ * set per key to give some keys a larger share. Buckets use the same
+ * lock-free algorithm as {@link TokenBucketFlowRegulator} and live in a
+ * {@link ConcurrentHashMap}, so admitting a call is a map lookup and a
+ * compare-and-set or two.
+ * <p>
+ * A key's bucket that has stayed full for {@link #setIdleMillis(long)
+ * the idle time} is indistinguishable from a new one and is dropped by
+ * {@link #evictIdleKeys()}. Each new key also checks the next {@link
+ * #SWEEP_BATCH} buckets, resuming where the last check stopped, so idle
+ * keys are dropped at least as fast as new ones arrive and memory follows
+ * the number of recently active keys rather than all keys ever seen,
+ * without any caller paying for a scan of the whole map. A call racing
+ * with the eviction of its key's bucket may be admitted against a fresh
+ * bucket.
+ *
+ * @param <K> the key type; must have sound <code>equals</code> and
+ *   <code>hashCode</code>
+ */
+public class KeyedFlowRegulator<K> {
+
+    /** Buckets checked for idleness each time a new key is added. */
+    public static final int SWEEP_BATCH = 8;
+
+    /** Default time a key's bucket must stay full before it is dropped. */
+    public static final long DEFAULT_IDLE_MILLIS = 60000L;
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<K, GcraBucket> buckets =
+        new ConcurrentHashMap<K, GcraBucket>();
+    private final ConcurrentHashMap<K, Double> weights =
+        new ConcurrentHashMap<K, Double>();
+
+    private volatile double perKeyRequestsPerSecond;
+    private volatile int perKeyBurstSize;
+    private volatile double globalRequestsPerSecond;
+    private volatile GcraBucket global;
+    private volatile long idleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_MILLIS);
+
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    /* Where the incremental sweep resumes; only touched while sweeping. */
+    private Iterator<Map.Entry<K, GcraBucket>> sweepCursor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a regulator with per-key limits only.
+     * @param perKeyRequestsPerSecond the rate each key may call at; may
+     *   be fractional
+     * @param perKeyBurstSize how many calls a key may make back to back
+     *   after an idle period; at least 1
+     */
+    public KeyedFlowRegulator(double perKeyRequestsPerSecond, int perKeyBurstSize) {
+        this(perKeyRequestsPerSecond, perKeyBurstSize, -1, 1);
+    }
+
+    /**
+     * Creates a regulator with per-key limits under a global limit.
+     * @param perKeyRequestsPerSecond the rate each key may call at; may
+     *   be fractional
+     * @param perKeyBurstSize how many calls a key may make back to back
+     *   after an idle period; at least 1
+     * @param globalRequestsPerSecond the rate all keys together may call
+     *   at; zero or less for no global limit
+     * @param globalBurstSize how many calls all keys together may make
+     *   back to back; at least 1
+     */
+    public KeyedFlowRegulator(double perKeyRequestsPerSecond, int perKeyBurstSize,
+            double globalRequestsPerSecond, int globalBurstSize) {
+        if (perKeyRequestsPerSecond <= 0) {
+            throw new IllegalArgumentException("perKeyRequestsPerSecond must be positive");
+        }
+        checkBurstSize(perKeyBurstSize);
+        checkBurstSize(globalBurstSize);
+        this.perKeyRequestsPerSecond = perKeyRequestsPerSecond;
+        this.perKeyBurstSize = perKeyBurstSize;
+        setGlobalLimit(globalRequestsPerSecond, globalBurstSize);
+    }
+
+    /**
+     * Returns whether a call for <code>key</code> may proceed now, and
+     * if so counts it against the key's and the global limit.
+     * @param key the key to charge the call to
+     * @return boolean
+     */
+    public boolean tryAcquire(K key) {
+        long now = nanoTime();
+        GcraBucket bucket = bucketFor(key, now);
+        if (!bucket.tryAcquire(now)) {
+            rejected.increment();
+            return false;
+        }
+        GcraBucket g = global;
+        if (g != null && !g.tryAcquire(now)) {
+            bucket.refund();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calls <code>c</code> if the rate limits allow a call for
+     * <code>key</code>.
+     * @param key the key to charge the call to
+     * @param c the {@link Callable} to attempt
+     * @return whatever c would return on success
+     * @throws FlowRateExceededException if the call is over a limit
+     * @throws Exception if <code>c</code> throws one during execution
+     */
+    public <T> T invoke(K key, Callable<T> c) throws Exception {
+        if (!tryAcquire(key)) {
+            throw new FlowRateExceededException("Rate Exceeded for key '" + key + "'",
+                    0, perKeyRequestsPerSecond * weightOf(key));
+        }
+        return c.call();
+    }
+
+    /**
+     * Runs <code>r</code> if the rate limits allow a call for
+     * <code>key</code>.
+     * @param key the key to charge the call to
+     * @param r the {@link Runnable} to attempt
+     * @throws FlowRateExceededException if the call is over a limit
+     * @throws Exception if <code>r</code> throws one during execution
+     */
+    public void invoke(K key, Runnable r) throws Exception {
+        invoke(key, new CallableAdapter<Void>(r));
+    }
+
+    /**
+     * Calls <code>c</code> if the rate limits allow a call for
+     * <code>key</code>, reporting the outcome instead of throwing.
+     * @param key the key to charge the call to
+     * @param c the {@link Callable} to attempt
+     * @return the outcome of the call
+     */
+    public <T> InvocationResult<T> tryInvoke(K key, Callable<T> c) {
+        if (!tryAcquire(key)) {
+            return InvocationResult.rejected();
+        }
+        return InvocationResult.of(c);
+    }
+
+    /**
+     * Returns a {@link ServiceWrapper} that charges every call it wraps
+     * to <code>key</code>, for use in a {@link ServiceWrapperChain} or
+     * wherever a plain wrapper is expected.
+     * @param key the key to charge calls to
+     * @return the wrapper
+     */
+    public ServiceWrapper forKey(final K key) {
+        return new ServiceWrapper() {
+            public <T> T invoke(Callable<T> c) throws Exception {
+                return KeyedFlowRegulator.this.invoke(key, c);
+            }
+
+            public void invoke(Runnable r) throws Exception {
+                KeyedFlowRegulator.this.invoke(key, r);
+            }
+
+            public <T> T invoke(Runnable r, T result) throws Exception {
+                return KeyedFlowRegulator.this.invoke(key, new CallableAdapter<T>(r, result));
+            }
+
+            @Override
+            public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+                return KeyedFlowRegulator.this.tryInvoke(key, c);
+            }
+        };
+    }
+
+    private GcraBucket bucketFor(K key, long now) {
+        GcraBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        GcraBucket created = newBucket(now, perKeyRequestsPerSecond * weightOf(key), perKeyBurstSize);
+        bucket = buckets.putIfAbsent(key, created);
+        if (bucket != null) {
+            return bucket;
+        }
+        sweepSome();
+        return created;
+    }
+
+    /* Checks the next SWEEP_BATCH buckets for idleness, going round the
+     * map at most once per call; skipped if another thread is sweeping. */
+    private void sweepSome() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = nanoTime();
+            long idle = idleNanos;
+            Iterator<Map.Entry<K, GcraBucket>> it = sweepCursor;
+            boolean restarted = false;
+            for (int i = 0; i < SWEEP_BATCH; i++) {
+                if (it == null || !it.hasNext()) {
+                    if (restarted) {
+                        break;
+                    }
+                    it = buckets.entrySet().iterator();
+                    restarted = true;
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<K, GcraBucket> e = it.next();
+                GcraBucket bucket = e.getValue();
+                if (bucket.isIdle(now, idle)) {
+                    buckets.remove(e.getKey(), bucket);
+                }
+            }
+            sweepCursor = it;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Drops the buckets of keys that have been idle for at least the
+     * idle time, scanning every key. New keys already sweep a few
+     * buckets each; this may also be called on a schedule, off the
+     * request path. Returns at once if another thread is already
+     * sweeping.
+     * @return the number of keys dropped
+     */
+    public int evictIdleKeys() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            long now = nanoTime();
+            long idle = idleNanos;
+            int evicted = 0;
+            for (Map.Entry<K, GcraBucket> e : buckets.entrySet()) {
+                GcraBucket bucket = e.getValue();
+                if (bucket.isIdle(now, idle) && buckets.remove(e.getKey(), bucket)) {
+                    evicted++;
+                }
+            }
+            return evicted;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Returns the current time in nanoseconds; overridable for testing.
+     * @return long
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private GcraBucket newBucket(long now, double requestsPerSecond, int burstSize) {
+        long interval = interval(requestsPerSecond);
+        return new GcraBucket(now, interval, interval * (burstSize - 1));
+    }
+
+    private static long interval(double requestsPerSecond) {
+        return Math.max(1L, Math.round(NANOS_PER_SECOND / requestsPerSecond));
+    }
+
+    private double weightOf(K key) {
+        if (weights.isEmpty()) {
+            return 1.0;
+        }
+        Double weight = weights.get(key);
+        return (weight == null) ? 1.0 : weight;
+    }
+
+    private void applyLimits(K key, GcraBucket bucket) {
+        long interval = interval(perKeyRequestsPerSecond * weightOf(key));
+        bucket.setLimits(interval, interval * (perKeyBurstSize - 1));
+    }
+
+    /**
+     * Gives <code>key</code> a share of <code>weight</code> times the
+     * per-key rate. Weights are kept when the key's bucket is evicted.
+     * @param key the key
+     * @param weight a positive multiplier
+     */
+    public void setWeight(K key, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        weights.put(key, weight);
+        GcraBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            applyLimits(key, bucket);
+        }
+    }
+
+    /**
+     * Returns <code>key</code> to the plain per-key rate.
+     * @param key the key
+     */
+    public void clearWeight(K key) {
+        weights.remove(key);
+        GcraBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            applyLimits(key, bucket);
+        }
+    }
+
+    public double getWeight(K key) {
+        return weightOf(key);
+    }
+
+    /**
+     * Changes the per-key limits, including for keys already seen.
+     * @param requestsPerSecond the rate each key may call at
+     * @param burstSize how many calls a key may make back to back
+     */
+    public void setPerKeyLimit(double requestsPerSecond, int burstSize) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("requestsPerSecond must be positive");
+        }
+        checkBurstSize(burstSize);
+        this.perKeyRequestsPerSecond = requestsPerSecond;
+        this.perKeyBurstSize = burstSize;
+        for (Map.Entry<K, GcraBucket> e : buckets.entrySet()) {
+            applyLimits(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Changes the global limit.
+     * @param requestsPerSecond the rate all keys together may call at;
+     *   zero or less for no global limit
+     * @param burstSize how many calls all keys together may make back to
+     *   back
+     */
+    public void setGlobalLimit(double requestsPerSecond, int burstSize) {
+        checkBurstSize(burstSize);
+        this.globalRequestsPerSecond = requestsPerSecond;
+        if (requestsPerSecond <= 0) {
+            global = null;
+        } else {
+            GcraBucket g = global;
+            long interval = interval(requestsPerSecond);
+            if (g == null) {
+                global = new GcraBucket(nanoTime(), interval, interval * (burstSize - 1));
+            } else {
+                g.setLimits(interval, interval * (burstSize - 1));
+            }
+        }
+    }
+
+    public double getPerKeyRequestsPerSecond() {
+        return perKeyRequestsPerSecond;
+    }
+
+    public int getPerKeyBurstSize() {
+        return perKeyBurstSize;
+    }
+
+    public double getGlobalRequestsPerSecond() {
+        return globalRequestsPerSecond;
+    }
+
+    /**
+     * Sets how long a key's bucket must stay full before {@link
+     * #evictIdleKeys()} drops it.
+     * @param idleMillis the idle time in milliseconds
+     */
+    public void setIdleMillis(long idleMillis) {
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, idleMillis));
+    }
+
+    public long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(idleNanos);
+    }
+
+    /**
+     * Returns the number of keys currently holding a bucket.
+     * @return int
+     */
+    public int getKeyCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Returns the number of calls rejected for being over a limit.
+     * @return long
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private static void checkBurstSize(int burstSize) {
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("burstSize must be at least 1");
+        }
+    }
+}
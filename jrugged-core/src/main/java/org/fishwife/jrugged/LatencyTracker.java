@@ -17,6 +17,9 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /** This is a statistics wrapper that records the latency of requests,
  *  both for successes and failures. The most recent measurement is
@@ -24,8 +27,8 @@ import java.util.concurrent.Callable;
  *  average latencies.
  */
 public class LatencyTracker implements ServiceWrapper {
-    private long lastSuccessMillis;
-    private long lastFailureMillis;
+    private volatile long lastSuccessMillis;
+    private volatile long lastFailureMillis;
 
     public <T> T invoke(Callable<T> c) throws Exception {
         long start = System.currentTimeMillis();
@@ -62,6 +65,26 @@ public class LatencyTracker implements ServiceWrapper {
         }
     }
 
+    /** Tracks the latency of an asynchronous service call, measured to
+     *  when the returned stage completes rather than to when the call is
+     *  started.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        final long start = System.currentTimeMillis();
+        return AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                long millis = System.currentTimeMillis() - start;
+                if (failure == null) {
+                    lastSuccessMillis = millis;
+                } else {
+                    lastFailureMillis = millis;
+                }
+            }
+        });
+    }
+
     /** Returns how long the last successful request took.
      *  @return long request service time in milliseconds */
     public long getLastSuccessMillis() { return lastSuccessMillis; }
@@ -0,0 +1,48 @@
+/* LoadSheddingException.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+/**
+ * This exception gets thrown by a {@link CoDelServiceWrapper} when a call
+ * is shed instead of run: because the queue was full, because it waited
+ * longer than the queue allows, or because the queue was overloaded and
+ * the call had already waited past the target delay.
+ */
+public class LoadSheddingException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String wrapperName;
+
+    /**
+     * Creates an exception for the named wrapper.
+     * @param wrapperName the name of the wrapper that shed the call
+     * @param reason why the call was shed
+     */
+    public LoadSheddingException(String wrapperName, String reason) {
+        super("'" + wrapperName + "' shed call: " + reason);
+        this.wrapperName = wrapperName;
+    }
+
+    /**
+     * Returns the name of the wrapper that shed the call.
+     * @return the wrapper name
+     */
+    public String getWrapperName() {
+        return wrapperName;
+    }
+}
@@ -16,32 +16,44 @@ package org.fishwife.jrugged;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Trips a {@link org.fishwife.jrugged.CircuitBreaker} if the percentage of failures in a given
  * time window exceed a specified tolerance.  By default, all {@link
  * Throwable} occurrences will be considered failures.
+ * <p>
+ * Errors are counted in a ring of time buckets (the window divided into
+ * {@link #BUCKETS} slices), each holding a striped {@link LongAdder}, so
+ * recording an error neither allocates nor takes a lock and evaluating
+ * the error percentage costs the same however many errors the window
+ * holds. Events are placed by bucket, so the window's edges are only as
+ * precise as one bucket.
  */
 public final class PercentErrPerTimeFailureInterpreter implements FailureInterpreter {
 
     private Set<Class<? extends Throwable>> ignore = new HashSet<Class<? extends Throwable>>();
+    private volatile ExceptionClassifier ignoreClassifier = ExceptionClassifier.none();
     private int percent = 0;
-    private long windowMillis = 0;
+    private volatile long windowMillis = 0;
     private int requestThreshold = 0;
-    private long previousRequestHighWaterMark = 0;
 
-    // tracks times when exceptions occurred
-    private List<Long> errorTimes = new LinkedList<Long>();
+    /** Number of buckets the window is divided into. */
+    public static final int BUCKETS = 10;
 
-    // tracks times when exceptions occurred
-    private List<Long> requestCounts = new LinkedList<Long>();
-    private final Object modificationLock = new Object();
+    private volatile AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>(BUCKETS);
+    private volatile long bucketMillis = 1;
+
+    // total request count as of the newest error that has left the window
+    private final AtomicLong previousRequestHighWaterMark = new AtomicLong();
 
     private RequestCounter requestCounter;
 
+    private Clock clock = new SystemClock();
+
     private static Class[] defaultIgnore = { };
 
     /**
@@ -149,63 +161,83 @@ public final class PercentErrPerTimeFailureInterpreter implements FailureInterpr
         // if Exception is of specified type, and window conditions exist,
         // keep circuit open unless exception threshold has passed
         if (hasWindowConditions()) {
-            Long currentRequestCount = -1L;
-            long numberOfErrorsAfter;
-
-            synchronized (modificationLock) {
-                errorTimes.add(System.currentTimeMillis());
-                requestCounts.add(requestCounter.sample()[0]);
-
-                // calculates time for which we remove any errors before
-                final long removeTimeBeforeMillis = System.currentTimeMillis() - windowMillis;
-                final int numberOfErrorsBefore = this.errorTimes.size();
-
-                removeErrorsPriorToCutoffTime(numberOfErrorsBefore, removeTimeBeforeMillis);
-
-                numberOfErrorsAfter = this.errorTimes.size();
-
-                currentRequestCount = this.requestCounts.get(requestCounts.size() - 1);
+            final AtomicReferenceArray<Bucket> ring = buckets;
+            final long epoch = clock.currentTimeMillis() / bucketMillis;
+            final long currentRequestCount = requestCounter.getRequestCount();
+
+            Bucket current = bucketFor(ring, epoch);
+            current.errors.increment();
+            current.raiseRequestCount(currentRequestCount);
+
+            long errorsInWindow = 0;
+            long highWaterMark = previousRequestHighWaterMark.get();
+            for (int i = 0; i < BUCKETS; i++) {
+                Bucket b = ring.get(i);
+                if (b == null) continue;
+                if (epoch - b.epoch < BUCKETS) {
+                    errorsInWindow += b.errors.sum();
+                } else {
+                    highWaterMark = Math.max(highWaterMark, b.requestCount.get());
+                }
             }
+            raise(previousRequestHighWaterMark, highWaterMark);
 
-            long windowRequests = (currentRequestCount - previousRequestHighWaterMark);
+            long windowRequests = currentRequestCount - highWaterMark;
 
             // Trip if the number of errors over the total of requests over the same period
             // is over the percentage limit.
-            return windowRequests >= requestThreshold && (((double) numberOfErrorsAfter / (double) windowRequests) * 100d >= percent);
+            return windowRequests >= requestThreshold && errorsInWindow * 100 >= (long) percent * windowRequests;
         }
         return true;
     }
 
-    private boolean isExceptionIgnorable(Throwable cause) {
-        for(Class clazz : ignore) {
-            if (clazz.isInstance(cause)) {
-                return true;
+    /* Returns the bucket for the given epoch, replacing whatever older
+     * bucket occupied its slot; the replaced bucket's request count is
+     * folded into the high-water mark so it is not forgotten. */
+    private Bucket bucketFor(AtomicReferenceArray<Bucket> ring, long epoch) {
+        int index = (int) (epoch % BUCKETS);
+        while (true) {
+            Bucket b = ring.get(index);
+            if (b != null && b.epoch >= epoch) {
+                return b;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (ring.compareAndSet(index, b, fresh)) {
+                if (b != null) {
+                    raise(previousRequestHighWaterMark, b.requestCount.get());
+                }
+                return fresh;
             }
         }
-        return false;
     }
 
-    private void removeErrorsPriorToCutoffTime(int numberOfErrorsBefore, long removeTimeBeforeMillis) {
-        boolean windowRemoval = false;
-
-        // (could we speed this up by using binary search to find the entry point,
-        // then removing any items before that point?)
-        for (int j = numberOfErrorsBefore - 1; j >= 0; j--) {
+    private static void raise(AtomicLong value, long candidate) {
+        long seen;
+        while ((seen = value.get()) < candidate && !value.compareAndSet(seen, candidate)) {
+            // retry until candidate is stored or something larger is
+        }
+    }
 
-            final Long time = this.errorTimes.get(j);
+    /** Errors seen during one slice of the window. */
+    private static final class Bucket {
+        final long epoch;
+        final LongAdder errors = new LongAdder();
+        // highest total request count seen while recording into this bucket
+        final AtomicLong requestCount = new AtomicLong();
 
-            if (time < removeTimeBeforeMillis) {
-                if (!windowRemoval) {
-                    previousRequestHighWaterMark = requestCounts.get(j);
-                    windowRemoval = true;
-                }
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
 
-                this.errorTimes.remove(j);
-                this.requestCounts.remove(j);
-            }
+        void raiseRequestCount(long count) {
+            raise(requestCount, count);
         }
     }
 
+    private boolean isExceptionIgnorable(Throwable cause) {
+        return ignoreClassifier.matches(cause);
+    }
+
     /**
      * Returns the set of currently ignored {@link Throwable} classes.
      * @return {@link Set}
@@ -221,6 +253,7 @@ public final class PercentErrPerTimeFailureInterpreter implements FailureInterpr
      */
     public synchronized void setIgnore(Class<? extends Throwable>[] ignore) {
         this.ignore = new HashSet<Class<? extends Throwable>>(Arrays.asList(ignore));
+        this.ignoreClassifier = new ExceptionClassifier(this.ignore);
     }
 
     /**
@@ -256,6 +289,8 @@ public final class PercentErrPerTimeFailureInterpreter implements FailureInterpr
      * @param windowMillis <code>long</code>
      */
     public void setWindowMillis(long windowMillis) {
+        this.bucketMillis = Math.max(1L, windowMillis / BUCKETS);
+        this.buckets = new AtomicReferenceArray<Bucket>(BUCKETS);
         this.windowMillis=windowMillis;
     }
 
@@ -278,4 +313,13 @@ public final class PercentErrPerTimeFailureInterpreter implements FailureInterpr
     public void setRequestThreshold(int requestThreshold) {
         this.requestThreshold = requestThreshold;
     }
+
+    /**
+     * Allow the {@link Clock} used to place errors into the window to be
+     * overridden (for testing).
+     * @param clock <code>Clock</code>
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
 }
@@ -17,7 +17,10 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * The {@link PerformanceMonitor} is a convenience wrapper for
@@ -116,7 +119,10 @@ public class PerformanceMonitor implements ServiceWrapper {
     }
 
     private void recordSuccess(LatencyTracker latencyTracker) {
-        long successMillis = latencyTracker.getLastSuccessMillis();
+        recordSuccess(latencyTracker.getLastSuccessMillis());
+    }
+
+    private void recordSuccess(long successMillis) {
         averageSuccessLatencyLastMinute.update(successMillis);
         averageSuccessLatencyLastHour.update(successMillis);
         averageSuccessLatencyLastDay.update(successMillis);
@@ -131,7 +137,10 @@ public class PerformanceMonitor implements ServiceWrapper {
     }
 
     private void recordFailure(LatencyTracker latencyTracker) {
-        long failureMillis = latencyTracker.getLastFailureMillis();
+        recordFailure(latencyTracker.getLastFailureMillis());
+    }
+
+    private void recordFailure(long failureMillis) {
         averageFailureLatencyLastMinute.update(failureMillis);
         averageFailureLatencyLastHour.update(failureMillis);
         averageFailureLatencyLastDay.update(failureMillis);
@@ -193,6 +202,30 @@ public class PerformanceMonitor implements ServiceWrapper {
         return result;
     }
 
+    /**
+     * Monitors an asynchronous service call, recording it as a success
+     * or failure, with its latency, when the returned stage completes
+     * rather than when the call is started.
+     * @param s starts the service call
+     * @return a stage completing with the call's outcome
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        final long start = System.currentTimeMillis();
+        return AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                long millis = System.currentTimeMillis() - start;
+                if (failure == null) {
+                    requestCounter.succeed();
+                    recordSuccess(millis);
+                } else {
+                    requestCounter.fail();
+                    recordFailure(millis);
+                }
+            }
+        });
+    }
+
     /**
      * Returns the average latency in milliseconds of a successful request,
      *  as measured over the last minute.
@@ -456,6 +489,17 @@ public class PerformanceMonitor implements ServiceWrapper {
         return successLatencyQuantileLastMinute.getPercentile(99);
     }
 
+    /** Returns the given percentile of the latency seen by this {@link
+     * PerformanceMonitor} for successful requests over the last
+     * minute.
+     * @param percentile which percentile, from 1 to 99
+     * @return latency in milliseconds, or 0 if there were no successful
+     *   requests
+     */
+    public long getPercentileSuccessLatencyLastMinute(int percentile) {
+        return successLatencyQuantileLastMinute.getPercentile(percentile);
+    }
+
     /** Returns the median latency seen by this {@link
      * PerformanceMonitor} for successful requests over the
      * last hour.
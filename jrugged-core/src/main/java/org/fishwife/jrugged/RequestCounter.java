@@ -17,6 +17,9 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /** This is a statistics wrapper that counts total requests, as well
  *  as how many succeed and how many fail. This class can be polled
@@ -24,7 +27,9 @@ import java.util.concurrent.Callable;
  *  rates.
  */
 public class RequestCounter implements ServiceWrapper {
-    private long numRequests = 0L;
+    /* Only written under the lock; volatile so getRequestCount() can
+     * read it without one. */
+    private volatile long numRequests = 0L;
     private long numSuccesses = 0L;
     private long numFailures = 0L;
 
@@ -99,6 +104,26 @@ public class RequestCounter implements ServiceWrapper {
         }
     }
 
+    /** Wrap the given asynchronous service call with the {@link
+     *  RequestCounter}, counting it as a success or failure when the
+     *  returned stage completes.
+     *  @param s starts the service call
+     *
+     *  @return a stage completing with the call's outcome
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        return AsyncSupport.start(s).whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                if (failure == null) {
+                    succeed();
+                } else {
+                    fail();
+                }
+            }
+        });
+    }
+
     /**
      * Samples the current counts.
      *
@@ -110,4 +135,14 @@ public class RequestCounter implements ServiceWrapper {
         return new long[]{numRequests, numSuccesses, numFailures};
     }
 
+    /**
+     * Returns the total number of requests counted so far, without
+     * locking or allocating.
+     *
+     * @return the total number of requests
+     */
+    public long getRequestCount() {
+        return numRequests;
+    }
+
 }
@@ -0,0 +1,115 @@
+/* RetryBudget.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps retries across every {@link ServiceRetrier} that shares it, so
+ * that an outage cannot multiply the load on a failing backend by the
+ * number of tries. The budget is a token bucket: each successful call
+ * deposits a percentage of a token, each retry takes a whole one, and
+ * when the bucket is empty failed calls are not retried at all. While
+ * calls mostly succeed the bucket stays full and retries flow freely;
+ * once they mostly fail, retries are limited to that percentage of the
+ * recent successes.
+ * <p>
+ * The bucket starts full, so a service that has barely been called yet
+ * can still retry.
+ */
+public class RetryBudget {
+
+    public static final double DEFAULT_PERCENT_OF_SUCCESSES = 10.0;
+    public static final int DEFAULT_MAX_RETRIES = 10;
+
+    /* Balance, in thousandths of a retry. */
+    private static final long RETRY_COST = 1000L;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+    private final LongAdder denied = new LongAdder();
+
+    /** Allows retries up to 10% of successful calls, saving up to 10. */
+    public RetryBudget() {
+        this(DEFAULT_PERCENT_OF_SUCCESSES, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @param percentOfSuccesses retries earned per hundred successful
+     *   calls
+     * @param maxRetries how many unspent retries may be saved up, to
+     *   absorb a burst of failures
+     */
+    public RetryBudget(double percentOfSuccesses, int maxRetries) {
+        if (percentOfSuccesses < 0) {
+            throw new IllegalArgumentException("percentOfSuccesses must not be negative");
+        }
+        if (maxRetries < 1) {
+            throw new IllegalArgumentException("maxRetries must be at least 1");
+        }
+        this.deposit = Math.round(percentOfSuccesses * RETRY_COST / 100.0);
+        this.capacity = maxRetries * RETRY_COST;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    /** Earns the budget its share of a retry for a successful call. */
+    public void recordSuccess() {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(capacity, current + deposit);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a retry from the budget if one is available.
+     * @return <code>true</code> iff the caller may retry
+     */
+    public boolean tryAcquireRetry() {
+        while (true) {
+            long current = balance.get();
+            if (current < RETRY_COST) {
+                denied.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - RETRY_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns how many retries the budget currently allows.
+     * @return double
+     */
+    public double getAvailableRetries() {
+        return (double) balance.get() / RETRY_COST;
+    }
+
+    /**
+     * Returns the number of retries refused because the budget was
+     * spent.
+     * @return long
+     */
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+}
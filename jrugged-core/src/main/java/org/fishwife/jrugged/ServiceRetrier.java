@@ -17,11 +17,28 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
 
 /**
  * Calls a service multiple times until the call succeeds or the maximum number
  * of tries is exceeded. A delay can be configured between calls and that delay
- * can be constant or configured to double between each call.
+ * can be constant or configured to double between each call; alternatively a
+ * {@link BackoffStrategy} such as a jittered {@link ExponentialBackoff} decides
+ * each delay. A {@link RetryBudget} shared between retriers stops retries
+ * altogether once failures outrun successes.
+ * <p>
+ * {@link #invokeAsync(Supplier)} retries asynchronous calls the same way
+ * without blocking a thread: each retry is scheduled on a shared timer,
+ * which hands it to the retry executor when it comes due.
  */
 public class ServiceRetrier implements ServiceWrapper {
 
@@ -33,6 +50,11 @@ public class ServiceRetrier implements ServiceWrapper {
     private boolean _doubleDelay = false;
     private boolean _throwCauseException = false;
     private Class<? extends Throwable>[] _retryOn = null;
+    private volatile ExceptionClassifier _retryOnClassifier = ExceptionClassifier.none();
+    private volatile BackoffStrategy _backoff = null;
+    private volatile RetryBudget _retryBudget = null;
+    private volatile long _deadlineMillis = 0;
+    private volatile Executor _retryExecutor = ForkJoinPool.commonPool();
 
     public ServiceRetrier(int delay, int maxTries) {
         setDelay(delay);
@@ -54,55 +76,239 @@ public class ServiceRetrier implements ServiceWrapper {
     public <V> V invoke(Callable<V> c) throws Exception {
 
         int tries = 0;
-        int delay = _delay;
+        long delay = 0;
+        BackoffStrategy backoff = _backoff;
+        RetryBudget budget = _retryBudget;
 
         while (true) {
+            V result;
             try {
-                return c.call();
+                result = c.call();
             } catch (Exception cause) {
 
                 // If this type of Exception should be retried...
                 if (shouldRetry(cause)) {
                     tries++;
 
-                    // Don't delay after max tries reached.
-                    if (tries < _maxTries) {
+                    // Don't delay after max tries reached, or once the
+                    // shared budget has no retries left.
+                    if (tries < _maxTries && (budget == null || budget.tryAcquireRetry())) {
 
+                        delay = retryDelay(backoff, tries, delay);
                         if (delay > 0) {
                            sleep(delay);
                         }
 
-                        // Double the next delay if configured to do so.
-                        if (_doubleDelay) {
-                            delay = delay * 2;
+                        // An interrupted caller wants to give up, so only
+                        // try again if the wait wasn't cut short.
+                        if (!Thread.currentThread().isInterrupted()) {
+                            continue;
                         }
+                    }
+                }
+
+                throw giveUp(cause, tries);
+            }
+
+            if (budget != null) {
+                budget.recordSuccess();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Calls the asynchronous service until it succeeds or the maximum
+     * number of tries is exceeded, with the same delays, retry budget and
+     * exceptions as {@link #invoke(Callable)}. Instead of sleeping, each
+     * retry is scheduled on the shared timer, so a pending retry holds no
+     * thread, and started on the retry executor (see
+     * {@link #setRetryExecutor(Executor)}) when it comes due. Cancelling the returned stage cancels the attempt in flight
+     * and any scheduled retry; if a deadline is set (see
+     * {@link #setDeadlineMillis(long)}) the stage fails with a
+     * {@link TimeLimitExceededException} once it passes, and no retry is
+     * scheduled that would start after it.
+     * @param s starts the service call
+     * @param <T> The type the call completes with
+     * @return a stage completing with the first successful attempt's
+     *   value, or failing as {@link #invoke(Callable)} would throw
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        AsyncRetry<T> retry = new AsyncRetry<T>(s);
+        retry.begin();
+        return retry.result;
+    }
+
+    /* One asynchronous call and its retries. Attempts run one at a time,
+     * each started either by the previous attempt's completion or on the
+     * retry executor once the timer fires, so tries and delay need no
+     * locking; the lock only guards
+     * what the returned stage's completion has to cancel. */
+    private final class AsyncRetry<T> {
+        final Supplier<CompletionStage<T>> supplier;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final BackoffStrategy backoff = _backoff;
+        final RetryBudget budget = _retryBudget;
+        final long deadlineMillis = _deadlineMillis;
+        final Executor executor = _retryExecutor;
+        final long deadlineNanos;
+        int tries;
+        long delay;
+        CompletionStage<T> attempt;
+        Timeout retryTimer;
+        Timeout deadlineTimer;
+
+        AsyncRetry(Supplier<CompletionStage<T>> supplier) {
+            this.supplier = supplier;
+            this.deadlineNanos = nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        }
+
+        void begin() {
+            if (deadlineMillis > 0) {
+                Timeout timer = AsyncSupport.schedule(new Runnable() {
+                    public void run() {
+                        result.completeExceptionally(new TimeLimitExceededException(
+                            deadlineMillis, TimeUnit.MILLISECONDS));
+                    }
+                }, deadlineMillis, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    deadlineTimer = timer;
+                }
+            }
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    finished();
+                }
+            });
+            attempt();
+        }
 
-                        // Try again.
-                        continue;
+        void attempt() {
+            final CompletionStage<T> stage = AsyncSupport.start(supplier);
+            synchronized (this) {
+                if (result.isDone()) {
+                    AsyncSupport.cancel(stage);
+                    return;
+                }
+                attempt = stage;
+            }
+            stage.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    completed(value, failure);
+                }
+            });
+        }
+
+        void completed(T value, Throwable failure) {
+            if (failure == null) {
+                if (budget != null) {
+                    budget.recordSuccess();
+                }
+                result.complete(value);
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+
+            Throwable cause = AsyncSupport.unwrap(failure);
+            if (!(cause instanceof Exception)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (shouldRetry(cause)) {
+                tries++;
+                if (tries < _maxTries) {
+                    delay = retryDelay(backoff, tries, delay);
+                    if (startsBeforeDeadline(delay)
+                            && (budget == null || budget.tryAcquireRetry())) {
+                        retryAfter(delay);
+                        return;
                     }
                 }
+            }
+            result.completeExceptionally(giveUp((Exception) cause, tries));
+        }
 
-                if (_throwCauseException) {
-                    throw cause;
+        boolean startsBeforeDeadline(long delayMillis) {
+            return deadlineMillis <= 0
+                || nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) - deadlineNanos < 0;
+        }
+
+        void retryAfter(long delayMillis) {
+            if (delayMillis <= 0) {
+                attempt();
+                return;
+            }
+            Timeout timer = AsyncSupport.schedule(new Runnable() {
+                public void run() {
+                    startOnExecutor();
                 }
-                else {
-                    throw new Exception("Call failed " + tries + " times", cause);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                if (result.isDone()) {
+                    timer.cancel();
+                    return;
                 }
+                retryTimer = timer;
             }
         }
-    }
 
-    private boolean shouldRetry(Throwable cause) {
-        if (_retryOn == null || _retryOn.length == 0) {
-            return true;
+        /* Runs on the timer thread, so only hands the attempt off; the
+         * supplier may do real work before returning. */
+        void startOnExecutor() {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        attempt();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
         }
 
-        for (Class<? extends Throwable> clazz : _retryOn) {
-            if (clazz.isInstance(cause)) {
-                return true;
+        void finished() {
+            CompletionStage<T> inFlight;
+            synchronized (this) {
+                inFlight = attempt;
+                if (retryTimer != null) {
+                    retryTimer.cancel();
+                }
+                if (deadlineTimer != null) {
+                    deadlineTimer.cancel();
+                }
             }
+            if (inFlight != null) {
+                AsyncSupport.cancel(inFlight);
+            }
+        }
+    }
+
+    /* The delay before the given retry: the backoff strategy's if there
+     * is one, otherwise the configured delay, doubled for every retry
+     * after the first if configured to do so. */
+    private long retryDelay(BackoffStrategy backoff, int tries, long previousDelay) {
+        if (backoff != null) {
+            return backoff.nextDelayMillis(tries, previousDelay);
+        }
+        if (tries == 1) {
+            return _delay;
         }
-        return false;
+        return _doubleDelay ? previousDelay * 2 : previousDelay;
+    }
+
+    private Exception giveUp(Exception cause, int tries) {
+        if (_throwCauseException) {
+            return cause;
+        }
+        return new Exception("Call failed " + tries + " times", cause);
+    }
+
+    private boolean shouldRetry(Throwable cause) {
+        ExceptionClassifier classifier = _retryOnClassifier;
+        return classifier.isEmpty() || classifier.matches(cause);
     }
 
     public void invoke(Runnable r) throws Exception {
@@ -164,6 +370,73 @@ public class ServiceRetrier implements ServiceWrapper {
 
     public void setRetryOn(Class<? extends Throwable>[] retryOn) {
         this._retryOn = retryOn;
+        this._retryOnClassifier = new ExceptionClassifier(retryOn);
+    }
+
+    public BackoffStrategy getBackoff() {
+        return _backoff;
+    }
+
+    /**
+     * Sets the strategy that decides each delay between tries, replacing
+     * the fixed or doubling delay; <code>null</code> goes back to those.
+     * @param backoff the {@link BackoffStrategy}
+     */
+    public void setBackoff(BackoffStrategy backoff) {
+        this._backoff = backoff;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return _retryBudget;
+    }
+
+    /**
+     * Sets the {@link RetryBudget} every retry must be paid from; share
+     * one between the retriers calling the same backend. Successful
+     * calls replenish it. <code>null</code> means retries are limited
+     * only by the maximum number of tries.
+     * @param retryBudget the {@link RetryBudget}
+     */
+    public void setRetryBudget(RetryBudget retryBudget) {
+        this._retryBudget = retryBudget;
+    }
+
+    public long getDeadlineMillis() {
+        return _deadlineMillis;
+    }
+
+    /**
+     * Sets the overall time limit for a call made with
+     * {@link #invokeAsync(Supplier)}, counting every attempt and the
+     * delays between them; 0 means no limit.
+     * @param deadlineMillis the time limit in milliseconds
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("Deadline cannot be negative");
+        }
+
+        this._deadlineMillis = deadlineMillis;
+    }
+
+    public Executor getRetryExecutor() {
+        return _retryExecutor;
+    }
+
+    /**
+     * Sets where {@link #invokeAsync(Supplier)} starts a retry once its
+     * delay has passed, instead of on the shared timer thread. The
+     * default is the common {@link ForkJoinPool}.
+     * @param retryExecutor the {@link Executor}
+     */
+    public void setRetryExecutor(Executor retryExecutor) {
+
+        if (retryExecutor == null) {
+            throw new IllegalArgumentException("Retry executor cannot be null");
+        }
+
+        this._retryExecutor = retryExecutor;
     }
 
     protected void sleep(long millis) {
@@ -171,7 +444,16 @@ public class ServiceRetrier implements ServiceWrapper {
             Thread.sleep(millis);
         }
         catch (InterruptedException e) {
-            // Nothing much to do here.
+            // Keep the interrupt so the caller stops retrying.
+            Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Returns the current time in nanoseconds; overridable for testing.
+     * @return long
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
 }
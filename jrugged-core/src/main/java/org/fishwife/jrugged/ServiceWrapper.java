@@ -17,6 +17,8 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 /** Several of the "rugged" code patterns in this library can be used to
  *  wrap an existing service in a "decorator" design pattern. This is the
@@ -50,4 +52,66 @@ public interface ServiceWrapper {
      *  @throws Exception if <code>r</code> throws one
      */
     <T> T invoke(Runnable r, T result) throws Exception;
+
+    /** Wraps a {@link Callable} like {@link #invoke(Callable)}, but
+     *  reports the outcome as an {@link InvocationResult} instead of
+     *  throwing. Wrappers that can turn calls away (such as a tripped
+     *  {@link CircuitBreaker}) override this to return {@link
+     *  InvocationResult#rejected()} without constructing an exception;
+     *  by default any exception is reported as a failure.
+     *  @param c the service call to wrap
+     *  @param <T> The callable type I am wrapping
+     *  @return the outcome of the call
+     */
+    default <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        try {
+            return InvocationResult.succeeded(invoke(c));
+        } catch (Exception e) {
+            return InvocationResult.failed(e);
+        }
+    }
+
+    /** Wraps a {@link Runnable} like {@link #invoke(Runnable)}, but
+     *  reports the outcome as an {@link InvocationResult} instead of
+     *  throwing.
+     *  @param r the service call/task to wrap
+     *  @return the outcome of the call
+     */
+    default InvocationResult<Void> tryInvoke(Runnable r) {
+        return tryInvoke(r, (Void) null);
+    }
+
+    /** Wraps a {@link Runnable} like {@link #invoke(Runnable, Object)},
+     *  but reports the outcome as an {@link InvocationResult} instead
+     *  of throwing.
+     *  @param r the service call/task to wrap
+     *  @param result the value to report on success
+     *  @param <T> The return TYPE that should emit
+     *  @return the outcome of the call
+     */
+    default <T> InvocationResult<T> tryInvoke(Runnable r, T result) {
+        return tryInvoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wraps an asynchronous service call. By default the wrapper's
+     *  protection applies only to starting the call (obtaining the
+     *  {@link CompletionStage} from <code>s</code>); wrappers that need
+     *  to observe the eventual outcome, such as {@link CircuitBreaker},
+     *  override this. Nothing here blocks waiting for the call.
+     *  @param s starts the service call
+     *  @param <T> The type the call completes with
+     *  @return a stage completing with the call's outcome, or failing
+     *    with whatever exception the wrapper would have thrown
+     */
+    default <T> CompletionStage<T> invokeAsync(final Supplier<CompletionStage<T>> s) {
+        try {
+            return invoke(new Callable<CompletionStage<T>>() {
+                public CompletionStage<T> call() {
+                    return AsyncSupport.start(s);
+                }
+            });
+        } catch (Exception e) {
+            return AsyncSupport.failed(e);
+        }
+    }
 }
@@ -18,58 +18,184 @@ package org.fishwife.jrugged;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
+/**
+ * Runs calls through a series of {@link ServiceWrapper}s, the first one
+ * given being the outermost. The chain is composed once, when it is
+ * built: each call allocates only the small step object that every
+ * wrapper but the innermost hands on to the wrapper inside it, whether
+ * the call goes through {@link #invoke(Callable)},
+ * {@link #tryInvoke(Callable)} or {@link #invokeAsync(Supplier)}.
+ * <p>
+ * A {@link Runnable} is adapted to a {@link Callable} and run through
+ * the same path, so every wrapper sees exceptions from the wrappers
+ * inside it, checked or not, exactly as they were thrown.
+ */
 public class ServiceWrapperChain implements ServiceWrapper {
 
-    private List<ServiceWrapper> wrappers;
+    private final Link outermost;
 
     public ServiceWrapperChain(Collection<ServiceWrapper> wrappers) {
        ArrayList<ServiceWrapper> rev = new ArrayList<ServiceWrapper>();
        for(ServiceWrapper wrapper : wrappers) {
            rev.add(0, wrapper);
        }
-       this.wrappers = rev;
+
+       Link link = null;
+       for(ServiceWrapper wrapper : rev) {
+           link = new Link(wrapper, link);
+       }
+       this.outermost = link;
     }
 
-    private <T> Callable<T> wrap(final Callable<T> c, final ServiceWrapper wrapper) {
-        return new Callable<T>() {
-            public T call() throws Exception {
-                return wrapper.invoke(c);
-            }
-        };
+    public <T> T invoke(Callable<T> c) throws Exception {
+        if (outermost == null) {
+            return c.call();
+        }
+        return outermost.invoke(c);
+    }
+
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
     }
 
-    private Runnable wrap(final Runnable r, final ServiceWrapper wrapper) {
-        return new Runnable() {
-            public void run() {
-                try {
-                    wrapper.invoke(r);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+    /* One wrapper and the part of the chain inside it, built once per
+     * chain. The innermost wrapper is handed the caller's own Callable. */
+    private static final class Link {
+        final ServiceWrapper wrapper;
+        final Link inner;
+
+        Link(ServiceWrapper wrapper, Link inner) {
+            this.wrapper = wrapper;
+            this.inner = inner;
+        }
+
+        <T> T invoke(Callable<T> c) throws Exception {
+            return wrapper.invoke((inner == null) ? c : new CallableStep<T>(inner, c));
+        }
+
+        <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+            if (inner == null) {
+                return wrapper.tryInvoke(c);
+            }
+            InvocationResult<T> result = wrapper.tryInvoke(new TryStep<T>(inner, c));
+            if (result.isFailed()) {
+                if (result.getCause() == INNER_REJECTION) {
+                    return InvocationResult.rejected();
+                }
+                if (result.getCause() == INNER_FAILURE) {
+                    return InvocationResult.failed(null);
                 }
             }
-        };
+            return result;
+        }
+
+        <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+            return wrapper.invokeAsync((inner == null) ? s : new AsyncStep<T>(inner, s));
+        }
     }
 
-    public <T> T invoke(Callable<T> c) throws Exception {
-        for(ServiceWrapper wrapper : wrappers) {
-            c = wrap(c, wrapper);
+    private static final class CallableStep<T> implements Callable<T> {
+        final Link link;
+        final Callable<T> c;
+
+        CallableStep(Link link, Callable<T> c) {
+            this.link = link;
+            this.c = c;
+        }
+
+        public T call() throws Exception {
+            return link.invoke(c);
         }
-        return c.call();
     }
 
-    public void invoke(Runnable r) throws Exception {
-        for(ServiceWrapper wrapper : wrappers) {
-            r = wrap(r, wrapper);
+    /* Turns the outcome of the links inside back into a return or a
+     * throw for the wrapper outside them. */
+    private static final class TryStep<T> implements Callable<T> {
+        final Link link;
+        final Callable<T> c;
+
+        TryStep(Link link, Callable<T> c) {
+            this.link = link;
+            this.c = c;
+        }
+
+        public T call() throws Exception {
+            InvocationResult<T> inner = link.tryInvoke(c);
+            if (inner.isRejected()) {
+                throw INNER_REJECTION;
+            }
+            if (inner.isFailed()) {
+                throw (inner.getCause() != null) ? inner.getCause() : INNER_FAILURE;
+            }
+            return inner.getValue();
         }
-        r.run();
     }
 
-    public <T> T invoke(Runnable r, T result) throws Exception {
-        invoke(r);
-        return result;
+    private static final class AsyncStep<T> implements Supplier<CompletionStage<T>> {
+        final Link link;
+        final Supplier<CompletionStage<T>> s;
+
+        AsyncStep(Link link, Supplier<CompletionStage<T>> s) {
+            this.link = link;
+            this.s = s;
+        }
+
+        public CompletionStage<T> get() {
+            return link.invokeAsync(s);
+        }
+    }
+
+    /**
+     * Runs the call through every wrapper in the chain, reporting the
+     * outcome instead of throwing. If any wrapper rejects the call the
+     * result is {@link InvocationResult#rejected()}; wrappers further
+     * out see that rejection as a failure, just as they would see the
+     * rejection exception thrown through {@link #invoke(Callable)}.
+     * @param c the service call to wrap
+     * @return the outcome of the call
+     */
+    @Override
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        if (outermost == null) {
+            return InvocationResult.of(c);
+        }
+        return outermost.tryInvoke(c);
+    }
+
+    /**
+     * Runs the asynchronous call through every wrapper in the chain,
+     * outermost first, so each wrapper sees the stage returned by the
+     * wrappers inside it.
+     * @param s starts the service call
+     * @return a stage completing with the call's outcome
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        if (outermost == null) {
+            return AsyncSupport.start(s);
+        }
+        return outermost.invokeAsync(s);
+    }
+
+    /* Carry an inner wrapper's rejection or cause-less failure out
+     * through the enclosing wrappers without allocating. */
+    private static final ChainSignal INNER_REJECTION = new ChainSignal("rejected by inner wrapper");
+    private static final ChainSignal INNER_FAILURE = new ChainSignal("failed in inner wrapper");
+
+    private static final class ChainSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChainSignal(String message) {
+            super(message, null, false, false);
+        }
     }
 
 }
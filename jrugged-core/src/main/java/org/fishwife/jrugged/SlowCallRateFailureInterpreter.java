@@ -0,0 +1,199 @@
+/* SlowCallRateFailureInterpreter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Trips a {@link CircuitBreaker} if the percentage of calls slower than
+ * a given threshold within a time window reaches a specified tolerance.
+ * Exceptions are handed to a separate {@link FailureInterpreter}, which
+ * by default trips on every failure.
+ * <p>
+ * The window is kept as a fixed ring of buckets, each a single
+ * <code>long</code> holding the bucket's epoch, its call count and its
+ * slow-call count, updated with compare-and-set. Recording a call never
+ * allocates or takes a lock, and the window is only summed up when the
+ * call being recorded was itself slow.
+ */
+public final class SlowCallRateFailureInterpreter implements CallDurationFailureInterpreter {
+
+    /** Default number of buckets the window is divided into. */
+    public static final int DEFAULT_BUCKETS = 10;
+
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int CALLS_SHIFT = 0;
+    private static final int SLOW_SHIFT = COUNT_BITS;
+    private static final int EPOCH_SHIFT = 2 * COUNT_BITS;
+    private static final long EPOCH_MASK = (1L << (64 - EPOCH_SHIFT)) - 1;
+    private static final long COUNTS_MASK = (1L << EPOCH_SHIFT) - 1;
+    private static final long ONE_CALL = 1L << CALLS_SHIFT;
+    private static final long ONE_SLOW = 1L << SLOW_SHIFT;
+
+    private final long slowCallNanos;
+    private final int percent;
+    private final long windowMillis;
+    private final int minimumCalls;
+    private final long bucketMillis;
+    private final AtomicLongArray buckets;
+    private final FailureInterpreter exceptionInterpreter;
+
+    private volatile Clock clock = new SystemClock();
+
+    /**
+     * Creates an interpreter that trips on any exception, or when at
+     * least <code>percent</code> percent of the calls in the window took
+     * longer than <code>slowCallMillis</code>.
+     * @param slowCallMillis calls taking longer than this many
+     *   milliseconds count as slow
+     * @param percent the whole number percentage (1-100) of slow calls
+     *   that trips the breaker
+     * @param windowMillis length of the window in milliseconds
+     */
+    public SlowCallRateFailureInterpreter(long slowCallMillis, int percent, long windowMillis) {
+        this(slowCallMillis, percent, windowMillis, 1, new DefaultFailureInterpreter());
+    }
+
+    /**
+     * Creates an interpreter with full control over how it trips.
+     * @param slowCallMillis calls taking longer than this many
+     *   milliseconds count as slow
+     * @param percent the whole number percentage (1-100) of slow calls
+     *   that trips the breaker
+     * @param windowMillis length of the window in milliseconds
+     * @param minimumCalls the fewest calls the window must hold before
+     *   the slow-call percentage is acted on, so that a single slow call
+     *   after a quiet period does not trip the breaker
+     * @param exceptionInterpreter decides whether exceptions trip the
+     *   breaker
+     */
+    public SlowCallRateFailureInterpreter(long slowCallMillis, int percent, long windowMillis,
+            int minimumCalls, FailureInterpreter exceptionInterpreter) {
+        if (slowCallMillis < 0) {
+            throw new IllegalArgumentException("slowCallMillis must not be negative");
+        }
+        if (percent < 1 || percent > 100) {
+            throw new IllegalArgumentException("percent must be between 1 and 100");
+        }
+        if (windowMillis < DEFAULT_BUCKETS) {
+            throw new IllegalArgumentException("windowMillis must be at least " + DEFAULT_BUCKETS);
+        }
+        if (exceptionInterpreter == null) {
+            throw new IllegalArgumentException("exceptionInterpreter must not be null");
+        }
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.percent = percent;
+        this.windowMillis = windowMillis;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.bucketMillis = windowMillis / DEFAULT_BUCKETS;
+        this.buckets = new AtomicLongArray(DEFAULT_BUCKETS);
+        this.exceptionInterpreter = exceptionInterpreter;
+    }
+
+    public boolean shouldTrip(Throwable oops) {
+        return exceptionInterpreter.shouldTrip(oops);
+    }
+
+    public boolean shouldTrip(long durationNanos) {
+        boolean slow = durationNanos > slowCallNanos;
+        long epoch = clock.currentTimeMillis() / bucketMillis;
+        record(epoch, slow);
+        if (!slow) {
+            return false;
+        }
+
+        long calls = 0;
+        long slowCalls = 0;
+        for (int i = 0; i < DEFAULT_BUCKETS; i++) {
+            long word = buckets.get(i);
+            if (((epoch - (word >>> EPOCH_SHIFT)) & EPOCH_MASK) < DEFAULT_BUCKETS) {
+                calls += (word >>> CALLS_SHIFT) & COUNT_MASK;
+                slowCalls += (word >>> SLOW_SHIFT) & COUNT_MASK;
+            }
+        }
+        return calls >= minimumCalls && slowCalls * 100 >= (long) percent * calls;
+    }
+
+    private void record(long epoch, boolean slow) {
+        int index = (int) (epoch % DEFAULT_BUCKETS);
+        long stamp = (epoch & EPOCH_MASK) << EPOCH_SHIFT;
+        long increment = ONE_CALL + (slow ? ONE_SLOW : 0L);
+        long word;
+        long next;
+        do {
+            word = buckets.get(index);
+            // a bucket left over from an earlier pass round the ring starts over
+            long base = ((word & ~COUNTS_MASK) == stamp) ? word : stamp;
+            if (((base >>> CALLS_SHIFT) & COUNT_MASK) == COUNT_MASK) {
+                return; // saturated; the bucket's ratio is already well sampled
+            }
+            next = base + increment;
+        } while (!buckets.compareAndSet(index, word, next));
+    }
+
+    /**
+     * Returns the duration, in milliseconds, above which a call is slow.
+     * @return long
+     */
+    public long getSlowCallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowCallNanos);
+    }
+
+    /**
+     * Returns the percentage of slow calls that trips the breaker.
+     * @return int
+     */
+    public int getPercent() {
+        return percent;
+    }
+
+    /**
+     * Returns the length of the window in milliseconds.
+     * @return long
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Returns the fewest calls the window must hold before the slow-call
+     * percentage is acted on.
+     * @return int
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * Returns the interpreter that decides whether exceptions trip the
+     * breaker.
+     * @return {@link FailureInterpreter}
+     */
+    public FailureInterpreter getExceptionInterpreter() {
+        return exceptionInterpreter;
+    }
+
+    /**
+     * Specifies the {@link Clock} used to place calls into the window.
+     * @param clock the clock to use
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
@@ -0,0 +1,46 @@
+/* TimeLimitExceededException.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This exception is how a call given up on after its time limit fails,
+ * whether by a {@link TimeLimiter} or by the timeout on {@link
+ * CircuitBreaker#invokeAsync(java.util.function.Supplier, long, TimeUnit)}.
+ * Timeouts tend to arrive in floods when a backend stalls, so it carries
+ * no stack trace; it is still an ordinary {@link TimeoutException} to
+ * callers and to {@link FailureInterpreter}s.
+ */
+public class TimeLimitExceededException extends TimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param timeout the time limit that was exceeded
+     * @param unit the unit of <code>timeout</code>
+     */
+    public TimeLimitExceededException(long timeout, TimeUnit unit) {
+        super("Call did not complete within " + timeout + " " + unit);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
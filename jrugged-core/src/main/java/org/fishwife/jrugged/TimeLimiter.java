@@ -0,0 +1,233 @@
+/* TimeLimiter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+
+/**
+ * A {@link ServiceWrapper} that bounds how long a wrapped call may take.
+ * A call still running at its deadline is given up on: a synchronous
+ * call has its thread interrupted, an asynchronous one has its stage
+ * cancelled, and either way the caller gets a {@link
+ * TimeLimitExceededException}. Wrapped inside a {@link CircuitBreaker},
+ * those timeouts count as failures like any other.
+ * <p>
+ * Deadlines are kept by the single timer thread shared with the other
+ * asynchronous wrappers, so no limiter or call ever gets a thread of its
+ * own. A synchronous call that ignores interruption still runs to
+ * completion, but fails once it returns if its deadline has passed.
+ */
+public class TimeLimiter implements ServiceWrapper {
+
+    private volatile long timeoutNanos;
+    private volatile boolean cancelOnTimeout = true;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param timeout how long a call may take
+     * @param unit the unit of <code>timeout</code>
+     */
+    public TimeLimiter(long timeout, TimeUnit unit) {
+        setTimeout(timeout, unit);
+    }
+
+    /** Wrap the given service call with the time limit.
+     *  @param c the {@link Callable} to attempt
+     *  @return whatever c would return on success
+     *  @throws TimeLimitExceededException if the call was still running
+     *    at its deadline
+     *  @throws Exception if <code>c</code> throws one in time
+     */
+    public <T> T invoke(Callable<T> c) throws Exception {
+        calls.increment();
+        long timeout = timeoutNanos;
+        Deadline deadline = new Deadline(Thread.currentThread(), cancelOnTimeout);
+        Timeout timer = AsyncSupport.schedule(deadline, timeout, TimeUnit.NANOSECONDS);
+        T result;
+        try {
+            result = c.call();
+        } catch (Exception e) {
+            if (deadline.finish(timer)) {
+                throw e;
+            }
+            throw timedOut(timeout);
+        } catch (Error e) {
+            deadline.finish(timer);
+            throw e;
+        }
+        if (!deadline.finish(timer)) {
+            throw timedOut(timeout);
+        }
+        return result;
+    }
+
+    /** Wrap the given service call with the time limit.
+     *  @param r the {@link Runnable} to attempt
+     *  @throws TimeLimitExceededException if the call was still running
+     *    at its deadline
+     *  @throws Exception if <code>r</code> throws one in time
+     */
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    /** Wrap the given service call with the time limit.
+     *  @param r the {@link Runnable} to attempt
+     *  @param result what to return after <code>r</code> succeeds
+     *  @return result
+     *  @throws TimeLimitExceededException if the call was still running
+     *    at its deadline
+     *  @throws Exception if <code>r</code> throws one in time
+     */
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wrap the given asynchronous service call with the time limit.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome, or failing
+     *    with a {@link TimeLimitExceededException} at the deadline
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        calls.increment();
+        return AsyncSupport.withTimeout(AsyncSupport.start(s), timeoutNanos,
+                TimeUnit.NANOSECONDS, cancelOnTimeout)
+            .whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    if (failure != null
+                            && AsyncSupport.unwrap(failure) instanceof TimeLimitExceededException) {
+                        timeouts.increment();
+                    }
+                }
+            });
+    }
+
+    private TimeLimitExceededException timedOut(long timeout) {
+        timeouts.increment();
+        return new TimeLimitExceededException(TimeUnit.NANOSECONDS.toMillis(timeout),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /* Races the call's return against the timer. Whichever moves the
+     * state off RUNNING first decides the outcome; the timer interrupts
+     * the caller only if it wins, and the caller then swallows that
+     * interrupt so it doesn't leak into whatever the thread does next. */
+    private static final class Deadline extends AtomicInteger implements Runnable {
+        private static final long serialVersionUID = 1L;
+
+        private static final int RUNNING = 0;
+        private static final int FINISHED = 1;
+        private static final int INTERRUPTING = 2;
+        private static final int EXPIRED = 3;
+
+        private final Thread caller;
+        private final boolean interrupt;
+
+        Deadline(Thread caller, boolean interrupt) {
+            this.caller = caller;
+            this.interrupt = interrupt;
+        }
+
+        public void run() {
+            if (!compareAndSet(RUNNING, INTERRUPTING)) {
+                return;
+            }
+            if (interrupt) {
+                caller.interrupt();
+            }
+            set(EXPIRED);
+        }
+
+        /* Returns whether the call finished in time. */
+        boolean finish(Timeout timer) {
+            if (compareAndSet(RUNNING, FINISHED)) {
+                timer.cancel();
+                return true;
+            }
+            while (get() == INTERRUPTING) {
+                Thread.yield();
+            }
+            if (interrupt) {
+                Thread.interrupted();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the time limit, in milliseconds.
+     * @return long
+     */
+    public long getTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+    }
+
+    /**
+     * Sets the time limit applied to calls started from now on.
+     * @param timeout how long a call may take
+     * @param unit the unit of <code>timeout</code>
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public boolean isCancelOnTimeout() {
+        return cancelOnTimeout;
+    }
+
+    /**
+     * Sets whether a call still running at its deadline is interrupted
+     * (or, if asynchronous, cancelled); the default is <code>true</code>.
+     * When <code>false</code> a synchronous call runs on and fails
+     * once it returns late, and an asynchronous one is left running
+     * while the stage handed to the caller fails at the deadline.
+     * @param cancelOnTimeout whether to interrupt or cancel
+     */
+    public void setCancelOnTimeout(boolean cancelOnTimeout) {
+        this.cancelOnTimeout = cancelOnTimeout;
+    }
+
+    /**
+     * Returns the number of calls made through this limiter.
+     * @return long
+     */
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    /**
+     * Returns the number of calls that exceeded the time limit.
+     * @return long
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+}
@@ -0,0 +1,388 @@
+/* TokenBucketFlowRegulator.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+
+/**
+ * A {@link ConstantFlowRegulator} that admits calls at a steady average
+ * rate while allowing short bursts, implemented with the generic cell
+ * rate algorithm (GCRA), the lock-free equivalent of a token bucket.
+ * <p>
+ * The whole state is one "theoretical arrival time" in nanoseconds, held
+ * in an {@link AtomicLong}: each admitted call pushes it one emission
+ * interval (<code>1 / rate</code>) further into the future, and a call is
+ * refused if that would put it more than <code>burstSize</code>
+ * intervals ahead of now. Admission is a single compare-and-set, so
+ * there is no lock to contend on, and rates need be neither whole nor
+ * below 1000 per second.
+ * <p>
+ * By default a call that finds no slot free is rejected at once. With a
+ * positive {@link #setMaxWaitMillis(long) maximum wait} the regulator
+ * paces calls instead: a caller reserves the next free slot and is
+ * parked until it arrives, unless that is further away than the maximum
+ * wait or {@link #setMaxWaiters(int) too many callers} are already
+ * waiting, turning the regulator into a bounded leaky-bucket queue.
+ * {@link #invokeAsync(Supplier)} reserves a slot the same way but, rather
+ * than parking, has a shared timer hand the call to an executor when the
+ * slot arrives.
+ * <p>
+ * Being a {@link ConstantFlowRegulator}, it rejects calls the same way,
+ * including fast rejection and the {@link
+ * ConstantFlowRegulatorExceptionMapper}.
+ */
+public class TokenBucketFlowRegulator extends ConstantFlowRegulator {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** Rate and burst, swapped as a unit when reconfigured. */
+    private static final class Limits {
+        final double requestsPerSecond;
+        final int burstSize;
+        final long emissionIntervalNanos;
+        final long toleranceNanos;
+
+        Limits(double requestsPerSecond, int burstSize) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.burstSize = burstSize;
+            if (requestsPerSecond > 0) {
+                this.emissionIntervalNanos =
+                    Math.max(1L, Math.round(NANOS_PER_SECOND / requestsPerSecond));
+                this.toleranceNanos = emissionIntervalNanos * (burstSize - 1);
+            } else {
+                this.emissionIntervalNanos = 0L;
+                this.toleranceNanos = 0L;
+            }
+        }
+
+        boolean isUnlimited() {
+            return emissionIntervalNanos == 0L;
+        }
+    }
+
+    private volatile Limits limits;
+
+    /** Theoretical arrival time of the next call, in {@link #nanoTime()} units. */
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    private volatile long maxWaitNanos = 0L;
+    private volatile int maxWaiters = Integer.MAX_VALUE;
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile Executor asyncExecutor = ForkJoinPool.commonPool();
+
+    /** Creates a regulator that lets all calls through until a rate is set. */
+    public TokenBucketFlowRegulator() {
+        this.limits = new Limits(-1, 1);
+    }
+
+    /**
+     * @param requestsPerSecond the average rate to admit calls at; may be
+     *   fractional, and zero or less admits everything
+     * @param burstSize how many calls may be admitted back to back after
+     *   an idle period; at least 1
+     */
+    public TokenBucketFlowRegulator(double requestsPerSecond, int burstSize) {
+        checkBurstSize(burstSize);
+        this.limits = new Limits(requestsPerSecond, burstSize);
+        super.setRequestPerSecondThreshold(getRequestPerSecondThreshold());
+    }
+
+    /**
+     * @param requestsPerSecond the average rate to admit calls at; may be
+     *   fractional, and zero or less admits everything
+     * @param burstSize how many calls may be admitted back to back after
+     *   an idle period; at least 1
+     * @param mapper converts rejections into application exceptions
+     */
+    public TokenBucketFlowRegulator(double requestsPerSecond, int burstSize,
+            ConstantFlowRegulatorExceptionMapper<? extends Exception> mapper) {
+        this(requestsPerSecond, burstSize);
+        setExceptionMapper(mapper);
+    }
+
+    /**
+     * Admits the call if a slot is free now; in pacing mode, parks the
+     * caller until its reserved slot arrives. If the caller is
+     * interrupted while parked the call is rejected, and the thread's
+     * interrupt status is left set.
+     * @return whether the call may proceed
+     */
+    @Override
+    protected boolean canProceed() {
+        Limits l = limits;
+        if (l.isUnlimited()) {
+            return true;
+        }
+        long wait = reserve(l);
+        if (wait <= 0) {
+            return wait == 0;
+        }
+        try {
+            return pause(wait);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reserves the next slot. A positive result counts the caller as a
+     * waiter, who must be removed again once the wait is over.
+     * @return nanoseconds until the slot arrives, or -1 if it is further
+     *   away than the maximum wait or there are too many waiters already
+     */
+    private long reserve(Limits l) {
+        long now = nanoTime();
+        long interval = l.emissionIntervalNanos;
+        long tolerance = l.toleranceNanos;
+        double fraction = warmUpFraction(now);
+        if (fraction < 1.0) {
+            // warming up: a lower rate and a proportionally smaller burst
+            interval = (long) (interval / fraction);
+            tolerance = interval * Math.round((l.burstSize - 1) * fraction);
+        }
+        long maxWait = maxWaitNanos;
+        boolean queued = false;
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long slot = (tat == Long.MIN_VALUE || tat - now < 0) ? now : tat;
+            long wait = slot - tolerance - now;
+            if (wait > maxWait) {
+                if (queued) {
+                    waiters.decrementAndGet();
+                }
+                return -1L;
+            }
+            if (wait > 0 && !queued) {
+                if (waiters.incrementAndGet() > maxWaiters) {
+                    waiters.decrementAndGet();
+                    return -1L;
+                }
+                queued = true;
+            } else if (wait <= 0 && queued) {
+                waiters.decrementAndGet();
+                queued = false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, slot + interval)) {
+                return Math.max(0L, wait);
+            }
+        }
+    }
+
+    private boolean pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+    /** Wrap the given asynchronous service call with the regulator's
+     *  protection logic without blocking the caller. If a slot is free
+     *  the call starts at once; in pacing mode it may instead be started
+     *  later on the async executor, when its reserved slot arrives.
+     *  Cancelling the returned stage before then gives the slot back.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome, or failing
+     *    with the regulator's rejection exception
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(final Supplier<CompletionStage<T>> s) {
+        Limits l = limits;
+        if (l.isUnlimited()) {
+            return AsyncSupport.start(s);
+        }
+        long wait = reserve(l);
+        if (wait < 0) {
+            return AsyncSupport.failed(rejection());
+        }
+        if (wait == 0) {
+            return AsyncSupport.start(s);
+        }
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final Executor executor = asyncExecutor;
+        final Timeout timer = AsyncSupport.schedule(new Runnable() {
+            public void run() {
+                waiters.decrementAndGet();
+                if (result.isDone()) {
+                    return;
+                }
+                // on the timer thread: only hand the call off
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            if (!result.isDone()) {
+                                AsyncSupport.relay(AsyncSupport.start(s), result);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    result.completeExceptionally(rejection());
+                }
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+        final long interval = l.emissionIntervalNanos;
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                if (result.isCancelled() && timer.cancel()) {
+                    waiters.decrementAndGet();
+                    refund(interval);
+                }
+            }
+        });
+        return result;
+    }
+
+    /* Gives back a reserved slot that will not be used. While warming
+     * up a slot is longer than this, so a refund never frees more than
+     * was taken. */
+    private void refund(long interval) {
+        theoreticalArrival.addAndGet(-interval);
+    }
+
+    /**
+     * Sets a whole-number rate, keeping the current burst size.
+     * @param i the requests per second threshold; -1 admits everything
+     */
+    @Override
+    public void setRequestPerSecondThreshold(int i) {
+        setRequestsPerSecond(i);
+    }
+
+    /**
+     * Returns the configured rate rounded up to a whole number, or -1 if
+     * all calls are admitted.
+     * @return int
+     */
+    @Override
+    public int getRequestPerSecondThreshold() {
+        double rate = limits.requestsPerSecond;
+        return (rate > 0) ? (int) Math.ceil(rate) : -1;
+    }
+
+    /**
+     * Sets the average rate to admit calls at, keeping the current burst
+     * size. Calls already admitted still count against the new rate.
+     * @param requestsPerSecond the rate; may be fractional, and zero or
+     *   less admits everything
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        double old = limits.requestsPerSecond;
+        limits = new Limits(requestsPerSecond, limits.burstSize);
+        super.setRequestPerSecondThreshold(getRequestPerSecondThreshold());
+        if (old > 0 && requestsPerSecond > old) {
+            // the whole-number threshold above may already have started
+            // a warm-up; restart it from the exact old rate
+            rateRaised(old, requestsPerSecond);
+        }
+    }
+
+    public double getRequestsPerSecond() {
+        return limits.requestsPerSecond;
+    }
+
+    /**
+     * Sets how many calls may be admitted back to back after an idle
+     * period.
+     * @param burstSize at least 1; 1 spaces calls evenly
+     */
+    public void setBurstSize(int burstSize) {
+        checkBurstSize(burstSize);
+        limits = new Limits(limits.requestsPerSecond, burstSize);
+    }
+
+    public int getBurstSize() {
+        return limits.burstSize;
+    }
+
+    /**
+     * Sets how long a caller may be made to wait for a slot. Zero, the
+     * default, rejects any call that finds no slot free; a positive
+     * value turns on pacing.
+     * @param maxWaitMillis the maximum wait in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitNanos = Math.max(0L, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * Sets how many callers may be waiting for a slot at once in pacing
+     * mode; further calls are rejected. Unbounded by default.
+     * @param maxWaiters at least 0
+     */
+    public void setMaxWaiters(int maxWaiters) {
+        if (maxWaiters < 0) {
+            throw new IllegalArgumentException("maxWaiters must not be negative");
+        }
+        this.maxWaiters = maxWaiters;
+    }
+
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets where {@link #invokeAsync(Supplier)} starts a paced call once
+     * its slot arrives, instead of on the shared timer thread. The
+     * default is the common {@link ForkJoinPool}.
+     * @param asyncExecutor the {@link Executor}
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        if (asyncExecutor == null) {
+            throw new IllegalArgumentException("asyncExecutor must not be null");
+        }
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Returns the number of calls currently waiting for their slot.
+     * @return int
+     */
+    public int getWaitingCount() {
+        return waiters.get();
+    }
+
+    private static void checkBurstSize(int burstSize) {
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("burstSize must be at least 1");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/* WarmUpPolicy.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how traffic to a recovering backend is ramped back up, so
+ * that cold caches and unoptimized code are not hit with full load at
+ * once. Admitted traffic starts at a fraction of normal and grows to all
+ * of it over a fixed duration, either linearly or exponentially (each
+ * step multiplying it by the same factor, which stays gentle for longer
+ * and catches up at the end).
+ * <p>
+ * A policy is immutable and may be shared. It is attached with
+ * <code>setWarmUpPolicy</code> to a {@link CircuitBreaker}, which ramps
+ * up after it closes again, or to a {@link ConstantFlowRegulator} or
+ * {@link TokenBucketFlowRegulator}, which ramp up to a raised rate.
+ */
+public final class WarmUpPolicy {
+
+    /** How the admitted fraction grows over the warm-up. */
+    public enum Shape {
+        LINEAR,
+        EXPONENTIAL
+    }
+
+    private final Shape shape;
+    private final long durationNanos;
+    private final double initialFraction;
+
+    /**
+     * @param shape how the admitted fraction grows
+     * @param durationMillis how long the warm-up lasts; positive
+     * @param initialFraction the fraction admitted at the start, in
+     *   (0, 1]
+     */
+    public WarmUpPolicy(Shape shape, long durationMillis, double initialFraction) {
+        if (shape == null) {
+            throw new IllegalArgumentException("shape must not be null");
+        }
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("durationMillis must be positive");
+        }
+        if (initialFraction <= 0.0 || initialFraction > 1.0) {
+            throw new IllegalArgumentException("initialFraction must be in (0, 1]");
+        }
+        this.shape = shape;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        this.initialFraction = initialFraction;
+    }
+
+    public static WarmUpPolicy linear(long durationMillis, double initialFraction) {
+        return new WarmUpPolicy(Shape.LINEAR, durationMillis, initialFraction);
+    }
+
+    public static WarmUpPolicy exponential(long durationMillis, double initialFraction) {
+        return new WarmUpPolicy(Shape.EXPONENTIAL, durationMillis, initialFraction);
+    }
+
+    /**
+     * Returns the fraction of traffic to admit a given time into a
+     * warm-up.
+     * @param elapsedNanos time since the warm-up started
+     * @param fromFraction a fraction to start from instead, if it is
+     *   higher than the initial fraction
+     * @return the fraction, in (0, 1]
+     */
+    public double fractionAfter(long elapsedNanos, double fromFraction) {
+        if (elapsedNanos >= durationNanos) {
+            return 1.0;
+        }
+        double start = Math.max(initialFraction, Math.min(1.0, fromFraction));
+        double progress = (elapsedNanos <= 0) ? 0.0 : (double) elapsedNanos / durationNanos;
+        if (shape == Shape.LINEAR) {
+            return start + (1.0 - start) * progress;
+        }
+        return start * Math.pow(1.0 / start, progress);
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    public double getInitialFraction() {
+        return initialFraction;
+    }
+
+    /**
+     * Begins a warm-up at the given time.
+     */
+    Ramp start(long nowNanos, double fromFraction) {
+        return new Ramp(this, nowNanos, fromFraction);
+    }
+
+    /** One warm-up in progress. */
+    static final class Ramp {
+        private final WarmUpPolicy policy;
+        private final long startNanos;
+        private final double fromFraction;
+
+        Ramp(WarmUpPolicy policy, long startNanos, double fromFraction) {
+            this.policy = policy;
+            this.startNanos = startNanos;
+            this.fromFraction = fromFraction;
+        }
+
+        double fraction(long nowNanos) {
+            return policy.fractionAfter(nowNanos - startNanos, fromFraction);
+        }
+
+        /**
+         * Decides at random, without coordination between callers,
+         * whether to shed a call so that about the ramp's current
+         * fraction is admitted.
+         */
+        static boolean shed(double fraction) {
+            return fraction < 1.0 && ThreadLocalRandom.current().nextDouble() >= fraction;
+        }
+    }
+}
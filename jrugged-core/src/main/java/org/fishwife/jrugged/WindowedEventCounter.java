@@ -16,11 +16,17 @@
  */
 package org.fishwife.jrugged;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Keeps a count of the number of events that have occurred within a given time
  * window.
+ * <p>
+ * Event timestamps are kept in a preallocated ring of primitive
+ * <code>long</code>s, one slot per unit of capacity, claimed with an atomic
+ * cursor. Recording an event neither allocates nor takes a lock, so bursts of
+ * events from many threads do not churn the heap or queue up on a monitor.
  */
 public class WindowedEventCounter {
 
@@ -33,18 +39,13 @@ public class WindowedEventCounter {
     /**
      * Length of the window in milliseconds.
      */
-    private long windowMillis;
+    private volatile long windowMillis;
 
     /**
-     * Storage for the internal queue.
+     * Storage for the event timestamps. Replaced wholesale when the
+     * capacity changes.
      */
-    private final LinkedList<Long> queue = new LinkedList<Long>();
-
-    /**
-     * The maximum count this WindowedEventCounter can hold. Also, the maximum queue
-     * size. Immutable.
-     */
-    private int capacity;
+    private volatile Ring ring;
 
     /**
      * Sole constructor.
@@ -66,25 +67,15 @@ public class WindowedEventCounter {
                     "windowMillis must be greater than 0");
         }
         this.windowMillis = windowMillis;
-        this.capacity = capacity;
+        this.ring = new Ring(capacity);
     }
 
     /**
-     * Record a new event.
+     * Record a new event. Once the counter is full, the oldest event
+     * is overwritten.
      */
     public void mark() {
-        final long currentTimeMillis = clock.currentTimeMillis();
-
-        synchronized (queue) {
-            if (queue.size() == capacity) {
-                /*
-                 * we're all filled up already, let's dequeue the oldest
-                 * timestamp to make room for this new one.
-                 */
-                queue.removeFirst();
-            }
-            queue.addLast(currentTimeMillis);
-        }
+        ring.add(clock.currentTimeMillis());
     }
 
     /**
@@ -93,18 +84,9 @@ public class WindowedEventCounter {
      * @return the the count of in-window events.
      */
     public int tally() {
-        long currentTimeMillis = clock.currentTimeMillis();
-
-        // calculates time for which we remove any errors before
-        final long removeTimesBeforeMillis = currentTimeMillis - windowMillis;
-
-        synchronized (queue) {
-            // drain out any expired timestamps but don't drain past empty
-            while (!queue.isEmpty() && queue.peek() < removeTimesBeforeMillis) {
-                queue.removeFirst();
-            }
-            return queue.size();
-        }
+        // calculates time for which we ignore any events before
+        final long cutoffMillis = clock.currentTimeMillis() - windowMillis;
+        return ring.countSince(cutoffMillis);
     }
 
     /**
@@ -118,29 +100,28 @@ public class WindowedEventCounter {
     }
 
     /**
-     * Specifies the maximum capacity of the counter.
+     * Specifies the maximum capacity of the counter. If the capacity is
+     * reduced, the oldest events are dropped until the rest fit. Events
+     * recorded by other threads while the capacity is being changed may
+     * be lost.
      *
      * @param capacity
      *            <code>long</code>
      * @throws IllegalArgumentException
      *             if windowMillis is less than 1.
      */
-    public void setCapacity(int capacity) {
+    public synchronized void setCapacity(int capacity) {
         if (capacity <= 0) {
             throw new IllegalArgumentException("capacity must be greater than 0");
         }
 
-        synchronized (queue) {
-            // If the capacity was reduced, we remove oldest elements until the
-            // queue fits inside the specified capacity
-            if (capacity < this.capacity) {
-                while (queue.size() > capacity) {
-                    queue.removeFirst();
-                }
-            }
+        Ring old = ring;
+        if (capacity == old.capacity) {
+            return;
         }
-
-        this.capacity = capacity;
+        Ring resized = new Ring(capacity);
+        old.copyNewestInto(resized);
+        ring = resized;
     }
 
     /**
@@ -149,7 +130,7 @@ public class WindowedEventCounter {
      * @return <code>int</code>
      */
     public int getCapacity() {
-        return capacity;
+        return ring.capacity;
     }
 
     /**
@@ -164,12 +145,7 @@ public class WindowedEventCounter {
         if (windowMillis <= 0) {
             throw new IllegalArgumentException("windowMillis must be greater than 0");
         }
-
-        // changing windowMillis while tally() is draining expired events could
-        // lead to weirdness, let's lock for this.
-        synchronized (queue) {
-            this.windowMillis = windowMillis;
-        }
+        this.windowMillis = windowMillis;
     }
 
     /**
@@ -182,4 +158,48 @@ public class WindowedEventCounter {
         this.clock = clock;
     }
 
+    /**
+     * Fixed-size ring of timestamps. The cursor counts every event ever
+     * added; event <em>n</em> lives in slot <em>n % capacity</em>.
+     */
+    private static final class Ring {
+        final int capacity;
+        final AtomicLongArray slots;
+        final AtomicLong cursor = new AtomicLong();
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicLongArray(capacity);
+        }
+
+        void add(long timestamp) {
+            long n = cursor.getAndIncrement();
+            slots.set((int) (n % capacity), timestamp);
+        }
+
+        /* Walks from the newest event back, stopping at the first one
+         * that is out of the window; events are added in (close to)
+         * time order, so everything older is out of the window too. */
+        int countSince(long cutoffMillis) {
+            long newest = cursor.get();
+            int held = (int) Math.min(newest, capacity);
+            int count = 0;
+            for (int i = 1; i <= held; i++) {
+                if (slots.get((int) ((newest - i) % capacity)) < cutoffMillis) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        void copyNewestInto(Ring target) {
+            long newest = cursor.get();
+            int keep = (int) Math.min(Math.min(newest, capacity), target.capacity);
+            for (long n = newest - keep; n < newest; n++) {
+                target.add(slots.get((int) (n % capacity)));
+            }
+        }
+    }
+
 }
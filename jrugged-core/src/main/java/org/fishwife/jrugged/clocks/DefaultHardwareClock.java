@@ -109,10 +109,17 @@ class DefaultHardwareClock implements HardwareClock {
         long granularity = getGranularity();
         long err = granularity / 2;
         if (granularity % 2 == 1) err += 1;
-        long now = env.nanoTime() + getOffset();
+        long now = getNanoReading();
         return new DiscreteInterval(now - err, now + err);
     }
 
+    /* (non-Javadoc)
+     * @see org.fishwife.jrugged.clocks.HardwareClock#getNanoReading()
+     */
+    public long getNanoReading() {
+        return env.nanoTime() + getOffset();
+    }
+
     private long getOffset() {
         if (offset != null) return offset;
         long now = env.nanoTime();
@@ -43,4 +43,12 @@ interface HardwareClock {
      */
     DiscreteInterval getNanoTime();
 
+    /** Get the current hardware clock reading on its own, without the
+     * error bounds {@link #getNanoTime()} puts around it; the error is
+     * still half the granularity. Unlike {@link #getNanoTime()} this
+     * allocates nothing, for callers that read the clock constantly.
+     * @return the current hardware clock reading, in nanoseconds
+     */
+    long getNanoReading();
+
 }
\ No newline at end of file
@@ -0,0 +1,341 @@
+/* HashedTimingWheel.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.clocks;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fishwife.jrugged.interval.DiscreteInterval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A hashed timing wheel: a scheduler for very large numbers of
+ * pending timeouts, most of which are expected to be cancelled before
+ * they fire. Scheduling and cancelling are both O(1) and lock-free; one
+ * ticker thread, started on first use, advances the wheel a slot per
+ * tick and runs the tasks that have come due.
+ * <p>
+ * The price is precision. Time on the wheel moves in ticks, so like a
+ * {@link HardwareClock} the wheel has a granularity (the tick) and a
+ * measurement error, and {@link #getFiringWindow(long, TimeUnit)}
+ * reports the range of delays after which a task may actually run.
+ * Tasks run on the ticker thread and should only hand work off, not do
+ * it.
+ */
+public class HashedTimingWheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 1L;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    /** Most additions moved onto the wheel per tick, so a flood of new
+     * timeouts cannot stall expiry. */
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    /** A task scheduled on the wheel. */
+    public interface Timeout {
+
+        /** Stops the task from running, if it has not already run.
+         * @return <code>true</code> iff this call cancelled the task */
+        boolean cancel();
+
+        /** @return whether the task was cancelled */
+        boolean isCancelled();
+
+        /** @return whether the task has come due and been run */
+        boolean isExpired();
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final HardwareClock clock;
+    private final String threadName;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<Entry> additions = new ConcurrentLinkedQueue<Entry>();
+    private final Queue<Entry> cancellations = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicLong pending = new AtomicLong();
+
+    private volatile Thread ticker;
+    private volatile long startTime;
+    private volatile boolean stopped;
+
+    /* Owned by the ticker thread. */
+    private long tick;
+
+    /** Creates a wheel with a one millisecond tick and 512 slots.
+     * @param threadName name for the ticker thread
+     */
+    public HashedTimingWheel(String threadName) {
+        this(threadName, DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /** Creates a wheel with the given geometry. A task due further out
+     * than one rotation (<code>tickDuration * ticksPerWheel</code>)
+     * simply stays in its slot for extra rotations.
+     * @param threadName name for the ticker thread
+     * @param tickDuration how far the wheel advances per tick
+     * @param unit the unit of <code>tickDuration</code>
+     * @param ticksPerWheel number of slots; rounded up to a power of two
+     */
+    public HashedTimingWheel(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(new DefaultHardwareClock(), threadName, tickDuration, unit, ticksPerWheel);
+    }
+
+    HashedTimingWheel(HardwareClock clock, String threadName, long tickDuration,
+            TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+        this.clock = clock;
+        this.threadName = threadName;
+        this.tickNanos = unit.toNanos(tickDuration);
+        int slots = 1;
+        while (slots < ticksPerWheel) slots <<= 1;
+        this.wheel = new Bucket[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = slots - 1;
+    }
+
+    /** Schedules <code>task</code> to run on the ticker thread once
+     * <code>delay</code> has passed, give or take the firing window.
+     * @param task what to run
+     * @param delay how long from now; zero or less means the next tick
+     * @param unit the unit of <code>delay</code>
+     * @return a handle for cancelling the task
+     * @throws IllegalStateException if the wheel has been stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) throw new NullPointerException("task");
+        start();
+        if (stopped) {
+            throw new IllegalStateException("timing wheel has been stopped");
+        }
+        long delayNanos = unit.toNanos(Math.max(delay, 0L));
+        long deadline = clock.getNanoReading() - startTime + delayNanos;
+        if (deadline < 0 && delayNanos > 0) deadline = Long.MAX_VALUE;
+        Entry entry = new Entry(task, deadline);
+        pending.incrementAndGet();
+        additions.add(entry);
+        return entry;
+    }
+
+    /** Stops the ticker thread. Tasks that have not run yet never will,
+     * and further scheduling fails. */
+    public void stop() {
+        stopped = true;
+        Thread t = ticker;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /** @return the number of tasks scheduled that have neither run nor
+     * been cancelled */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /** Gets the wheel's granularity: how far it advances per tick.
+     * @return granularity in nanoseconds
+     */
+    public long getGranularity() {
+        return tickNanos;
+    }
+
+    /** Gets the range of delays, after being scheduled, within which a
+     * task scheduled with the given delay may actually run, ignoring
+     * time spent running other tasks. A task never runs before its tick
+     * has come, but can run up to a tick late, and the clock readings
+     * on both ends are each off by up to half the clock's granularity.
+     * @param delay the requested delay
+     * @param unit the unit of <code>delay</code>
+     * @return <code>DiscreteInterval</code> of possible delays, in
+     *   nanoseconds
+     */
+    public DiscreteInterval getFiringWindow(long delay, TimeUnit unit) {
+        long granularity = clock.getGranularity();
+        long err = granularity / 2;
+        if (granularity % 2 == 1) err += 1;
+        long delayNanos = unit.toNanos(Math.max(delay, 0L));
+        return new DiscreteInterval(Math.max(0L, delayNanos - 2 * err),
+                delayNanos + tickNanos + 2 * err);
+    }
+
+    private void start() {
+        if (ticker != null) return;
+        synchronized (this) {
+            if (ticker != null) return;
+            startTime = clock.getNanoReading();
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    runTicker();
+                }
+            }, threadName);
+            t.setDaemon(true);
+            ticker = t;
+            t.start();
+        }
+    }
+
+    private void runTicker() {
+        while (!stopped) {
+            long now = waitForNextTick();
+            if (now < 0) break;
+            processCancellations();
+            transferAdditions();
+            wheel[(int) (tick & mask)].expire(now);
+            tick++;
+        }
+    }
+
+    /* Sleeps until the current tick has passed; returns the time since
+     * start, or -1 if stopped meanwhile. */
+    private long waitForNextTick() {
+        long target = tickNanos * (tick + 1);
+        while (true) {
+            long now = clock.getNanoReading() - startTime;
+            if (now >= target) return now;
+            LockSupport.parkNanos(this, target - now);
+            if (stopped) return -1L;
+        }
+    }
+
+    private void processCancellations() {
+        Entry entry;
+        while ((entry = cancellations.poll()) != null) {
+            if (entry.bucket != null) {
+                entry.bucket.remove(entry);
+            }
+        }
+    }
+
+    private void transferAdditions() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = additions.poll();
+            if (entry == null) return;
+            if (entry.state != Entry.WAITING) continue;
+            long dueTick = entry.deadline / tickNanos;
+            entry.remainingRounds = (dueTick - tick) / wheel.length;
+            long slot = Math.max(dueTick, tick);
+            wheel[(int) (slot & mask)].add(entry);
+        }
+    }
+
+    private final class Entry implements Timeout {
+        static final int WAITING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        final Runnable task;
+        final long deadline;
+        volatile int state = WAITING;
+
+        /* Owned by the ticker thread. */
+        long remainingRounds;
+        Bucket bucket;
+        Entry prev;
+        Entry next;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancellations.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (!STATE.compareAndSet(this, WAITING, EXPIRED)) return;
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // one failing task must not stop the wheel
+                logger.warn("Timing wheel task failed", t);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Entry> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    /* The timeouts hashed to one slot, as a doubly-linked list so that a
+     * cancelled one can be unlinked in O(1). Owned by the ticker thread. */
+    private final class Bucket {
+        private Entry head;
+        private Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            if (head == null) {
+                head = tail = entry;
+            } else {
+                tail.next = entry;
+                entry.prev = tail;
+                tail = entry;
+            }
+        }
+
+        void remove(Entry entry) {
+            if (entry.prev != null) entry.prev.next = entry.next;
+            if (entry.next != null) entry.next.prev = entry.prev;
+            if (entry == head) head = entry.next;
+            if (entry == tail) tail = entry.prev;
+            entry.prev = entry.next = null;
+            entry.bucket = null;
+        }
+
+        void expire(long now) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.state != Entry.WAITING) {
+                    remove(entry);
+                } else if (entry.remainingRounds <= 0 && entry.deadline <= now) {
+                    remove(entry);
+                    entry.expire();
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+    }
+}
@@ -16,10 +16,15 @@
  */
 package org.fishwife.jrugged.clocks;
 
+import java.util.concurrent.locks.LockSupport;
+
 import org.fishwife.jrugged.interval.DiscreteInterval;
 
 public class Timer {
 
+    /** How close to the end {@link #waitUntilElapsed()} stops sleeping. */
+    private static final long SPIN_THRESHOLD_NANOS = 100000L;
+
     private HardwareClock clock;
     private boolean wasSet = false;
     private DiscreteInterval targetElapsedTime;
@@ -64,9 +69,19 @@ public class Timer {
         return (diff.getMin() <= 0L) ? new DiscreteInterval(0L,0L) : diff;
     }
 
+    /** Blocks until the timer has elapsed. The thread sleeps while the
+     * end is comfortably far off and only spins for the last stretch,
+     * where a sleep might overshoot. */
     public void waitUntilElapsed() {
         if (!wasSet) throw new IllegalStateException("cannot wait until duration has been set");
-        while(!hasElapsed()) /*spin*/;
+        while(!hasElapsed()) {
+            long remaining = getTimeRemaining().getMin();
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
     }
 
 }
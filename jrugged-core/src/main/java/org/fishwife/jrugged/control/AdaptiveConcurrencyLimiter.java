@@ -0,0 +1,344 @@
+/* AdaptiveConcurrencyLimiter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.CallableAdapter;
+import org.fishwife.jrugged.InvocationResult;
+import org.fishwife.jrugged.MonitoredService;
+import org.fishwife.jrugged.ServiceStatus;
+import org.fishwife.jrugged.ServiceWrapper;
+import org.fishwife.jrugged.Status;
+
+/**
+ * A {@link ServiceWrapper} that limits how many calls may be in flight at
+ * once, and keeps adjusting that limit from the round-trip times it
+ * observes, so that it settles near the backend's actual capacity instead
+ * of a hand-tuned constant. Calls beyond the current limit are rejected
+ * with a {@link ConcurrencyLimitExceededException}.
+ * <p>
+ * Each completed call is fed as an event through a {@link ClosedLoop}:
+ * the {@link ConcurrencyModel} tracks the latest and shortest round
+ * trips, and the controller asks the configured {@link LimitAlgorithm}
+ * for the next limit. Any exception thrown by the wrapped call counts as
+ * a drop. Completing calls never wait for one another: each queues its
+ * event, and whichever of them finds the loop free processes everything
+ * queued so far.
+ * <p>
+ * The shortest round trip seen is taken as the backend's unloaded
+ * latency. If the backend gets permanently slower, call {@link
+ * #resetMinRtt()} so that latency-based algorithms re-learn it.
+ */
+public class AdaptiveConcurrencyLimiter implements MonitoredService, ServiceWrapper {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+
+    private final String name;
+    private final ConcurrencyModel model;
+    private final LimitController controller;
+    private final ClosedLoop<RoundTripEvent, ConcurrencyModel, LimitAction> loop;
+
+    private final ConcurrentLinkedQueue<RoundTripEvent> pending =
+        new ConcurrentLinkedQueue<RoundTripEvent>();
+    private final ReentrantLock loopLock = new ReentrantLock();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a limiter with the default initial, minimum and maximum
+     * limits.
+     * @param name the name for the limiter
+     * @param algorithm how the limit responds to round trips
+     */
+    public AdaptiveConcurrencyLimiter(String name, LimitAlgorithm algorithm) {
+        this(name, algorithm, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param name the name for the limiter
+     * @param algorithm how the limit responds to round trips
+     * @param initialLimit the limit to start from
+     * @param minLimit the limit never drops below this; at least 1
+     * @param maxLimit the limit never rises above this
+     */
+    public AdaptiveConcurrencyLimiter(String name, LimitAlgorithm algorithm,
+            int initialLimit, int minLimit, int maxLimit) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("algorithm must not be null");
+        }
+        if (minLimit < 1 || maxLimit < minLimit
+                || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("need 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.name = name;
+        this.model = new ConcurrencyModel(initialLimit);
+        this.controller = new LimitController(algorithm, minLimit, maxLimit);
+        this.loop = new ClosedLoop<RoundTripEvent, ConcurrencyModel, LimitAction>(controller, model);
+    }
+
+    /** Wrap the given service call with the limiter's protection logic.
+     *  @param c the {@link Callable} to attempt
+     *  @return whatever c would return on success
+     *  @throws ConcurrencyLimitExceededException if the current limit of
+     *    calls is already in flight
+     *  @throws Exception if <code>c</code> throws one during execution
+     */
+    public <T> T invoke(Callable<T> c) throws Exception {
+        int started = acquire();
+        if (started < 0) {
+            throw rejection();
+        }
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            T result = c.call();
+            dropped = false;
+            return result;
+        } finally {
+            release(System.nanoTime() - start, started, dropped);
+        }
+    }
+
+    /** Wrap the given service call with the limiter's protection logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @throws ConcurrencyLimitExceededException if the current limit of
+     *    calls is already in flight
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public void invoke(Runnable r) throws Exception {
+        invoke(new CallableAdapter<Void>(r));
+    }
+
+    /** Wrap the given service call with the limiter's protection logic.
+     *  @param r the {@link Runnable} to attempt
+     *  @param result what to return after <code>r</code> succeeds
+     *  @return result
+     *  @throws ConcurrencyLimitExceededException if the current limit of
+     *    calls is already in flight
+     *  @throws Exception if <code>r</code> throws one during execution
+     */
+    public <T> T invoke(Runnable r, T result) throws Exception {
+        return invoke(new CallableAdapter<T>(r, result));
+    }
+
+    /** Wrap the given service call with the limiter's protection logic,
+     *  reporting the outcome instead of throwing. A call over the current
+     *  limit yields {@link InvocationResult#rejected()}.
+     *  @param c the {@link Callable} to attempt
+     *  @return the outcome of the call
+     */
+    @Override
+    public <T> InvocationResult<T> tryInvoke(Callable<T> c) {
+        int started = acquire();
+        if (started < 0) {
+            rejected.increment();
+            return InvocationResult.rejected();
+        }
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            InvocationResult<T> result = InvocationResult.succeeded(c.call());
+            dropped = false;
+            return result;
+        } catch (Exception e) {
+            return InvocationResult.failed(e);
+        } finally {
+            release(System.nanoTime() - start, started, dropped);
+        }
+    }
+
+    /** Wrap the given asynchronous service call with the limiter's
+     *  protection logic. The call counts as in flight, and its round trip
+     *  is measured, until the returned stage completes.
+     *  @param s starts the service call
+     *  @return a stage completing with the call's outcome, or failing
+     *    with a {@link ConcurrencyLimitExceededException}
+     */
+    @Override
+    public <T> CompletionStage<T> invokeAsync(Supplier<CompletionStage<T>> s) {
+        final int started = acquire();
+        if (started < 0) {
+            return failed(rejection());
+        }
+        final long start = System.nanoTime();
+        CompletionStage<T> stage;
+        try {
+            stage = s.get();
+        } catch (RuntimeException e) {
+            release(System.nanoTime() - start, started, true);
+            return failed(e);
+        }
+        if (stage == null) {
+            release(System.nanoTime() - start, started, true);
+            return failed(new NullPointerException("supplier returned a null stage"));
+        }
+        return stage.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                release(System.nanoTime() - start, started, failure != null);
+            }
+        });
+    }
+
+    private static <T> CompletionStage<T> failed(Throwable cause) {
+        CompletableFuture<T> f = new CompletableFuture<T>();
+        f.completeExceptionally(cause);
+        return f;
+    }
+
+    /**
+     * Takes a slot if the current limit allows.
+     * @return the number of calls in flight including this one, or -1 if
+     *   the limit has been reached
+     */
+    int acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= model.getLimit()) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Gives back a slot taken by {@link #acquire()} and feeds the call's
+     * round trip through the control loop.
+     * @param rttNanos how long the call took
+     * @param started what {@link #acquire()} returned for the call
+     * @param dropped whether the call failed
+     */
+    void release(long rttNanos, int started, boolean dropped) {
+        inFlight.decrementAndGet();
+        pending.offer(new RoundTripEvent(rttNanos, started, dropped));
+        drain();
+    }
+
+    /* Whichever releasing thread gets the lock feeds every pending event
+     * through the loop; the others leave their events to it instead of
+     * waiting. Checking again after unlocking picks up events offered
+     * while the drainer was finishing. */
+    private void drain() {
+        while (!pending.isEmpty() && loopLock.tryLock()) {
+            try {
+                RoundTripEvent event;
+                while ((event = pending.poll()) != null) {
+                    loop.processEvent(event);
+                }
+            } finally {
+                loopLock.unlock();
+            }
+        }
+    }
+
+    void addObjective(Objective<ConcurrencyModel> objective) {
+        loop.addObjective(objective);
+    }
+
+    void withdrawObjective(Objective<ConcurrencyModel> objective) {
+        loop.withdrawObjective(objective);
+    }
+
+    private ConcurrencyLimitExceededException rejection() {
+        rejected.increment();
+        return new ConcurrencyLimitExceededException(name, model.getLimit());
+    }
+
+    /**
+     * Forgets the shortest round trip seen so far, so that the unloaded
+     * latency is learned again from the next calls.
+     */
+    public void resetMinRtt() {
+        loopLock.lock();
+        try {
+            model.resetMinRtt();
+        } finally {
+            loopLock.unlock();
+        }
+    }
+
+    /**
+     * Reports {@link Status#DEGRADED} while the current limit of calls
+     * is in flight, and {@link Status#UP} otherwise.
+     * @return the {@link ServiceStatus} of this limiter
+     */
+    public ServiceStatus getServiceStatus() {
+        if (inFlight.get() >= model.getLimit()) {
+            return new ServiceStatus(name, Status.DEGRADED, "At concurrency limit");
+        }
+        return new ServiceStatus(name, Status.UP);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LimitAlgorithm getAlgorithm() {
+        return controller.getAlgorithm();
+    }
+
+    /**
+     * Returns how many calls may currently be in flight at once.
+     * @return int
+     */
+    public int getLimit() {
+        return model.getLimit();
+    }
+
+    /**
+     * Returns the number of calls currently running.
+     * @return int
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of calls rejected because the limit was reached.
+     * @return long
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the shortest round trip seen so far in milliseconds, or -1
+     * if no call has completed yet.
+     * @return double
+     */
+    public double getMinRttMillis() {
+        long min = model.getMinRttNanos();
+        if (min == Long.MAX_VALUE) {
+            return -1.0;
+        }
+        return (double) min / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
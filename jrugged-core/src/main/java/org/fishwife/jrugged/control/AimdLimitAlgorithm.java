@@ -0,0 +1,70 @@
+/* AimdLimitAlgorithm.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive-increase/multiplicative-decrease: the limit grows by one for
+ * each call that succeeds while the limiter is at least half used, and
+ * shrinks by a constant ratio for each call that fails or takes longer
+ * than a timeout. This needs no latency baseline, so it works well
+ * against backends that shed load by failing fast.
+ */
+public class AimdLimitAlgorithm implements LimitAlgorithm {
+
+    /** Default factor the limit is multiplied by on a drop. */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    private final double backoffRatio;
+    private final long timeoutNanos;
+
+    /** Creates an algorithm that backs off only on failed calls. */
+    public AimdLimitAlgorithm() {
+        this(DEFAULT_BACKOFF_RATIO, 0L);
+    }
+
+    /**
+     * @param backoffRatio factor the limit is multiplied by on a drop,
+     *   strictly between 0 and 1
+     * @param timeoutMillis calls slower than this count as drops; zero or
+     *   less disables the check
+     */
+    public AimdLimitAlgorithm(double backoffRatio, long timeoutMillis) {
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = (timeoutMillis > 0)
+            ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+    }
+
+    public double nextLimit(double limit, long rttNanos, long minRttNanos,
+            int inFlight, boolean dropped) {
+        if (dropped || rttNanos > timeoutNanos) {
+            return limit * backoffRatio;
+        }
+        if (inFlight * 2 >= limit) {
+            return limit + 1.0;
+        }
+        return limit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+}
@@ -0,0 +1,43 @@
+/* ConcurrencyLimitExceededException.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * Thrown by an {@link AdaptiveConcurrencyLimiter} when a call arrives
+ * while its current limit of calls is already in flight.
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String limiterName;
+    private final int limit;
+
+    public ConcurrencyLimitExceededException(String limiterName, int limit) {
+        super("Concurrency limit of " + limit + " reached for '" + limiterName + "'");
+        this.limiterName = limiterName;
+        this.limit = limit;
+    }
+
+    public String getLimiterName() {
+        return limiterName;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,68 @@
+/* ConcurrencyModel.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * What an {@link AdaptiveConcurrencyLimiter} knows about its backend: the
+ * latest round trip, the shortest one seen, and the current limit. Only
+ * updated from within the limiter's {@link ClosedLoop}, but the limit and
+ * baseline are read by callers on any thread.
+ */
+class ConcurrencyModel implements Model<RoundTripEvent> {
+
+    private RoundTripEvent latest;
+    private double estimate;
+    private volatile int limit;
+    private volatile long minRttNanos = Long.MAX_VALUE;
+
+    ConcurrencyModel(int initialLimit) {
+        this.estimate = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    public void update(RoundTripEvent event) {
+        latest = event;
+        if (!event.dropped && event.rttNanos > 0 && event.rttNanos < minRttNanos) {
+            minRttNanos = event.rttNanos;
+        }
+    }
+
+    RoundTripEvent getLatest() {
+        return latest;
+    }
+
+    double getEstimate() {
+        return estimate;
+    }
+
+    void setEstimate(double estimate) {
+        this.estimate = estimate;
+        this.limit = (int) estimate;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    long getMinRttNanos() {
+        return minRttNanos;
+    }
+
+    void resetMinRtt() {
+        minRttNanos = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,79 @@
+/* GradientLimitAlgorithm.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * Gradient limit: scales the limit by the ratio of the unloaded round
+ * trip to the current one, so that rising latency pulls the limit down
+ * in proportion, and adds <code>sqrt(limit)</code> of headroom so that
+ * the limit keeps probing for more capacity. The ratio is taken with a
+ * tolerance, so latency up to <code>tolerance</code> times the baseline
+ * is not penalized, and is never allowed below one half; the result is
+ * smoothed so that one slow call cannot collapse the limit.
+ */
+public class GradientLimitAlgorithm implements LimitAlgorithm {
+
+    public static final double DEFAULT_TOLERANCE = 1.5;
+    public static final double DEFAULT_SMOOTHING = 0.2;
+
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final double tolerance;
+    private final double smoothing;
+
+    public GradientLimitAlgorithm() {
+        this(DEFAULT_TOLERANCE, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * @param tolerance how many times the unloaded round trip is accepted
+     *   before the limit is pulled down; at least 1
+     * @param smoothing weight given to each new sample, in (0, 1]
+     */
+    public GradientLimitAlgorithm(double tolerance, double smoothing) {
+        if (tolerance < 1.0) {
+            throw new IllegalArgumentException("tolerance must be at least 1");
+        }
+        if (smoothing <= 0.0 || smoothing > 1.0) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1]");
+        }
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    public double nextLimit(double limit, long rttNanos, long minRttNanos,
+            int inFlight, boolean dropped) {
+        if (!dropped && inFlight * 2 < limit) {
+            return limit;
+        }
+        double gradient = MIN_GRADIENT;
+        if (!dropped && rttNanos > 0) {
+            gradient = Math.max(MIN_GRADIENT,
+                    Math.min(1.0, tolerance * minRttNanos / rttNanos));
+        }
+        double target = limit * gradient + Math.sqrt(limit);
+        return limit * (1.0 - smoothing) + target * smoothing;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+}
@@ -0,0 +1,35 @@
+/* LimitAction.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * Moves a {@link ConcurrencyModel}'s limit to a new value.
+ */
+class LimitAction implements Action {
+
+    private final ConcurrencyModel model;
+    private final double estimate;
+
+    LimitAction(ConcurrencyModel model, double estimate) {
+        this.model = model;
+        this.estimate = estimate;
+    }
+
+    public void execute() {
+        model.setEstimate(estimate);
+    }
+}
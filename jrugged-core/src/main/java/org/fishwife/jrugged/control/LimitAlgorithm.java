@@ -0,0 +1,40 @@
+/* LimitAlgorithm.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * Decides how an {@link AdaptiveConcurrencyLimiter}'s in-flight limit
+ * should move in response to one completed call. Implementations are
+ * called under the limiter's lock, one sample at a time, and may
+ * therefore keep mutable state without further synchronization.
+ */
+public interface LimitAlgorithm {
+
+    /**
+     * Computes the new limit after a call completes. The limiter clamps
+     * the result to its configured minimum and maximum.
+     * @param limit the current (fractional) limit
+     * @param rttNanos how long the call took
+     * @param minRttNanos the shortest round trip seen so far, taken as
+     *   the round trip of an unloaded backend
+     * @param inFlight how many calls were in flight when this one started
+     * @param dropped whether the call failed
+     * @return the new limit
+     */
+    double nextLimit(double limit, long rttNanos, long minRttNanos,
+            int inFlight, boolean dropped);
+}
@@ -0,0 +1,80 @@
+/* LimitController.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Chooses the next in-flight limit for a {@link ConcurrencyModel} by
+ * asking a {@link LimitAlgorithm}, clamped to a fixed range. Each
+ * sample moves the limit by only 1/limit of the step the algorithm asks
+ * for, so that its full step is taken about once per round trip.
+ */
+class LimitController implements Controller<ConcurrencyModel, LimitAction> {
+
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final List<Objective<ConcurrencyModel>> objectives =
+        new CopyOnWriteArrayList<Objective<ConcurrencyModel>>();
+
+    LimitController(LimitAlgorithm algorithm, int minLimit, int maxLimit) {
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public void addObjective(Objective<ConcurrencyModel> objective) {
+        objectives.add(objective);
+    }
+
+    public void withdrawObjective(Objective<ConcurrencyModel> objective) {
+        objectives.remove(objective);
+    }
+
+    public void assessObjectives(ConcurrencyModel model) {
+        for (Objective<ConcurrencyModel> objective : objectives) {
+            if (objective.isMetBy(model)) {
+                objective.succeed();
+            } else if (objective.hasFailed(model)) {
+                objective.fail();
+            }
+        }
+    }
+
+    public LimitAction selectAction(ConcurrencyModel model) {
+        RoundTripEvent event = model.getLatest();
+        long minRtt = model.getMinRttNanos();
+        if (minRtt == Long.MAX_VALUE) {
+            minRtt = event.rttNanos;
+        }
+        double current = model.getEstimate();
+        double next = algorithm.nextLimit(current, event.rttNanos,
+                minRtt, event.inFlight, event.dropped);
+        // about <limit> samples arrive per round trip, each still
+        // reflecting the load before the last change; taking 1/limit of
+        // each step applies the algorithm's full step once per round trip
+        // instead of once per call, which keeps the loop from overshooting
+        next = current + (next - current) / Math.max(1.0, current);
+        return new LimitAction(model, Math.max(minLimit, Math.min(maxLimit, next)));
+    }
+
+    LimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+}
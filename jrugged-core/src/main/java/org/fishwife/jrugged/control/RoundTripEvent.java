@@ -0,0 +1,33 @@
+/* RoundTripEvent.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * One completed call through an {@link AdaptiveConcurrencyLimiter}.
+ */
+class RoundTripEvent implements Event {
+
+    final long rttNanos;
+    final int inFlight;
+    final boolean dropped;
+
+    RoundTripEvent(long rttNanos, int inFlight, boolean dropped) {
+        this.rttNanos = rttNanos;
+        this.inFlight = inFlight;
+        this.dropped = dropped;
+    }
+}
@@ -0,0 +1,78 @@
+/* VegasLimitAlgorithm.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+/**
+ * Vegas-style limit: estimates how many calls are queued at the backend
+ * as <code>limit * (1 - minRtt / rtt)</code>, raises the limit by one
+ * while that estimate is below <code>alpha</code> and lowers it by one
+ * while it is above <code>beta</code>. In steady state the backend thus
+ * holds between <code>alpha</code> and <code>beta</code> calls more than
+ * it can serve at once. Failed calls shrink the limit multiplicatively.
+ */
+public class VegasLimitAlgorithm implements LimitAlgorithm {
+
+    public static final double DEFAULT_ALPHA = 3.0;
+    public static final double DEFAULT_BETA = 6.0;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    private final double alpha;
+    private final double beta;
+
+    public VegasLimitAlgorithm() {
+        this(DEFAULT_ALPHA, DEFAULT_BETA);
+    }
+
+    /**
+     * @param alpha queue estimate below which the limit grows
+     * @param beta queue estimate above which the limit shrinks; must not
+     *   be less than <code>alpha</code>
+     */
+    public VegasLimitAlgorithm(double alpha, double beta) {
+        if (alpha < 0.0 || beta < alpha) {
+            throw new IllegalArgumentException("need 0 <= alpha <= beta");
+        }
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    public double nextLimit(double limit, long rttNanos, long minRttNanos,
+            int inFlight, boolean dropped) {
+        if (dropped) {
+            return limit * DEFAULT_BACKOFF_RATIO;
+        }
+        if (rttNanos <= 0) {
+            return limit;
+        }
+        double queued = limit * (1.0 - (double) minRttNanos / rttNanos);
+        if (queued > beta) {
+            return limit - 1.0;
+        }
+        if (queued < alpha && inFlight * 2 >= limit) {
+            return limit + 1.0;
+        }
+        return limit;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+}
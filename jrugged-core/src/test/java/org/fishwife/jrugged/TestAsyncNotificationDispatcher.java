@@ -0,0 +1,120 @@
+/* TestAsyncNotificationDispatcher.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAsyncNotificationDispatcher {
+
+    private AsyncNotificationDispatcher impl;
+
+    @Before
+    public void setUp() {
+        impl = new AsyncNotificationDispatcher(1);
+    }
+
+    @After
+    public void tearDown() {
+        impl.shutdown();
+    }
+
+    @Test
+    public void testRunsTasksOnAnotherThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final Thread[] ranOn = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+
+        impl.execute(new Runnable() {
+            public void run() {
+                ranOn[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(ranOn[0] != caller);
+    }
+
+    @Test
+    public void testDropsTasksInsteadOfBlockingWhenFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        impl.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable noop = new Runnable() {
+            public void run() {
+            }
+        };
+        impl.execute(noop);
+        impl.execute(noop);
+        impl.execute(noop);
+
+        assertEquals(1, impl.getQueueSize());
+        assertEquals(2, impl.getDroppedCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testKeepsDispatchingAfterTaskThrows() throws Exception {
+        impl.shutdown();
+        impl = new AsyncNotificationDispatcher();
+        final CountDownLatch done = new CountDownLatch(1);
+        impl.execute(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("listener broke");
+            }
+        });
+        impl.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTasksAreDroppedAfterShutdown() {
+        impl.shutdown();
+        impl.execute(new Runnable() {
+            public void run() {
+            }
+        });
+        assertEquals(1, impl.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueueSizeMustBePositive() {
+        new AsyncNotificationDispatcher(0);
+    }
+}
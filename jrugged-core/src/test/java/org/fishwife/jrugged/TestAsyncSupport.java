@@ -0,0 +1,89 @@
+/* TestAsyncSupport.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAsyncSupport {
+
+    @Test
+    public void testStartTurnsThrownExceptionIntoFailedStage() {
+        final RuntimeException boom = new RuntimeException();
+        CompletionStage<Object> stage = AsyncSupport.start(new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                throw boom;
+            }
+        });
+        assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testStartRejectsNullStage() {
+        CompletionStage<Object> stage = AsyncSupport.start(new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return null;
+            }
+        });
+        assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testWithoutTimeoutReturnsSameStage() {
+        CompletableFuture<Object> f = new CompletableFuture<Object>();
+        assertSame(f, AsyncSupport.withTimeout(f, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testWithTimeoutPassesThroughTimelyResult() throws Exception {
+        CompletableFuture<String> f = new CompletableFuture<String>();
+        CompletionStage<String> timed = AsyncSupport.withTimeout(f, 5, TimeUnit.SECONDS);
+        f.complete("ok");
+        assertEquals("ok", timed.toCompletableFuture().get());
+    }
+
+    @Test
+    public void testWithTimeoutFailsSlowStage() throws Exception {
+        CompletableFuture<String> f = new CompletableFuture<String>();
+        CompletionStage<String> timed = AsyncSupport.withTimeout(f, 10, TimeUnit.MILLISECONDS);
+        try {
+            timed.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testUnwrapStripsCompletionException() {
+        Exception cause = new Exception();
+        assertSame(cause, AsyncSupport.unwrap(new CompletionException(cause)));
+        assertSame(cause, AsyncSupport.unwrap(cause));
+    }
+}
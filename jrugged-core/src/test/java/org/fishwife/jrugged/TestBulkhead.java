@@ -0,0 +1,360 @@
+/* TestBulkhead.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBulkhead {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Bulkhead impl;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (impl != null) {
+            impl.shutdown();
+        }
+    }
+
+    private Thread occupy(final Bulkhead bulkhead) throws InterruptedException {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    bulkhead.invoke(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return null;
+                        }
+                    });
+                } catch (Exception e) {
+                    // test thread only holds the slot
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return t;
+    }
+
+    @Test
+    public void testInvokeReturnsResult() throws Exception {
+        impl = new Bulkhead("test", 2);
+        Object obj = new Object();
+        assertSame(obj, impl.invoke(new Runnable() {
+            public void run() { }
+        }, obj));
+        assertEquals(1, impl.getAdmittedCount());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testSemaphoreRejectsWhenFull() throws Exception {
+        impl = new Bulkhead("test", 1);
+        Thread holder = occupy(impl);
+
+        assertEquals(1, impl.getInFlightCount());
+        try {
+            impl.invoke(new Callable<Object>() {
+                public Object call() {
+                    fail("should not run");
+                    return null;
+                }
+            });
+            fail("should have been rejected");
+        } catch (BulkheadFullException expected) {
+            assertEquals("test", expected.getBulkheadName());
+        }
+        assertEquals(1, impl.getRejectedCount());
+
+        release.countDown();
+        holder.join(5000);
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testSemaphoreWaitsForPermit() throws Exception {
+        impl = new Bulkhead("test", new BulkheadConfig(1, 5000L));
+        occupy(impl);
+
+        Thread releaser = new Thread(new Runnable() {
+            public void run() {
+                while (impl.getWaitingCount() == 0) {
+                    Thread.yield();
+                }
+                release.countDown();
+            }
+        });
+        releaser.start();
+
+        assertEquals("done", impl.invoke(new Callable<String>() {
+            public String call() {
+                return "done";
+            }
+        }));
+        assertEquals(0, impl.getRejectedCount());
+        assertEquals(2, impl.getAdmittedCount());
+        assertTrue(impl.getAverageQueueWaitMillis() >= 0.0);
+    }
+
+    @Test
+    public void testSemaphoreGivesUpAfterMaxWait() throws Exception {
+        impl = new Bulkhead("test", new BulkheadConfig(1, 20L));
+        occupy(impl);
+
+        long start = System.nanoTime();
+        try {
+            impl.invoke(new Runnable() {
+                public void run() { }
+            });
+            fail("should have been rejected");
+        } catch (BulkheadFullException expected) {
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, impl.getWaitingCount());
+    }
+
+    @Test
+    public void testStatusIsDegradedWhenSaturated() throws Exception {
+        impl = new Bulkhead("test", 1);
+        assertEquals(Status.UP, impl.getServiceStatus().getStatus());
+
+        Thread holder = occupy(impl);
+        assertTrue(impl.isSaturated());
+        assertEquals(Status.DEGRADED, impl.getServiceStatus().getStatus());
+
+        release.countDown();
+        holder.join(5000);
+        assertEquals(Status.UP, impl.getServiceStatus().getStatus());
+    }
+
+    @Test
+    public void testTryInvokeReportsRejection() throws Exception {
+        impl = new Bulkhead("test", 1);
+        occupy(impl);
+
+        InvocationResult<String> result = impl.tryInvoke(new Callable<String>() {
+            public String call() {
+                return "ran";
+            }
+        });
+        assertTrue(result.isRejected());
+        assertEquals(1, impl.getRejectedCount());
+    }
+
+    @Test
+    public void testThreadPoolRunsOnBulkheadThread() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 0));
+        String threadName = impl.invoke(new Callable<String>() {
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertTrue(threadName.startsWith("jrugged-bulkhead-pool-"));
+    }
+
+    @Test
+    public void testThreadPoolPropagatesCallException() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 0));
+        final Exception boom = new Exception("boom");
+        try {
+            impl.invoke(new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw boom;
+                }
+            });
+            fail("should have thrown");
+        } catch (Exception e) {
+            assertSame(boom, e);
+        }
+    }
+
+    @Test
+    public void testThreadPoolRejectsWhenPoolAndQueueFull() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 1));
+        occupy(impl);
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                queued.countDown();
+                try {
+                    impl.invoke(new Runnable() {
+                        public void run() { }
+                    });
+                } catch (Exception e) {
+                    // only fills the queue
+                }
+            }
+        });
+        waiter.setDaemon(true);
+        waiter.start();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        while (impl.getWaitingCount() == 0) {
+            Thread.yield();
+        }
+
+        assertTrue(impl.isSaturated());
+        assertTrue(impl.tryInvoke(new Runnable() {
+            public void run() { }
+        }).isRejected());
+        assertEquals(1, impl.getRejectedCount());
+
+        release.countDown();
+        waiter.join(5000);
+        assertEquals(2, impl.getAdmittedCount());
+    }
+
+    @Test
+    public void testInvokeAsyncHoldsPermitUntilStageCompletes() throws Exception {
+        impl = new Bulkhead("test", 1);
+        final CompletableFuture<String> pending = new CompletableFuture<String>();
+        CompletionStage<String> first = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return pending;
+            }
+        });
+        assertEquals(1, impl.getInFlightCount());
+
+        CompletionStage<String> second = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture("no");
+            }
+        });
+        try {
+            second.toCompletableFuture().get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+
+        pending.complete("yes");
+        assertEquals("yes", first.toCompletableFuture().get());
+        assertEquals(0, impl.getInFlightCount());
+        assertFalse(impl.isSaturated());
+    }
+
+    @Test
+    public void testThreadPoolInvokeAsyncReturnsWhileQueued() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 1));
+        Thread holder = occupy(impl);
+        final CompletableFuture<String> pending = new CompletableFuture<String>();
+
+        CompletionStage<String> first = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return pending;
+            }
+        });
+        assertFalse(first.toCompletableFuture().isDone());
+
+        release.countDown();
+        holder.join(5000);
+        while (impl.getInFlightCount() == 0) {
+            Thread.yield();
+        }
+        assertTrue(impl.isSaturated());
+
+        CompletionStage<String> second = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture("no");
+            }
+        });
+        try {
+            second.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+
+        pending.complete("yes");
+        assertEquals("yes", first.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(0, impl.getInFlightCount());
+        assertEquals(2, impl.getAdmittedCount());
+        assertEquals(1, impl.getRejectedCount());
+    }
+
+    @Test
+    public void testThreadPoolSyncCallCannotTakeSlotHeldByAsyncCall() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 1));
+        final CompletableFuture<String> pending = new CompletableFuture<String>();
+        CompletionStage<String> async = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return pending;
+            }
+        });
+        while (impl.getInFlightCount() == 0) {
+            Thread.yield();
+        }
+
+        try {
+            impl.invoke(new Callable<String>() {
+                public String call() {
+                    return "no";
+                }
+            });
+            fail("should have been rejected");
+        } catch (BulkheadFullException expected) {
+        }
+        assertTrue(impl.tryInvoke(new Runnable() {
+            public void run() { }
+        }).isRejected());
+        assertEquals(1, impl.getInFlightCount());
+        assertEquals(1, impl.getAdmittedCount());
+        assertEquals(2, impl.getRejectedCount());
+
+        pending.complete("yes");
+        assertEquals("yes", async.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals("ok", impl.invoke(new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        }));
+    }
+
+    @Test
+    public void testTryInvokeKeepsInterruptWhileWaitingForPool() throws Exception {
+        impl = new Bulkhead("pool", new BulkheadConfig(Bulkhead.Mode.THREAD_POOL, 1, 0L, 1));
+        occupy(impl);
+
+        Thread.currentThread().interrupt();
+        InvocationResult<Void> result = impl.tryInvoke(new Runnable() {
+            public void run() { }
+        });
+
+        assertTrue(Thread.interrupted());
+        assertTrue(result.isFailed());
+        assertTrue(result.getCause() instanceof InterruptedException);
+    }
+}
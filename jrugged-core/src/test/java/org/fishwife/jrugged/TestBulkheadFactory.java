@@ -0,0 +1,100 @@
+/* TestBulkheadFactory.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class TestBulkheadFactory {
+
+    private BulkheadFactory factory;
+    private BulkheadConfig config;
+
+    @Before
+    public void setUp() {
+        factory = new BulkheadFactory();
+        config = new BulkheadConfig(4, 100L);
+    }
+
+    @Test
+    public void testCreateBulkhead() {
+        Bulkhead bulkhead = factory.createBulkhead("testCreate", config);
+
+        assertEquals("testCreate", bulkhead.getName());
+        assertEquals(Bulkhead.Mode.SEMAPHORE, bulkhead.getMode());
+        assertEquals(4, bulkhead.getMaxConcurrentCalls());
+        assertEquals(100L, bulkhead.getMaxWaitMillis());
+    }
+
+    @Test
+    public void testCreateDuplicateBulkhead() {
+        Bulkhead first = factory.createBulkhead("testCreate", config);
+        Bulkhead second = factory.createBulkhead("testCreate", new BulkheadConfig(1, 0L));
+
+        assertSame(first, second);
+        assertEquals(4, second.getMaxConcurrentCalls());
+    }
+
+    @Test
+    public void testFindANamedBulkhead() {
+        Bulkhead created = factory.createBulkhead("testFind", config);
+
+        assertSame(created, factory.findBulkhead("testFind"));
+        assertNull(factory.findBulkhead("notThere"));
+        assertTrue(factory.getBulkheadNames().contains("testFind"));
+    }
+
+    @Test
+    public void testPropertyOverrides() {
+        Properties overrides = new Properties();
+        overrides.setProperty("bulkhead.testOverride.mode", "thread_pool");
+        overrides.setProperty("bulkhead.testOverride.maxConcurrentCalls", "2");
+        overrides.setProperty("bulkhead.testOverride.maxWaitMillis", "7");
+        overrides.setProperty("bulkhead.testOverride.queueCapacity", "3");
+        factory.setProperties(overrides);
+
+        Bulkhead bulkhead = factory.createBulkhead("testOverride", config);
+        try {
+            assertEquals(Bulkhead.Mode.THREAD_POOL, bulkhead.getMode());
+            assertEquals(2, bulkhead.getMaxConcurrentCalls());
+            assertEquals(7L, bulkhead.getMaxWaitMillis());
+            assertEquals(3, bulkhead.getQueueCapacity());
+        } finally {
+            bulkhead.shutdown();
+        }
+    }
+
+    @Test
+    public void testBadPropertyOverridesAreIgnored() {
+        Properties overrides = new Properties();
+        overrides.setProperty("bulkhead.testBad.mode", "sideways");
+        overrides.setProperty("bulkhead.testBad.maxConcurrentCalls", "lots");
+        factory.setProperties(overrides);
+
+        Bulkhead bulkhead = factory.createBulkhead("testBad", config);
+
+        assertEquals(Bulkhead.Mode.SEMAPHORE, bulkhead.getMode());
+        assertEquals(4, bulkhead.getMaxConcurrentCalls());
+    }
+}
@@ -0,0 +1,243 @@
+/* TestCachingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestCachingServiceWrapper {
+
+    private CircuitBreaker breaker;
+    private CachingServiceWrapper<String, String> impl;
+    private long now;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        breaker = new CircuitBreaker("svc");
+        impl = new CachingServiceWrapper<String, String>(breaker, 5, 100L, TimeUnit.MILLISECONDS) {
+            @Override
+            protected long nanoTime() {
+                return now;
+            }
+        };
+    }
+
+    private Callable<String> loader(final String key) {
+        return new Callable<String>() {
+            public String call() {
+                return key + "-" + loads.incrementAndGet();
+            }
+        };
+    }
+
+    private void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        assertEquals("a-1", impl.invoke("a", loader("a")));
+        assertEquals("a-1", impl.invoke("a", loader("a")));
+        assertEquals(1, loads.get());
+        assertEquals(1, impl.getHitCount());
+        assertEquals(1, impl.getMissCount());
+        assertEquals(0.5, impl.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testReloadsAfterTtl() throws Exception {
+        impl.invoke("a", loader("a"));
+        advanceMillis(100L);
+        assertEquals("a-2", impl.invoke("a", loader("a")));
+        assertEquals(2, impl.getMissCount());
+    }
+
+    @Test
+    public void testServesStaleWhenBreakerIsOpen() throws Exception {
+        impl.invoke("a", loader("a"));
+        advanceMillis(500L);
+        breaker.trip();
+        assertEquals("a-1", impl.invoke("a", loader("a")));
+        assertEquals(1, loads.get());
+        assertEquals(1, impl.getStaleServeCount());
+    }
+
+    @Test
+    public void testServesStaleWhenLoadFails() throws Exception {
+        impl.invoke("a", loader("a"));
+        advanceMillis(500L);
+        assertEquals("a-1", impl.invoke("a", new Callable<String>() {
+            public String call() {
+                throw new IllegalStateException("down");
+            }
+        }));
+        assertEquals(1, impl.getStaleServeCount());
+    }
+
+    @Test
+    public void testDoesNotServeBeyondMaxStale() throws Exception {
+        impl.setMaxStale(200L, TimeUnit.MILLISECONDS);
+        impl.invoke("a", loader("a"));
+        advanceMillis(301L);
+        breaker.trip();
+        try {
+            impl.invoke("a", loader("a"));
+            fail("should have thrown");
+        } catch (CircuitBreakerException expected) {
+        }
+        assertEquals(0, impl.getStaleServeCount());
+    }
+
+    @Test
+    public void testFailureWithoutCachedResultPropagates() throws Exception {
+        breaker.trip();
+        try {
+            impl.invoke("a", loader("a"));
+            fail("should have thrown");
+        } catch (CircuitBreakerException expected) {
+        }
+    }
+
+    @Test
+    public void testRefreshAheadReloadsInBackground() throws Exception {
+        impl.setRefreshAhead(20L, TimeUnit.MILLISECONDS, new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        impl.invoke("a", loader("a"));
+        advanceMillis(50L);
+        assertEquals("a-1", impl.invoke("a", loader("a")));
+        assertEquals(0, impl.getRefreshCount());
+
+        advanceMillis(35L);
+        assertEquals("a-1", impl.invoke("a", loader("a")));
+        assertEquals(1, impl.getRefreshCount());
+
+        advanceMillis(30L);
+        assertEquals("a-2", impl.invoke("a", loader("a")));
+        assertEquals(1, impl.getMissCount());
+    }
+
+    @Test
+    public void testEvictsToStayWithinMaxSize() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            impl.invoke("k" + i, loader("k" + i));
+        }
+        assertEquals(5, impl.getSize());
+        assertEquals(3, impl.getEvictionCount());
+    }
+
+    @Test
+    public void testCacheOfOneReplacesPromotedEntry() throws Exception {
+        CachingServiceWrapper<String, String> one =
+            new CachingServiceWrapper<String, String>(breaker, 1, 100L, TimeUnit.MILLISECONDS) {
+                @Override
+                protected long nanoTime() {
+                    return now;
+                }
+            };
+        one.invoke("a", loader("a"));
+        one.invoke("a", loader("a"));
+        one.invoke("b", loader("b"));
+        assertEquals("b-2", one.invoke("b", loader("b")));
+        assertEquals(1, one.getSize());
+        assertEquals(1, one.getEvictionCount());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testScanDoesNotFlushFrequentlyUsedEntries() throws Exception {
+        impl.invoke("hot1", loader("hot1"));
+        impl.invoke("hot1", loader("hot1"));
+        impl.invoke("hot2", loader("hot2"));
+        impl.invoke("hot2", loader("hot2"));
+        for (int i = 0; i < 20; i++) {
+            impl.invoke("scan" + i, loader("scan" + i));
+        }
+        int before = loads.get();
+        impl.invoke("hot1", loader("hot1"));
+        impl.invoke("hot2", loader("hot2"));
+        assertEquals(before, loads.get());
+    }
+
+    @Test
+    public void testExpiredEntryIsNotPromotedWhenHit() throws Exception {
+        impl.invoke("a", loader("a"));
+        advanceMillis(100L);
+        assertEquals("a-2", impl.invoke("a", loader("a")));
+        for (int i = 0; i < 5; i++) {
+            impl.invoke("scan" + i, loader("scan" + i));
+        }
+        int before = loads.get();
+        impl.invoke("a", loader("a"));
+        assertEquals(before + 1, loads.get());
+    }
+
+    @Test
+    public void testConcurrentHitsAreAllServed() throws Exception {
+        impl.invoke("a", loader("a"));
+        final int threads = 8;
+        final int hitsPerThread = 1000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger wrong = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < hitsPerThread; i++) {
+                            if (!"a-1".equals(impl.invoke("a", loader("a")))) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        wrong.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(0, wrong.get());
+        assertEquals(threads * hitsPerThread, impl.getHitCount());
+        assertEquals(1, loads.get());
+        assertEquals(1, impl.getSize());
+    }
+
+    @Test
+    public void testInvalidateForcesReload() throws Exception {
+        impl.invoke("a", loader("a"));
+        impl.invalidate("a");
+        assertEquals("a-2", impl.invoke("a", loader("a")));
+        impl.invalidateAll();
+        assertEquals(0, impl.getSize());
+    }
+}
@@ -16,7 +16,19 @@
  */
 package org.fishwife.jrugged;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import junit.framework.Assert;
 import org.junit.Before;
@@ -29,6 +41,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -127,7 +140,7 @@ public class TestCircuitBreaker {
 
     @Test
     public void testStaysClosedOnSuccess() throws Exception {
-        impl.state = CircuitBreaker.BreakerState.CLOSED;
+        impl.setState(CircuitBreaker.BreakerState.CLOSED);
         final Object obj = new Object();
         expect(mockCallable.call()).andReturn(obj);
         replay(mockCallable);
@@ -136,13 +149,13 @@ public class TestCircuitBreaker {
 
         verify(mockCallable);
         assertSame(obj, result);
-        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
     }
 
     @Test
     public void testOpensOnFailure() throws Exception {
         long start = System.currentTimeMillis();
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         expect(mockCallable.call()).andThrow(new RuntimeException());
         replay(mockCallable);
 
@@ -155,7 +168,7 @@ public class TestCircuitBreaker {
         long end = System.currentTimeMillis();
 
         verify(mockCallable);
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
         assertTrue(impl.lastFailure.get() >= start);
         assertTrue(impl.lastFailure.get() <= end);
     }
@@ -164,7 +177,7 @@ public class TestCircuitBreaker {
     public void testOpenDuringCooldownThrowsCBException()
             throws Exception {
 
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         impl.lastFailure.set(System.currentTimeMillis());
         replay(mockCallable);
 
@@ -175,26 +188,26 @@ public class TestCircuitBreaker {
         }
 
         verify(mockCallable);
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
     }
 
     @Test
     public void testOpenAfterCooldownGoesHalfClosed()
             throws Exception {
 
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         impl.resetMillis.set(1000);
         impl.lastFailure.set(System.currentTimeMillis() - 2000);
 
         assertEquals(Status.DEGRADED, impl.getStatus());
-        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
     }
 
     @Test
     public void testHalfClosedFailureOpensAgain()
             throws Exception {
 
-        impl.state = CircuitBreaker.BreakerState.HALF_CLOSED;
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
         impl.resetMillis.set(1000);
         impl.lastFailure.set(System.currentTimeMillis() - 2000);
 
@@ -212,29 +225,198 @@ public class TestCircuitBreaker {
         long end = System.currentTimeMillis();
 
         verify(mockCallable);
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
         assertTrue(impl.lastFailure.get() >= start);
         assertTrue(impl.lastFailure.get() <= end);
     }
 
+    @Test
+    public void testOnlyOneConcurrentRequestIsAllowedWhenHalfClosed()
+            throws Exception {
+
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
+        impl.resetMillis.set(1000);
+        impl.lastFailure.set(System.currentTimeMillis() - 2000);
+
+        final int numThreads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger allowed = new AtomicInteger(0);
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (impl.allowRequest()) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, allowed.get());
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+        assertTrue(impl.isAttemptLive());
+    }
+
+    @Test
+    public void testHalfClosedHandsOutConfiguredNumberOfPermits() {
+        impl.setHalfOpenPermits(3);
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
+        impl.resetMillis.set(1000);
+        impl.lastFailure.set(System.currentTimeMillis() - 2000);
+
+        assertTrue(impl.allowRequest());
+        assertTrue(impl.allowRequest());
+        assertTrue(impl.allowRequest());
+        assertFalse(impl.allowRequest());
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+    }
+
+    @Test
+    public void testHalfClosedClosesOnceSuccessThresholdIsMet() throws Exception {
+        impl.setHalfOpenPermits(3);
+        impl.setHalfOpenSuccessThreshold(2);
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
+
+        impl.invoke(new Callable<Object>() {
+            public Object call() { return null; }
+        });
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        impl.invoke(new Callable<Object>() {
+            public Object call() { return null; }
+        });
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+    }
+
+    @Test
+    public void testHalfClosedToleratesFailuresUntilThresholdIsUnreachable() throws Exception {
+        impl.setHalfOpenPermits(3);
+        impl.setHalfOpenSuccessThreshold(2);
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
+        long trips = impl.getTripCount();
+
+        try {
+            impl.invoke(new FailingCallable("first"));
+            fail("should have thrown an exception");
+        } catch (Exception expected) {
+        }
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        try {
+            impl.invoke(new FailingCallable("second"));
+            fail("should have thrown an exception");
+        } catch (Exception expected) {
+        }
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+        assertEquals(trips + 1, impl.getTripCount());
+        assertEquals("second", impl.getTripException().getMessage());
+    }
+
+    @Test
+    public void testSuccessThresholdNeverExceedsPermits() {
+        impl.setHalfOpenSuccessThreshold(8);
+        assertEquals(1, impl.getHalfOpenSuccessThreshold());
+
+        impl.setHalfOpenPermits(10);
+        assertEquals(8, impl.getHalfOpenSuccessThreshold());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHalfOpenPermitsMustBePositive() {
+        impl.setHalfOpenPermits(0);
+    }
+
+    @Test
+    public void testLateSuccessDoesNotCloseOpenBreaker() throws Exception {
+        impl.trip();
+
+        impl.close();
+
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+    }
+
+    private CompletableFuture<Object> startPending(CircuitBreaker breaker) {
+        final CompletableFuture<Object> pending = new CompletableFuture<Object>();
+        breaker.invokeAsync(new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return pending;
+            }
+        });
+        return pending;
+    }
+
+    @Test
+    public void testLateSuccessFromClosedCallDoesNotCountAsProbe() throws Exception {
+        impl.setResetMillis(0);
+        CompletableFuture<Object> late = startPending(impl);
+        impl.trip();
+        assertEquals(Status.DEGRADED, impl.getStatus());
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        late.complete("late");
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        impl.invoke(new Callable<Object>() {
+            public Object call() { return null; }
+        });
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+    }
+
+    @Test
+    public void testLateFailureFromClosedCallDoesNotReopen() throws Exception {
+        impl.setResetMillis(0);
+        CompletableFuture<Object> late = startPending(impl);
+        impl.trip();
+        impl.getStatus();
+        long trips = impl.getTripCount();
+
+        late.completeExceptionally(new Exception("late"));
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+        assertEquals(trips, impl.getTripCount());
+    }
+
+    @Test
+    public void testProbeFromEarlierRoundDoesNotCloseLaterRound() throws Exception {
+        impl.setResetMillis(0);
+        impl.trip();
+        CompletableFuture<Object> stale = startPending(impl);
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+        impl.trip();
+        impl.getStatus();
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        stale.complete("stale");
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+    }
+
     @Test
     public void testGetStatusNotUpdatingIsAttemptLive() throws Exception {
 
         impl.resetMillis.set(50);
         impl.trip();
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
-        assertEquals(false, impl.isAttemptLive);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+        assertEquals(false, impl.isAttemptLive());
 
         Thread.sleep(200);
 
         // The getStatus()->canAttempt() call also updated isAttemptLive to true
         assertEquals(Status.DEGRADED.getValue(), impl.getStatus().getValue());
-        assertEquals(false, impl.isAttemptLive);
+        assertEquals(false, impl.isAttemptLive());
     }
 
     @Test
     public void testManualTripAndReset() throws Exception {
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         final Object obj = new Object();
         expect(mockCallable.call()).andReturn(obj);
         replay(mockCallable);
@@ -252,7 +434,7 @@ public class TestCircuitBreaker {
 
         verify(mockCallable);
         assertSame(obj, result);
-        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
     }
 
     @Test
@@ -267,11 +449,11 @@ public class TestCircuitBreaker {
             fail("exception expected after CircuitBreaker.tripHard()");
         } catch (CircuitBreakerException e) {
         }
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
 
         impl.reset();
         impl.invoke(mockCallable);
-        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
 
         verify(mockCallable);
     }
@@ -290,19 +472,19 @@ public class TestCircuitBreaker {
 
     @Test
     public void testGetStatusWhenOpen() {
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         Assert.assertEquals(Status.DOWN, impl.getStatus());
     }
 
     @Test
     public void testGetStatusWhenHalfClosed() {
-        impl.state = CircuitBreaker.BreakerState.HALF_CLOSED;
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
         assertEquals(Status.DEGRADED, impl.getStatus());
     }
 
     @Test
     public void testGetStatusWhenOpenBeforeReset() {
-        impl.state = CircuitBreaker.BreakerState.CLOSED;
+        impl.setState(CircuitBreaker.BreakerState.CLOSED);
         impl.resetMillis.set(1000);
         impl.lastFailure.set(System.currentTimeMillis() - 50);
 
@@ -311,7 +493,7 @@ public class TestCircuitBreaker {
 
     @Test
     public void testGetStatusWhenOpenAfterReset() {
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         impl.resetMillis.set(1000);
         impl.lastFailure.set(System.currentTimeMillis() - 2000);
 
@@ -335,7 +517,7 @@ public class TestCircuitBreaker {
 
     @Test
     public void testByPassIgnoresCurrentBreakerStateWhenSet() {
-        impl.state = CircuitBreaker.BreakerState.OPEN;
+        impl.setState(CircuitBreaker.BreakerState.OPEN);
         assertEquals(Status.DOWN, impl.getStatus());
 
         impl.setByPassState(true);
@@ -359,13 +541,13 @@ public class TestCircuitBreaker {
         } catch (CircuitBreakerException e) {
             fail("exception not expected when CircuitBreaker is bypassed.");
         }
-        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
         assertEquals(Status.DEGRADED, impl.getStatus());
 
         impl.reset();
         impl.setByPassState(false);
         impl.invoke(mockCallable);
-        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.state);
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
 
         verify(mockCallable);
     }
@@ -386,6 +568,57 @@ public class TestCircuitBreaker {
         assertEquals(Status.DOWN, theStatus);
     }
 
+    @Test
+    public void testListenersAreOnlyNotifiedOfActualTransitions() throws Exception {
+        final List<Status> seen = new ArrayList<Status>();
+        impl.addListener(new CircuitBreakerNotificationCallback() {
+            public void notify(Status s) {
+                seen.add(s);
+            }
+        });
+
+        impl.invoke(new Callable<Object>() {
+            public Object call() {
+                return "ok";
+            }
+        });
+        assertTrue(seen.isEmpty());
+
+        impl.trip();
+        impl.trip();
+        assertEquals(Arrays.asList(Status.DOWN), seen);
+
+        impl.setResetMillis(0);
+        impl.allowRequest();
+        impl.close();
+        assertEquals(Arrays.asList(Status.DOWN, Status.DEGRADED, Status.UP), seen);
+
+        impl.reset();
+        assertEquals(3, seen.size());
+    }
+
+    @Test
+    public void testListenersAreNotifiedThroughDispatcher() throws Exception {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        impl.setNotificationDispatcher(new Executor() {
+            public void execute(Runnable task) {
+                queued.add(task);
+            }
+        });
+        impl.addListener(new CircuitBreakerNotificationCallback() {
+            public void notify(Status s) {
+                theStatus = s;
+            }
+        });
+
+        impl.trip();
+        assertNull(theStatus);
+        assertEquals(1, queued.size());
+
+        queued.get(0).run();
+        assertEquals(Status.DOWN, theStatus);
+    }
+
     @Test(expected = Throwable.class)
     public void circuitBreakerKeepsExceptionThatTrippedIt() throws Throwable {
 
@@ -468,4 +701,314 @@ public class TestCircuitBreaker {
         }
     }
 
+
+    @Test
+    public void testFastRejectionReusesStacklessException() throws Exception {
+        impl = new CircuitBreaker("fast");
+        impl.setFastRejection(true);
+        impl.trip();
+
+        Exception first = rejectedBy(impl);
+        Exception second = rejectedBy(impl);
+
+        assertSame(first, second);
+        assertEquals(0, first.getStackTrace().length);
+        assertEquals("fast", ((CircuitBreakerException) first).getBreakerName());
+        assertTrue(first.getMessage().contains("OPEN"));
+    }
+
+    @Test
+    public void testDefaultRejectionCreatesNewException() throws Exception {
+        impl.trip();
+
+        Exception first = rejectedBy(impl);
+
+        assertTrue(first != rejectedBy(impl));
+        assertTrue(first.getStackTrace().length > 0);
+    }
+
+    @Test
+    public void testFastRejectionMapsOnceUntilMapperChanges() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        CircuitBreakerExceptionMapper<IllegalStateException> mapper =
+            new CircuitBreakerExceptionMapper<IllegalStateException>() {
+                public IllegalStateException map(CircuitBreaker breaker, CircuitBreakerException e) {
+                    calls.incrementAndGet();
+                    return new IllegalStateException(e.getMessage());
+                }
+            };
+        impl.setExceptionMapper(mapper);
+        impl.setFastRejection(true);
+        impl.trip();
+
+        Exception first = rejectedBy(impl);
+        assertSame(first, rejectedBy(impl));
+        assertEquals(1, calls.get());
+
+        impl.setExceptionMapper(mapper);
+        assertSame(first, rejectedBy(impl));
+        impl.setExceptionMapper(null);
+        assertTrue(rejectedBy(impl) instanceof CircuitBreakerException);
+    }
+
+    @Test
+    public void testTryInvokeReturnsValueOnSuccess() throws Exception {
+        final Object obj = new Object();
+        expect(mockCallable.call()).andReturn(obj);
+        replay(mockCallable);
+
+        InvocationResult<Object> result = impl.tryInvoke(mockCallable);
+
+        verify(mockCallable);
+        assertTrue(result.isSucceeded());
+        assertSame(obj, result.getValue());
+    }
+
+    @Test
+    public void testTryInvokeReturnsSharedRejectionWhenOpen() throws Exception {
+        replay(mockCallable);
+        impl.trip();
+
+        InvocationResult<Object> result = impl.tryInvoke(mockCallable);
+
+        verify(mockCallable);
+        assertSame(InvocationResult.rejected(), result);
+        assertSame(InvocationResult.rejected(), impl.tryInvoke(mockRunnable));
+    }
+
+    @Test
+    public void testTryInvokeReportsAndCountsFailure() throws Exception {
+        Exception e = new Exception();
+        expect(mockCallable.call()).andThrow(e);
+        replay(mockCallable);
+
+        InvocationResult<Object> result = impl.tryInvoke(mockCallable);
+
+        verify(mockCallable);
+        assertTrue(result.isFailed());
+        assertSame(e, result.getCause());
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+    }
+
+    @Test
+    public void testTryInvokeRunnableClosesHalfClosedBreaker() throws Exception {
+        mockRunnable.run();
+        replay(mockRunnable);
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
+
+        InvocationResult<String> result = impl.tryInvoke(mockRunnable, "done");
+
+        verify(mockRunnable);
+        assertEquals("done", result.getValue());
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+    }
+
+    @Test
+    public void testInvokeAsyncClosesHalfClosedBreakerOnCompletion() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<String>();
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
+
+        CompletionStage<String> stage = impl.invokeAsync(supplying(pending));
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+
+        pending.complete("done");
+        assertEquals("done", stage.toCompletableFuture().get());
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+    }
+
+    @Test
+    public void testInvokeAsyncTripsOnFailedStage() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<String>();
+        CompletionStage<String> stage = impl.invokeAsync(supplying(pending));
+
+        IllegalStateException boom = new IllegalStateException("boom");
+        pending.completeExceptionally(boom);
+
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+        assertSame(boom, impl.getTripException());
+        try {
+            stage.toCompletableFuture().get();
+            fail("stage should have failed");
+        } catch (ExecutionException e) {
+            assertSame(boom, e.getCause());
+        }
+    }
+
+    @Test
+    public void testInvokeAsyncFailsFastWhenOpen() throws Exception {
+        impl.trip();
+        final AtomicInteger started = new AtomicInteger();
+
+        CompletionStage<String> stage = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                started.incrementAndGet();
+                return new CompletableFuture<String>();
+            }
+        });
+
+        assertEquals(0, started.get());
+        try {
+            stage.toCompletableFuture().get();
+            fail("stage should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CircuitBreakerException);
+        }
+    }
+
+    @Test
+    public void testInvokeAsyncTimeoutCountsAsFailure() throws Exception {
+        CompletableFuture<String> never = new CompletableFuture<String>();
+
+        CompletionStage<String> stage = impl.invokeAsync(supplying(never), 20, TimeUnit.MILLISECONDS);
+
+        try {
+            stage.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("stage should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+
+        impl.setState(CircuitBreaker.BreakerState.HALF_CLOSED);
+        never.complete("late");
+        assertEquals(CircuitBreaker.BreakerState.HALF_CLOSED, impl.getState());
+    }
+
+    private static <T> Supplier<CompletionStage<T>> supplying(final CompletionStage<T> stage) {
+        return new Supplier<CompletionStage<T>>() {
+            public CompletionStage<T> get() {
+                return stage;
+            }
+        };
+    }
+
+    @Test
+    public void testSlowSuccessfulCallsTripBreaker() throws Exception {
+        impl.setFailureInterpreter(new SlowCallRateFailureInterpreter(0, 100, 1000));
+        expect(mockCallable.call()).andReturn("slow");
+        replay(mockCallable);
+
+        assertEquals("slow", impl.invoke(mockCallable));
+
+        verify(mockCallable);
+        assertEquals(CircuitBreaker.BreakerState.OPEN, impl.getState());
+    }
+
+    @Test
+    public void testFastCallsDoNotTripDurationAwareBreaker() throws Exception {
+        impl.setFailureInterpreter(new SlowCallRateFailureInterpreter(60000, 100, 1000));
+        for (int i = 0; i < 10; i++) {
+            impl.invoke(new Callable<Object>() {
+                public Object call() {
+                    return "fast";
+                }
+            });
+        }
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+    }
+
+    private static Exception rejectedBy(CircuitBreaker breaker) {
+        try {
+            breaker.invoke(new Runnable() {
+                public void run() {
+                }
+            });
+        } catch (Exception e) {
+            return e;
+        }
+        throw new AssertionError("call was not rejected");
+    }
+
+    @Test
+    public void testWarmsUpAfterResetAndShedsWithoutTripping() throws Exception {
+        final long[] now = { 1000000L };
+        impl.setClock(new Clock() {
+            public long currentTimeMillis() {
+                return now[0];
+            }
+        });
+        impl.setFastRejection(true);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(1000L, 0.2));
+        impl.trip();
+        impl.reset();
+        assertTrue(impl.isWarmingUp());
+
+        Callable<String> call = new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        };
+        int admitted = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (impl.tryInvoke(call).isSucceeded()) {
+                admitted++;
+            }
+        }
+        assertTrue(admitted > 250 && admitted < 550);
+        assertEquals(2000 - admitted, impl.getWarmUpShedCount());
+        assertEquals(Status.UP, impl.getStatus());
+
+        now[0] += 1000L;
+        assertFalse(impl.isWarmingUp());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("ok", impl.invoke(call));
+        }
+    }
+
+    @Test
+    public void testWarmsUpAfterClosingOnSuccessfulProbe() throws Exception {
+        final long[] now = { 1000000L };
+        impl.setClock(new Clock() {
+            public long currentTimeMillis() {
+                return now[0];
+            }
+        });
+        impl.setResetMillis(1000L);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(60000L, 0.5));
+        impl.trip();
+        assertFalse(impl.isWarmingUp());
+
+        now[0] += 1000L;
+        assertEquals("ok", impl.invoke(new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        }));
+        assertEquals(CircuitBreaker.BreakerState.CLOSED, impl.getState());
+        assertTrue(impl.isWarmingUp());
+    }
+
+    @Test
+    public void testWarmUpRejectionSaysWarmingUp() throws Exception {
+        impl = new CircuitBreaker("svc");
+        impl.setFastRejection(true);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(60000L, 0.000001));
+        impl.trip();
+        impl.reset();
+        try {
+            impl.invoke(mockCallable);
+            fail("should have been shed");
+        } catch (CircuitBreakerException e) {
+            assertTrue(e.getMessage().contains("warming up"));
+        }
+    }
+
+    @Test
+    public void testTogglingByPassOnClosedBreakerDoesNotStartWarmUp() throws Exception {
+        impl = new CircuitBreaker("svc");
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(60000L, 0.000001));
+        impl.setByPassState(true);
+        impl.setByPassState(false);
+
+        assertFalse(impl.isWarmingUp());
+        Callable<String> call = new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            assertEquals("ok", impl.invoke(call));
+        }
+        assertEquals(0, impl.getWarmUpShedCount());
+    }
 }
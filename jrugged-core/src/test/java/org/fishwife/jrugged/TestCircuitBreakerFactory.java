@@ -131,6 +131,30 @@ public class TestCircuitBreakerFactory {
         checkBreaker(breaker, overrideLimit,  overrideWindowMillis, overrideResetMillis);
     }
 
+    @Test
+    public void testHalfOpenPermitsFromConfig() {
+        CircuitBreakerConfig permitsConfig = new CircuitBreakerConfig(TEST_RESET_MILLIS,
+                new DefaultFailureInterpreter(TEST_LIMIT, TEST_WINDOW_MILLIS), 10, 8);
+        CircuitBreaker breaker = factory.createCircuitBreaker("testPermits", permitsConfig);
+
+        assertEquals(10, breaker.getHalfOpenPermits());
+        assertEquals(8, breaker.getHalfOpenSuccessThreshold());
+    }
+
+    @Test
+    public void testHalfOpenPermitsPropertyOverrides() {
+        Properties overrideProperties = new Properties();
+        String name = "testPermitOverrides";
+
+        overrideProperties.put("circuit." + name + ".halfOpenPermits", "10");
+        overrideProperties.put("circuit." + name + ".halfOpenSuccessThreshold", "8");
+        factory.setProperties(overrideProperties);
+
+        CircuitBreaker breaker = factory.createCircuitBreaker(name, config);
+        assertEquals(10, breaker.getHalfOpenPermits());
+        assertEquals(8, breaker.getHalfOpenSuccessThreshold());
+    }
+
     @Test
     public void testInvalidPropertyOverrides() {
         Properties overrideProperties = new Properties();
@@ -0,0 +1,353 @@
+/* TestCoDelServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCoDelServiceWrapper {
+
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Call> calls = new ArrayList<Call>();
+
+    private volatile long nowMillis;
+
+    private CoDelServiceWrapper virtualTime(int maxQueueLength, long targetMillis, long intervalMillis) {
+        return new CoDelServiceWrapper("test", 1, maxQueueLength, targetMillis, intervalMillis) {
+            @Override
+            protected long nanoTime() {
+                return TimeUnit.MILLISECONDS.toNanos(nowMillis);
+            }
+        };
+    }
+
+    /* A caller that holds its slot until released. */
+    private class Call implements Runnable {
+        final String label;
+        final CoDelServiceWrapper wrapper;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread thread = new Thread(this);
+        volatile Exception failure;
+
+        Call(String label, CoDelServiceWrapper wrapper) {
+            this.label = label;
+            this.wrapper = wrapper;
+            thread.setDaemon(true);
+            calls.add(this);
+        }
+
+        public void run() {
+            try {
+                wrapper.invoke(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        ran.add(label);
+                        started.countDown();
+                        release.await();
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        void finish() throws InterruptedException {
+            release.countDown();
+            thread.join(5000);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (Call c : calls) {
+            c.release.countDown();
+        }
+    }
+
+    private Call running(String label, CoDelServiceWrapper wrapper) throws InterruptedException {
+        Call c = new Call(label, wrapper);
+        c.thread.start();
+        assertTrue(c.started.await(5, TimeUnit.SECONDS));
+        return c;
+    }
+
+    /* Returns once the caller is queued and parked, so it reads the
+     * clock again only when woken. */
+    private Call queued(String label, CoDelServiceWrapper wrapper) throws InterruptedException {
+        int before = wrapper.getQueueLength();
+        Call c = new Call(label, wrapper);
+        c.thread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (wrapper.getQueueLength() == before
+                || c.thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return c;
+    }
+
+    @Test
+    public void testInvokeRunsImmediatelyWhenSlotFree() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 2);
+        Object obj = new Object();
+        assertSame(obj, impl.invoke(new Runnable() {
+            public void run() { }
+        }, obj));
+        assertEquals(1, impl.getAdmittedCount());
+        assertEquals(0, impl.getInFlightCount());
+        assertEquals(0.0, impl.getMedianSojournMillis(), 0.0);
+        assertEquals(Status.UP, impl.getServiceStatus().getStatus());
+    }
+
+    @Test
+    public void testShedsWhenQueueFull() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 0, 5L, 100L);
+        Call holder = running("holder", impl);
+        try {
+            impl.invoke(new Runnable() {
+                public void run() { }
+            });
+            fail("should have been shed");
+        } catch (LoadSheddingException expected) {
+            assertEquals("test", expected.getWrapperName());
+        }
+        assertEquals(1, impl.getShedCount());
+        holder.finish();
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testTryInvokeReportsShedCallAsRejected() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 0, 5L, 100L);
+        Call holder = running("holder", impl);
+        InvocationResult<Object> result = impl.tryInvoke(new Callable<Object>() {
+            public Object call() {
+                return "ran";
+            }
+        });
+        assertTrue(result.isRejected());
+        holder.finish();
+    }
+
+    @Test
+    public void testQueuedCallIsShedAfterInterval() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 20L);
+        Call holder = running("holder", impl);
+        try {
+            impl.invoke(new Runnable() {
+                public void run() { }
+            });
+            fail("should have been shed");
+        } catch (LoadSheddingException expected) {
+        }
+        assertEquals(0, impl.getQueueLength());
+        assertEquals(1, impl.getShedCount());
+        holder.finish();
+    }
+
+    @Test
+    public void testQueueIsServedInOrderWhileNotOverloaded() throws Exception {
+        CoDelServiceWrapper impl = virtualTime(10, 1000L, 60000L);
+        Call holder = running("holder", impl);
+        Call first = queued("first", impl);
+        Call second = queued("second", impl);
+        nowMillis = 10;
+        holder.finish();
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        first.finish();
+        assertTrue(second.started.await(5, TimeUnit.SECONDS));
+        second.finish();
+        assertEquals(3, impl.getAdmittedCount());
+        assertFalse(impl.isOverloaded());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testStandingQueueSwitchesToLifoAndShedsStaleCalls() throws Exception {
+        CoDelServiceWrapper impl = virtualTime(10, 1000L, 60000L);
+        Call holder = running("holder", impl);
+        Call w1 = queued("w1", impl);
+
+        nowMillis = 61000;
+        holder.finish();
+        assertTrue(w1.started.await(5, TimeUnit.SECONDS));
+        assertFalse(impl.isOverloaded());
+
+        Call w2 = queued("w2", impl);
+        nowMillis = 62000;
+        Call w3 = queued("w3", impl);
+
+        nowMillis = 122000;
+        w1.finish();
+        assertTrue(w2.started.await(5, TimeUnit.SECONDS));
+        assertTrue(impl.isOverloaded());
+        assertEquals(Status.DEGRADED, impl.getServiceStatus().getStatus());
+
+        Call w4 = queued("w4", impl);
+        nowMillis = 122500;
+        w2.finish();
+        assertTrue(w4.started.await(5, TimeUnit.SECONDS));
+
+        nowMillis = 123000;
+        w4.finish();
+        w3.thread.join(5000);
+        assertTrue(w3.failure instanceof LoadSheddingException);
+
+        assertEquals(java.util.Arrays.asList("holder", "w1", "w2", "w4"), ran);
+        assertEquals(1, impl.getShedCount());
+        assertEquals(0, impl.getInFlightCount());
+        assertEquals(0, impl.getQueueLength());
+        assertTrue(impl.get99thPercentileSojournMillis() >= 61000.0);
+    }
+
+    @Test
+    public void testInterruptedWaiterLeavesQueue() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 60000L);
+        Call holder = running("holder", impl);
+        Call waiter = queued("waiter", impl);
+        waiter.thread.interrupt();
+        waiter.thread.join(5000);
+        assertTrue(waiter.failure instanceof InterruptedException);
+        assertEquals(0, impl.getQueueLength());
+        holder.finish();
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    /* An asynchronous call whose stage completes when the test says so. */
+    private static class AsyncCall implements Supplier<CompletionStage<String>> {
+        final CompletableFuture<String> stage = new CompletableFuture<String>();
+        volatile boolean started;
+
+        public CompletionStage<String> get() {
+            started = true;
+            return stage;
+        }
+    }
+
+    @Test
+    public void testInvokeAsyncHoldsSlotUntilStageCompletes() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 60000L);
+        AsyncCall first = new AsyncCall();
+        AsyncCall second = new AsyncCall();
+        CompletableFuture<String> firstResult = impl.invokeAsync(first).toCompletableFuture();
+        assertTrue(first.started);
+        assertEquals(1, impl.getInFlightCount());
+
+        CompletableFuture<String> secondResult = impl.invokeAsync(second).toCompletableFuture();
+        assertFalse(second.started);
+        assertEquals(1, impl.getQueueLength());
+
+        first.stage.complete("first");
+        assertEquals("first", firstResult.get(5, TimeUnit.SECONDS));
+        assertTrue(second.started);
+        assertEquals(0, impl.getQueueLength());
+        assertEquals(1, impl.getInFlightCount());
+
+        second.stage.complete("second");
+        assertEquals("second", secondResult.get(5, TimeUnit.SECONDS));
+        assertEquals(0, impl.getInFlightCount());
+        assertEquals(2, impl.getAdmittedCount());
+    }
+
+    @Test
+    public void testAsyncCallQueuedBehindSyncCallStartsWhenSlotFrees() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 60000L);
+        Call holder = running("holder", impl);
+        AsyncCall queuedCall = new AsyncCall();
+        CompletableFuture<String> result = impl.invokeAsync(queuedCall).toCompletableFuture();
+        assertFalse(queuedCall.started);
+        holder.finish();
+        assertTrue(queuedCall.started);
+        queuedCall.stage.complete("done");
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testInvokeAsyncShedsWhenQueueFull() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 0, 5L, 100L);
+        AsyncCall holder = new AsyncCall();
+        impl.invokeAsync(holder);
+        AsyncCall shed = new AsyncCall();
+        try {
+            impl.invokeAsync(shed).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have been shed");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof LoadSheddingException);
+        }
+        assertFalse(shed.started);
+        assertEquals(1, impl.getShedCount());
+        holder.stage.complete("done");
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testQueuedAsyncCallIsShedAfterInterval() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 20L);
+        AsyncCall holder = new AsyncCall();
+        impl.invokeAsync(holder);
+        AsyncCall queuedCall = new AsyncCall();
+        try {
+            impl.invokeAsync(queuedCall).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have been shed");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof LoadSheddingException);
+        }
+        assertEquals(0, impl.getQueueLength());
+        assertEquals(1, impl.getShedCount());
+        holder.stage.complete("done");
+        assertFalse(queuedCall.started);
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testCancellingQueuedAsyncCallLeavesQueue() throws Exception {
+        CoDelServiceWrapper impl = new CoDelServiceWrapper("test", 1, 10, 5L, 60000L);
+        AsyncCall holder = new AsyncCall();
+        impl.invokeAsync(holder);
+        AsyncCall queuedCall = new AsyncCall();
+        impl.invokeAsync(queuedCall).toCompletableFuture().cancel(false);
+        assertEquals(0, impl.getQueueLength());
+        holder.stage.complete("done");
+        assertFalse(queuedCall.started);
+        assertEquals(0, impl.getInFlightCount());
+        assertEquals(0, impl.getShedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsIntervalShorterThanTarget() {
+        new CoDelServiceWrapper("test", 1, 10, 100L, 5L);
+    }
+}
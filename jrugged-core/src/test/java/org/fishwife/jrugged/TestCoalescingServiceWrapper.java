@@ -0,0 +1,243 @@
+/* TestCoalescingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCoalescingServiceWrapper {
+
+    private final CoalescingServiceWrapper<String> impl = new CoalescingServiceWrapper<String>();
+    private final AtomicInteger executions = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    /* Runs once per execution and holds until released. */
+    private Callable<Object> blockingCall(final Object result, final Exception failure) {
+        return new Callable<Object>() {
+            public Object call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                if (failure != null) {
+                    throw failure;
+                }
+                return result;
+            }
+        };
+    }
+
+    private List<Thread> callers(int count, final String key, final Callable<Object> call,
+            final List<Object> outcomes) {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        outcomes.add(impl.invoke(key, call));
+                    } catch (Exception e) {
+                        outcomes.add(e);
+                    }
+                }
+            });
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        return threads;
+    }
+
+    private void awaitCoalesced(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (impl.getCoalescedCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException {
+        for (Thread t : threads) {
+            t.join(5000);
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneExecution() throws Exception {
+        Object result = new Object();
+        List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = callers(5, "key", blockingCall(result, null), outcomes);
+        awaitCoalesced(4);
+        release.countDown();
+        join(threads);
+
+        assertEquals(1, executions.get());
+        assertEquals(5, outcomes.size());
+        for (Object outcome : outcomes) {
+            assertSame(result, outcome);
+        }
+        assertEquals(5, impl.getCallCount());
+        assertEquals(1, impl.getExecutionCount());
+        assertEquals(0.8, impl.getCoalescingRatio(), 1e-9);
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testConcurrentCallsShareException() throws Exception {
+        Exception failure = new IllegalStateException("boom");
+        List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = callers(3, "key", blockingCall(null, failure), outcomes);
+        awaitCoalesced(2);
+        release.countDown();
+        join(threads);
+
+        assertEquals(1, executions.get());
+        assertEquals(3, outcomes.size());
+        for (Object outcome : outcomes) {
+            assertSame(failure, outcome);
+        }
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testDifferentKeysDoNotCoalesce() throws Exception {
+        List<Object> outcomes = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = callers(1, "a", blockingCall("a", null), outcomes);
+        threads.addAll(callers(1, "b", blockingCall("b", null), outcomes));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executions.get() < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        release.countDown();
+        join(threads);
+        assertEquals(0, impl.getCoalescedCount());
+    }
+
+    @Test
+    public void testSequentialCallsEachExecute() throws Exception {
+        release.countDown();
+        impl.invoke("key", blockingCall("x", null));
+        impl.invoke("key", blockingCall("x", null));
+        assertEquals(2, executions.get());
+        assertEquals(0.0, impl.getCoalescingRatio(), 0.0);
+    }
+
+    @Test
+    public void testAsyncCallsShareOneStage() throws Exception {
+        final CompletableFuture<String> backend = new CompletableFuture<String>();
+        Supplier<CompletionStage<String>> start = new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                executions.incrementAndGet();
+                return backend;
+            }
+        };
+        CompletionStage<String> first = impl.invokeAsync("key", start);
+        CompletionStage<String> second = impl.invokeAsync("key", start);
+        assertEquals(1, impl.getInFlightCount());
+        backend.complete("value");
+        assertEquals("value", first.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testCancellingOneAsyncCallerLeavesOthers() throws Exception {
+        final CompletableFuture<String> backend = new CompletableFuture<String>();
+        Supplier<CompletionStage<String>> start = new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return backend;
+            }
+        };
+        CompletionStage<String> first = impl.invokeAsync("key", start);
+        CompletionStage<String> second = impl.invokeAsync("key", start);
+        first.toCompletableFuture().cancel(true);
+        backend.complete("value");
+        assertEquals("value", second.toCompletableFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSyncCallerJoinsAsyncCall() throws Exception {
+        final CompletableFuture<String> backend = new CompletableFuture<String>();
+        impl.invokeAsync("key", new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return backend;
+            }
+        });
+        final AtomicReference<Object> outcome = new AtomicReference<Object>();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    outcome.set(impl.invoke("key", blockingCall("sync", null)));
+                } catch (Exception e) {
+                    outcome.set(e);
+                }
+            }
+        });
+        t.start();
+        awaitCoalesced(1);
+        backend.completeExceptionally(new IllegalStateException("async"));
+        t.join(5000);
+        assertTrue(outcome.get() instanceof IllegalStateException);
+        assertEquals(0, executions.get());
+    }
+
+    @Test
+    public void testAsyncSupplierThrowingCleansUp() throws Exception {
+        CompletionStage<String> result = impl.invokeAsync("key", new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                throw new IllegalStateException("boom");
+            }
+        });
+        try {
+            result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have failed");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testForKeyWrapsWithFixedKey() throws Exception {
+        release.countDown();
+        ServiceWrapper wrapper = impl.forKey("key");
+        assertEquals("x", wrapper.invoke(blockingCall("x", null)));
+        assertEquals(1, impl.getCallCount());
+    }
+}
@@ -27,6 +27,8 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TestConstantFlowRegulator {
@@ -125,4 +127,86 @@ public class TestConstantFlowRegulator {
         }
     }
 
+
+    @Test
+    public void testFastRejectionReusesStacklessException() throws Exception {
+        impl.setRequestPerSecondThreshold(1);
+        impl.setFastRejection(true);
+        impl.canProceed();
+
+        Exception first = rejectedBy(impl);
+        Exception second = rejectedBy(impl);
+
+        assertSame(first, second);
+        assertTrue(first instanceof FlowRateExceededException);
+        assertEquals(0, first.getStackTrace().length);
+    }
+
+    @Test
+    public void testFastRejectionMapsOnce() throws Exception {
+        final int[] calls = new int[1];
+        impl.setRequestPerSecondThreshold(1);
+        impl.setFastRejection(true);
+        impl.setExceptionMapper(new ConstantFlowRegulatorExceptionMapper<IllegalStateException>() {
+            public IllegalStateException map(ConstantFlowRegulator flowRegulator,
+                    FlowRateExceededException e) {
+                calls[0]++;
+                return new IllegalStateException(e);
+            }
+        });
+        impl.canProceed();
+
+        Exception first = rejectedBy(impl);
+        assertSame(first, rejectedBy(impl));
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testTryInvokeReturnsRejectedWithoutCallingService() throws Exception {
+        replay(mockCallable);
+        impl.setRequestPerSecondThreshold(1);
+        impl.canProceed();
+
+        assertSame(InvocationResult.rejected(), impl.tryInvoke(mockCallable));
+        verify(mockCallable);
+    }
+
+    @Test
+    public void testTryInvokeReturnsValueWhenAllowed() throws Exception {
+        final Object obj = new Object();
+        expect(mockCallable.call()).andReturn(obj);
+        replay(mockCallable);
+
+        InvocationResult<Object> result = impl.tryInvoke(mockCallable);
+
+        assertTrue(result.isSucceeded());
+        assertSame(obj, result.getValue());
+        verify(mockCallable);
+    }
+
+    private static Exception rejectedBy(ConstantFlowRegulator regulator) {
+        try {
+            regulator.invoke(new Runnable() {
+                public void run() {
+                }
+            });
+        } catch (Exception e) {
+            return e;
+        }
+        throw new AssertionError("call was not rejected");
+    }
+
+    @Test
+    public void testRaisingThresholdStartsWarmUp() {
+        impl.setRequestPerSecondThreshold(10);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(60000L, 0.1));
+        impl.setRequestPerSecondThreshold(5);
+        assertFalse(impl.isWarmingUp());
+
+        impl.setRequestPerSecondThreshold(20);
+        assertTrue(impl.isWarmingUp());
+
+        impl.setWarmUpPolicy(null);
+        assertFalse(impl.isWarmingUp());
+    }
 }
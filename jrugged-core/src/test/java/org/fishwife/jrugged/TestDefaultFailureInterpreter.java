@@ -89,6 +89,17 @@ public final class TestDefaultFailureInterpreter{
         assertFalse(impl.shouldTrip(new IOException()));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testChangingIgnoreListReplacesCachedDecisions() {
+        impl.setIgnore(new Class[] { IOException.class });
+        assertFalse(impl.shouldTrip(new IOException()));
+
+        impl.setIgnore(new Class[] { IllegalStateException.class });
+        assertTrue(impl.shouldTrip(new IOException()));
+        assertFalse(impl.shouldTrip(new IllegalStateException()));
+    }
+
     @Test
     public void testAnyExceptionTripsByDefault() {
         assertTrue(impl.shouldTrip(new IOException()));
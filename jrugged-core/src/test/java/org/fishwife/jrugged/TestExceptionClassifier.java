@@ -0,0 +1,69 @@
+/* TestExceptionClassifier.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestExceptionClassifier {
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMatchesSubclassesOfListedClasses() {
+        ExceptionClassifier impl = new ExceptionClassifier(
+            new Class[] { IllegalStateException.class, IOException.class });
+
+        assertTrue(impl.matches(new IllegalStateException()));
+        assertTrue(impl.matches(new FileNotFoundException()));
+        assertFalse(impl.matches(new IllegalArgumentException()));
+        assertFalse(impl.matches(new Exception()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRepeatedLookupsGiveSameAnswer() {
+        ExceptionClassifier impl = new ExceptionClassifier(new Class[] { RuntimeException.class });
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(impl.matches(new IllegalStateException()));
+            assertFalse(impl.matches(new IOException()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testClassifiersDoNotShareCachedDecisions() {
+        ExceptionClassifier runtime = new ExceptionClassifier(new Class[] { RuntimeException.class });
+        ExceptionClassifier io = new ExceptionClassifier(new Class[] { IOException.class });
+
+        assertTrue(runtime.matches(new IllegalStateException()));
+        assertFalse(io.matches(new IllegalStateException()));
+    }
+
+    @Test
+    public void testNoneMatchesNothing() {
+        assertTrue(ExceptionClassifier.none().isEmpty());
+        assertFalse(ExceptionClassifier.none().matches(new Exception()));
+        assertFalse(new ExceptionClassifier((Class<? extends Throwable>[]) null).matches(new Exception()));
+        assertFalse(ExceptionClassifier.none().matches(null));
+    }
+}
@@ -0,0 +1,79 @@
+/* TestExponentialBackoff.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestExponentialBackoff {
+
+    private static ExponentialBackoff withRandom(long base, long max, ExponentialBackoff.Jitter jitter,
+            final double random) {
+        return new ExponentialBackoff(base, max, jitter) {
+            @Override
+            protected double random() {
+                return random;
+            }
+        };
+    }
+
+    @Test
+    public void testDelaysGrowGeometricallyUpToMax() {
+        ExponentialBackoff impl = new ExponentialBackoff(100L, 1000L, 3.0, ExponentialBackoff.Jitter.NONE);
+        assertEquals(100L, impl.nextDelayMillis(1, 0L));
+        assertEquals(300L, impl.nextDelayMillis(2, 100L));
+        assertEquals(900L, impl.nextDelayMillis(3, 300L));
+        assertEquals(1000L, impl.nextDelayMillis(4, 900L));
+        assertEquals(1000L, impl.nextDelayMillis(100, 1000L));
+    }
+
+    @Test
+    public void testFullJitterScalesTheCappedDelay() {
+        assertEquals(0L, withRandom(100L, 1000L, ExponentialBackoff.Jitter.FULL, 0.0).nextDelayMillis(3, 0L));
+        assertEquals(200L, withRandom(100L, 1000L, ExponentialBackoff.Jitter.FULL, 0.5).nextDelayMillis(3, 0L));
+        assertEquals(500L, withRandom(100L, 1000L, ExponentialBackoff.Jitter.FULL, 0.5).nextDelayMillis(30, 0L));
+    }
+
+    @Test
+    public void testDecorrelatedJitterRangesFromBaseToThreeTimesPrevious() {
+        assertEquals(100L, withRandom(100L, 10000L, ExponentialBackoff.Jitter.DECORRELATED, 0.0)
+                .nextDelayMillis(1, 0L));
+        assertEquals(200L, withRandom(100L, 10000L, ExponentialBackoff.Jitter.DECORRELATED, 0.5)
+                .nextDelayMillis(1, 0L));
+        assertEquals(800L, withRandom(100L, 10000L, ExponentialBackoff.Jitter.DECORRELATED, 0.5)
+                .nextDelayMillis(2, 500L));
+        assertEquals(5050L, withRandom(100L, 10000L, ExponentialBackoff.Jitter.DECORRELATED, 0.5)
+                .nextDelayMillis(9, 9000L));
+    }
+
+    @Test
+    public void testRealRandomDelaysStayInRange() {
+        ExponentialBackoff impl = new ExponentialBackoff(10L, 500L, ExponentialBackoff.Jitter.DECORRELATED);
+        long delay = 0L;
+        for (int retry = 1; retry < 100; retry++) {
+            delay = impl.nextDelayMillis(retry, delay);
+            assertTrue(delay >= 10L && delay <= 500L);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMaxBelowBase() {
+        new ExponentialBackoff(100L, 10L, ExponentialBackoff.Jitter.NONE);
+    }
+}
@@ -0,0 +1,282 @@
+/* TestHedgingServiceWrapper.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestHedgingServiceWrapper {
+
+    private ExecutorService executor;
+    private HedgingServiceWrapper impl;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final CountDownLatch never = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        impl = new HedgingServiceWrapper(executor, 10L);
+        impl.setBudgetPercent(100.0);
+    }
+
+    @After
+    public void tearDown() {
+        never.countDown();
+        executor.shutdownNow();
+    }
+
+    /* The first `slow` attempts hang until interrupted; later ones
+     * return their attempt number. */
+    private Callable<Integer> firstAttemptsHang(final int slow) {
+        return new Callable<Integer>() {
+            public Integer call() throws Exception {
+                int attempt = attempts.incrementAndGet();
+                if (attempt <= slow) {
+                    try {
+                        never.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                }
+                return attempt;
+            }
+        };
+    }
+
+    @Test
+    public void testFastCallIsNotHedged() throws Exception {
+        Object obj = new Object();
+        assertSame(obj, impl.invoke(new Runnable() {
+            public void run() { }
+        }, obj));
+        assertEquals(1, impl.getCallCount());
+        assertEquals(0, impl.getHedgeCount());
+        assertEquals(0, impl.getHedgeWinCount());
+    }
+
+    @Test
+    public void testSlowAttemptIsHedgedAndCancelled() throws Exception {
+        assertEquals(Integer.valueOf(2), impl.invoke(firstAttemptsHang(1)));
+        assertEquals(1, impl.getHedgeCount());
+        assertEquals(1, impl.getHedgeWinCount());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThirdAttemptWhenAllowed() throws Exception {
+        impl.setMaxAttempts(3);
+        impl.invoke(new Runnable() {
+            public void run() { }
+        });
+        assertEquals(Integer.valueOf(3), impl.invoke(firstAttemptsHang(2)));
+        assertEquals(2, impl.getHedgeCount());
+        assertEquals(1, impl.getHedgeWinCount());
+    }
+
+    @Test
+    public void testSpentBudgetStopsHedging() throws Exception {
+        impl.setBudgetPercent(0.0);
+        assertEquals("done", impl.invoke(new Callable<String>() {
+            public String call() throws Exception {
+                attempts.incrementAndGet();
+                Thread.sleep(50L);
+                return "done";
+            }
+        }));
+        assertEquals(1, attempts.get());
+        assertEquals(0, impl.getHedgeCount());
+        assertEquals(1, impl.getHedgeDeniedCount());
+    }
+
+    @Test
+    public void testBudgetLimitsShareOfHedgedCalls() throws Exception {
+        impl.setBudgetPercent(50.0);
+        Callable<String> slow = new Callable<String>() {
+            public String call() throws Exception {
+                Thread.sleep(30L);
+                return "done";
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            impl.invoke(slow);
+        }
+        assertEquals(2, impl.getHedgeCount());
+        assertEquals(2, impl.getHedgeDeniedCount());
+    }
+
+    @Test
+    public void testFailsOnlyWhenEveryAttemptFails() throws Exception {
+        try {
+            impl.invoke(new Callable<Object>() {
+                public Object call() throws Exception {
+                    int attempt = attempts.incrementAndGet();
+                    if (attempt == 1) {
+                        Thread.sleep(50L);
+                    }
+                    throw new IllegalStateException("attempt " + attempt);
+                }
+            });
+            fail("should have thrown");
+        } catch (IllegalStateException expected) {
+            assertEquals("attempt 1", expected.getMessage());
+        }
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testObservedLatencyRaisesHedgeDelay() throws Exception {
+        impl.setHedgeDelayMillis(1L);
+        impl.setLatencySource(new PerformanceMonitor() {
+            @Override
+            public long getPercentileSuccessLatencyLastMinute(int percentile) {
+                return 5000L;
+            }
+        }, 99);
+        impl.invoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                Thread.sleep(50L);
+                return null;
+            }
+        });
+        assertEquals(0, impl.getHedgeCount());
+    }
+
+    @Test
+    public void testAsyncHedgeWinsAndCancelsLoser() throws Exception {
+        final CompletableFuture<String> first = new CompletableFuture<String>();
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                if (attempts.incrementAndGet() == 1) {
+                    return first;
+                }
+                return CompletableFuture.completedFuture("hedge");
+            }
+        });
+        assertEquals("hedge", result.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(first.isCancelled());
+        assertEquals(1, impl.getHedgeWinCount());
+    }
+
+    @Test
+    public void testAsyncFastCallIsNotHedged() throws Exception {
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                attempts.incrementAndGet();
+                return CompletableFuture.completedFuture("first");
+            }
+        });
+        assertEquals("first", result.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        Thread.sleep(30L);
+        assertEquals(1, attempts.get());
+        assertEquals(0, impl.getHedgeCount());
+    }
+
+    @Test
+    public void testAsyncFailsWhenEveryAttemptFails() throws Exception {
+        final CompletableFuture<String> first = new CompletableFuture<String>();
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                if (attempts.incrementAndGet() == 1) {
+                    return first;
+                }
+                CompletableFuture<String> second = new CompletableFuture<String>();
+                second.completeExceptionally(new IllegalStateException("second"));
+                return second;
+            }
+        });
+        Thread.sleep(30L);
+        assertFalse(result.toCompletableFuture().isDone());
+        first.completeExceptionally(new IllegalStateException("first"));
+        try {
+            result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have failed");
+        } catch (ExecutionException expected) {
+            assertEquals("first", expected.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testAsyncHedgeRunsOffTheTimerThread() throws Exception {
+        final String[] hedgeThread = new String[1];
+        final CompletableFuture<String> first = new CompletableFuture<String>();
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                if (attempts.incrementAndGet() == 1) {
+                    return first;
+                }
+                hedgeThread[0] = Thread.currentThread().getName();
+                return CompletableFuture.completedFuture("hedge");
+            }
+        });
+        assertEquals("hedge", result.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertFalse(hedgeThread[0].startsWith("jrugged-async-timer"));
+    }
+
+    @Test
+    public void testRejectedHedgeIsRefundedAndNotCounted() throws Exception {
+        ThreadPoolExecutor single = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>());
+        try {
+            impl = new HedgingServiceWrapper(single, 10L);
+            impl.setBudgetPercent(100.0);
+            assertEquals("done", impl.invoke(new Callable<String>() {
+                public String call() throws Exception {
+                    Thread.sleep(50L);
+                    return "done";
+                }
+            }));
+            assertEquals(0, impl.getHedgeCount());
+
+            // with nothing more earned, the refunded hedge is still there to spend
+            impl.setBudgetPercent(0.0);
+            single.setMaximumPoolSize(2);
+            single.setCorePoolSize(2);
+            assertEquals(Integer.valueOf(2), impl.invoke(firstAttemptsHang(1)));
+            assertEquals(1, impl.getHedgeCount());
+        } finally {
+            never.countDown();
+            single.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBudgetAboveHundredPercent() {
+        impl.setBudgetPercent(150.0);
+    }
+}
@@ -0,0 +1,75 @@
+/* TestInvocationResult.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestInvocationResult {
+
+    @Test
+    public void testRejectedIsSingleton() {
+        InvocationResult<String> a = InvocationResult.rejected();
+        InvocationResult<Integer> b = InvocationResult.rejected();
+        assertSame(a, b);
+        assertTrue(a.isRejected());
+        assertFalse(a.isSucceeded());
+        assertEquals(InvocationResult.Outcome.REJECTED, a.getOutcome());
+    }
+
+    @Test
+    public void testEmptySuccessAndFailureAreSingletons() {
+        assertSame(InvocationResult.succeeded(null), InvocationResult.succeeded(null));
+        assertSame(InvocationResult.failed(null), InvocationResult.failed(null));
+        assertTrue(InvocationResult.failed(null).isFailed());
+    }
+
+    @Test
+    public void testSucceededCarriesValue() {
+        InvocationResult<String> r = InvocationResult.succeeded("x");
+        assertTrue(r.isSucceeded());
+        assertEquals("x", r.getValue());
+        assertNull(r.getCause());
+    }
+
+    @Test
+    public void testFailedCarriesCause() {
+        Exception e = new Exception();
+        InvocationResult<String> r = InvocationResult.failed(e);
+        assertTrue(r.isFailed());
+        assertSame(e, r.getCause());
+        assertEquals("fallback", r.orElse("fallback"));
+    }
+
+    @Test
+    public void testOfCapturesException() {
+        final RuntimeException e = new RuntimeException();
+        InvocationResult<Object> r = InvocationResult.of(new Callable<Object>() {
+            public Object call() {
+                throw e;
+            }
+        });
+        assertSame(e, r.getCause());
+    }
+}
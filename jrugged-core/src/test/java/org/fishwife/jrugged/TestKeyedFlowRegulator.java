@@ -0,0 +1,174 @@
+/* TestKeyedFlowRegulator.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestKeyedFlowRegulator {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long now;
+
+    private KeyedFlowRegulator<String> regulator(double perKeyRate, int perKeyBurst,
+            double globalRate, int globalBurst) {
+        return new KeyedFlowRegulator<String>(perKeyRate, perKeyBurst, globalRate, globalBurst) {
+            @Override
+            protected long nanoTime() {
+                return now;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() {
+        now = 1000L * MILLI;
+    }
+
+    @Test
+    public void testKeysAreLimitedIndependently() {
+        KeyedFlowRegulator<String> impl = regulator(10, 2, -1, 1);
+        assertTrue(impl.tryAcquire("a"));
+        assertTrue(impl.tryAcquire("a"));
+        assertFalse(impl.tryAcquire("a"));
+
+        assertTrue(impl.tryAcquire("b"));
+        assertTrue(impl.tryAcquire("b"));
+        assertEquals(2, impl.getKeyCount());
+        assertEquals(1, impl.getRejectedCount());
+    }
+
+    @Test
+    public void testKeyRefillsAtItsRate() {
+        KeyedFlowRegulator<String> impl = regulator(10, 1, -1, 1);
+        assertTrue(impl.tryAcquire("a"));
+        assertFalse(impl.tryAcquire("a"));
+        now += 100 * MILLI;
+        assertTrue(impl.tryAcquire("a"));
+    }
+
+    @Test
+    public void testGlobalLimitCapsAllKeysAndRefundsKeySlot() {
+        KeyedFlowRegulator<String> impl = regulator(10, 2, 10, 3);
+        assertTrue(impl.tryAcquire("a"));
+        assertTrue(impl.tryAcquire("a"));
+        assertTrue(impl.tryAcquire("b"));
+        // "b" has a slot left, but the global bucket is empty
+        assertFalse(impl.tryAcquire("b"));
+
+        now += 100 * MILLI;
+        // the refunded slot plus the global refill let "b" through once
+        assertTrue(impl.tryAcquire("b"));
+        assertFalse(impl.tryAcquire("c"));
+    }
+
+    @Test
+    public void testWeightScalesKeyRate() {
+        KeyedFlowRegulator<String> impl = regulator(10, 1, -1, 1);
+        impl.setWeight("gold", 2.0);
+        assertTrue(impl.tryAcquire("gold"));
+        assertTrue(impl.tryAcquire("plain"));
+
+        now += 50 * MILLI;
+        assertTrue(impl.tryAcquire("gold"));
+        assertFalse(impl.tryAcquire("plain"));
+        assertEquals(2.0, impl.getWeight("gold"), 0.0);
+
+        impl.clearWeight("gold");
+        assertEquals(1.0, impl.getWeight("gold"), 0.0);
+    }
+
+    @Test
+    public void testIdleKeysAreEvicted() {
+        KeyedFlowRegulator<String> impl = regulator(10, 1, -1, 1);
+        impl.setIdleMillis(1000L);
+        impl.tryAcquire("idle");
+        now += 900 * MILLI;
+        impl.tryAcquire("busy");
+        now += 300 * MILLI;
+
+        assertEquals(1, impl.evictIdleKeys());
+        assertEquals(1, impl.getKeyCount());
+
+        // an evicted key starts over with a full bucket
+        assertTrue(impl.tryAcquire("idle"));
+    }
+
+    @Test
+    public void testNewKeysSweepIdleKeysIncrementally() {
+        KeyedFlowRegulator<String> impl = regulator(10, 1, -1, 1);
+        impl.setIdleMillis(0L);
+        for (int i = 0; i < 100; i++) {
+            impl.tryAcquire("old" + i);
+        }
+        now += 1000 * MILLI;
+
+        // one new key checks only a few buckets...
+        impl.tryAcquire("new0");
+        assertEquals(101 - KeyedFlowRegulator.SWEEP_BATCH, impl.getKeyCount());
+
+        // ...but together new keys clear idle ones faster than they arrive
+        for (int i = 1; i < 100; i++) {
+            impl.tryAcquire("new" + i);
+        }
+        assertEquals(100, impl.getKeyCount());
+    }
+
+    @Test
+    public void testSetPerKeyLimitAppliesToExistingKeys() {
+        KeyedFlowRegulator<String> impl = regulator(1, 1, -1, 1);
+        assertTrue(impl.tryAcquire("a"));
+        impl.setPerKeyLimit(1, 3);
+        assertTrue(impl.tryAcquire("a"));
+        assertTrue(impl.tryAcquire("a"));
+        assertFalse(impl.tryAcquire("a"));
+    }
+
+    @Test
+    public void testForKeyWrapperRejectsWithFlowRateExceeded() throws Exception {
+        KeyedFlowRegulator<String> impl = regulator(1, 1, -1, 1);
+        ServiceWrapper wrapper = impl.forKey("tenant");
+        Callable<String> call = new Callable<String>() {
+            public String call() {
+                return "ok";
+            }
+        };
+        assertEquals("ok", wrapper.invoke(call));
+        try {
+            wrapper.invoke(call);
+            fail("should have been rejected");
+        } catch (FlowRateExceededException expected) {
+            assertTrue(expected.getMessage().contains("tenant"));
+        }
+        assertTrue(wrapper.tryInvoke(call).isRejected());
+        assertTrue(impl.tryInvoke("other", call).isSucceeded());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveWeight() {
+        regulator(1, 1, -1, 1).setWeight("a", 0.0);
+    }
+}
@@ -17,6 +17,9 @@
 package org.fishwife.jrugged;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -68,4 +71,31 @@ public class TestLatencyTracker {
         assertTrue(impl.getLastFailureMillis() > 0);
         assertEquals(0, impl.getLastSuccessMillis());
     }
+
+    @Test
+    public void testInvokeAsyncRecordsLatencyWhenStageCompletes() throws Exception {
+        CompletableFuture<Object> success = new CompletableFuture<Object>();
+        CompletableFuture<Object> failure = new CompletableFuture<Object>();
+
+        impl.invokeAsync(supplierOf(success));
+        CompletionStage<Object> failed = impl.invokeAsync(supplierOf(failure));
+        assertEquals(0, impl.getLastSuccessMillis());
+        assertEquals(0, impl.getLastFailureMillis());
+
+        Thread.sleep(20);
+        success.complete(new Object());
+        failure.completeExceptionally(new IllegalStateException());
+
+        assertTrue(failed.toCompletableFuture().isCompletedExceptionally());
+        assertTrue(impl.getLastSuccessMillis() >= 20);
+        assertTrue(impl.getLastFailureMillis() >= 20);
+    }
+
+    private static Supplier<CompletionStage<Object>> supplierOf(final CompletionStage<Object> stage) {
+        return new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return stage;
+            }
+        };
+    }
 }
@@ -301,5 +301,89 @@ public class TestPercentErrPerTimeFailureInterpreter {
 
     }
 
-}
+    @Test
+    public void testErrorsLeaveWindowBucketByBucket() throws Exception {
+        final long[] now = { 100000L };
+        PercentErrPerTimeFailureInterpreter pept = new PercentErrPerTimeFailureInterpreter();
+        RequestCounter rc = new RequestCounter();
+        pept.setRequestCounter(rc);
+        pept.setPercent(50);
+        pept.setWindowMillis(1000);
+        pept.setClock(new Clock() {
+            public long currentTimeMillis() {
+                return now[0];
+            }
+        });
+
+        // 1 error in 4 requests: 25%
+        rc.invoke(new DummyRunnable());
+        rc.invoke(new DummyRunnable());
+        rc.invoke(new DummyRunnable());
+        try {
+            rc.invoke(new DummyRunnableException());
+        } catch (Exception e) {
+            assertFalse(pept.shouldTrip(e));
+        }
 
+        // still inside the window: 2 errors in 5 requests
+        now[0] += 500;
+        try {
+            rc.invoke(new DummyRunnableException());
+        } catch (Exception e) {
+            assertFalse(pept.shouldTrip(e));
+        }
+
+        // the first four requests have left the window: 2 errors in 2 requests
+        now[0] += 600;
+        try {
+            rc.invoke(new DummyRunnableException());
+        } catch (Exception e) {
+            assertTrue(pept.shouldTrip(e));
+        }
+    }
+
+    @Test
+    public void testCountsConcurrentErrors() throws Exception {
+        final PercentErrPerTimeFailureInterpreter pept = new PercentErrPerTimeFailureInterpreter();
+        final RequestCounter rc = new RequestCounter();
+        pept.setRequestCounter(rc);
+        pept.setPercent(100);
+        pept.setWindowMillis(60000);
+        for (int i = 0; i < 4000; i++) {
+            rc.invoke(new DummyRunnable());
+        }
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        try {
+                            rc.invoke(new DummyRunnableException());
+                        } catch (Exception e) {
+                            pept.shouldTrip(e);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        // 4000 errors in 8000 requests is 50%; one more error is not enough
+        try {
+            rc.invoke(new DummyRunnableException());
+        } catch (Exception e) {
+            assertFalse(pept.shouldTrip(e));
+        }
+        pept.setPercent(50);
+        try {
+            rc.invoke(new DummyRunnableException());
+        } catch (Exception e) {
+            assertTrue(pept.shouldTrip(e));
+        }
+    }
+
+}
@@ -16,9 +16,14 @@
  */
 package org.fishwife.jrugged;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestPerformanceMonitor {
 
@@ -76,6 +81,34 @@ public class TestPerformanceMonitor {
         perfMon.invoke(new OccasionalExceptionPerformer(1), returnResult);
     }
 
+    @Test
+    public void testInvokeAsyncRecordsOutcomeWhenStageCompletes() throws Exception {
+        PerformanceMonitor perfMon = new PerformanceMonitor();
+        final CompletableFuture<String> success = new CompletableFuture<String>();
+        final CompletableFuture<String> failure = new CompletableFuture<String>();
+
+        perfMon.invokeAsync(supplierOf(success));
+        CompletionStage<String> failed = perfMon.invokeAsync(supplierOf(failure));
+        assertEquals(0, perfMon.getRequestCount());
+
+        Thread.sleep(20);
+        success.complete("done");
+        failure.completeExceptionally(new IllegalStateException());
+
+        assertTrue(failed.toCompletableFuture().isCompletedExceptionally());
+        assertEquals(1, perfMon.getSuccessCount());
+        assertEquals(1, perfMon.getFailureCount());
+        assertTrue(perfMon.getMaxSuccessLatencyLifetime() >= 20);
+    }
+
+    private static Supplier<CompletionStage<String>> supplierOf(final CompletionStage<String> stage) {
+        return new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return stage;
+            }
+        };
+    }
+
     public class ConstantSuccessPerformer implements Runnable {
 
         private int _totalNumberOfTimesToLoop;
@@ -1,10 +1,14 @@
 package org.fishwife.jrugged;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -37,6 +41,22 @@ public class TestRequestCounter {
         assertArrayEquals(new long[] {1L, 1L, 0L}, impl.sample());
     }
     
+    @Test
+    public void testRequestCountTracksAllRequests() throws Exception {
+        impl.invoke(new Runnable() {
+            public void run() { }
+        });
+        try {
+            impl.invoke(new Runnable() {
+                public void run() {
+                    throw new RuntimeException();
+                }
+            });
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(2L, impl.getRequestCount());
+    }
+
     @Test
     public void testFailingCallable() throws Exception {
         final Exception ex = new Exception();
@@ -116,4 +136,19 @@ public class TestRequestCounter {
         
         assertArrayEquals(new long[] {1L, 0L, 1L}, impl.sample());
     }
+
+    @Test
+    public void testInvokeAsyncCountsOutcomeWhenStageCompletes() throws Exception {
+        final CompletableFuture<Object> pending = new CompletableFuture<Object>();
+
+        impl.invokeAsync(new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return pending;
+            }
+        });
+        assertArrayEquals(new long[] {0L, 0L, 0L}, impl.sample());
+
+        pending.completeExceptionally(new Exception());
+        assertArrayEquals(new long[] {1L, 0L, 1L}, impl.sample());
+    }
 }
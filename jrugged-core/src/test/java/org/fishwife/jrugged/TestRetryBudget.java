@@ -0,0 +1,63 @@
+/* TestRetryBudget.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRetryBudget {
+
+    @Test
+    public void testStartsFull() {
+        RetryBudget impl = new RetryBudget(10.0, 3);
+        assertEquals(3.0, impl.getAvailableRetries(), 1e-9);
+        assertTrue(impl.tryAcquireRetry());
+        assertTrue(impl.tryAcquireRetry());
+        assertTrue(impl.tryAcquireRetry());
+        assertFalse(impl.tryAcquireRetry());
+        assertEquals(1, impl.getDeniedCount());
+    }
+
+    @Test
+    public void testSuccessesEarnAShareOfARetry() {
+        RetryBudget impl = new RetryBudget(10.0, 1);
+        assertTrue(impl.tryAcquireRetry());
+        for (int i = 0; i < 9; i++) {
+            impl.recordSuccess();
+        }
+        assertFalse(impl.tryAcquireRetry());
+        impl.recordSuccess();
+        assertTrue(impl.tryAcquireRetry());
+    }
+
+    @Test
+    public void testSavingsAreCapped() {
+        RetryBudget impl = new RetryBudget(100.0, 2);
+        for (int i = 0; i < 10; i++) {
+            impl.recordSuccess();
+        }
+        assertEquals(2.0, impl.getAvailableRetries(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroCapacity() {
+        new RetryBudget(10.0, 0);
+    }
+}
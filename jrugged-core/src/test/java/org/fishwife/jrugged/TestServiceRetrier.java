@@ -18,8 +18,17 @@ package org.fishwife.jrugged;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import junit.framework.Assert;
 import org.junit.Test;
@@ -292,4 +301,302 @@ public class TestServiceRetrier {
         ServiceRetrier retrier = new ServiceRetrier();
         retrier.setDelay(-1);
     }
+
+    @Test
+    public void testBackoffStrategyDecidesDelays() throws Exception {
+        DummyCallable foo = new DummyCallable("Foo!", 4);
+        CaptureSleepServiceRetrier retrier = new CaptureSleepServiceRetrier();
+        retrier.setMaxTries(5);
+        retrier.setBackoff(new ExponentialBackoff(100L, 250L, ExponentialBackoff.Jitter.NONE));
+
+        assertEquals("Foo!", retrier.invoke(foo));
+        assertEquals(3, retrier.getSleepCallCount());
+        assertEquals(100L, retrier.getCapturedSleepValues().get(0).longValue());
+        assertEquals(200L, retrier.getCapturedSleepValues().get(1).longValue());
+        assertEquals(250L, retrier.getCapturedSleepValues().get(2).longValue());
+    }
+
+    @Test
+    public void testBackoffStrategySeesPreviousDelay() throws Exception {
+        final List<Long> previous = new ArrayList<Long>();
+        DummyCallable foo = new DummyCallable("Foo!", 3);
+        CaptureSleepServiceRetrier retrier = new CaptureSleepServiceRetrier();
+        retrier.setBackoff(new BackoffStrategy() {
+            public long nextDelayMillis(int retry, long previousDelayMillis) {
+                previous.add(previousDelayMillis);
+                return retry * 10L;
+            }
+        });
+
+        retrier.invoke(foo);
+        assertEquals(Arrays.asList(0L, 10L), previous);
+    }
+
+    @Test
+    public void testSpentRetryBudgetStopsRetrying() throws Exception {
+        RetryBudget budget = new RetryBudget(0.0, 2);
+        DummyCallable foo = new DummyCallable("Foo!", 10);
+        CaptureSleepServiceRetrier retrier = new CaptureSleepServiceRetrier();
+        retrier.setMaxTries(10);
+        retrier.setThrowCauseException(true);
+        retrier.setRetryBudget(budget);
+
+        try {
+            retrier.invoke(foo);
+            fail("Should have thrown exception");
+        } catch (Exception ex) {
+            assertEquals("FAIL!", ex.getMessage());
+        }
+        assertEquals(3, foo.getCount());
+        assertEquals(1, budget.getDeniedCount());
+    }
+
+    @Test
+    public void testSuccessReplenishesRetryBudget() throws Exception {
+        RetryBudget budget = new RetryBudget(50.0, 1);
+        ServiceRetrier retrier = new CaptureSleepServiceRetrier();
+        retrier.setRetryBudget(budget);
+
+        retrier.invoke(new DummyCallable("Foo!", 2));
+        assertEquals(0.5, budget.getAvailableRetries(), 1e-9);
+        retrier.invoke(new DummyCallable("Foo!", 1));
+        assertEquals(1.0, budget.getAvailableRetries(), 1e-9);
+    }
+
+    @Test
+    public void testInterruptedSleepStopsRetrying() throws Exception {
+        DummyCallable foo = new DummyCallable("Foo!", 5);
+        ServiceRetrier retrier = new ServiceRetrier(10, 5) {
+            @Override
+            protected void sleep(long millis) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        retrier.setThrowCauseException(true);
+
+        try {
+            retrier.invoke(foo);
+            fail("Should have thrown exception");
+        } catch (Exception ex) {
+            assertEquals("FAIL!", ex.getMessage());
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, foo.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncRetriesUntilSuccess() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(2);
+        ServiceRetrier retrier = new ServiceRetrier(0, 5);
+
+        CompletionStage<String> stage = retrier.invokeAsync(supplier);
+
+        assertEquals("Foo!", stage.toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(3, supplier.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncWaitsWithoutBlocking() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(1);
+        ServiceRetrier retrier = new ServiceRetrier(200, 3);
+
+        long start = System.nanoTime();
+        CompletableFuture<String> result = retrier.invokeAsync(supplier).toCompletableFuture();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(150));
+        assertFalse(result.isDone());
+        assertEquals("Foo!", result.get(2, TimeUnit.SECONDS));
+        assertEquals(2, supplier.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncGivesUpAfterMaxTries() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(10);
+        ServiceRetrier retrier = new ServiceRetrier(0, 3);
+
+        try {
+            retrier.invokeAsync(supplier).toCompletableFuture().get(1, TimeUnit.SECONDS);
+            fail("Should have thrown exception");
+        } catch (ExecutionException ex) {
+            assertEquals("Call failed 3 times", ex.getCause().getMessage());
+            assertEquals("FAIL!", ex.getCause().getCause().getMessage());
+        }
+        assertEquals(3, supplier.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncSharesBackoffAndBudget() throws Exception {
+        RetryBudget budget = new RetryBudget(0.0, 1);
+        final List<Long> previous = new ArrayList<Long>();
+        FailingSupplier supplier = new FailingSupplier(10);
+        ServiceRetrier retrier = new ServiceRetrier(0, 5);
+        retrier.setThrowCauseException(true);
+        retrier.setRetryBudget(budget);
+        retrier.setBackoff(new BackoffStrategy() {
+            public long nextDelayMillis(int retry, long previousDelayMillis) {
+                previous.add(previousDelayMillis);
+                return 5L;
+            }
+        });
+
+        try {
+            retrier.invokeAsync(supplier).toCompletableFuture().get(1, TimeUnit.SECONDS);
+            fail("Should have thrown exception");
+        } catch (ExecutionException ex) {
+            assertEquals("FAIL!", ex.getCause().getMessage());
+        }
+        assertEquals(2, supplier.getCount());
+        assertEquals(Arrays.asList(0L, 5L), previous);
+        assertEquals(1, budget.getDeniedCount());
+    }
+
+    @Test
+    public void testCancellingInvokeAsyncCancelsAttemptInFlight() throws Exception {
+        final CompletableFuture<String> attempt = new CompletableFuture<String>();
+        ServiceRetrier retrier = new ServiceRetrier(0, 3);
+
+        CompletionStage<String> stage = retrier.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return attempt;
+            }
+        });
+        stage.toCompletableFuture().cancel(true);
+
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void testCancellingInvokeAsyncCancelsScheduledRetry() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(1);
+        ServiceRetrier retrier = new ServiceRetrier(50, 3);
+
+        CompletableFuture<String> result = retrier.invokeAsync(supplier).toCompletableFuture();
+        result.cancel(true);
+        Thread.sleep(200);
+
+        assertEquals(1, supplier.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncFailsOnceDeadlinePasses() throws Exception {
+        final CompletableFuture<String> attempt = new CompletableFuture<String>();
+        ServiceRetrier retrier = new ServiceRetrier(0, 3);
+        retrier.setDeadlineMillis(50);
+
+        CompletionStage<String> stage = retrier.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return attempt;
+            }
+        });
+
+        try {
+            stage.toCompletableFuture().get(2, TimeUnit.SECONDS);
+            fail("Should have thrown exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeLimitExceededException);
+        }
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void testInvokeAsyncSkipsRetryThatWouldMissDeadline() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(10);
+        ServiceRetrier retrier = new ServiceRetrier(1000, 3);
+        retrier.setThrowCauseException(true);
+        retrier.setDeadlineMillis(500);
+
+        CompletableFuture<String> result = retrier.invokeAsync(supplier).toCompletableFuture();
+
+        assertTrue(result.isCompletedExceptionally());
+        try {
+            result.get();
+            fail("Should have thrown exception");
+        } catch (ExecutionException ex) {
+            assertEquals("FAIL!", ex.getCause().getMessage());
+        }
+        assertEquals(1, supplier.getCount());
+    }
+
+    @Test
+    public void testInvokeAsyncStartsDelayedRetryOnRetryExecutor() throws Exception {
+        final List<String> threads = new ArrayList<String>();
+        final AtomicInteger executed = new AtomicInteger();
+        ServiceRetrier retrier = new ServiceRetrier(20, 3);
+        retrier.setRetryExecutor(new Executor() {
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                new Thread(command, "retry-executor").start();
+            }
+        });
+
+        CompletionStage<String> stage = retrier.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                CompletableFuture<String> attempt = new CompletableFuture<String>();
+                synchronized (threads) {
+                    threads.add(Thread.currentThread().getName());
+                    if (threads.size() == 1) {
+                        attempt.completeExceptionally(new Exception("FAIL!"));
+                        return attempt;
+                    }
+                }
+                attempt.complete("Foo!");
+                return attempt;
+            }
+        });
+
+        assertEquals("Foo!", stage.toCompletableFuture().get(2, TimeUnit.SECONDS));
+        assertEquals(1, executed.get());
+        synchronized (threads) {
+            assertEquals("retry-executor", threads.get(1));
+        }
+    }
+
+    @Test
+    public void testInvokeAsyncFailsWhenRetryExecutorRejects() throws Exception {
+        FailingSupplier supplier = new FailingSupplier(1);
+        ServiceRetrier retrier = new ServiceRetrier(10, 3);
+        retrier.setRetryExecutor(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        });
+
+        try {
+            retrier.invokeAsync(supplier).toCompletableFuture().get(2, TimeUnit.SECONDS);
+            fail("Should have thrown exception");
+        } catch (ExecutionException ex) {
+            assertEquals("full", ex.getCause().getMessage());
+        }
+        assertEquals(1, supplier.getCount());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDeadlineLessThanZeroThrowsException() throws Exception {
+        new ServiceRetrier().setDeadlineMillis(-1);
+    }
+
+    private static class FailingSupplier implements Supplier<CompletionStage<String>> {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final int failures;
+
+        FailingSupplier(int failures) {
+            this.failures = failures;
+        }
+
+        public CompletionStage<String> get() {
+            CompletableFuture<String> future = new CompletableFuture<String>();
+            if (count.incrementAndGet() <= failures) {
+                future.completeExceptionally(new Exception("FAIL!"));
+            } else {
+                future.complete("Foo!");
+            }
+            return future;
+        }
+
+        public int getCount() {
+            return count.get();
+        }
+    }
 }
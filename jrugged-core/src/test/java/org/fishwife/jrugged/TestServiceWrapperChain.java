@@ -3,9 +3,14 @@ package org.fishwife.jrugged;
 import static org.junit.Assert.*;
 import static org.easymock.EasyMock.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 import org.junit.Test;
 
@@ -72,7 +77,7 @@ public class TestServiceWrapperChain {
         ServiceWrapper wrapper = createMock(ServiceWrapper.class);
         impl = new ServiceWrapperChain(Arrays.asList(wrapper));
 
-        wrapper.invoke(r);
+        expect(wrapper.invoke(anyObject(Callable.class))).andReturn(null);
         replay(wrapper);
         replay(r);
         impl.invoke(r);
@@ -87,7 +92,7 @@ public class TestServiceWrapperChain {
         ServiceWrapper wrapper = createMock(ServiceWrapper.class);
         impl = new ServiceWrapperChain(Arrays.asList(wrapper));
 
-        wrapper.invoke(r);
+        expect(wrapper.invoke(anyObject(Callable.class))).andReturn(out);
         replay(wrapper);
         replay(r);
         Object result = impl.invoke(r, out);
@@ -126,14 +131,16 @@ public class TestServiceWrapperChain {
         final Flag f2 = new Flag();
         ServiceWrapper wrapper1 = new NullWrapper() {
             @Override
-            public void invoke(Runnable r) throws Exception {
+            public <T> T invoke(Callable<T> c) throws Exception {
                 f1.set = true;
+                return null;
             }
         };
         ServiceWrapper wrapper2 = new NullWrapper() {
             @Override
-            public void invoke(Runnable r) throws Exception {
-                f2.set = false;
+            public <T> T invoke(Callable<T> c) throws Exception {
+                f2.set = true;
+                return null;
             }
         };
         impl = new ServiceWrapperChain(Arrays.asList(wrapper1, wrapper2));
@@ -150,21 +157,22 @@ public class TestServiceWrapperChain {
         final Flag f2 = new Flag();
         ServiceWrapper wrapper1 = new NullWrapper() {
             @Override
-            public void invoke(Runnable r) throws Exception {
+            public <T> T invoke(Callable<T> c) throws Exception {
                 f1.set = true;
+                return null;
             }
         };
         ServiceWrapper wrapper2 = new NullWrapper() {
             @Override
-            public void invoke(Runnable r) throws Exception {
-                f2.set = false;
+            public <T> T invoke(Callable<T> c) throws Exception {
+                f2.set = true;
+                return null;
             }
         };
         impl = new ServiceWrapperChain(Arrays.asList(wrapper1, wrapper2));
-        Object result = impl.invoke(r, out);
+        impl.invoke(r, out);
         assertTrue(f1.set);
         assertFalse(f2.set);
-        assertSame(out, result);
     }
     
     @Test
@@ -196,8 +204,8 @@ public class TestServiceWrapperChain {
         NullWrapper wrapper2 = new NullWrapper();
         impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)wrapper1, (ServiceWrapper)wrapper2));
         impl.invoke(r);
-        assertTrue(wrapper1.invokedRunnable);
-        assertTrue(wrapper2.invokedRunnable);
+        assertTrue(wrapper1.invokedCallable);
+        assertTrue(wrapper2.invokedCallable);
         assertTrue(f.set);
     }
 
@@ -214,12 +222,185 @@ public class TestServiceWrapperChain {
         NullWrapper wrapper2 = new NullWrapper();
         impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)wrapper1, (ServiceWrapper)wrapper2));
         Object result = impl.invoke(r, out);
-        assertTrue(wrapper1.invokedRunnable);
-        assertTrue(wrapper2.invokedRunnable);
+        assertTrue(wrapper1.invokedCallable);
+        assertTrue(wrapper2.invokedCallable);
         assertTrue(f.set);
         assertSame(out, result);
     }
     
+    @Test
+    public void tryInvokeRunsThroughAllWrappers() throws Exception {
+        final Object out = new Object();
+        NullWrapper wrapper1 = new NullWrapper();
+        NullWrapper wrapper2 = new NullWrapper();
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)wrapper1, (ServiceWrapper)wrapper2));
+        InvocationResult<Object> result = impl.tryInvoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                return out;
+            }
+        });
+        assertTrue(wrapper1.invokedCallable);
+        assertTrue(wrapper2.invokedCallable);
+        assertTrue(result.isSucceeded());
+        assertSame(out, result.getValue());
+    }
+
+    @Test
+    public void tryInvokeReportsInnerRejectionAndCountsItOutside() throws Exception {
+        CircuitBreaker outer = new CircuitBreaker();
+        CircuitBreaker inner = new CircuitBreaker();
+        inner.trip();
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)outer, (ServiceWrapper)inner));
+
+        InvocationResult<Object> result = impl.tryInvoke(new NullCallable());
+
+        assertSame(InvocationResult.rejected(), result);
+        assertEquals(Status.DOWN, outer.getStatus());
+    }
+
+    @Test
+    public void tryInvokeReportsServiceFailure() throws Exception {
+        final Exception boom = new Exception("boom");
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)new NullWrapper(),
+                (ServiceWrapper)new NullWrapper()));
+
+        InvocationResult<Object> result = impl.tryInvoke(new Callable<Object>() {
+            public Object call() throws Exception {
+                throw boom;
+            }
+        });
+
+        assertTrue(result.isFailed());
+        assertSame(boom, result.getCause());
+    }
+
+    @Test
+    public void invokeAsyncRecordsOutcomeInEveryBreaker() throws Exception {
+        CircuitBreaker outer = new CircuitBreaker();
+        CircuitBreaker inner = new CircuitBreaker();
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)outer, (ServiceWrapper)inner));
+        final CompletableFuture<Object> pending = new CompletableFuture<Object>();
+
+        CompletionStage<Object> stage = impl.invokeAsync(new Supplier<CompletionStage<Object>>() {
+            public CompletionStage<Object> get() {
+                return pending;
+            }
+        });
+        pending.completeExceptionally(new IllegalStateException());
+
+        assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+        assertEquals(Status.DOWN, outer.getStatus());
+        assertEquals(Status.DOWN, inner.getStatus());
+    }
+
+    @Test
+    public void runnableCheckedExceptionFromInnerWrapperComesOutUnwrapped() throws Exception {
+        final Exception boom = new Exception("boom");
+        ServiceWrapper thrower = new NullWrapper() {
+            @Override
+            public <T> T invoke(Callable<T> c) throws Exception {
+                throw boom;
+            }
+        };
+        NullWrapper outer = new NullWrapper();
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)outer, thrower));
+
+        try {
+            impl.invoke(new NullRunnable());
+            fail("should have thrown");
+        } catch (Exception e) {
+            assertSame(boom, e);
+        }
+        assertTrue(outer.invokedCallable);
+    }
+
+    @Test
+    public void runnableCheckedExceptionReachesBreakerInMiddleOfChain() throws Exception {
+        final IOException boom = new IOException("boom");
+        ServiceWrapper thrower = new NullWrapper() {
+            @Override
+            public <T> T invoke(Callable<T> c) throws Exception {
+                throw boom;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        Class<? extends Throwable>[] ignore = new Class[] { IOException.class };
+        CircuitBreaker breaker = new CircuitBreaker("middle", new DefaultFailureInterpreter(ignore));
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)new NullWrapper(), breaker, thrower));
+
+        try {
+            impl.invoke(new NullRunnable());
+            fail("should have thrown");
+        } catch (IOException e) {
+            assertSame(boom, e);
+        }
+        assertEquals(Status.UP, breaker.getStatus());
+    }
+
+    @Test
+    public void runnableUncheckedExceptionComesOutUnwrapped() throws Exception {
+        final IllegalStateException boom = new IllegalStateException("boom");
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)new NullWrapper(),
+                (ServiceWrapper)new NullWrapper(), (ServiceWrapper)new NullWrapper()));
+
+        try {
+            impl.invoke(new Runnable() {
+                public void run() {
+                    throw boom;
+                }
+            });
+            fail("should have thrown");
+        } catch (IllegalStateException e) {
+            assertSame(boom, e);
+        }
+    }
+
+    @Test
+    public void callableExceptionComesOutUnwrapped() throws Exception {
+        final Exception boom = new Exception("boom");
+        impl = new ServiceWrapperChain(Arrays.asList((ServiceWrapper)new NullWrapper(),
+                (ServiceWrapper)new NullWrapper(), (ServiceWrapper)new NullWrapper()));
+
+        try {
+            impl.invoke(new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw boom;
+                }
+            });
+            fail("should have thrown");
+        } catch (Exception e) {
+            assertSame(boom, e);
+        }
+    }
+
+    @Test
+    public void chainCanBeReusedAcrossCalls() throws Exception {
+        final List<String> order = new ArrayList<String>();
+        impl = new ServiceWrapperChain(Arrays.asList(recording("a", order),
+                recording("b", order), recording("c", order)));
+
+        for (int i = 0; i < 2; i++) {
+            final int call = i;
+            assertEquals(call, impl.invoke(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    order.add("service");
+                    return call;
+                }
+            }).intValue());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "service", "a", "b", "c", "service"), order);
+    }
+
+    private static ServiceWrapper recording(final String name, final List<String> order) {
+        return new NullWrapper() {
+            @Override
+            public <T> T invoke(Callable<T> c) throws Exception {
+                order.add(name);
+                return c.call();
+            }
+        };
+    }
+
     private static class Flag {
         public boolean set = false;
     }
@@ -0,0 +1,103 @@
+/* TestSlowCallRateFailureInterpreter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSlowCallRateFailureInterpreter {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private SlowCallRateFailureInterpreter impl;
+    private long now;
+
+    @Before
+    public void setUp() {
+        now = 1000000L;
+        impl = new SlowCallRateFailureInterpreter(100, 50, 1000, 4, new DefaultFailureInterpreter());
+        impl.setClock(new Clock() {
+            public long currentTimeMillis() {
+                return now;
+            }
+        });
+    }
+
+    @Test
+    public void testFastCallsNeverTrip() {
+        for (int i = 0; i < 100; i++) {
+            assertFalse(impl.shouldTrip(FAST));
+        }
+    }
+
+    @Test
+    public void testTripsWhenSlowShareReachesPercent() {
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(SLOW));
+        assertTrue(impl.shouldTrip(SLOW));
+    }
+
+    @Test
+    public void testDoesNotTripBelowMinimumCalls() {
+        assertFalse(impl.shouldTrip(SLOW));
+        assertFalse(impl.shouldTrip(SLOW));
+        assertFalse(impl.shouldTrip(SLOW));
+        assertTrue(impl.shouldTrip(SLOW));
+    }
+
+    @Test
+    public void testOldCallsAgeOutOfWindow() {
+        impl.shouldTrip(SLOW);
+        impl.shouldTrip(SLOW);
+        impl.shouldTrip(SLOW);
+        now += 2000;
+        assertFalse(impl.shouldTrip(SLOW));
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(FAST));
+        assertFalse(impl.shouldTrip(SLOW));
+    }
+
+    @Test
+    public void testCallsSpreadAcrossBucketsAreCounted() {
+        impl.shouldTrip(SLOW);
+        now += 300;
+        impl.shouldTrip(SLOW);
+        now += 300;
+        impl.shouldTrip(FAST);
+        now += 300;
+        assertTrue(impl.shouldTrip(SLOW));
+    }
+
+    @Test
+    public void testExceptionsGoToExceptionInterpreter() {
+        assertTrue(impl.shouldTrip(new Exception()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentMustBeInRange() {
+        new SlowCallRateFailureInterpreter(100, 0, 1000);
+    }
+}
@@ -0,0 +1,190 @@
+/* TestTimeLimiter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTimeLimiter {
+
+    private final TimeLimiter impl = new TimeLimiter(50L, TimeUnit.MILLISECONDS);
+
+    @After
+    public void tearDown() {
+        Thread.interrupted();
+    }
+
+    private static Callable<String> sleeping(final long millis) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                Thread.sleep(millis);
+                return "done";
+            }
+        };
+    }
+
+    @Test
+    public void testFastCallReturnsResult() throws Exception {
+        assertEquals("done", impl.invoke(sleeping(0L)));
+        assertEquals(1, impl.getCallCount());
+        assertEquals(0, impl.getTimeoutCount());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testExceptionInTimePropagates() throws Exception {
+        try {
+            impl.invoke(new Runnable() {
+                public void run() {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("should have thrown");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, impl.getTimeoutCount());
+    }
+
+    @Test
+    public void testSlowCallIsInterruptedAtDeadline() throws Exception {
+        long start = System.nanoTime();
+        try {
+            impl.invoke(sleeping(10000L));
+            fail("should have timed out");
+        } catch (TimeLimitExceededException expected) {
+            assertEquals(0, expected.getStackTrace().length);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(1, impl.getTimeoutCount());
+    }
+
+    @Test
+    public void testLateCallFailsEvenIfItIgnoresInterrupt() throws Exception {
+        impl.setTimeout(10L, TimeUnit.MILLISECONDS);
+        try {
+            impl.invoke(new Runnable() {
+                public void run() {
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50L);
+                    while (System.nanoTime() < end) {
+                        Thread.yield();
+                    }
+                }
+            });
+            fail("should have timed out");
+        } catch (TimeLimitExceededException expected) {
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testWithoutCancelCallRunsToCompletion() throws Exception {
+        impl.setTimeout(10L, TimeUnit.MILLISECONDS);
+        impl.setCancelOnTimeout(false);
+        final boolean[] finished = new boolean[1];
+        try {
+            impl.invoke(new Callable<Object>() {
+                public Object call() throws Exception {
+                    Thread.sleep(50L);
+                    finished[0] = true;
+                    return null;
+                }
+            });
+            fail("should have timed out");
+        } catch (TimeLimitExceededException expected) {
+        }
+        assertTrue(finished[0]);
+    }
+
+    @Test
+    public void testAsyncCallIsCancelledAtDeadline() throws Exception {
+        final CompletableFuture<String> call = new CompletableFuture<String>();
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return call;
+            }
+        });
+        try {
+            result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have timed out");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TimeLimitExceededException);
+        }
+        assertTrue(call.isCancelled());
+        assertEquals(1, impl.getTimeoutCount());
+    }
+
+    @Test
+    public void testAsyncCallLeftRunningWithoutCancel() throws Exception {
+        impl.setCancelOnTimeout(false);
+        final CompletableFuture<String> call = new CompletableFuture<String>();
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return call;
+            }
+        });
+        try {
+            result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("should have timed out");
+        } catch (ExecutionException expected) {
+        }
+        assertFalse(call.isDone());
+    }
+
+    @Test
+    public void testAsyncCallInTime() throws Exception {
+        CompletionStage<String> result = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture("done");
+            }
+        });
+        assertEquals("done", result.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(0, impl.getTimeoutCount());
+    }
+
+    @Test
+    public void testTimeoutTripsCircuitBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("svc", new DefaultFailureInterpreter());
+        try {
+            breaker.invoke(new Callable<String>() {
+                public String call() throws Exception {
+                    return impl.invoke(sleeping(10000L));
+                }
+            });
+            fail("should have timed out");
+        } catch (TimeLimitExceededException expected) {
+        }
+        assertEquals(Status.DOWN, breaker.getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveTimeout() {
+        new TimeLimiter(0L, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,418 @@
+/* TestTokenBucketFlowRegulator.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTokenBucketFlowRegulator {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long now;
+
+    private TokenBucketFlowRegulator regulator(double rate, int burst) {
+        return new TokenBucketFlowRegulator(rate, burst) {
+            @Override
+            protected long nanoTime() {
+                return now;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() {
+        now = 1000L * MILLI;
+    }
+
+    @Test
+    public void testUnlimitedByDefault() {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(impl.canProceed());
+        }
+        assertEquals(-1, impl.getRequestPerSecondThreshold());
+    }
+
+    @Test
+    public void testAdmitsBurstThenRejects() {
+        TokenBucketFlowRegulator impl = regulator(10, 3);
+        assertTrue(impl.canProceed());
+        assertTrue(impl.canProceed());
+        assertTrue(impl.canProceed());
+        assertFalse(impl.canProceed());
+    }
+
+    @Test
+    public void testRefillsOneCallPerInterval() {
+        TokenBucketFlowRegulator impl = regulator(10, 1);
+        assertTrue(impl.canProceed());
+        now += 99 * MILLI;
+        assertFalse(impl.canProceed());
+        now += MILLI;
+        assertTrue(impl.canProceed());
+        assertFalse(impl.canProceed());
+    }
+
+    @Test
+    public void testIdleTimeDoesNotAccumulateBeyondBurst() {
+        TokenBucketFlowRegulator impl = regulator(10, 2);
+        now += 60000L * MILLI;
+        assertTrue(impl.canProceed());
+        assertTrue(impl.canProceed());
+        assertFalse(impl.canProceed());
+    }
+
+    @Test
+    public void testFractionalRate() {
+        TokenBucketFlowRegulator impl = regulator(0.5, 1);
+        assertTrue(impl.canProceed());
+        now += 1999L * MILLI;
+        assertFalse(impl.canProceed());
+        now += MILLI;
+        assertTrue(impl.canProceed());
+        assertEquals(1, impl.getRequestPerSecondThreshold());
+    }
+
+    @Test
+    public void testRatesAboveOnePerMillisecond() {
+        TokenBucketFlowRegulator impl = regulator(2000, 1);
+        int admitted = 0;
+        for (int step = 0; step < 1000; step++) {
+            if (impl.canProceed()) {
+                admitted++;
+            }
+            now += MILLI / 10;
+        }
+        // 100 ms at 2000 rps
+        assertEquals(200, admitted);
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheBurst() throws Exception {
+        final TokenBucketFlowRegulator impl = regulator(1, 50);
+        final AtomicInteger admitted = new AtomicInteger();
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        if (impl.canProceed()) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(50, admitted.get());
+    }
+
+    @Test
+    public void testReconfigureKeepsBurstSize() {
+        TokenBucketFlowRegulator impl = regulator(10, 4);
+        impl.setRequestPerSecondThreshold(100);
+        assertEquals(100.0, impl.getRequestsPerSecond(), 0.0);
+        assertEquals(4, impl.getBurstSize());
+
+        impl.setRequestsPerSecond(-1);
+        assertEquals(-1, impl.getRequestPerSecondThreshold());
+        assertTrue(impl.canProceed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroBurst() {
+        new TokenBucketFlowRegulator(10, 0);
+    }
+
+    @Test
+    public void testRejectionThrowsFlowRateExceeded() throws Exception {
+        TokenBucketFlowRegulator impl = regulator(1, 1);
+        impl.invoke(new Runnable() {
+            public void run() { }
+        });
+        try {
+            impl.invoke(new Runnable() {
+                public void run() { }
+            });
+            fail("should have been rejected");
+        } catch (FlowRateExceededException expected) {
+        }
+        assertTrue(impl.tryInvoke(new Callable<Object>() {
+            public Object call() {
+                return null;
+            }
+        }).isRejected());
+    }
+
+    @Test
+    public void testExceptionMapperIsUsed() throws Exception {
+        final IllegalStateException mapped = new IllegalStateException();
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(1, 1,
+                new ConstantFlowRegulatorExceptionMapper<IllegalStateException>() {
+                    public IllegalStateException map(ConstantFlowRegulator flowRegulator,
+                            FlowRateExceededException e) {
+                        return mapped;
+                    }
+                });
+        impl.invoke(new Runnable() {
+            public void run() { }
+        });
+        try {
+            impl.invoke(new Runnable() {
+                public void run() { }
+            });
+            fail("should have been rejected");
+        } catch (IllegalStateException e) {
+            assertSame(mapped, e);
+        }
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+        public void run() { }
+    };
+
+    private static Supplier<CompletionStage<String>> supplying(final String value) {
+        return new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture(value);
+            }
+        };
+    }
+
+    @Test
+    public void testPacingSpacesCallsInsteadOfRejecting() throws Exception {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(20, 1);
+        impl.setMaxWaitMillis(1000L);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            impl.invoke(NOOP);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // four 50ms intervals after the first call
+        assertTrue(elapsed >= 190L * MILLI);
+        assertEquals(0, impl.getWaitingCount());
+    }
+
+    @Test
+    public void testPacingRejectsBeyondMaxWait() throws Exception {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(1, 1);
+        impl.setMaxWaitMillis(100L);
+        impl.invoke(NOOP);
+
+        long start = System.nanoTime();
+        try {
+            impl.invoke(NOOP);
+            fail("should have been rejected");
+        } catch (FlowRateExceededException expected) {
+        }
+        assertTrue(System.nanoTime() - start < 100L * MILLI);
+    }
+
+    @Test
+    public void testPacingBoundsWaiters() throws Exception {
+        final TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(5, 1);
+        impl.setMaxWaitMillis(5000L);
+        impl.setMaxWaiters(1);
+        impl.invoke(NOOP);
+
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    impl.invoke(NOOP);
+                } catch (Exception e) {
+                    // counted by the assertions below
+                }
+            }
+        });
+        waiter.start();
+        while (impl.getWaitingCount() == 0) {
+            Thread.yield();
+        }
+
+        assertTrue(impl.tryInvoke(new Callable<Object>() {
+            public Object call() {
+                return null;
+            }
+        }).isRejected());
+
+        waiter.join(5000L);
+        assertEquals(0, impl.getWaitingCount());
+    }
+
+    @Test
+    public void testInterruptedWaiterIsRejected() throws Exception {
+        final TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(1, 1);
+        impl.setMaxWaitMillis(5000L);
+        impl.invoke(NOOP);
+
+        final Exception[] failure = new Exception[1];
+        final boolean[] interrupted = new boolean[1];
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    impl.invoke(NOOP);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        waiter.start();
+        while (impl.getWaitingCount() == 0) {
+            Thread.yield();
+        }
+        waiter.interrupt();
+        waiter.join(5000L);
+
+        assertTrue(failure[0] instanceof FlowRateExceededException);
+        assertTrue(interrupted[0]);
+        assertEquals(0, impl.getWaitingCount());
+    }
+
+    @Test
+    public void testInvokeAsyncStartsPacedCallLaterWithoutBlocking() throws Exception {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(10, 1);
+        impl.setMaxWaitMillis(1000L);
+
+        assertEquals("first", impl.invokeAsync(supplying("first")).toCompletableFuture().get());
+
+        long start = System.nanoTime();
+        CompletionStage<String> second = impl.invokeAsync(supplying("second"));
+        assertTrue(System.nanoTime() - start < 50L * MILLI);
+        assertEquals(1, impl.getWaitingCount());
+
+        assertEquals("second", second.toCompletableFuture().get());
+        assertTrue(System.nanoTime() - start >= 80L * MILLI);
+        assertEquals(0, impl.getWaitingCount());
+    }
+
+    @Test
+    public void testInvokeAsyncStartsPacedCallOnAsyncExecutor() throws Exception {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(10, 1);
+        impl.setMaxWaitMillis(1000L);
+        impl.setAsyncExecutor(new Executor() {
+            public void execute(Runnable command) {
+                new Thread(command, "paced-call").start();
+            }
+        });
+        Supplier<CompletionStage<String>> threadName = new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture(Thread.currentThread().getName());
+            }
+        };
+
+        impl.invokeAsync(supplying("first"));
+        assertEquals("paced-call", impl.invokeAsync(threadName).toCompletableFuture()
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancellingPacedCallGivesBackItsSlot() throws Exception {
+        TokenBucketFlowRegulator impl = regulator(10, 1);
+        impl.setMaxWaitMillis(150L);
+        final AtomicInteger started = new AtomicInteger();
+        Supplier<CompletionStage<String>> counting = new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                started.incrementAndGet();
+                return CompletableFuture.completedFuture("ok");
+            }
+        };
+
+        impl.invokeAsync(supplying("first"));
+        CompletableFuture<String> second = impl.invokeAsync(counting).toCompletableFuture();
+        assertEquals(1, impl.getWaitingCount());
+        second.cancel(true);
+        assertEquals(0, impl.getWaitingCount());
+
+        // without the refund this call would be two slots out, past the maximum wait
+        CompletableFuture<String> third = impl.invokeAsync(counting).toCompletableFuture();
+        assertFalse(third.isDone());
+        assertEquals("ok", third.get(5, TimeUnit.SECONDS));
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void testInvokeAsyncRejectsWithoutPacing() throws Exception {
+        TokenBucketFlowRegulator impl = new TokenBucketFlowRegulator(1, 1);
+        impl.invokeAsync(supplying("first"));
+        try {
+            impl.invokeAsync(supplying("second")).toCompletableFuture().get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowRateExceededException);
+        }
+    }
+
+    @Test
+    public void testRaisedRateWarmsUpFromOldRate() {
+        TokenBucketFlowRegulator impl = regulator(10, 1);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(1000L, 0.01));
+        impl.setRequestsPerSecond(100);
+        assertTrue(impl.isWarmingUp());
+
+        // at the start of the warm-up only the old 10 rps is admitted
+        assertTrue(impl.canProceed());
+        now += 50 * MILLI;
+        assertFalse(impl.canProceed());
+
+        now += 2000 * MILLI;
+        assertFalse(impl.isWarmingUp());
+        assertTrue(impl.canProceed());
+        now += 10 * MILLI;
+        assertTrue(impl.canProceed());
+    }
+
+    @Test
+    public void testLoweredRateDoesNotWarmUp() {
+        TokenBucketFlowRegulator impl = regulator(100, 1);
+        impl.setWarmUpPolicy(WarmUpPolicy.linear(1000L, 0.01));
+        impl.setRequestsPerSecond(10);
+        assertFalse(impl.isWarmingUp());
+
+        impl.startWarmUp();
+        assertTrue(impl.isWarmingUp());
+    }
+}
@@ -0,0 +1,79 @@
+/* TestWarmUpPolicy.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWarmUpPolicy {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testLinearRamp() {
+        WarmUpPolicy policy = WarmUpPolicy.linear(10000L, 0.1);
+        assertEquals(0.1, policy.fractionAfter(0L, 0.0), 1e-9);
+        assertEquals(0.55, policy.fractionAfter(5 * SECOND, 0.0), 1e-9);
+        assertEquals(1.0, policy.fractionAfter(10 * SECOND, 0.0), 0.0);
+        assertEquals(1.0, policy.fractionAfter(60 * SECOND, 0.0), 0.0);
+    }
+
+    @Test
+    public void testExponentialRampGrowsByConstantFactor() {
+        WarmUpPolicy policy = WarmUpPolicy.exponential(10000L, 0.01);
+        assertEquals(0.01, policy.fractionAfter(0L, 0.0), 1e-9);
+        assertEquals(0.1, policy.fractionAfter(5 * SECOND, 0.0), 1e-9);
+        assertEquals(1.0, policy.fractionAfter(10 * SECOND, 0.0), 0.0);
+        assertTrue(policy.fractionAfter(5 * SECOND, 0.0)
+                < WarmUpPolicy.linear(10000L, 0.01).fractionAfter(5 * SECOND, 0.0));
+    }
+
+    @Test
+    public void testStartsFromHigherFraction() {
+        WarmUpPolicy policy = WarmUpPolicy.linear(10000L, 0.1);
+        assertEquals(0.5, policy.fractionAfter(0L, 0.5), 1e-9);
+        assertEquals(0.75, policy.fractionAfter(5 * SECOND, 0.5), 1e-9);
+    }
+
+    @Test
+    public void testShedsAboutTheExcess() {
+        int shed = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (WarmUpPolicy.Ramp.shed(0.25)) {
+                shed++;
+            }
+        }
+        assertTrue(shed > 7000 && shed < 8000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(!WarmUpPolicy.Ramp.shed(1.0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroInitialFraction() {
+        WarmUpPolicy.linear(1000L, 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroDuration() {
+        WarmUpPolicy.exponential(0L, 0.5);
+    }
+}
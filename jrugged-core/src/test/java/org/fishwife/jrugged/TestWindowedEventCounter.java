@@ -194,6 +194,43 @@ public final class TestWindowedEventCounter {
         }
     }
 
+    @Test
+    public void testReducingCapacityKeepsNewestEvents() {
+        long t0 = clock.currentTimeMillis;
+        for (int i = 1; i <= CAPACITY; i++) {
+            clock.currentTimeMillis = t0 + i;
+            impl.mark();
+        }
+
+        impl.setCapacity(1);
+
+        // only the newest event (at t0 + CAPACITY) should remain
+        clock.currentTimeMillis = t0 + CAPACITY + WINDOW_MILLIS;
+        assertEquals(1, impl.tally());
+        clock.currentTimeMillis++;
+        assertEquals(0, impl.tally());
+    }
+
+    @Test
+    public void testConcurrentMarksFillToCapacity() throws Exception {
+        final WindowedEventCounter counter = new WindowedEventCounter(100, 60000L);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.mark();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(100, counter.tally());
+    }
+
     public class StoppedClock implements Clock {
         public long currentTimeMillis;
 
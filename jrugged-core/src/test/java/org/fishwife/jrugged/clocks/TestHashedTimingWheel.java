@@ -0,0 +1,146 @@
+package org.fishwife.jrugged.clocks;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fishwife.jrugged.interval.DiscreteInterval;
+import org.fishwife.jrugged.clocks.HashedTimingWheel.Timeout;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestHashedTimingWheel {
+
+    private HashedTimingWheel impl = new HashedTimingWheel("test-wheel", 1L, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void tearDown() {
+        impl.stop();
+    }
+
+    private Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void runsTaskAfterDelay() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        Timeout timeout = impl.schedule(countDown(fired), 20L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(19L));
+        assertTrue(timeout.isExpired());
+        assertEquals(0L, impl.getPendingCount());
+    }
+
+    @Test
+    public void runsTaskDueAfterSeveralRotations() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        impl.schedule(countDown(fired), 30L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(29L));
+    }
+
+    @Test
+    public void cancelledTaskNeverRuns() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Timeout timeout = impl.schedule(new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 20L, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0L, impl.getPendingCount());
+        CountDownLatch later = new CountDownLatch(1);
+        impl.schedule(countDown(later), 40L, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void cannotCancelExpiredTask() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        Timeout timeout = impl.schedule(countDown(fired), 0L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void holdsManyTimeoutsAtOnce() throws Exception {
+        int count = 200000;
+        CountDownLatch fired = new CountDownLatch(count / 2);
+        Timeout[] timeouts = new Timeout[count];
+        for (int i = 0; i < count; i++) {
+            timeouts[i] = impl.schedule(countDown(fired), 100L + (i % 50), TimeUnit.MILLISECONDS);
+            if (i % 2 == 1) {
+                assertTrue(timeouts[i].cancel());
+            }
+        }
+        assertTrue(fired.await(30, TimeUnit.SECONDS));
+        assertEquals(0L, impl.getPendingCount());
+        for (int i = 1; i < count; i += 2) {
+            assertFalse(timeouts[i].isExpired());
+        }
+    }
+
+    @Test
+    public void failingTaskDoesNotStopTheWheel() throws Exception {
+        impl.schedule(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        }, 0L, TimeUnit.MILLISECONDS);
+        CountDownLatch fired = new CountDownLatch(1);
+        impl.schedule(countDown(fired), 10L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void taskThrowingAnErrorDoesNotStopTheWheel() throws Exception {
+        impl.schedule(new Runnable() {
+            public void run() {
+                throw new AssertionError("boom");
+            }
+        }, 0L, TimeUnit.MILLISECONDS);
+        CountDownLatch fired = new CountDownLatch(1);
+        impl.schedule(countDown(fired), 10L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void cannotScheduleOnStoppedWheel() {
+        impl.stop();
+        impl.schedule(countDown(new CountDownLatch(1)), 1L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void firingWindowCoversTickAndClockError() {
+        HardwareClock mockClock = createMock(HardwareClock.class);
+        expect(mockClock.getGranularity()).andReturn(1000L).anyTimes();
+        replay(mockClock);
+        impl = new HashedTimingWheel(mockClock, "test-wheel", 1L, TimeUnit.MILLISECONDS, 8);
+        assertEquals(1000000L, impl.getGranularity());
+        assertEquals(new DiscreteInterval(9999000L, 11001000L),
+                impl.getFiringWindow(10L, TimeUnit.MILLISECONDS));
+        verify(mockClock);
+    }
+
+    @Test
+    public void roundsSlotsUpToPowerOfTwo() throws Exception {
+        impl = new HashedTimingWheel("test-wheel", 1L, TimeUnit.MILLISECONDS, 5);
+        CountDownLatch fired = new CountDownLatch(1);
+        impl.schedule(countDown(fired), 12L, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,221 @@
+/* TestAdaptiveConcurrencyLimiter.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.fishwife.jrugged.InvocationResult;
+import org.fishwife.jrugged.Status;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAdaptiveConcurrencyLimiter {
+
+    private static final Callable<String> OK = new Callable<String>() {
+        public String call() {
+            return "ok";
+        }
+    };
+
+    private static final Callable<String> BROKEN = new Callable<String>() {
+        public String call() throws Exception {
+            throw new Exception("broken");
+        }
+    };
+
+    @Test
+    public void testRejectsAtLimit() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 2, 1, 10);
+        assertEquals(1, impl.acquire());
+        assertEquals(2, impl.acquire());
+        assertEquals(Status.DEGRADED, impl.getServiceStatus().getStatus());
+
+        try {
+            impl.invoke(OK);
+            fail("should have been rejected");
+        } catch (ConcurrencyLimitExceededException expected) {
+            assertEquals("test", expected.getLimiterName());
+            assertEquals(2, expected.getLimit());
+        }
+        assertTrue(impl.tryInvoke(OK).isRejected());
+        assertEquals(2, impl.getRejectedCount());
+    }
+
+    @Test
+    public void testSuccessWhileBusyRaisesAimdLimit() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 1, 1, 10);
+        assertEquals("ok", impl.invoke(OK));
+        assertEquals(2, impl.getLimit());
+        assertEquals(0, impl.getInFlightCount());
+        assertTrue(impl.getMinRttMillis() >= 0.0);
+    }
+
+    @Test
+    public void testFailureLowersAimdLimit() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(0.5, 0L), 10, 1, 10);
+        InvocationResult<String> result = impl.tryInvoke(BROKEN);
+        assertTrue(result.isFailed());
+        // one sample takes a tenth of the halving step
+        assertEquals(9, impl.getLimit());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testLimitIsClampedToRange() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(0.1, 0L), 4, 3, 4);
+        for (int i = 0; i < 10; i++) {
+            impl.release(1L, 4, true);
+        }
+        assertEquals(3, impl.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            impl.release(1L, 4, false);
+        }
+        assertEquals(4, impl.getLimit());
+    }
+
+    @Test
+    public void testInvokeAsyncHoldsSlotUntilStageCompletes() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 1, 1, 1);
+        final CompletableFuture<String> pending = new CompletableFuture<String>();
+        CompletionStage<String> first = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return pending;
+            }
+        });
+        assertEquals(1, impl.getInFlightCount());
+
+        CompletionStage<String> second = impl.invokeAsync(new Supplier<CompletionStage<String>>() {
+            public CompletionStage<String> get() {
+                return CompletableFuture.completedFuture("no");
+            }
+        });
+        try {
+            second.toCompletableFuture().get();
+            fail("should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConcurrencyLimitExceededException);
+        }
+
+        pending.complete("yes");
+        assertEquals("yes", first.toCompletableFuture().get());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testObjectivesAreAssessedOnEachCall() throws Exception {
+        AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 5, 1, 10);
+        final int[] outcomes = new int[2];
+        impl.addObjective(new Objective<ConcurrencyModel>() {
+            public boolean isMetBy(ConcurrencyModel state) {
+                return !state.getLatest().dropped;
+            }
+            public boolean hasFailed(ConcurrencyModel state) {
+                return state.getLatest().dropped;
+            }
+            public void succeed() {
+                outcomes[0]++;
+            }
+            public void fail() {
+                outcomes[1]++;
+            }
+        });
+        impl.tryInvoke(OK);
+        impl.tryInvoke(BROKEN);
+        assertEquals(1, outcomes[0]);
+        assertEquals(1, outcomes[1]);
+    }
+
+    @Test
+    public void testConcurrentReleasesAreAllProcessed() throws Exception {
+        final AdaptiveConcurrencyLimiter impl =
+            new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 5, 1, 10);
+        final AtomicInteger assessed = new AtomicInteger();
+        impl.addObjective(new Objective<ConcurrencyModel>() {
+            public boolean isMetBy(ConcurrencyModel state) {
+                return true;
+            }
+            public boolean hasFailed(ConcurrencyModel state) {
+                return false;
+            }
+            public void succeed() {
+                assessed.incrementAndGet();
+            }
+            public void fail() {
+            }
+        });
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        impl.tryInvoke(OK);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join(10000);
+        }
+
+        assertEquals(4000, assessed.get());
+        assertEquals(0, impl.getInFlightCount());
+    }
+
+    @Test
+    public void testVegasMovesTowardsQueueBand() {
+        VegasLimitAlgorithm vegas = new VegasLimitAlgorithm(2.0, 4.0);
+        // no queueing: grow
+        assertEquals(11.0, vegas.nextLimit(10.0, 100L, 100L, 10, false), 0.0);
+        // 10 * (1 - 100/200) = 5 queued: shrink
+        assertEquals(9.0, vegas.nextLimit(10.0, 200L, 100L, 10, false), 0.0);
+        // 10 * (1 - 100/130) ~ 2.3 queued: hold
+        assertEquals(10.0, vegas.nextLimit(10.0, 130L, 100L, 10, false), 0.0);
+        // idle limiter does not grow
+        assertEquals(10.0, vegas.nextLimit(10.0, 100L, 100L, 1, false), 0.0);
+    }
+
+    @Test
+    public void testGradientPullsDownOnLatencyAndProbesUp() {
+        GradientLimitAlgorithm gradient = new GradientLimitAlgorithm(1.0, 1.0);
+        // unloaded: limit * 1 + sqrt(limit)
+        assertEquals(20.0, gradient.nextLimit(16.0, 100L, 100L, 16, false), 1e-9);
+        // four times slower is floored at a gradient of one half
+        assertEquals(12.0, gradient.nextLimit(16.0, 400L, 100L, 16, false), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBadLimits() {
+        new AdaptiveConcurrencyLimiter("test", new AimdLimitAlgorithm(), 0, 1, 10);
+    }
+}
@@ -0,0 +1,137 @@
+/* TestAdaptiveConcurrencyLimiterSimulation.java
+ *
+ * Copyright 2009-2019 Comcast Interactive Media, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fishwife.jrugged.control;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives an {@link AdaptiveConcurrencyLimiter} against a simulated
+ * backend in virtual time, with unlimited offered load. The backend
+ * serves {@link #CAPACITY} calls at once in {@link #SERVICE_NANOS}; any
+ * more share the servers, so latency grows in proportion to the calls in
+ * flight, and beyond {@link #DROP_ABOVE} calls it fails fast. Each test
+ * checks that the limit settles near capacity, that throughput over the
+ * last quarter of the run is close to the backend's maximum, and that
+ * latency stays bounded.
+ */
+public class TestAdaptiveConcurrencyLimiterSimulation {
+
+    private static final int CAPACITY = 20;
+    private static final long SERVICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int DROP_ABOVE = 4 * CAPACITY;
+    private static final int CALLS = 20000;
+
+    /* capacity / service time, in calls per nanosecond */
+    private static final double MAX_THROUGHPUT = (double) CAPACITY / SERVICE_NANOS;
+
+    private static class Result {
+        double throughput;
+        double meanLatencyNanos;
+        int finalLimit;
+
+        public String toString() {
+            return String.format("limit=%d throughput=%.2f of max, latency=%.2f x service",
+                    finalLimit, throughput / MAX_THROUGHPUT, meanLatencyNanos / SERVICE_NANOS);
+        }
+    }
+
+    private static Result simulate(AdaptiveConcurrencyLimiter limiter) {
+        PriorityQueue<long[]> pending = new PriorityQueue<long[]>(64, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long now = 0L;
+        long measureFrom = -1L;
+        long succeeded = 0L;
+        long latencyTotal = 0L;
+
+        for (int i = 0; i < CALLS; i++) {
+            int started;
+            while ((started = limiter.acquire()) > 0) {
+                boolean drop = started > DROP_ABOVE;
+                long rtt = drop
+                    ? SERVICE_NANOS / 10
+                    : SERVICE_NANOS * Math.max(CAPACITY, started) / CAPACITY;
+                pending.add(new long[] { now + rtt, rtt, started, drop ? 1 : 0 });
+            }
+
+            long[] next = pending.poll();
+            now = next[0];
+            limiter.release(next[1], (int) next[2], next[3] == 1);
+
+            if (i == CALLS * 3 / 4) {
+                measureFrom = now;
+            } else if (measureFrom >= 0 && next[3] == 0) {
+                succeeded++;
+                latencyTotal += next[1];
+            }
+        }
+
+        Result result = new Result();
+        result.throughput = (double) succeeded / (now - measureFrom);
+        result.meanLatencyNanos = (double) latencyTotal / succeeded;
+        result.finalLimit = limiter.getLimit();
+        return result;
+    }
+
+    @Test
+    public void testVegasConvergesFromBelow() {
+        Result r = simulate(new AdaptiveConcurrencyLimiter("vegas",
+                new VegasLimitAlgorithm(), 5, 1, 1000));
+
+        assertTrue(r.toString(), r.finalLimit >= CAPACITY && r.finalLimit <= CAPACITY + 8);
+        assertTrue(r.toString(), r.throughput >= 0.95 * MAX_THROUGHPUT);
+        assertTrue(r.toString(), r.meanLatencyNanos <= 1.5 * SERVICE_NANOS);
+    }
+
+    @Test
+    public void testGradientConvergesFromBelow() {
+        Result r = simulate(new AdaptiveConcurrencyLimiter("gradient",
+                new GradientLimitAlgorithm(), 5, 1, 1000));
+
+        assertTrue(r.toString(), r.finalLimit >= CAPACITY && r.finalLimit <= 3 * CAPACITY);
+        assertTrue(r.toString(), r.throughput >= 0.95 * MAX_THROUGHPUT);
+        assertTrue(r.toString(), r.meanLatencyNanos <= 2.5 * SERVICE_NANOS);
+    }
+
+    @Test
+    public void testAimdConvergesFromBelow() {
+        long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(3 * SERVICE_NANOS);
+        Result r = simulate(new AdaptiveConcurrencyLimiter("aimd",
+                new AimdLimitAlgorithm(0.9, timeoutMillis), 5, 1, 1000));
+
+        assertTrue(r.toString(), r.finalLimit >= CAPACITY && r.finalLimit <= DROP_ABOVE);
+        assertTrue(r.toString(), r.throughput >= 0.9 * MAX_THROUGHPUT);
+        assertTrue(r.toString(), r.meanLatencyNanos <= 3.5 * SERVICE_NANOS);
+    }
+
+    @Test
+    public void testAimdConvergesFromAboveOnDrops() {
+        Result r = simulate(new AdaptiveConcurrencyLimiter("aimd",
+                new AimdLimitAlgorithm(), 500, 1, 1000));
+
+        assertTrue(r.toString(), r.finalLimit <= DROP_ABOVE + DROP_ABOVE / 5);
+        assertTrue(r.toString(), r.throughput >= 0.9 * MAX_THROUGHPUT);
+    }
+}
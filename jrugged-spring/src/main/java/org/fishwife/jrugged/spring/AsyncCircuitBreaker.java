@@ -110,13 +110,12 @@ public class AsyncCircuitBreaker extends org.fishwife.jrugged.CircuitBreaker {
             }
         };
 
-        if (!byPass) {
+        if (!getByPassState()) {
             if (!allowRequest()) {
-                throw mapException(new CircuitBreakerException());
+                throw rejection();
             }
 
             try {
-                isAttemptLive = true;
                 callable.call().addCallback(callback);
                 return response;
             } catch (Throwable cause) {
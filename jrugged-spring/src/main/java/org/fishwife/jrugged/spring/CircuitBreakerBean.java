@@ -209,6 +209,100 @@ public class CircuitBreakerBean extends CircuitBreaker implements InitializingBe
         super.setResetMillis(l);
     }
 
+    /**
+     * Returns how many test requests are let through while the breaker
+     * is HALF_CLOSED.
+     *
+     * @return int
+     */
+    @ManagedAttribute
+    @Override
+    public int getHalfOpenPermits() {
+        return super.getHalfOpenPermits();
+    }
+
+    /**
+     * Sets how many test requests are let through once the cooldown
+     * period has passed.
+     *
+     * @param permits number of test requests
+     */
+    @ManagedAttribute
+    @Override
+    public void setHalfOpenPermits(int permits) {
+        super.setHalfOpenPermits(permits);
+    }
+
+    /**
+     * Returns how many of the HALF_CLOSED test requests must succeed
+     * before the breaker closes again.
+     *
+     * @return int
+     */
+    @ManagedAttribute
+    @Override
+    public int getHalfOpenSuccessThreshold() {
+        return super.getHalfOpenSuccessThreshold();
+    }
+
+    /**
+     * Sets how many of the HALF_CLOSED test requests must succeed
+     * before the breaker closes again.
+     *
+     * @param threshold number of successful test requests needed
+     */
+    @ManagedAttribute
+    @Override
+    public void setHalfOpenSuccessThreshold(int threshold) {
+        super.setHalfOpenSuccessThreshold(threshold);
+    }
+
+    /**
+     * Returns whether rejected calls receive a shared, stackless
+     * exception.
+     *
+     * @return boolean
+     */
+    @ManagedAttribute
+    @Override
+    public boolean isFastRejection() {
+        return super.isFastRejection();
+    }
+
+    /**
+     * Turns fast rejection of calls on or off.
+     *
+     * @param fastRejection <code>true</code> to reuse a stackless exception
+     */
+    @ManagedAttribute
+    @Override
+    public void setFastRejection(boolean fastRejection) {
+        super.setFastRejection(fastRejection);
+    }
+
+    /**
+     * Returns whether the breaker is still ramping traffic back up
+     * after closing.
+     *
+     * @return boolean
+     */
+    @ManagedAttribute
+    @Override
+    public boolean isWarmingUp() {
+        return super.isWarmingUp();
+    }
+
+    /**
+     * Returns the number of calls shed while warming up.
+     *
+     * @return long
+     */
+    @ManagedAttribute
+    @Override
+    public long getWarmUpShedCount() {
+        return super.getWarmUpShedCount();
+    }
+
     /**
      * Returns a {@link String} representation of the breaker's
      * status; potentially useful for exposing to monitoring software.
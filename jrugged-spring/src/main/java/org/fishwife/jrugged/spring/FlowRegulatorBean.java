@@ -16,10 +16,11 @@
  */
 package org.fishwife.jrugged.spring;
 
-import org.fishwife.jrugged.ConstantFlowRegulator;
+import org.fishwife.jrugged.TokenBucketFlowRegulator;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
 
-public class FlowRegulatorBean extends ConstantFlowRegulator {
+public class FlowRegulatorBean extends TokenBucketFlowRegulator {
     public FlowRegulatorBean() {
         super();
     }
@@ -41,4 +42,121 @@ public class FlowRegulatorBean extends ConstantFlowRegulator {
     public int getRequestPerSecondThreshold() {
         return super.getRequestPerSecondThreshold();
     }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void setFastRejection(boolean fastRejection) {
+        super.setFastRejection(fastRejection);
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isFastRejection() {
+        return super.isFastRejection();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        super.setRequestsPerSecond(requestsPerSecond);
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public double getRequestsPerSecond() {
+        return super.getRequestsPerSecond();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void setBurstSize(int burstSize) {
+        super.setBurstSize(burstSize);
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public int getBurstSize() {
+        return super.getBurstSize();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        super.setMaxWaitMillis(maxWaitMillis);
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxWaitMillis() {
+        return super.getMaxWaitMillis();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxWaiters(int maxWaiters) {
+        super.setMaxWaiters(maxWaiters);
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxWaiters() {
+        return super.getMaxWaiters();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public int getWaitingCount() {
+        return super.getWaitingCount();
+    }
+
+    @ManagedAttribute
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isWarmingUp() {
+        return super.isWarmingUp();
+    }
+
+    @ManagedOperation
+    @Override
+    /**
+     * {@inheritDoc}
+     */
+    public void startWarmUp() {
+        super.startWarmUp();
+    }
 }